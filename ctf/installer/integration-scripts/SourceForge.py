@@ -126,9 +126,45 @@ def getSOAPClient(serviceName = 'ScmListener', soapVer = ''):
     
     # Create the client with proxy and location options    
     # We need to override the location from the WSDL which reports localhost
-    scm = Client(SOAPServiceUrl + '?wsdl', location=SOAPServiceUrl, proxy=proxyDict)                                       
+    # Every call carries the trace context of this script, see getTraceHeaders()
+    scm = Client(SOAPServiceUrl + '?wsdl', location=SOAPServiceUrl, proxy=proxyDict, headers=getTraceHeaders())
     return scm.service
 
+# W3C trace context headers of this script run, see getTraceHeaders()
+_traceHeaders = None
+
+def getTraceHeaders():
+    """Return the W3C trace context HTTP headers to send on SOAP callbacks.
+
+    When the script was run directly by a command of the integration server, TRACEPARENT and TRACESTATE hold the
+    context of that command and the callbacks join its trace as children of the command's span. Otherwise, as for
+    Subversion hooks, which run with an empty environment, a new trace is started, so that all the callbacks of this
+    script run are still tied together."""
+    global _traceHeaders
+    if _traceHeaders is None:
+        traceId = None
+        parentId = None
+        flags = '01'
+        fields = os.environ.get('TRACEPARENT', '').strip().lower().split('-')
+        if len(fields) == 4 and len(fields[1]) == 32 and len(fields[2]) == 16 and len(fields[3]) == 2:
+            try:
+                if int(fields[1], 16) != 0 and int(fields[2], 16) != 0:
+                    int(fields[3], 16)
+                    traceId = fields[1]
+                    parentId = fields[2]
+                    flags = fields[3]
+            except ValueError:
+                pass
+        joined = traceId is not None
+        if not joined:
+            traceId = '%032x' % (random.getrandbits(128) or 1)
+            parentId = '%016x' % (random.getrandbits(64) or 1)
+        _traceHeaders = {'traceparent': '00-%s-%s-%s' % (traceId, parentId, flags)}
+        traceState = os.environ.get('TRACESTATE', '').strip()
+        if joined and traceState:
+            _traceHeaders['tracestate'] = traceState
+    return _traceHeaders
+
 def getSOAPServiceUrl(serviceName, soapVer = ''):
     proto = ["http", "https"] [getBoolean("sfmain.integration.listener_ssl", "false")]
     host = getRequired('sfmain.integration.listener_host')
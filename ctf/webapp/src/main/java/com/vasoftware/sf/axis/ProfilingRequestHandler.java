@@ -9,7 +9,9 @@ import org.apache.axis.AxisFault;
 import org.apache.axis.MessageContext;
 import org.apache.axis.handlers.BasicHandler;
 
+import com.vasoftware.sf.common.profiler.SoapMetrics;
 import com.vasoftware.sf.common.profiler.SoapRecord;
+import com.vasoftware.sf.common.profiler.SoapTracer;
 
 /**
  * The <code>ProfilingResponseHandler</code> adds support for profiling Axis responses.
@@ -25,6 +27,8 @@ public class ProfilingRequestHandler extends BasicHandler {
      *             Never thrown.
      */
     public void invoke(final MessageContext messageContext) throws AxisFault {
+        SoapMetrics.requestStarted(messageContext);
+        SoapTracer.requestStarted(messageContext);
         SoapRecord.start(messageContext);
     }
 
@@ -33,6 +37,8 @@ public class ProfilingRequestHandler extends BasicHandler {
      */
     @Override
     public void onFault(final MessageContext messageContext) {
+        SoapMetrics.requestEnded(true, messageContext);
+        SoapTracer.requestEnded(true, messageContext);
         SoapRecord.end(true, messageContext);
     }
 }
@@ -9,7 +9,9 @@ import org.apache.axis.AxisFault;
 import org.apache.axis.MessageContext;
 import org.apache.axis.handlers.BasicHandler;
 
+import com.vasoftware.sf.common.profiler.SoapMetrics;
 import com.vasoftware.sf.common.profiler.SoapRecord;
+import com.vasoftware.sf.common.profiler.SoapTracer;
 
 /**
  * The <code>ProfilingResponseHandler</code> adds support for profiling Axis responses.
@@ -20,6 +22,8 @@ public class ProfilingResponseHandler extends BasicHandler {
      * @see BasicHandler#invoke(MessageContext)
      */
     public void invoke(final MessageContext messageContext) throws AxisFault {
+        SoapMetrics.requestEnded(false, messageContext);
+        SoapTracer.requestEnded(false, messageContext);
         SoapRecord.end(false, messageContext);
     }
 }
@@ -10,6 +10,15 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.rmi.RemoteException;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 import javax.xml.rpc.ServiceException;
@@ -19,21 +28,43 @@ import org.apache.axis.client.Call;
 import org.apache.axis.client.Service;
 import org.apache.axis.configuration.BasicClientConfig;
 
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+
 /**
  * The <code>SoapClientHelper</code> class provides helper methods for SOAP.
+ *
+ * The Axis service and the operation names of a service URL are created once and shared by all the helpers for that
+ * URL. Calls time out after <code>sfmain.integration.soap_client.timeout_ms</code> unless another timeout is given,
+ * and {@link #invokeAsync(String, Object[])} runs calls on a pool of at most
+ * <code>sfmain.integration.soap_client.threads</code> threads, which also bounds the number of connections opened by
+ * asynchronous calls.
  */
 public class SoapClientHelper {
-    /* The SOAP service url */
-    private final URL mServiceUrl;
+    /* The default timeout, in milliseconds */
+    public static final int DEFAULT_TIMEOUT_MS = 120000;
 
-    /* The SOAP service name */
-    private final String mServiceName;
+    /* The default number of threads running asynchronous calls */
+    public static final int DEFAULT_THREADS = 4;
 
-    /* The SOAP service handle */
-    private final Service mService;
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    /* The endpoints, by service URL */
+    private static final ConcurrentMap<String, Endpoint> smEndpoints = new ConcurrentHashMap<String, Endpoint>();
 
     /* The timeout duration */
-    private static final Integer DEFAULT_TIMEOUT = new Integer(Integer.MAX_VALUE);
+    private static final Integer DEFAULT_TIMEOUT =
+        Integer.valueOf(SfGlobalOptionsManager.getOptions()
+                        .getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SOAP_CLIENT_TIMEOUT_MS, DEFAULT_TIMEOUT_MS));
+
+    /* The pool running the asynchronous calls */
+    private static ThreadPoolExecutor smExecutor;
+
+    /* The SOAP service url */
+    private final URL mServiceUrl;
+
+    /* The SOAP service endpoint */
+    private final Endpoint mEndpoint;
 
     /**
      * Constructor with information on the remote SOAP service URL.
@@ -45,26 +76,16 @@ public class SoapClientHelper {
      */
     public SoapClientHelper(final String serviceUrl) throws MalformedURLException {
         mServiceUrl = new URL(serviceUrl);
-        final StringTokenizer urlTokens = new StringTokenizer(serviceUrl, "/");
-        String urlToken = null;
-        while (urlTokens.hasMoreTokens()) {
-            urlToken = urlTokens.nextToken();
-        }
-        mServiceName = urlToken;
-        if (mServiceName == null) {
-            throw new MalformedURLException(serviceUrl);
-        }
 
-        final EngineConfiguration config = new BasicClientConfig();
-
-        /**
-         * Uncomment below to allow SSL connections to untrusted servers
-         * 
-         * AxisProperties.setProperty("org.apache.axis.components.net.SecureSocketFactory",
-         * "org.apache.axis.components.net.SunFakeTrustSocketFactory");
-         */
-
-        mService = new Service(config);
+        Endpoint endpoint = smEndpoints.get(serviceUrl);
+        if (endpoint == null) {
+            final Endpoint newEndpoint = new Endpoint(serviceUrl);
+            endpoint = smEndpoints.putIfAbsent(serviceUrl, newEndpoint);
+            if (endpoint == null) {
+                endpoint = newEndpoint;
+            }
+        }
+        mEndpoint = endpoint;
     }
 
     /**
@@ -102,11 +123,11 @@ public class SoapClientHelper {
     public Object invoke(final String methodName, final Object params[], final Integer timeout)
                                                                                                throws ServiceException,
                                                                                                RemoteException {
-        final Call call = (Call) mService.createCall();
+        final Call call = (Call) mEndpoint.mService.createCall();
 
         call.setTimeout(timeout);
         call.setTargetEndpointAddress(mServiceUrl);
-        call.setOperationName(new QName(mServiceName, methodName));
+        call.setOperationName(mEndpoint.getOperationName(methodName));
 
         // Uncomment code below to get full stacktrace of what happens during Axis call
         // try {
@@ -117,4 +138,110 @@ public class SoapClientHelper {
         // throw e;
         // }
     }
+
+    /**
+     * Invokes a service method with the specified parameters in the background, so independent calls can overlap.
+     *
+     * @param methodName
+     *            Service method name.
+     * @param params
+     *            Service method parameters.
+     * @return The future return value from the SOAP service call; its get() method throws an ExecutionException
+     *         wrapping the ServiceException or RemoteException of the call.
+     */
+    public Future<Object> invokeAsync(final String methodName, final Object params[]) {
+        return getExecutor().submit(new Callable<Object>() {
+            public Object call() throws ServiceException, RemoteException {
+                return invoke(methodName, params);
+            }
+        });
+    }
+
+    /**
+     * Get the pool running the asynchronous calls.
+     *
+     * @return the pool
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (smExecutor == null) {
+            final int threads = Math.max(1, SfGlobalOptionsManager.getOptions()
+                                                .getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SOAP_CLIENT_THREADS,
+                                                              DEFAULT_THREADS));
+            final AtomicInteger threadNumber = new AtomicInteger();
+            smExecutor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                                                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                                                    public Thread newThread(final Runnable runnable) {
+                                                        final Thread thread = new Thread(runnable, "soap-client-"
+                                                                + threadNumber.incrementAndGet());
+                                                        thread.setDaemon(true);
+                                                        return thread;
+                                                    }
+                                                });
+            smExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        return smExecutor;
+    }
+
+    /**
+     * The Axis service of a service URL and the names of the operations called on it.
+     */
+    private static class Endpoint {
+        /* The SOAP service name */
+        private final String mServiceName;
+
+        /* The SOAP service handle */
+        private final Service mService;
+
+        /* The operation names, by method name */
+        private final ConcurrentMap<String, QName> mOperationNames = new ConcurrentHashMap<String, QName>();
+
+        /**
+         * Constructor.
+         *
+         * @param serviceUrl
+         *            SOAP service URL.
+         * @throws MalformedURLException
+         *             Thrown when the URL has no service name.
+         */
+        Endpoint(final String serviceUrl) throws MalformedURLException {
+            final StringTokenizer urlTokens = new StringTokenizer(serviceUrl, "/");
+            String urlToken = null;
+            while (urlTokens.hasMoreTokens()) {
+                urlToken = urlTokens.nextToken();
+            }
+            mServiceName = urlToken;
+            if (mServiceName == null) {
+                throw new MalformedURLException(serviceUrl);
+            }
+
+            final EngineConfiguration config = new BasicClientConfig();
+
+            /**
+             * Uncomment below to allow SSL connections to untrusted servers
+             * 
+             * AxisProperties.setProperty("org.apache.axis.components.net.SecureSocketFactory",
+             * "org.apache.axis.components.net.SunFakeTrustSocketFactory");
+             */
+
+            mService = new Service(config);
+        }
+
+        /**
+         * Get the operation name of a method.
+         *
+         * @param methodName
+         *            Service method name.
+         * @return the qualified operation name
+         */
+        QName getOperationName(final String methodName) {
+            QName operationName = mOperationNames.get(methodName);
+            if (operationName == null) {
+                operationName = new QName(mServiceName, methodName);
+                mOperationNames.put(methodName, operationName);
+            }
+
+            return operationName;
+        }
+    }
 }
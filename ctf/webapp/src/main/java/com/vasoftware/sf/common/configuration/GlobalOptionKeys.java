@@ -49,6 +49,33 @@ public class GlobalOptionKeys {
     public static final String SFMAIN_INTEGRATION_EXECUTABLES_SUBVERSION_LOOK = "sfmain.integration.executables.subversion_look";
     public static final String SFMAIN_INTEGRATION_EXECUTABLES_PYTHON = "sfmain.integration.executables.python";
 
+    /* Integration process I/O related keys */
+    public static final String SFMAIN_INTEGRATION_PROCESS_IO_THREADS = "sfmain.integration.process.io_threads";
+    public static final String SFMAIN_INTEGRATION_PROCESS_OUTPUT_LIMIT = "sfmain.integration.process.output_limit";
+    public static final String SFMAIN_INTEGRATION_PROCESS_SLOW_COMMAND_MS = "sfmain.integration.process.slow_command_ms";
+
+    /* Integration blackduck analysis related keys */
+    public static final String SFMAIN_INTEGRATION_BLACKDUCK_MAX_ANALYSES = "sfmain.integration.blackduck.max_analyses";
+    public static final String SFMAIN_INTEGRATION_BLACKDUCK_MAX_ANALYSES_PER_HOST = "sfmain.integration.blackduck.max_analyses_per_host";
+    public static final String SFMAIN_INTEGRATION_BLACKDUCK_SOURCE_CACHE_MB = "sfmain.integration.blackduck.source_cache_mb";
+
+    /* Integration repository job related keys */
+    public static final String SFMAIN_INTEGRATION_SCM_JOB_THREADS = "sfmain.integration.scm_jobs.threads";
+    public static final String SFMAIN_INTEGRATION_SCM_JOB_QUEUE_LIMIT = "sfmain.integration.scm_jobs.queue_limit";
+    public static final String SFMAIN_INTEGRATION_SCM_JOB_RETENTION = "sfmain.integration.scm_jobs.retention_hours";
+
+    /* Integration tracing related keys */
+    public static final String SFMAIN_INTEGRATION_TRACING_EXPORTER = "sfmain.integration.tracing.exporter";
+    public static final String SFMAIN_INTEGRATION_TRACING_FILE = "sfmain.integration.tracing.file";
+    public static final String SFMAIN_INTEGRATION_TRACING_OTLP_ENDPOINT = "sfmain.integration.tracing.otlp_endpoint";
+
+    /* Integration metrics related keys */
+    public static final String SFMAIN_INTEGRATION_METRICS_TOKEN = "sfmain.integration.metrics.token";
+
+    /* Integration soap client related keys */
+    public static final String SFMAIN_INTEGRATION_SOAP_CLIENT_TIMEOUT_MS = "sfmain.integration.soap_client.timeout_ms";
+    public static final String SFMAIN_INTEGRATION_SOAP_CLIENT_THREADS = "sfmain.integration.soap_client.threads";
+
     /* Integration listener related keys */
     public static final String SFMAIN_INTEGRATION_LISTENER_HOST = "sfmain.integration.listener_host";
     public static final String SFMAIN_INTEGRATION_LISTENER_PORT = "sfmain.integration.listener_port";
@@ -58,7 +85,9 @@ public class GlobalOptionKeys {
     public static final String SFMAIN_INTEGRATION_REPOSITORY_ARCHIVE_ROOT = "sfmain.integration.repository-archive";
     public static final String SFMAIN_INTEGRATION_SCRIPTS_ROOT = "sfmain.integration.scripts-root";
     public static final String SFMAIN_INTEGRATION_SECURITY_CHECK_TIMESTAMP = "sfmain.integration.security.check_timestamp";
+    public static final String SFMAIN_INTEGRATION_SECURITY_KEY_REUSE_SECONDS = "sfmain.integration.security.key_reuse_seconds";
     public static final String SFMAIN_INTEGRATION_SECURITY_SHARED_SECRET = "sfmain.integration.security.shared_secret";
+    public static final String SFMAIN_INTEGRATION_SUBVERSION_ARCHIVE_MODE = "sfmain.integration.subversion.archive_mode";
     public static final String SFMAIN_INTEGRATION_SUBVERSION_FS_TYPE = "sfmain.integration.subversion.fstype";
     public static final String SFMAIN_INTEGRATION_USER_GROUP = "sfmain.integration.user_group";
     public static final String SFMAIN_INTEGRATION_USER_HOME_DIRECTORY = "sfmain.integration.user_home";
@@ -74,6 +103,7 @@ public class GlobalOptionKeys {
     /* Perforce related keys */
     public static final String PERFORCE_PORT = "sfmain.integration.perforce.port";
     public static final String SFMAIN_PERFORCE_CLIENT = "sfmain.integration.executables.perforce";
+    public static final String SFMAIN_PERFORCE_FORM_CACHE_TTL = "sfmain.integration.perforce.form_cache_ttl";
 
     /* SSH tunnel related keys */
     public static final String TUNNEL_USER_KEY = "tunnel.user";
@@ -84,6 +114,9 @@ public class GlobalOptionKeys {
     /* WANDisco related keys */
     public static final String SFMAIN_WANDISCO_CVS_PREFIX = "sfmain.integration.wandisco.cvs";
     public static final String SFMAIN_WANDISCO_SUBVERSION_PREFIX = "sfmain.integration.wandisco.subversion";
+    public static final String SFMAIN_WANDISCO_TIMEOUT_MS = "sfmain.integration.wandisco.timeout_ms";
+    public static final String SFMAIN_WANDISCO_PROVISIONING_THREADS =
+        "sfmain.integration.wandisco.provisioning_threads";
 
     /** Key to specify the Display Timezone */
     public static final String DISPLAY_TIMEZONE = "ctf.displayTimezone";
@@ -8,10 +8,14 @@ package com.vasoftware.sf.common.configuration;
 
 import java.util.Properties;
 
+import com.vasoftware.sf.common.logger.Logger;
+
 /**
  * The <code>SfGlobalOptions</code> class provides access to CollabNet TeamForge global options.
  */
 public class SfGlobalOptions {
+    private static final Logger smLogger = Logger.getLogger(SfGlobalOptions.class);
+
     /* A static singleton style property map. */
     private static Properties smConfigProperties = null;
 
@@ -39,6 +43,35 @@ public class SfGlobalOptions {
         return smConfigProperties.getProperty(optionKey);
     }
 
+    /**
+     * Retrieve a non negative integer option. Returns the default if the option doesn't exist, is empty or is not a non
+     * negative integer; the latter is logged.
+     * 
+     * @param optionKey
+     *            the name of the option to look up.
+     * @param defaultValue
+     *            the value to use when the option is not usable.
+     * @return The value of the option.
+     */
+    public int getIntOption(final String optionKey, final int defaultValue) {
+        final String value = getOption(optionKey);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+
+        try {
+            final int intValue = Integer.parseInt(value.trim());
+            if (intValue >= 0) {
+                return intValue;
+            }
+        } catch (final NumberFormatException e) {
+            // logged below
+        }
+
+        smLogger.warn("Invalid value for " + optionKey + ": " + value + ", using " + defaultValue);
+        return defaultValue;
+    }
+
     /**
      * package protected method which sets the properties map
      * 
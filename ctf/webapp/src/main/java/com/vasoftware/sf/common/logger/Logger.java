@@ -29,6 +29,9 @@ public class Logger {
     /* Key under which to set the current profile object root ancestor log id in the logging context. */
     public static final String PROFILE_ROOT_ANCESTOR_KEY = "ProfileRoot";
 
+    /* Key under which to set the W3C trace id of the current soap request in the logging context. */
+    public static final String TRACE_ID_KEY = "TraceId";
+
     /**
      * Private constructor to prevent public one from being created automatically; consumers should only use the static
      * factory methods. Its signature may change if we wrap a different package.
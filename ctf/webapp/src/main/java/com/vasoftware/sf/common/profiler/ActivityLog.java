@@ -0,0 +1,107 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free ring buffer holding the last records added to it, used by the profilers to keep their activity logs.
+ *
+ * Every record gets a sequence number when it is added and is stored in the slot for that number, overwriting the
+ * record which was added one capacity earlier. Neither adding nor reading ever blocks: a snapshot only contains the
+ * records whose slot still holds the sequence number it expects, in the order they were added, so it never contains a
+ * record twice or out of order even while records are being added.
+ *
+ * @param <T>
+ *            the type of the records
+ */
+public class ActivityLog<T> {
+    private final int mCapacity;
+    private final AtomicReferenceArray<Entry<T>> mSlots;
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final AtomicLong mClearedSequence = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            the number of records kept
+     */
+    public ActivityLog(final int capacity) {
+        mCapacity = capacity;
+        mSlots = new AtomicReferenceArray<Entry<T>>(capacity);
+    }
+
+    /**
+     * Add a record, dropping the oldest one if the log is full.
+     *
+     * @param record
+     *            the record
+     */
+    public void add(final T record) {
+        final long sequence = mNextSequence.getAndIncrement();
+        mSlots.set((int) (sequence % mCapacity), new Entry<T>(sequence, record));
+    }
+
+    /**
+     * Get the records currently in the log, oldest first. Records still being added by other threads may be missing.
+     *
+     * @return a new list holding the records
+     */
+    public List<T> snapshot() {
+        final long end = mNextSequence.get();
+        final long start = Math.max(mClearedSequence.get(), end - mCapacity);
+
+        final List<T> records = new ArrayList<T>((int) Math.max(0, end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            final Entry<T> entry = mSlots.get((int) (sequence % mCapacity));
+            if (entry != null && entry.mSequence == sequence) {
+                records.add(entry.mRecord);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Drop all records added so far. Records are not released until they are overwritten.
+     */
+    public void clear() {
+        final long end = mNextSequence.get();
+        long cleared = mClearedSequence.get();
+        while (cleared < end && !mClearedSequence.compareAndSet(cleared, end)) {
+            cleared = mClearedSequence.get();
+        }
+    }
+
+    /**
+     * A record and its sequence number.
+     *
+     * @param <T>
+     *            the type of the record
+     */
+    private static class Entry<T> {
+        private final long mSequence;
+        private final T mRecord;
+
+        /**
+         * Constructor.
+         *
+         * @param sequence
+         *            the sequence number
+         * @param record
+         *            the record
+         */
+        Entry(final long sequence, final T record) {
+            mSequence = sequence;
+            mRecord = record;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with log-linear buckets in the manner of HdrHistogram. Every power of two of
+ * microseconds is split into a fixed number of linear sub-buckets, so any recorded value is known within 1/8th of its
+ * magnitude, from one microsecond up to days, with a fixed and small memory footprint. Recording a value is a few
+ * arithmetic operations and one atomic increment.
+ */
+public class LatencyHistogram {
+    /* Sub-buckets per power of two, as a power of two */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /* Values up to 2^MAX_BITS microseconds, about 19 hours, get their own bucket */
+    private static final int MAX_BITS = 36;
+    private static final int BUCKET_COUNT = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param micros
+     *            the latency in microseconds
+     */
+    public void record(final long micros) {
+        final long value = Math.max(0, micros);
+        mCounts.incrementAndGet(getBucketIndex(value));
+        mTotalCount.incrementAndGet();
+        mTotalMicros.addAndGet(value);
+
+        long max = mMaxMicros.get();
+        while (value > max && !mMaxMicros.compareAndSet(max, value)) {
+            max = mMaxMicros.get();
+        }
+    }
+
+    /**
+     * Take a copy of the histogram. Counters are read one at a time without stopping writers, so the copy may be off
+     * by the values recorded while it was taken.
+     *
+     * @return the copy
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long totalCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            totalCount += counts[i];
+        }
+
+        return new Snapshot(counts, totalCount, mTotalMicros.get(), mMaxMicros.get());
+    }
+
+    /**
+     * Get the bucket of a value.
+     *
+     * @param value
+     *            the value in microseconds
+     * @return the bucket index
+     */
+    private static int getBucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return Math.min(BUCKET_COUNT - 1, (shift + 1) * SUB_BUCKET_COUNT + subBucket);
+    }
+
+    /**
+     * Get the highest value which falls in a bucket.
+     *
+     * @param index
+     *            the bucket index
+     * @return the upper bound of the bucket in microseconds, inclusive
+     */
+    static long getBucketUpperBound(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Format a latency for reports.
+     *
+     * @param micros
+     *            a duration in microseconds
+     * @return the duration in milliseconds
+     */
+    public static String toMillis(final long micros) {
+        return Double.toString(micros / 1000.0);
+    }
+
+    /**
+     * A point in time copy of a histogram.
+     */
+    public static class Snapshot {
+        private final long[] mCounts;
+        private final long mTotalCount;
+        private final long mTotalMicros;
+        private final long mMaxMicros;
+
+        /**
+         * Constructor.
+         *
+         * @param counts
+         *            the bucket counts
+         * @param totalCount
+         *            the number of values
+         * @param totalMicros
+         *            the sum of the values
+         * @param maxMicros
+         *            the highest value
+         */
+        Snapshot(final long[] counts, final long totalCount, final long totalMicros, final long maxMicros) {
+            mCounts = counts;
+            mTotalCount = totalCount;
+            mTotalMicros = totalMicros;
+            mMaxMicros = maxMicros;
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return mTotalCount;
+        }
+
+        /**
+         * @return the sum of the recorded values in microseconds
+         */
+        public long getTotalMicros() {
+            return mTotalMicros;
+        }
+
+        /**
+         * @return the highest recorded value in microseconds
+         */
+        public long getMaxMicros() {
+            return mMaxMicros;
+        }
+
+        /**
+         * Get the value below which a given share of the recorded values falls.
+         *
+         * @param percentile
+         *            the percentile, between 0 and 100
+         * @return the upper bound of the bucket holding the percentile in microseconds, capped at the highest value
+         */
+        public long getPercentileMicros(final double percentile) {
+            if (mTotalCount == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(getBucketUpperBound(i), mMaxMicros);
+                }
+            }
+
+            return mMaxMicros;
+        }
+
+        /**
+         * Get the number of recorded values up to a bound, for cumulative histogram exports.
+         *
+         * @param micros
+         *            the bound in microseconds
+         * @return the number of values in the buckets whose upper bound is not above the bound
+         */
+        public long getCountAtOrBelow(final long micros) {
+            long count = 0;
+            for (int i = 0; i < mCounts.length && getBucketUpperBound(i) <= micros; i++) {
+                count += mCounts[i];
+            }
+
+            return count;
+        }
+    }
+}
@@ -8,13 +8,18 @@ package com.vasoftware.sf.common.profiler;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Simple container that records interesting information about each page hit.
+ * Simple container that records interesting information about each page hit. The registry of records is lock-free: the
+ * active page count is an atomic counter, the activity log a ring buffer and the active profiles a concurrent set, so
+ * that page requests never wait on each other or on a reader.
  */
 @SuppressWarnings("unchecked")
 public class PageRecord {
@@ -26,11 +31,7 @@ public class PageRecord {
     /**
      * a count of how many pages are currently being actively processed
      */
-    private static int smCurrentActivePageCount = 0;
-    /**
-     * Synchronization lock for the counter.
-     */
-    private static Object smCounterLock = new Object();
+    private static final AtomicInteger smCurrentActivePageCount = new AtomicInteger();
 
     /**
      * Date format.
@@ -41,8 +42,10 @@ public class PageRecord {
      * Session activity records.
      */
     private static final int MAX_ACTVITY_LOG_COUNT = 1000;
-    private static LinkedList smActivityRecords = new LinkedList();
-    private static LinkedList smActivePageProfiles = new LinkedList();
+    private static final ActivityLog<PageRecord> smActivityRecords =
+        new ActivityLog<PageRecord>(MAX_ACTVITY_LOG_COUNT);
+    private static final Set<PageProfile> smActivePageProfiles =
+        Collections.newSetFromMap(new ConcurrentHashMap<PageProfile, Boolean>());
     private static final boolean smIsDevelopmentEnvironment = initIsDevelopmentEnvironment();
 
     private int mStartPageCount;
@@ -66,21 +69,13 @@ public class PageRecord {
     public PageRecord(final String uri, final String sessionId, final String username, final String userAgent) {
         mPageProfile = new PageProfile(uri, sessionId, username, userAgent);
 
-        synchronized (smCounterLock) {
-            smActivePageProfiles.add(mPageProfile);
-            if (PAGE_RECORD.get() == null) {
-                PAGE_RECORD.set(this);
-
-                smActivityRecords.add(this);
-
-                if (smActivityRecords.size() > MAX_ACTVITY_LOG_COUNT) {
-                    smActivityRecords.removeFirst();
-                }
-
-                ++smCurrentActivePageCount;
-            }
-
-            mStartPageCount = smCurrentActivePageCount;
+        smActivePageProfiles.add(mPageProfile);
+        if (PAGE_RECORD.get() == null) {
+            PAGE_RECORD.set(this);
+            smActivityRecords.add(this);
+            mStartPageCount = smCurrentActivePageCount.incrementAndGet();
+        } else {
+            mStartPageCount = smCurrentActivePageCount.get();
         }
 
         mPageProfile.setStartingActivePageRequests(mStartPageCount);
@@ -97,22 +92,18 @@ public class PageRecord {
      *            Is error encountered in processing request?
      */
     public void endPage(final String sessionId, final String username, final boolean exception) {
-        synchronized (smCounterLock) {
-            smActivePageProfiles.remove(mPageProfile);
-        }
+        smActivePageProfiles.remove(mPageProfile);
 
         if (!mPageProfile.end(sessionId, username, exception)) {
             return;
         }
 
         final PageRecord currentPage = (PageRecord) PAGE_RECORD.get();
-        synchronized (smCounterLock) {
-            mEndPageCount = smCurrentActivePageCount;
-
-            if (currentPage != null && currentPage.getId() == getId()) {
-                PAGE_RECORD.set(null);
-                smCurrentActivePageCount--;
-            }
+        if (currentPage != null && currentPage.getId() == getId()) {
+            PAGE_RECORD.set(null);
+            mEndPageCount = smCurrentActivePageCount.getAndDecrement();
+        } else {
+            mEndPageCount = smCurrentActivePageCount.get();
         }
 
         mPageProfile.setEndingActivePageRequests(mEndPageCount);
@@ -312,11 +303,8 @@ public class PageRecord {
      */
     public static String getPageActivityXmlRepresentation() {
         final StringBuffer xmlBuffer = new StringBuffer(ProfileObject.getXmlRepresentationStartTag()).append("\n");
-        synchronized (smCounterLock) {
-            for (final Iterator iterator = smActivityRecords.iterator(); iterator.hasNext();) {
-                final PageRecord pageRecord = (PageRecord) iterator.next();
-                pageRecord.getPageProfile().appendXmlRepresentation(xmlBuffer);
-            }
+        for (final PageRecord pageRecord : smActivityRecords.snapshot()) {
+            pageRecord.getPageProfile().appendXmlRepresentation(xmlBuffer);
         }
         xmlBuffer.append(ProfileObject.getXmlRepresentationEndTag()).append("\n");
 
@@ -329,9 +317,7 @@ public class PageRecord {
      * @return Page activity record list.
      */
     public static List getPageActivityList() {
-        synchronized (smCounterLock) {
-            return new ArrayList(smActivityRecords);
-        }
+        return smActivityRecords.snapshot();
     }
 
     /**
@@ -340,18 +326,14 @@ public class PageRecord {
      * @return active page count.
      */
     public static int getActivePageCount() {
-        synchronized (smCounterLock) {
-            return smCurrentActivePageCount;
-        }
+        return smCurrentActivePageCount.get();
     }
 
     /**
      * Clears all activity logs.
      */
     public static void clearPageRecords() {
-        synchronized (smCounterLock) {
-            smActivityRecords.clear();
-        }
+        smActivityRecords.clear();
     }
 
     /**
@@ -371,11 +353,16 @@ public class PageRecord {
     /**
      * Returns the currently active page profiles.
      * 
-     * @return List of currently active page profiles.
+     * @return List of currently active page profiles, oldest first.
      */
     public static List getActivePageProfiles() {
-        synchronized (smCounterLock) {
-            return new ArrayList(smActivePageProfiles);
-        }
+        final List<PageProfile> activePageProfiles = new ArrayList<PageProfile>(smActivePageProfiles);
+        Collections.sort(activePageProfiles, new Comparator<PageProfile>() {
+            public int compare(final PageProfile first, final PageProfile second) {
+                return first.getId() < second.getId() ? -1 : (first.getId() == second.getId() ? 0 : 1);
+            }
+        });
+
+        return activePageProfiles;
     }
 }
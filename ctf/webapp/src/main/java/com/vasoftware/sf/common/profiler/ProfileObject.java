@@ -9,10 +9,13 @@ package com.vasoftware.sf.common.profiler;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.MDC;
 
@@ -21,19 +24,26 @@ import com.vasoftware.sf.common.util.StringUtil;
 
 /**
  * This is the base object that is used for profiling various system events like method calls and query executions.
+ *
+ * Besides the wall clock time, each profile object records the bytes allocated and the CPU time used by its thread
+ * while it was active, where the JVM can measure them. As the children of a profile object always run nested in it on
+ * the same thread, these numbers include the children; the "self" numbers exclude them.
  */
 @SuppressWarnings("unchecked")
 public abstract class ProfileObject {
     private static final ThreadLocal CURRENT_PARENT = new ThreadLocal();
-    private static final Object LOCK = new Object();
+    private static final AtomicLong smCounter = new AtomicLong();
 
-    private static long smCounter = 0;
+    /** Measures the CPU time of the current thread, null if the JVM can not */
+    private static final ThreadMXBean smCpuTimeBean = initCpuTimeBean();
+    /** Measures the bytes allocated by the current thread, null if the JVM can not */
+    private static final com.sun.management.ThreadMXBean smAllocationBean = initAllocationBean();
 
     private final long mPageId = PageRecord.getPageRecord() != null ? PageRecord.getPageRecord().getId() : -1;
     private final ProfileObject mParent;
     private List mChildren;
 
-    private long mId;
+    private final long mId;
     private final String mThreadName;
     private final long mStartTime;
     private long mEndTime;
@@ -46,6 +56,11 @@ public abstract class ProfileObject {
     private long mEndingAllocatedMemory;
     private long mEndingMemoryUse;
 
+    private final long mStartingThreadAllocatedBytes;
+    private final long mStartingThreadCpuTime;
+    private long mEndingThreadAllocatedBytes;
+    private long mEndingThreadCpuTime;
+
     private boolean mIsComplete = false;
 
     /** These members are used to track whether a profile object should be written out upon completion. */
@@ -68,9 +83,7 @@ public abstract class ProfileObject {
      * Constructor for a profile object that initializes a unique id and the start time.
      */
     public ProfileObject() {
-        synchronized (LOCK) {
-            mId = ++smCounter;
-        }
+        mId = smCounter.incrementAndGet();
 
         mThreadName = Thread.currentThread().getName();
         mParent = (ProfileObject) CURRENT_PARENT.get();
@@ -86,6 +99,8 @@ public abstract class ProfileObject {
 
         mStartingAllocatedMemory = Runtime.getRuntime().totalMemory();
         mStartingMemoryUse = mStartingAllocatedMemory - Runtime.getRuntime().freeMemory();
+        mStartingThreadAllocatedBytes = getThreadAllocatedBytes();
+        mStartingThreadCpuTime = getThreadCpuTime();
         mStartTime = System.currentTimeMillis();
 
         // See if the parent is null, if so, make this the root for all log messages
@@ -122,6 +137,8 @@ public abstract class ProfileObject {
         mEndTime = System.currentTimeMillis();
         mEndingAllocatedMemory = Runtime.getRuntime().totalMemory();
         mEndingMemoryUse = mEndingAllocatedMemory - Runtime.getRuntime().freeMemory();
+        mEndingThreadAllocatedBytes = getThreadAllocatedBytes();
+        mEndingThreadCpuTime = getThreadCpuTime();
         CURRENT_PARENT.set(mParent);
 
         mIsComplete = true;
@@ -249,6 +266,83 @@ public abstract class ProfileObject {
         return Math.round(((double) (mEndingMemoryUse - mStartingMemoryUse)) / 10) / (double) 100;
     }
 
+    /**
+     * Get the number of bytes allocated by the thread during the profiled event, including its children.
+     * 
+     * @return The allocated bytes, or -1 if they were not measured or the event has not completed.
+     */
+    public long getAllocatedBytes() {
+        return getThreadMeasurement(mStartingThreadAllocatedBytes, mEndingThreadAllocatedBytes);
+    }
+
+    /**
+     * Get the number of bytes allocated by the thread during the profiled event, excluding its children.
+     * 
+     * @return The allocated bytes, or -1 if they were not measured or the event has not completed.
+     */
+    public long getSelfAllocatedBytes() {
+        final long allocatedBytes = getAllocatedBytes();
+        if (allocatedBytes < 0) {
+            return -1;
+        }
+
+        long childAllocatedBytes = 0;
+        if (mChildren != null) {
+            for (final Object child : mChildren) {
+                childAllocatedBytes += Math.max(0, ((ProfileObject) child).getAllocatedBytes());
+            }
+        }
+
+        return Math.max(0, allocatedBytes - childAllocatedBytes);
+    }
+
+    /**
+     * Get the CPU time used by the thread during the profiled event, including its children.
+     * 
+     * @return The CPU time in nanoseconds, or -1 if it was not measured or the event has not completed.
+     */
+    public long getCpuTime() {
+        return getThreadMeasurement(mStartingThreadCpuTime, mEndingThreadCpuTime);
+    }
+
+    /**
+     * Get the CPU time used by the thread during the profiled event, excluding its children.
+     * 
+     * @return The CPU time in nanoseconds, or -1 if it was not measured or the event has not completed.
+     */
+    public long getSelfCpuTime() {
+        final long cpuTime = getCpuTime();
+        if (cpuTime < 0) {
+            return -1;
+        }
+
+        long childCpuTime = 0;
+        if (mChildren != null) {
+            for (final Object child : mChildren) {
+                childCpuTime += Math.max(0, ((ProfileObject) child).getCpuTime());
+            }
+        }
+
+        return Math.max(0, cpuTime - childCpuTime);
+    }
+
+    /**
+     * Get the difference between the starting and ending value of a per-thread measurement.
+     * 
+     * @param start
+     *            The value at the start, negative if not measured.
+     * @param end
+     *            The value at the end.
+     * @return The difference, or -1 if not measured or not complete.
+     */
+    private long getThreadMeasurement(final long start, final long end) {
+        if (!mIsComplete || start < 0 || end < 0) {
+            return -1;
+        }
+
+        return end - start;
+    }
+
     /**
      * Get the duration of the profiled event.
      * 
@@ -468,6 +562,14 @@ public abstract class ProfileObject {
         buffer.append(" ending_memory_allocated=\"").append(getEndingAllocatedMemory()).append("\"");
         buffer.append(" start_time=\"").append(getStartTime()).append("\"");
         buffer.append(" end_time=\"").append(getEndTime()).append("\"");
+        if (getAllocatedBytes() >= 0) {
+            buffer.append(" allocated_bytes=\"").append(getAllocatedBytes()).append("\"");
+            buffer.append(" self_allocated_bytes=\"").append(getSelfAllocatedBytes()).append("\"");
+        }
+        if (getCpuTime() >= 0) {
+            buffer.append(" cpu_time_ns=\"").append(getCpuTime()).append("\"");
+            buffer.append(" self_cpu_time_ns=\"").append(getSelfCpuTime()).append("\"");
+        }
         buffer.append(">\n");
 
         if (getErrorMessage() != null) {
@@ -541,6 +643,14 @@ public abstract class ProfileObject {
         buffer.append("<strong>Memory Change:</strong>&nbsp;").append(memoryChange).append(" KB<br/>");
         buffer.append("<strong>Start Time:</strong>&nbsp;").append(new Date(getStartTime())).append("<br/>");
         buffer.append("<strong>Duration:</strong>&nbsp;").append(getDuration()).append("&nbsp;ms<br/>");
+        if (getAllocatedBytes() >= 0) {
+            buffer.append("<strong>Allocated:</strong>&nbsp;").append(getAllocatedBytes() / 1024).append(" KB (");
+            buffer.append(getSelfAllocatedBytes() / 1024).append(" KB self)<br/>");
+        }
+        if (getCpuTime() >= 0) {
+            buffer.append("<strong>CPU Time:</strong>&nbsp;").append(getCpuTime() / 1000000).append("&nbsp;ms (");
+            buffer.append(getSelfCpuTime() / 1000000).append("&nbsp;ms self)<br/>");
+        }
         buffer.append("<hr size=\"1\" color=\"#9999FF\" width=\"80%\"/>\n");
         buffer.append("<strong>Completed:</strong>&nbsp;").append(getIsComplete()).append("<br/>");
 
@@ -560,6 +670,76 @@ public abstract class ProfileObject {
         }
     }
 
+    /**
+     * Get the bytes allocated so far by the current thread.
+     * 
+     * @return The allocated bytes, or -1 if they can not be measured.
+     */
+    private static long getThreadAllocatedBytes() {
+        return smAllocationBean == null ? -1 : smAllocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Get the CPU time used so far by the current thread.
+     * 
+     * @return The CPU time in nanoseconds, or -1 if it can not be measured.
+     */
+    private static long getThreadCpuTime() {
+        return smCpuTimeBean == null ? -1 : smCpuTimeBean.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Get the thread bean if it can measure the CPU time of the current thread, enabling the measurement if needed.
+     * 
+     * @return The thread bean, or null.
+     */
+    private static ThreadMXBean initCpuTimeBean() {
+        try {
+            final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+                return null;
+            }
+            if (!threadBean.isThreadCpuTimeEnabled()) {
+                threadBean.setThreadCpuTimeEnabled(true);
+            }
+
+            return threadBean;
+        } catch (final RuntimeException e) {
+            // e.g. a security manager forbidding to enable it
+            return null;
+        }
+    }
+
+    /**
+     * Get the thread bean if it can measure the bytes allocated by a thread, enabling the measurement if needed. Only
+     * JVMs implementing the com.sun.management extension can.
+     * 
+     * @return The thread bean, or null.
+     */
+    private static com.sun.management.ThreadMXBean initAllocationBean() {
+        try {
+            final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+
+            final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (!allocationBean.isThreadAllocatedMemorySupported()) {
+                return null;
+            }
+            if (!allocationBean.isThreadAllocatedMemoryEnabled()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            }
+
+            return allocationBean;
+        } catch (final RuntimeException e) {
+            return null;
+        } catch (final LinkageError e) {
+            // JVM without the com.sun.management extension
+            return null;
+        }
+    }
+
     /**
      * Get the string that holds the current top level parent.
      * 
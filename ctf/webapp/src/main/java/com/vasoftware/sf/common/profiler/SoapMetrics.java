@@ -0,0 +1,203 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.axis.MessageContext;
+
+/**
+ * Aggregate statistics of the soap operations served: a latency histogram, an error counter and an in-flight gauge per
+ * service and method. Unlike {@link SoapRecord}, which keeps the last requests for the profiler pages and only runs when
+ * info logging is enabled, these are always collected; a request costs two map lookups and a few atomic updates.
+ */
+public class SoapMetrics {
+    /** Message context property holding the start of the request */
+    private static final String START_PROPERTY = SoapMetrics.class.getName() + ".start";
+
+    /** Message context property holding the statistics of the operation */
+    private static final String STATS_PROPERTY = SoapMetrics.class.getName() + ".stats";
+
+    private static final String UNKNOWN_SERVICE_NAME = "Unknown";
+
+    /**
+     * Most operations tracked. Unresolved method names come straight from the request, so past this limit new
+     * operations are counted together under OVERFLOW_METHOD_NAME rather than growing the map without bound.
+     */
+    private static final int MAX_OPERATIONS = 1024;
+    private static final String OVERFLOW_METHOD_NAME = "Other";
+
+    /** Statistics by "service.method" */
+    private static final ConcurrentMap<String, OperationStats> smOperations =
+        new ConcurrentHashMap<String, OperationStats>();
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private SoapMetrics() {
+    }
+
+    /**
+     * Mark the start of a soap request.
+     *
+     * @param messageContext
+     *            The message context of the request.
+     */
+    public static void requestStarted(final MessageContext messageContext) {
+        if (messageContext == null) {
+            return;
+        }
+
+        final Class<?> serviceClass = SoapRecord.getServiceClassFromMessageContext(messageContext);
+        final String service = serviceClass == null ? UNKNOWN_SERVICE_NAME : serviceClass.getSimpleName();
+        final OperationStats stats = getOperationStats(service,
+                                                       SoapRecord.getMethodNameFromMessageContext(messageContext));
+
+        stats.mInFlight.incrementAndGet();
+        messageContext.setProperty(STATS_PROPERTY, stats);
+        messageContext.setProperty(START_PROPERTY, Long.valueOf(System.nanoTime()));
+    }
+
+    /**
+     * Mark the end of a soap request. Only the first call for a request is counted, so a fault raised after the
+     * response handler has run does not count the request twice.
+     *
+     * @param fault
+     *            true if the soap request ended due to a fault.
+     * @param messageContext
+     *            The message context of the request.
+     */
+    public static void requestEnded(final boolean fault, final MessageContext messageContext) {
+        if (messageContext == null) {
+            return;
+        }
+
+        final OperationStats stats = (OperationStats) messageContext.getProperty(STATS_PROPERTY);
+        final Long start = (Long) messageContext.getProperty(START_PROPERTY);
+        if (stats == null || start == null) {
+            return;
+        }
+        messageContext.removeProperty(STATS_PROPERTY);
+        messageContext.removeProperty(START_PROPERTY);
+
+        stats.mInFlight.decrementAndGet();
+        stats.mLatency.record((System.nanoTime() - start.longValue()) / 1000);
+        if (fault) {
+            stats.mErrors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the statistics of all operations served so far, ordered by service and method.
+     *
+     * @return the statistics
+     */
+    public static List<OperationStats> getOperationStats() {
+        final List<OperationStats> operations = new ArrayList<OperationStats>(smOperations.values());
+        Collections.sort(operations);
+        return operations;
+    }
+
+    /**
+     * Get the statistics of an operation, creating them on first use.
+     *
+     * @param service
+     *            the service name
+     * @param method
+     *            the method name
+     * @return the statistics
+     */
+    private static OperationStats getOperationStats(final String service, final String method) {
+        final String key = service + "." + method;
+        OperationStats stats = smOperations.get(key);
+        if (stats == null && smOperations.size() >= MAX_OPERATIONS && !OVERFLOW_METHOD_NAME.equals(method)) {
+            return getOperationStats(UNKNOWN_SERVICE_NAME, OVERFLOW_METHOD_NAME);
+        }
+        if (stats == null) {
+            final OperationStats newStats = new OperationStats(service, method);
+            stats = smOperations.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+
+        return stats;
+    }
+
+    /**
+     * The statistics of one soap operation.
+     */
+    public static class OperationStats implements Comparable<OperationStats> {
+        private final String mService;
+        private final String mMethod;
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+        private final AtomicLong mErrors = new AtomicLong();
+        private final AtomicInteger mInFlight = new AtomicInteger();
+
+        /**
+         * Constructor.
+         *
+         * @param service
+         *            the service name
+         * @param method
+         *            the method name
+         */
+        OperationStats(final String service, final String method) {
+            mService = service;
+            mMethod = method;
+        }
+
+        /**
+         * @return the simple name of the service implementation class
+         */
+        public String getService() {
+            return mService;
+        }
+
+        /**
+         * @return the method name
+         */
+        public String getMethod() {
+            return mMethod;
+        }
+
+        /**
+         * @return a copy of the latency histogram of the completed requests
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return mLatency.snapshot();
+        }
+
+        /**
+         * @return the number of requests which ended with a fault
+         */
+        public long getErrors() {
+            return mErrors.get();
+        }
+
+        /**
+         * @return the number of requests being processed
+         */
+        public int getInFlight() {
+            return mInFlight.get();
+        }
+
+        /**
+         * @see Comparable#compareTo(Object)
+         */
+        public int compareTo(final OperationStats other) {
+            final int result = mService.compareTo(other.mService);
+            return result != 0 ? result : mMethod.compareTo(other.mMethod);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.vasoftware.sf.common.util.StringUtil;
+
+/**
+ * Exports the {@link SoapMetrics} of this integration server. By default the metrics are written in the Prometheus
+ * text exposition format; with <code>?format=json</code> a JSON summary holding the percentiles of every operation is
+ * written instead.
+ */
+@SuppressWarnings("serial")
+public class SoapMetricsServlet extends HttpServlet {
+    private static final String METRIC_PREFIX = "ctf_integration_soap_";
+
+    /** Histogram buckets exported to Prometheus, as powers of two of microseconds: 256us to about 67s */
+    private static final int MIN_BUCKET_BITS = 8;
+    private static final int MAX_BUCKET_BITS = 26;
+
+    /** Percentiles included in the JSON summary */
+    private static final double[] PERCENTILES = new double[] { 50, 90, 99 };
+
+    /**
+     * @see HttpServlet#doGet(HttpServletRequest, HttpServletResponse)
+     */
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final List<SoapMetrics.OperationStats> operations = SoapMetrics.getOperationStats();
+
+        response.setHeader("Cache-Control", "no-cache");
+        if ("json".equals(request.getParameter("format"))) {
+            response.setContentType("application/json; charset=UTF-8");
+            writeJson(response.getWriter(), operations);
+        } else {
+            response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+            writePrometheus(response.getWriter(), operations);
+        }
+    }
+
+    /**
+     * Write the metrics in the Prometheus text format.
+     *
+     * @param out
+     *            the writer
+     * @param operations
+     *            the operation statistics
+     */
+    private static void writePrometheus(final PrintWriter out, final List<SoapMetrics.OperationStats> operations) {
+        final String duration = METRIC_PREFIX + "request_duration_seconds";
+        out.println("# HELP " + duration + " Latency of the soap requests.");
+        out.println("# TYPE " + duration + " histogram");
+        for (final SoapMetrics.OperationStats stats : operations) {
+            final LatencyHistogram.Snapshot latency = stats.getLatency();
+            final String labels = getLabels(stats);
+            for (int bits = MIN_BUCKET_BITS; bits <= MAX_BUCKET_BITS; bits++) {
+                final long bound = 1L << bits;
+                out.println(duration + "_bucket{" + labels + ",le=\"" + toSeconds(bound) + "\"} "
+                            + latency.getCountAtOrBelow(bound - 1));
+            }
+            out.println(duration + "_bucket{" + labels + ",le=\"+Inf\"} " + latency.getCount());
+            out.println(duration + "_sum{" + labels + "} " + toSeconds(latency.getTotalMicros()));
+            out.println(duration + "_count{" + labels + "} " + latency.getCount());
+        }
+
+        final String errors = METRIC_PREFIX + "errors_total";
+        out.println("# HELP " + errors + " Number of soap requests which ended with a fault.");
+        out.println("# TYPE " + errors + " counter");
+        for (final SoapMetrics.OperationStats stats : operations) {
+            out.println(errors + "{" + getLabels(stats) + "} " + stats.getErrors());
+        }
+
+        final String inFlight = METRIC_PREFIX + "requests_in_flight";
+        out.println("# HELP " + inFlight + " Number of soap requests being processed.");
+        out.println("# TYPE " + inFlight + " gauge");
+        for (final SoapMetrics.OperationStats stats : operations) {
+            out.println(inFlight + "{" + getLabels(stats) + "} " + stats.getInFlight());
+        }
+    }
+
+    /**
+     * Write the metrics as JSON.
+     *
+     * @param out
+     *            the writer
+     * @param operations
+     *            the operation statistics
+     */
+    private static void writeJson(final PrintWriter out, final List<SoapMetrics.OperationStats> operations) {
+        final StringBuilder json = new StringBuilder("{\"operations\":[");
+        boolean first = true;
+        for (final SoapMetrics.OperationStats stats : operations) {
+            final LatencyHistogram.Snapshot latency = stats.getLatency();
+            final long count = latency.getCount();
+
+            json.append(first ? "{" : ",{");
+            first = false;
+            json.append("\"service\":");
+            StringUtil.appendJsonString(json, stats.getService());
+            json.append(",\"method\":");
+            StringUtil.appendJsonString(json, stats.getMethod());
+            json.append(",\"count\":").append(count);
+            json.append(",\"errors\":").append(stats.getErrors());
+            json.append(",\"inFlight\":").append(stats.getInFlight());
+            final long meanMicros = count == 0 ? 0 : latency.getTotalMicros() / count;
+            json.append(",\"meanMs\":").append(LatencyHistogram.toMillis(meanMicros));
+            for (final double percentile : PERCENTILES) {
+                json.append(",\"p").append((int) percentile).append("Ms\":");
+                json.append(LatencyHistogram.toMillis(latency.getPercentileMicros(percentile)));
+            }
+            json.append(",\"maxMs\":").append(LatencyHistogram.toMillis(latency.getMaxMicros()));
+            json.append("}");
+        }
+        json.append("]}");
+        out.println(json);
+    }
+
+    /**
+     * Get the Prometheus labels of an operation.
+     *
+     * @param stats
+     *            the operation statistics
+     * @return the labels, without braces
+     */
+    private static String getLabels(final SoapMetrics.OperationStats stats) {
+        return "service=\"" + escapeLabel(stats.getService()) + "\",method=\"" + escapeLabel(stats.getMethod()) + "\"";
+    }
+
+    /**
+     * Escape a Prometheus label value.
+     *
+     * @param value
+     *            the value
+     * @return the escaped value
+     */
+    private static String escapeLabel(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * @param micros
+     *            a duration in microseconds
+     * @return the duration in seconds
+     */
+    private static String toSeconds(final long micros) {
+        return Double.toString(micros / 1000000.0);
+    }
+}
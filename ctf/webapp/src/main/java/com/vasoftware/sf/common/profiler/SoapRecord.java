@@ -8,8 +8,8 @@ package com.vasoftware.sf.common.profiler;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 import javax.xml.soap.SOAPException;
@@ -34,15 +34,14 @@ public class SoapRecord {
 
     private static final Logger smLogger = Logger.getLogger(SoapRecord.class);
     /** a count of how many pages are currently being actively processed */
-    private static int smCurrentActivePageCount = 0;
-    /** Synchronization lock for the counter. */
-    private static Object smCounterLock = new Object();
+    private static final AtomicInteger smCurrentActivePageCount = new AtomicInteger();
     /** How many milliseconds before a call is considered "long" */
     private static final int LONG_CALL_DURATION = 4000;
     /** Maximum number of soap request records to keep around */
     private static final int MAX_ACTVITY_LOG_COUNT = 1000;
-    /** Session activity records. */
-    private static LinkedList smActivityRecords = new LinkedList();
+    /** Session activity records, in a lock-free ring buffer. */
+    private static final ActivityLog<SoapRecord> smActivityRecords =
+        new ActivityLog<SoapRecord>(MAX_ACTVITY_LOG_COUNT);
     /** This stores the current soap request record being tracked */
     private static final ThreadLocal SOAP_RECORD = new ThreadLocal();
     /** The soap request profile object. */
@@ -63,13 +62,7 @@ public class SoapRecord {
             String userName = null;
 
             if (messageContext != null) {
-                final SOAPService service = messageContext.getService();
-                if (service != null) {
-                    final ServiceDesc serviceDescription = service.getServiceDescription();
-                    if (serviceDescription instanceof JavaServiceDesc) {
-                        soapClass = ((JavaServiceDesc) serviceDescription).getImplClass();
-                    }
-                }
+                soapClass = getServiceClassFromMessageContext(messageContext);
 
                 operationName = getOperationNameFromMessageContext(messageContext);
                 if (operationName != null) {
@@ -92,48 +85,78 @@ public class SoapRecord {
      * @return The operation name to use for profiling.
      */
     private static String getOperationNameFromMessageContext(final MessageContext messageContext) {
-        String operationName = UNKNOWN_OPERATION_NAME;
         final OperationDesc operation = messageContext.getOperation();
-
         if (operation == null) {
-            // This only happens for overloaded methods or if the method does not exist
-            String possibleOperationName = null;
+            return getMethodNameFromMessageContext(messageContext);
+        }
+
+        final List parameterValueList = new ArrayList();
+        for (int i = 1; i < operation.getNumInParams(); i++) {
             try {
-                final Iterator i = messageContext.getCurrentMessage().getSOAPEnvelope().getBody().getChildElements();
-                while (i.hasNext()) {
-                    final Object nextElement = i.next();
-                    if (nextElement instanceof RPCElement) {
-                        final RPCElement operationElement = (RPCElement) nextElement;
-                        possibleOperationName = operationElement.getMethodName();
-                        break;
-                    }
+                final NodeList nodes = messageContext.getCurrentMessage().getSOAPBody()
+                                                     .getElementsByTagName("arg" + i);
+                final String parameterValue = nodes.item(0).getChildNodes().item(0).getNodeValue();
+                if (!StringUtil.isEmpty(parameterValue)) {
+                    parameterValueList.add(parameterValue.substring(0, 10));
                 }
-            } catch (final Throwable e) {
-                ; // do nothing. We will use the unknown operation name
+            } catch (final Exception ex) {
+                // do nothing
             }
+        }
 
-            if (!StringUtil.isEmpty(possibleOperationName)) {
-                operationName = possibleOperationName;
-            }
-        } else {
-            final List parameterValueList = new ArrayList();
-            for (int i = 1; i < operation.getNumInParams(); i++) {
-                try {
-                    final NodeList nodes = messageContext.getCurrentMessage().getSOAPBody()
-                                                         .getElementsByTagName("arg" + i);
-                    final String parameterValue = nodes.item(0).getChildNodes().item(0).getNodeValue();
-                    if (!StringUtil.isEmpty(parameterValue)) {
-                        parameterValueList.add(parameterValue.substring(0, 10));
-                    }
-                } catch (final Exception ex) {
-                    // do nothing
+        return operation.getName() + "("
+                + StringUtil.join((String[]) parameterValueList.toArray(new String[] {}), ",") + ")";
+    }
+
+    /**
+     * Given a message context, extract the bare name of the method being invoked, without any of its arguments.
+     * 
+     * @param messageContext
+     *            The message context sent to the request handler's invoke method.
+     * @return The method name, or "Unknown" if it can not be found.
+     */
+    static String getMethodNameFromMessageContext(final MessageContext messageContext) {
+        final OperationDesc operation = messageContext.getOperation();
+        if (operation != null) {
+            return operation.getName();
+        }
+
+        // This only happens for overloaded methods or if the method does not exist
+        String possibleOperationName = null;
+        try {
+            final Iterator i = messageContext.getCurrentMessage().getSOAPEnvelope().getBody().getChildElements();
+            while (i.hasNext()) {
+                final Object nextElement = i.next();
+                if (nextElement instanceof RPCElement) {
+                    final RPCElement operationElement = (RPCElement) nextElement;
+                    possibleOperationName = operationElement.getMethodName();
+                    break;
                 }
             }
-            operationName = operation.getName() + "("
-                    + StringUtil.join((String[]) parameterValueList.toArray(new String[] {}), ",") + ")";
+        } catch (final Throwable e) {
+            ; // do nothing. We will use the unknown operation name
         }
 
-        return operationName;
+        return StringUtil.isEmpty(possibleOperationName) ? UNKNOWN_OPERATION_NAME : possibleOperationName;
+    }
+
+    /**
+     * Get the implementation class of the service a message is sent to.
+     * 
+     * @param messageContext
+     *            The message context.
+     * @return The service implementation class, or null if it is not a java service.
+     */
+    static Class<?> getServiceClassFromMessageContext(final MessageContext messageContext) {
+        final SOAPService service = messageContext.getService();
+        if (service != null) {
+            final ServiceDesc serviceDescription = service.getServiceDescription();
+            if (serviceDescription instanceof JavaServiceDesc) {
+                return ((JavaServiceDesc) serviceDescription).getImplClass();
+            }
+        }
+
+        return null;
     }
 
     /**
@@ -211,18 +234,14 @@ public class SoapRecord {
      * @return The list of recent soap requests.
      */
     public static List getSoapActivityList() {
-        synchronized (smCounterLock) {
-            return new ArrayList(smActivityRecords);
-        }
+        return smActivityRecords.snapshot();
     }
 
     /**
      * Clear out all existing soap records.
      */
     public static void clearSoapRecords() {
-        synchronized (smCounterLock) {
-            smActivityRecords.clear();
-        }
+        smActivityRecords.clear();
     }
 
     /**
@@ -245,13 +264,8 @@ public class SoapRecord {
             mSoapRequest.setUserName(userName);
         }
         SOAP_RECORD.set(this);
-        synchronized (smCounterLock) {
-            mSoapRequest.setStartingActiveSoapRequests(++smCurrentActivePageCount);
-            smActivityRecords.add(this);
-            if (smActivityRecords.size() > MAX_ACTVITY_LOG_COUNT) {
-                smActivityRecords.removeFirst();
-            }
-        }
+        mSoapRequest.setStartingActiveSoapRequests(smCurrentActivePageCount.incrementAndGet());
+        smActivityRecords.add(this);
 
         logRequestStart(mSoapRequest);
     }
@@ -280,9 +294,7 @@ public class SoapRecord {
         }
         mSoapRequest.setFaultCondition(fault);
 
-        synchronized (smCounterLock) {
-            mSoapRequest.setEndingActiveSoapRequests(smCurrentActivePageCount--);
-        }
+        mSoapRequest.setEndingActiveSoapRequests(smCurrentActivePageCount.getAndDecrement());
 
         // End the profile
         mSoapRequest.end();
@@ -344,7 +356,14 @@ public class SoapRecord {
             callEnd.append("sessionId[" + requestProfile.getSessionId() + "] " + "duration[" + duration + "] "
                     + "active[" + requestProfile.getEndingActiveSoapRequests() + "] " + "memoryAllocated["
                     + requestProfile.getEndingAllocatedMemory() + "] " + "memoryUsed["
-                    + requestProfile.getEndingMemoryUse() + "]" + faultString + longString);
+                    + requestProfile.getEndingMemoryUse() + "]");
+            if (requestProfile.getAllocatedBytes() >= 0) {
+                callEnd.append(" allocatedBytes[" + requestProfile.getAllocatedBytes() + "]");
+            }
+            if (requestProfile.getCpuTime() >= 0) {
+                callEnd.append(" cpuTime[" + requestProfile.getCpuTime() / 1000000 + "]");
+            }
+            callEnd.append(faultString + longString);
             if (logInfo) {
                 // if duration is longer than threshold, log this as info regardless of default log level
                 smLogger.info(callEnd.toString());
@@ -0,0 +1,111 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.axis.Message;
+import org.apache.axis.MessageContext;
+import org.apache.axis.transport.http.HTTPConstants;
+import org.apache.log4j.MDC;
+
+import com.vasoftware.sf.common.logger.Logger;
+
+/**
+ * Traces soap requests: the W3C trace context sent by the caller in the <code>traceparent</code> and
+ * <code>tracestate</code> HTTP headers is picked up, a server span is started for the request and its context is made
+ * current for the thread, so the commands run while serving the request are traced as its children. Without an
+ * incoming context a new trace is only started when a {@link SpanExporter} is configured.
+ */
+public class SoapTracer {
+    /** Message context property holding the span of the request */
+    private static final String SPAN_PROPERTY = SoapTracer.class.getName() + ".span";
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private SoapTracer() {
+    }
+
+    /**
+     * Mark the start of a soap request.
+     *
+     * @param messageContext
+     *            The message context of the request.
+     */
+    public static void requestStarted(final MessageContext messageContext) {
+        // The thread may have served a traced request before; an untraced request must not run in its trace
+        TraceContext.setCurrent(null);
+        MDC.remove(Logger.TRACE_ID_KEY);
+        if (messageContext == null) {
+            return;
+        }
+
+        final TraceContext parent = TraceContext.parse(getHeader(messageContext, TraceContext.TRACEPARENT_HEADER),
+                                                       getHeader(messageContext, TraceContext.TRACESTATE_HEADER));
+        if (parent == null && !SpanExporter.isEnabled()) {
+            return;
+        }
+
+        final Class<?> serviceClass = SoapRecord.getServiceClassFromMessageContext(messageContext);
+        final String service = serviceClass == null ? "Unknown" : serviceClass.getSimpleName();
+        final String method = SoapRecord.getMethodNameFromMessageContext(messageContext);
+
+        final Span span = Span.start(service + "/" + method, Span.KIND_SERVER, parent);
+        span.setAttribute("rpc.system", "apache_axis").setAttribute("rpc.service", service)
+            .setAttribute("rpc.method", method);
+
+        messageContext.setProperty(SPAN_PROPERTY, span);
+        TraceContext.setCurrent(span.getContext());
+        MDC.put(Logger.TRACE_ID_KEY, span.getContext().getTraceId());
+    }
+
+    /**
+     * Mark the end of a soap request. Only the first call for a request has an effect.
+     *
+     * @param fault
+     *            true if the soap request ended due to a fault.
+     * @param messageContext
+     *            The message context of the request.
+     */
+    public static void requestEnded(final boolean fault, final MessageContext messageContext) {
+        if (messageContext == null) {
+            return;
+        }
+
+        final Span span = (Span) messageContext.getProperty(SPAN_PROPERTY);
+        if (span == null) {
+            return;
+        }
+        messageContext.removeProperty(SPAN_PROPERTY);
+
+        span.end(fault);
+        TraceContext.setCurrent(null);
+        MDC.remove(Logger.TRACE_ID_KEY);
+    }
+
+    /**
+     * Get an HTTP header of the request.
+     *
+     * @param messageContext
+     *            The message context of the request.
+     * @param name
+     *            The header name.
+     * @return The header value, or null if it is not set.
+     */
+    private static String getHeader(final MessageContext messageContext, final String name) {
+        final Object request = messageContext.getProperty(HTTPConstants.MC_HTTP_SERVLETREQUEST);
+        if (request instanceof HttpServletRequest) {
+            return ((HttpServletRequest) request).getHeader(name);
+        }
+
+        // Not served through the servlet; the transport may still have copied the headers to the message
+        final Message message = messageContext.getRequestMessage();
+        final String[] values = message == null ? null : message.getMimeHeaders().getHeader(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A timed unit of work of a trace, such as a soap request or a command it runs. A span is started with the context it
+ * stands for and handed to the {@link SpanExporter} when it ends; spans of traces which are not sampled are dropped.
+ */
+public class Span {
+    /** Span kinds, as numbered by OTLP */
+    public static final int KIND_INTERNAL = 1;
+    public static final int KIND_SERVER = 2;
+    public static final int KIND_CLIENT = 3;
+
+    /* Offset between System.nanoTime() and the epoch, to get wall clock times with nanosecond precision */
+    private static final long smEpochOffsetNanos = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    private final String mName;
+    private final int mKind;
+    private final TraceContext mContext;
+    private final String mParentSpanId;
+    private final long mStartNanos;
+    private final Map<String, String> mAttributes = new LinkedHashMap<String, String>();
+    private final AtomicBoolean mEnded = new AtomicBoolean();
+    private volatile long mEndNanos;
+    private volatile boolean mError;
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     *            the name of the span
+     * @param kind
+     *            one of the KIND_ constants
+     * @param context
+     *            the context of the span
+     * @param parentSpanId
+     *            the id of the parent span, or null for the root span of a trace
+     */
+    private Span(final String name, final int kind, final TraceContext context, final String parentSpanId) {
+        mName = name;
+        mKind = kind;
+        mContext = context;
+        mParentSpanId = parentSpanId;
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Start a span as a child of a context.
+     *
+     * @param name
+     *            the name of the span
+     * @param kind
+     *            one of the KIND_ constants
+     * @param parent
+     *            the parent context, or null to start a new trace
+     * @return the span
+     */
+    public static Span start(final String name, final int kind, final TraceContext parent) {
+        if (parent == null) {
+            return new Span(name, kind, TraceContext.newTrace(SpanExporter.isEnabled()), null);
+        }
+
+        return new Span(name, kind, parent.newChild(), parent.getSpanId());
+    }
+
+    /**
+     * Set an attribute of the span.
+     *
+     * @param key
+     *            the attribute key
+     * @param value
+     *            the attribute value; null values are ignored
+     * @return this span
+     */
+    public Span setAttribute(final String key, final Object value) {
+        if (value != null) {
+            synchronized (mAttributes) {
+                mAttributes.put(key, String.valueOf(value));
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * End the span and export it. Only the first call has an effect.
+     *
+     * @param error
+     *            true if the work failed
+     */
+    public void end(final boolean error) {
+        if (!mEnded.compareAndSet(false, true)) {
+            return;
+        }
+
+        mError = error;
+        mEndNanos = System.nanoTime();
+        if (mContext.isSampled()) {
+            SpanExporter.export(this);
+        }
+    }
+
+    /**
+     * @return the context of the span, to propagate to the work it starts
+     */
+    public TraceContext getContext() {
+        return mContext;
+    }
+
+    /**
+     * @return the name of the span
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the kind of the span, one of the KIND_ constants
+     */
+    public int getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return the id of the parent span, or null for the root span of a trace
+     */
+    public String getParentSpanId() {
+        return mParentSpanId;
+    }
+
+    /**
+     * @return the start time in nanoseconds since the epoch
+     */
+    public long getStartTimeUnixNanos() {
+        return smEpochOffsetNanos + mStartNanos;
+    }
+
+    /**
+     * @return the end time in nanoseconds since the epoch
+     */
+    public long getEndTimeUnixNanos() {
+        return smEpochOffsetNanos + mEndNanos;
+    }
+
+    /**
+     * @return true if the work failed
+     */
+    public boolean isError() {
+        return mError;
+    }
+
+    /**
+     * @return a copy of the attributes of the span
+     */
+    public Map<String, String> getAttributes() {
+        synchronized (mAttributes) {
+            return new LinkedHashMap<String, String>(mAttributes);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptions;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.configuration.SfPaths;
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.FileUtil;
+import com.vasoftware.sf.common.util.StringUtil;
+
+/**
+ * Exports finished {@link Span}s in the OTLP/JSON encoding, either appended to a local file, one export request per
+ * line, or posted to the <code>/v1/traces</code> endpoint of an OTLP/HTTP collector. The exporter is chosen with
+ * <code>sfmain.integration.tracing.exporter</code>: <code>none</code> (the default), <code>file</code> or
+ * <code>otlp</code>.
+ *
+ * Spans are queued and written in batches by a background thread, so a slow collector never holds up a request. When
+ * the queue is full, spans are dropped and counted.
+ */
+public class SpanExporter {
+    private static final Logger smLogger = Logger.getLogger(SpanExporter.class);
+
+    public static final String EXPORTER_NONE = "none";
+    public static final String EXPORTER_FILE = "file";
+    public static final String EXPORTER_OTLP = "otlp";
+
+    public static final String DEFAULT_TRACE_FILE = "integration-traces.json";
+    public static final String DEFAULT_OTLP_ENDPOINT = "http://localhost:4318/v1/traces";
+
+    private static final String SERVICE_NAME = "ctf-integration";
+    private static final int QUEUE_SIZE = 4096;
+    private static final int BATCH_SIZE = 512;
+    private static final long BATCH_DELAY_MS = 1000;
+    private static final int OTLP_TIMEOUT_MS = 5000;
+
+    private static final String smExporter;
+    private static final BlockingQueue<Span> smQueue = new ArrayBlockingQueue<Span>(QUEUE_SIZE);
+    private static final AtomicLong smDropped = new AtomicLong();
+
+    static {
+        final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
+        final String exporter = options.getOption(GlobalOptionKeys.SFMAIN_INTEGRATION_TRACING_EXPORTER);
+        if (exporter == null || exporter.trim().length() == 0) {
+            smExporter = EXPORTER_NONE;
+        } else if (EXPORTER_FILE.equals(exporter.trim()) || EXPORTER_OTLP.equals(exporter.trim())
+                   || EXPORTER_NONE.equals(exporter.trim())) {
+            smExporter = exporter.trim();
+        } else {
+            smLogger.warn("Invalid value for " + GlobalOptionKeys.SFMAIN_INTEGRATION_TRACING_EXPORTER + ": "
+                          + exporter + ", using " + EXPORTER_NONE);
+            smExporter = EXPORTER_NONE;
+        }
+
+        if (!EXPORTER_NONE.equals(smExporter)) {
+            final Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    exportLoop();
+                }
+            }, "span-exporter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private SpanExporter() {
+    }
+
+    /**
+     * Is an exporter configured.
+     *
+     * @return true if spans are exported
+     */
+    public static boolean isEnabled() {
+        return !EXPORTER_NONE.equals(smExporter);
+    }
+
+    /**
+     * Queue a finished span for export.
+     *
+     * @param span
+     *            the span
+     */
+    static void export(final Span span) {
+        if (isEnabled() && !smQueue.offer(span) && smDropped.getAndIncrement() % 1000 == 0) {
+            smLogger.warn("Span export queue is full, dropping spans (" + smDropped.get() + " so far)");
+        }
+    }
+
+    /**
+     * Take batches of spans off the queue and write them, until the thread is interrupted.
+     */
+    private static void exportLoop() {
+        final List<Span> batch = new ArrayList<Span>(BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final Span first = smQueue.poll(BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                smQueue.drainTo(batch, BATCH_SIZE - 1);
+                write(toJson(batch));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final IOException e) {
+                smLogger.warn("Could not export " + batch.size() + " spans: " + e.getMessage());
+            } catch (final RuntimeException e) {
+                smLogger.error("Could not export " + batch.size() + " spans", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write an export request to the configured destination.
+     *
+     * @param json
+     *            the export request
+     * @throws IOException
+     *             thrown if the request could not be written
+     */
+    private static void write(final String json) throws IOException {
+        final byte[] bytes = json.getBytes("UTF-8");
+        if (EXPORTER_FILE.equals(smExporter)) {
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(getTraceFile(), true);
+                out.write(bytes);
+                out.write('\n');
+            } finally {
+                FileUtil.close(out);
+            }
+            return;
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(getOtlpEndpoint()).openConnection();
+        connection.setConnectTimeout(OTLP_TIMEOUT_MS);
+        connection.setReadTimeout(OTLP_TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(bytes.length);
+
+        OutputStream out = null;
+        try {
+            out = connection.getOutputStream();
+            out.write(bytes);
+        } finally {
+            FileUtil.close(out);
+        }
+
+        final int status = connection.getResponseCode();
+        // Read the response so the connection can be kept alive
+        final InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+            try {
+                final byte[] buffer = new byte[1024];
+                while (in.read(buffer) != -1) {
+                    ; // discard
+                }
+            } finally {
+                FileUtil.close(in);
+            }
+        }
+
+        if (status >= 300) {
+            throw new IOException("Collector returned HTTP " + status);
+        }
+    }
+
+    /**
+     * Encode spans as an OTLP/JSON export request.
+     *
+     * @param spans
+     *            the spans
+     * @return the export request
+     */
+    static String toJson(final List<Span> spans) {
+        final StringBuilder json = new StringBuilder(spans.size() * 400);
+        json.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+        appendAttribute(json, "service.name", SERVICE_NAME);
+        json.append("]},\"scopeSpans\":[{\"scope\":{\"name\":\"").append(SpanExporter.class.getPackage().getName());
+        json.append("\"},\"spans\":[");
+
+        boolean first = true;
+        for (final Span span : spans) {
+            json.append(first ? "" : ",");
+            first = false;
+
+            final TraceContext context = span.getContext();
+            json.append("{\"traceId\":\"").append(context.getTraceId());
+            json.append("\",\"spanId\":\"").append(context.getSpanId()).append('"');
+            if (span.getParentSpanId() != null) {
+                json.append(",\"parentSpanId\":\"").append(span.getParentSpanId()).append('"');
+            }
+            if (context.getTraceState() != null) {
+                json.append(",\"traceState\":");
+                StringUtil.appendJsonString(json, context.getTraceState());
+            }
+            json.append(",\"name\":");
+            StringUtil.appendJsonString(json, span.getName());
+            json.append(",\"kind\":").append(span.getKind());
+            json.append(",\"startTimeUnixNano\":\"").append(span.getStartTimeUnixNanos());
+            json.append("\",\"endTimeUnixNano\":\"").append(span.getEndTimeUnixNanos());
+            json.append("\",\"attributes\":[");
+            boolean firstAttribute = true;
+            for (final Map.Entry<String, String> attribute : span.getAttributes().entrySet()) {
+                json.append(firstAttribute ? "" : ",");
+                firstAttribute = false;
+                appendAttribute(json, attribute.getKey(), attribute.getValue());
+            }
+            json.append("],\"status\":{\"code\":").append(span.isError() ? 2 : 0).append("}}");
+        }
+
+        return json.append("]}]}]}").toString();
+    }
+
+    /**
+     * Append a string attribute.
+     *
+     * @param json
+     *            the buffer
+     * @param key
+     *            the attribute key
+     * @param value
+     *            the attribute value
+     */
+    private static void appendAttribute(final StringBuilder json, final String key, final String value) {
+        json.append("{\"key\":");
+        StringUtil.appendJsonString(json, key);
+        json.append(",\"value\":{\"stringValue\":");
+        StringUtil.appendJsonString(json, value);
+        json.append("}}");
+    }
+
+    /**
+     * @return the file spans are appended to
+     */
+    private static File getTraceFile() {
+        final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
+        final String path = options.getOption(GlobalOptionKeys.SFMAIN_INTEGRATION_TRACING_FILE);
+        if (path != null && path.trim().length() > 0) {
+            return new File(path.trim());
+        }
+
+        final String logDirectory = options.getOption(GlobalOptionKeys.SFMAIN_LOG_DIRECTORY);
+        return new File(logDirectory != null && logDirectory.trim().length() > 0 ? logDirectory.trim()
+                                                                                   : SfPaths.dataDir(),
+                        DEFAULT_TRACE_FILE);
+    }
+
+    /**
+     * @return the URL spans are posted to
+     */
+    private static String getOtlpEndpoint() {
+        final String key = GlobalOptionKeys.SFMAIN_INTEGRATION_TRACING_OTLP_ENDPOINT;
+        final String endpoint = SfGlobalOptionsManager.getOptions().getOption(key);
+        return endpoint == null || endpoint.trim().length() == 0 ? DEFAULT_OTLP_ENDPOINT : endpoint.trim();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.profiler;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A W3C trace context (https://www.w3.org/TR/trace-context/): the trace a unit of work belongs to, the span which
+ * stands for it, and whether the trace is sampled. Contexts come in through the <code>traceparent</code> and
+ * <code>tracestate</code> HTTP headers of soap requests and go out through the <code>TRACEPARENT</code> and
+ * <code>TRACESTATE</code> environment variables of the commands the integration server runs. Only the processes those
+ * commands start themselves inherit the variables: Subversion runs its hook scripts with an empty environment, so the
+ * hooks triggered by a command do not join its trace.
+ *
+ * The context of the work being done by a thread is kept in a thread local, see {@link #getCurrent()}.
+ */
+public class TraceContext {
+    /** HTTP header and environment variable names */
+    public static final String TRACEPARENT_HEADER = "traceparent";
+    public static final String TRACESTATE_HEADER = "tracestate";
+    public static final String TRACEPARENT_VARIABLE = "TRACEPARENT";
+    public static final String TRACESTATE_VARIABLE = "TRACESTATE";
+
+    private static final String VERSION = "00";
+    private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+    private static final String INVALID_SPAN_ID = "0000000000000000";
+
+    private static final ThreadLocal<TraceContext> smCurrent = new ThreadLocal<TraceContext>();
+
+    /** Random generator of every thread, seeded once from a secure source */
+    private static final ThreadLocal<Random> smRandom = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random(new SecureRandom().nextLong());
+        }
+    };
+
+    private final String mTraceId;
+    private final String mSpanId;
+    private final boolean mSampled;
+    private final String mTraceState;
+
+    /**
+     * Constructor.
+     *
+     * @param traceId
+     *            the trace id, 32 lower case hex digits
+     * @param spanId
+     *            the span id, 16 lower case hex digits
+     * @param sampled
+     *            true if the trace is recorded
+     * @param traceState
+     *            the vendor specific trace state, or null
+     */
+    private TraceContext(final String traceId, final String spanId, final boolean sampled, final String traceState) {
+        mTraceId = traceId;
+        mSpanId = spanId;
+        mSampled = sampled;
+        mTraceState = traceState;
+    }
+
+    /**
+     * Parse a <code>traceparent</code> header.
+     *
+     * @param traceparent
+     *            the traceparent header, may be null
+     * @param traceState
+     *            the tracestate header, may be null
+     * @return the context, or null if the header is missing or not valid
+     */
+    public static TraceContext parse(final String traceparent, final String traceState) {
+        if (traceparent == null) {
+            return null;
+        }
+
+        final String[] fields = traceparent.trim().toLowerCase().split("-");
+        if (fields.length < 4 || "ff".equals(fields[0]) || !isHex(fields[0], 2) || !isHex(fields[1], 32)
+            || !isHex(fields[2], 16) || !isHex(fields[3], 2) || (VERSION.equals(fields[0]) && fields.length != 4)
+            || INVALID_TRACE_ID.equals(fields[1]) || INVALID_SPAN_ID.equals(fields[2])) {
+            return null;
+        }
+
+        final boolean sampled = (Integer.parseInt(fields[3], 16) & 1) != 0;
+        final String state = traceState == null || traceState.trim().length() == 0 ? null : traceState.trim();
+        return new TraceContext(fields[1], fields[2], sampled, state);
+    }
+
+    /**
+     * Start a new trace.
+     *
+     * @param sampled
+     *            true if the trace is recorded
+     * @return the context of the root span of the trace
+     */
+    public static TraceContext newTrace(final boolean sampled) {
+        return new TraceContext(newId(2), newId(1), sampled, null);
+    }
+
+    /**
+     * Create the context of a child span in the same trace.
+     *
+     * @return the child context
+     */
+    public TraceContext newChild() {
+        return new TraceContext(mTraceId, newId(1), mSampled, mTraceState);
+    }
+
+    /**
+     * Get the context of the work being done by the current thread.
+     *
+     * @return the context, or null if the work is not traced
+     */
+    public static TraceContext getCurrent() {
+        return smCurrent.get();
+    }
+
+    /**
+     * Set the context of the work being done by the current thread.
+     *
+     * @param context
+     *            the context, or null if the work is not traced
+     */
+    public static void setCurrent(final TraceContext context) {
+        if (context == null) {
+            smCurrent.remove();
+        } else {
+            smCurrent.set(context);
+        }
+    }
+
+    /**
+     * @return the trace id, 32 lower case hex digits
+     */
+    public String getTraceId() {
+        return mTraceId;
+    }
+
+    /**
+     * @return the span id, 16 lower case hex digits
+     */
+    public String getSpanId() {
+        return mSpanId;
+    }
+
+    /**
+     * @return true if the trace is recorded
+     */
+    public boolean isSampled() {
+        return mSampled;
+    }
+
+    /**
+     * @return the vendor specific trace state, or null
+     */
+    public String getTraceState() {
+        return mTraceState;
+    }
+
+    /**
+     * @return the value of the traceparent header for this context
+     */
+    public String toTraceparent() {
+        return VERSION + "-" + mTraceId + "-" + mSpanId + (mSampled ? "-01" : "-00");
+    }
+
+    /**
+     * Add the trace context variables to the environment of a command.
+     *
+     * @param envp
+     *            the environment as a set of var=val strings, or null to inherit the environment of this process
+     * @return the environment with TRACEPARENT and TRACESTATE set
+     */
+    public String[] addToEnvironment(final String[] envp) {
+        final List<String> environment = new ArrayList<String>();
+        if (envp == null) {
+            for (final Map.Entry<String, String> variable : System.getenv().entrySet()) {
+                environment.add(variable.getKey() + "=" + variable.getValue());
+            }
+        } else {
+            environment.addAll(Arrays.asList(envp));
+        }
+
+        for (final Iterator<String> i = environment.iterator(); i.hasNext();) {
+            final String variable = i.next();
+            if (variable.startsWith(TRACEPARENT_VARIABLE + "=") || variable.startsWith(TRACESTATE_VARIABLE + "=")) {
+                i.remove();
+            }
+        }
+
+        environment.add(TRACEPARENT_VARIABLE + "=" + toTraceparent());
+        if (mTraceState != null) {
+            environment.add(TRACESTATE_VARIABLE + "=" + mTraceState);
+        }
+
+        return environment.toArray(new String[environment.size()]);
+    }
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString() {
+        return toTraceparent();
+    }
+
+    /**
+     * Generate a random, non zero id.
+     *
+     * @param longs
+     *            the length of the id in 64 bit words
+     * @return the id in lower case hex digits
+     */
+    private static String newId(final int longs) {
+        final Random random = smRandom.get();
+        final StringBuilder id = new StringBuilder(longs * 16);
+        long last;
+        do {
+            id.setLength(0);
+            last = 0;
+            for (int i = 0; i < longs; i++) {
+                final long value = random.nextLong();
+                last |= value;
+                final String hex = Long.toHexString(value);
+                for (int pad = hex.length(); pad < 16; pad++) {
+                    id.append('0');
+                }
+                id.append(hex);
+            }
+        } while (last == 0);
+
+        return id.toString();
+    }
+
+    /**
+     * Check a field of a traceparent header.
+     *
+     * @param value
+     *            the field
+     * @param length
+     *            the expected length
+     * @return true if the field has the expected length and only holds lower case hex digits
+     */
+    private static boolean isHex(final String value, final int length) {
+        if (value.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
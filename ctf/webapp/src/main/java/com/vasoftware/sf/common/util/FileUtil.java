@@ -13,16 +13,23 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-import org.apache.commons.compress.utils.IOUtils;
+
+import com.vasoftware.sf.common.logger.Logger;
 
 /**
  * The <code>FileUtil</code> class provides utility methods for working with files.
  */
 public class FileUtil {
+    private static final Logger smLogger = Logger.getLogger(FileUtil.class);
+
     /**
      * Close file or stream or whatever closeable; ignore all exceptions
      * 
@@ -133,7 +140,8 @@ public class FileUtil {
     }
 
     /**
-     * Creates a tar.gz file at the specified path with the contents of the specified directory.
+     * Creates a tar.gz file at the specified path with the contents of the specified directory, compressing on one
+     * thread per processor.
      * 
      * @param directoryToArchive The directory to create an archive of
      * @param archivePath The path to the archive to create
@@ -141,49 +149,72 @@ public class FileUtil {
      * @throws IOException If anything goes wrong
      */
     public static void createTarGzOfDirectory(String dirPath, String tarGzPath) throws IOException {
-        FileOutputStream fOut = null;
-        BufferedOutputStream bOut = null;
-        GzipCompressorOutputStream gzOut = null;
+        createTarGzOfDirectory(dirPath, tarGzPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a tar.gz file at the specified path with the contents of the specified directory.  The archive is
+     * compressed in parallel blocks, each written as its own gzip member, and the progress is logged periodically.
+     * 
+     * @param directoryToArchive The directory to create an archive of
+     * @param archivePath The path to the archive to create
+     * @param threads The number of compression threads
+     * 
+     * @throws IOException If anything goes wrong
+     */
+    public static void createTarGzOfDirectory(String dirPath, String tarGzPath, int threads) throws IOException {
+        ArchiveProgress progress = new ArchiveProgress(tarGzPath);
+        OutputStream out = null;
+        ParallelGzipOutputStream gzOut = null;
         TarArchiveOutputStream tOut = null;
 
         try {
-            fOut = new FileOutputStream(new File(tarGzPath));
-            bOut = new BufferedOutputStream(fOut);
-            gzOut = new GzipCompressorOutputStream(bOut);
+            out = new BufferedOutputStream(new FileOutputStream(new File(tarGzPath)), 64 * 1024);
+            gzOut = new ParallelGzipOutputStream(out, threads, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
             tOut = new TarArchiveOutputStream(gzOut);
+            tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            tOut.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
 
-            addFileToTarGz(tOut, dirPath, "");
-        } finally {
-            tOut.finish();
+            addFileToTarGz(tOut, Channels.newChannel(tOut), new File(dirPath), "", progress);
 
+            tOut.finish();
             tOut.close();
-            gzOut.close();
-            bOut.close();
-            fOut.close();
+        } finally {
+            // On failure the tar stream may refuse to close with an entry still open, so the streams under it are
+            // closed on their own; this stops the compression threads and releases the file. Closing a closed stream
+            // does nothing.
+            close(tOut);
+            close(gzOut);
+            close(out);
         }
+
+        progress.done();
     }
 
     /**
-     * Creates an tar entry for the path specified with a name built from the base passed in and the file/directory
-     * name.  If the path is a directory, a recursive call is made such that the full directory is added to the tar.
+     * Creates an tar entry for the file specified with a name built from the base passed in and the file/directory
+     * name.  If the file is a directory, a recursive call is made such that the full directory is added to the tar.
      * 
      * @param tOut The tar file's output stream
-     * @param path The filesystem path of the file/directory being added
+     * @param tOutChannel A channel writing to the tar file's output stream
+     * @param f The file/directory being added
      * @param base The base prefix to for the name of the tar file entry
+     * @param progress The progress of the archive
      * 
      * @throws IOException If anything goes wrong
      */
-    private static void addFileToTarGz(TarArchiveOutputStream tOut, String path, String base) throws IOException {
-        File f = new File(path);
+    private static void addFileToTarGz(TarArchiveOutputStream tOut, WritableByteChannel tOutChannel, File f,
+                                       String base, ArchiveProgress progress) throws IOException {
         String entryName = base + f.getName();
         TarArchiveEntry tarEntry = new TarArchiveEntry(f, entryName);
 
         tOut.putArchiveEntry(tarEntry);
 
         if (f.isFile()) {
-            IOUtils.copy(new FileInputStream(f), tOut);
+            copyFileToTarGz(tOutChannel, f, tarEntry.getSize());
 
             tOut.closeArchiveEntry();
+            progress.fileAdded(tarEntry.getSize());
         } else {
             tOut.closeArchiveEntry();
 
@@ -191,9 +222,107 @@ public class FileUtil {
 
             if (children != null) {
                 for (File child : children) {
-                    addFileToTarGz(tOut, child.getAbsolutePath(), entryName + "/");
+                    addFileToTarGz(tOut, tOutChannel, child, entryName + "/", progress);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies exactly the size recorded in the tar entry from a file, padding with zeros if the file shrank since its
+     * entry was created.
+     * 
+     * @param tOutChannel A channel writing to the tar file's output stream
+     * @param f The file being added
+     * @param size The size recorded in the tar entry
+     * 
+     * @throws IOException If anything goes wrong
+     */
+    private static void copyFileToTarGz(WritableByteChannel tOutChannel, File f, long size) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+
+        try {
+            FileChannel channel = in.getChannel();
+            long position = 0;
+
+            while (position < size) {
+                long transferred = channel.transferTo(position, size - position, tOutChannel);
+
+                if (transferred <= 0) {
+                    break;
                 }
+                position += transferred;
             }
+
+            if (position < size) {
+                smLogger.warn("File " + f + " shrank while it was archived, padding it to " + size + " bytes");
+                ByteBuffer zeros = ByteBuffer.allocate(8192);
+
+                while (position < size) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(zeros.capacity(), size - position));
+                    position += tOutChannel.write(zeros);
+                }
+            }
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Counts what has been added to an archive and logs the progress and throughput now and then.
+     */
+    private static class ArchiveProgress {
+        private static final long LOG_INTERVAL = 30 * 1000L;
+
+        private final String mArchivePath;
+        private final long mStarted = System.currentTimeMillis();
+        private long mLastLogged = mStarted;
+        private long mFiles;
+        private long mBytes;
+
+        /**
+         * Constructor.
+         * 
+         * @param archivePath The path to the archive being created
+         */
+        ArchiveProgress(String archivePath) {
+            mArchivePath = archivePath;
+        }
+
+        /**
+         * Count a file added to the archive.
+         * 
+         * @param size The size of the file
+         */
+        void fileAdded(long size) {
+            mFiles++;
+            mBytes += size;
+
+            long now = System.currentTimeMillis();
+            if (now - mLastLogged >= LOG_INTERVAL) {
+                mLastLogged = now;
+                smLogger.info("Archiving to " + mArchivePath + ": " + describe(now));
+            }
+        }
+
+        /**
+         * Log the totals of the finished archive.
+         */
+        void done() {
+            smLogger.info("Archived to " + mArchivePath + ": " + describe(System.currentTimeMillis()));
+        }
+
+        /**
+         * Describe the progress.
+         * 
+         * @param now The current time
+         * @return The description
+         */
+        private String describe(long now) {
+            long elapsed = Math.max(1, now - mStarted);
+            return mFiles + " files, " + (mBytes / (1024 * 1024)) + " MB in " + (elapsed / 1000) + " s ("
+                   + (mBytes * 1000 / elapsed / (1024 * 1024)) + " MB/s)";
         }
     }
 }
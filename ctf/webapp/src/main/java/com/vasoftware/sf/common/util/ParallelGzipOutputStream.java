@@ -0,0 +1,197 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The <code>ParallelGzipOutputStream</code> class compresses its input on several threads, in the way pigz does. The
+ * input is cut into blocks which are compressed independently, and each block is written out as a gzip member of its
+ * own. The resulting multi-member gzip file can be read by gzip, tar and <code>GZIPInputStream</code> like any other.
+ *
+ * Compressed blocks are written in order, and at most two blocks per thread are held in memory at any time.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    /** The default size of an uncompressed block */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final OutputStream mOut;
+    private final ExecutorService mExecutor;
+    private final int mMaxPendingBlocks;
+    private final LinkedList<Future<byte[]>> mPendingBlocks = new LinkedList<Future<byte[]>>();
+    private byte[] mBlock;
+    private int mBlockLength;
+    private boolean mBlockWritten;
+    private boolean mClosed;
+
+    /**
+     * Constructor.
+     *
+     * @param out
+     *            the stream to write the compressed data to
+     * @param threads
+     *            the number of compression threads
+     * @param blockSize
+     *            the size of an uncompressed block
+     */
+    public ParallelGzipOutputStream(final OutputStream out, final int threads, final int blockSize) {
+        mOut = out;
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "gzip-compressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mMaxPendingBlocks = Math.max(1, threads) * 2;
+        mBlock = new byte[blockSize];
+    }
+
+    /**
+     * Constructor using one thread per processor and the default block size.
+     *
+     * @param out
+     *            the stream to write the compressed data to
+     */
+    public ParallelGzipOutputStream(final OutputStream out) {
+        this(out, Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            final int count = Math.min(remaining, mBlock.length - mBlockLength);
+            System.arraycopy(b, offset, mBlock, mBlockLength, count);
+            mBlockLength += count;
+            offset += count;
+            remaining -= count;
+
+            if (mBlockLength == mBlock.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Compress the data written so far and write it out. This ends the current block early, so it costs some
+     * compression.
+     *
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        if (mBlockLength > 0) {
+            submitBlock();
+        }
+        while (!mPendingBlocks.isEmpty()) {
+            writeFirstBlock();
+        }
+        mOut.flush();
+    }
+
+    /**
+     * Compress the remaining data, write it out and close the underlying stream.
+     *
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+
+        try {
+            // Make sure the output is a valid gzip file even if nothing was written
+            if (mBlockLength > 0 || !mBlockWritten) {
+                submitBlock();
+            }
+            while (!mPendingBlocks.isEmpty()) {
+                writeFirstBlock();
+            }
+        } finally {
+            mClosed = true;
+            mExecutor.shutdownNow();
+            mOut.close();
+        }
+    }
+
+    /**
+     * Hand the current block to a compression thread, first waiting for the oldest block if too many are pending.
+     *
+     * @throws IOException
+     *             thrown if an earlier block could not be compressed or written
+     */
+    private void submitBlock() throws IOException {
+        while (mPendingBlocks.size() >= mMaxPendingBlocks) {
+            writeFirstBlock();
+        }
+
+        final byte[] block = mBlock;
+        final int length = mBlockLength;
+        mPendingBlocks.add(mExecutor.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+                final GZIPOutputStream gzip = new GZIPOutputStream(compressed, 64 * 1024);
+                gzip.write(block, 0, length);
+                gzip.close();
+                return compressed.toByteArray();
+            }
+        }));
+
+        mBlock = new byte[block.length];
+        mBlockLength = 0;
+        mBlockWritten = true;
+    }
+
+    /**
+     * Wait for the oldest pending block and write it out.
+     *
+     * @throws IOException
+     *             thrown if the block could not be compressed or written
+     */
+    private void writeFirstBlock() throws IOException {
+        final Future<byte[]> block = mPendingBlocks.removeFirst();
+        try {
+            mOut.write(block.get());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (final ExecutionException e) {
+            final IOException exception = new IOException("Could not compress block: " + e.getCause());
+            exception.initCause(e.getCause());
+            throw exception;
+        }
+    }
+}
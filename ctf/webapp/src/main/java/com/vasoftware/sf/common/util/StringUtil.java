@@ -67,4 +67,27 @@ public class StringUtil {
         }
         return result.toString();
     }
+
+    /**
+     * Append a string to a JSON document, quoted and escaped.
+     * 
+     * @param json
+     *            The buffer to append to
+     * @param value
+     *            The string
+     */
+    public static void appendJsonString(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", Integer.valueOf(c)));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
 }
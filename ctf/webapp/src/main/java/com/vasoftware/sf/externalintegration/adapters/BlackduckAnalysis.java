@@ -8,8 +8,12 @@
 package com.vasoftware.sf.externalintegration.adapters;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.rmi.RemoteException;
+import java.util.Date;
 
 import javax.xml.rpc.ServiceException;
 
@@ -20,6 +24,7 @@ import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
 import com.vasoftware.sf.common.configuration.SfGlobalOptions;
 import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
 import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.FileUtil;
 import com.vasoftware.sf.externalintegration.BlackduckConstants;
 import com.vasoftware.sf.externalintegration.IntegrationFault;
 import com.vasoftware.sf.externalintegration.execution.CommandExecutor;
@@ -27,14 +32,19 @@ import com.vasoftware.sf.externalintegration.execution.CommandExecutorException;
 import com.vasoftware.sf.externalintegration.execution.CommandResult;
 import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
 import com.vasoftware.sf.externalintegration.execution.ExecutionUtil;
+import com.vasoftware.sf.externalintegration.execution.ProcessListener;
 
 /**
- * A process running in a thread that walks through all steps of a blackduck analysis
+ * A process running in a thread that walks through all steps of a blackduck analysis. The output of the bdtool
+ * analysis and the status changes are written to a log next to the working directory.
  *
  * @author Dominick Bellizzi <dbellizzi@vasoftware.com>
  * @version $Revision: 1.11 $ $Date: 2007/05/24 00:37:28 $
  */
 public class BlackduckAnalysis implements Runnable {
+    /** The suffix of the log of an analysis, next to its working directory **/
+    public static final String LOG_SUFFIX = ".log";
+
     private static Logger smLogger = Logger.getLogger(BlackduckAnalysis.class);
 
     private ScmDaemon mScmDaemon;
@@ -45,13 +55,23 @@ public class BlackduckAnalysis implements Runnable {
     private String mExternalBlackduckProjectId;
     private String mRepositoryPath;
     private String mRepositoryPathFromRoot;
-    private String mStatus;
-    private boolean mCancelRequested;
+    private volatile String mStatus;
+    private volatile boolean mCancelRequested;
     private String mBlackduckRepositoryId;
     private CommandExecutor mExecutor;
+    private BlackduckAnalysisManager mManager;
+    private BlackduckWrapper mBlackduck;
+    private File mWorkingDirectory;
+    private OutputStream mLog;
+    private volatile Process mAnalysisProcess;
+    private BlackduckSourceCache mSourceCache;
+    private BlackduckSourceCache.Lease mSourceLease;
+    private boolean mIncremental;
+    private boolean mCheckedOut;
 
     /**
      * Create a blackduck analysis
+     * @param manager The manager running the analysis
      * @param scmDaemon The Scm Daemon calling, to be used to checkout the repository
      * @param hostName The host name of the blackduck server
      * @param port The port of the blackduck server
@@ -63,10 +83,11 @@ public class BlackduckAnalysis implements Runnable {
      * @param repositoryPathFromRoot The relative path to analyze, from the repositoryPath
      * @throws CommandExecutorException thrown if there was a problem getting the executor.
      */
-    public BlackduckAnalysis(ScmDaemon scmDaemon, String hostName, int port, String username,
-				   String password, String blackduckRepositoryId,  String externalBlackduckProjectId,
-				   String repositoryPath, String repositoryPathFromRoot)
-	    throws CommandExecutorException {
+    public BlackduckAnalysis(BlackduckAnalysisManager manager, ScmDaemon scmDaemon, String hostName, int port,
+			     String username, String password, String blackduckRepositoryId,
+			     String externalBlackduckProjectId, String repositoryPath, String repositoryPathFromRoot)
+	throws CommandExecutorException {
+	mManager = manager;
 	mScmDaemon = scmDaemon;
 	mHostName = hostName;
 	mPort = port;
@@ -82,14 +103,16 @@ public class BlackduckAnalysis implements Runnable {
     }
 
     /**
-     * Run the blackduck analysis
+     * Run the blackduck analysis up to the start of the bdtool analysis process. The thread is released while the
+     * process runs; once it exits, the manager calls analysisProcessFinished to upload the analysis.
      * @see Runnable#run()
      */
     public void run() {
+	boolean waitingForAnalysis = false;
 	boolean inException = true;
 	try {
 	    smLogger.debug("Starting analysis for " + mExternalBlackduckProjectId);
-	    BlackduckWrapper blackduck = new BlackduckWrapper(mExecutor);
+	    mBlackduck = new BlackduckWrapper(mExecutor);
 
 	    File blackduckSourceRoot = ScmScmServerDaemon.getBlackduckSourceRoot();
 	    if (!blackduckSourceRoot.exists()) {
@@ -97,63 +120,118 @@ public class BlackduckAnalysis implements Runnable {
 		mExecutor.setOwnerToRwxOthersRxPermissions("nobody", blackduckSourceRoot, true);
 	    }
 
-	    File workingDirectory = new File(blackduckSourceRoot, mExternalBlackduckProjectId);
-	    if (!workingDirectory.exists()) {
-		mExecutor.createPath(workingDirectory);
-		mExecutor.setUserOnPath("nobody", workingDirectory);
+	    // Neither the working directory nor the log are touched before the lease on them is held
+	    mSourceCache = BlackduckSourceCache.getCache();
+	    mSourceLease = mSourceCache.acquire(mExternalBlackduckProjectId);
+	    mIncremental = mSourceLease.isCached();
+
+	    // The log lives next to the working directory, so it is not analyzed itself
+	    mLog = new FileOutputStream(new File(blackduckSourceRoot, mExternalBlackduckProjectId + LOG_SUFFIX));
+	    log("Starting analysis for " + mExternalBlackduckProjectId);
+
+	    mWorkingDirectory = new File(blackduckSourceRoot, mExternalBlackduckProjectId);
+	    if (!mWorkingDirectory.exists()) {
+		mExecutor.createPath(mWorkingDirectory);
+		mExecutor.setUserOnPath("nobody", mWorkingDirectory);
 	    }
 
 	    setStatus(BlackduckAnalysisManager.STATUS_CHECKOUT);
-	    mScmDaemon.checkoutRepository(mRepositoryPath, mRepositoryPathFromRoot, workingDirectory);
+	    if (mIncremental) {
+		log("Updating the working copy of the previous analysis");
+		mScmDaemon.updateCheckout(mRepositoryPath, mRepositoryPathFromRoot, mWorkingDirectory);
+	    } else {
+		mScmDaemon.checkoutRepository(mRepositoryPath, mRepositoryPathFromRoot, mWorkingDirectory);
+	    }
+	    mCheckedOut = true;
 	    if (isCancelRequested()) {
 		return;
 	    }
 
 	    setStatus(BlackduckAnalysisManager.STATUS_LOGIN);
-	    blackduck.login(mHostName, mPort, mUsername, mPassword, workingDirectory);
+	    mBlackduck.login(mHostName, mPort, mUsername, mPassword, mWorkingDirectory);
 	    if (isCancelRequested()) {
 		return;
 	    }
 
 	    setStatus(BlackduckAnalysisManager.STATUS_ATTACH);
-	    blackduck.attachProject(mExternalBlackduckProjectId, workingDirectory);
+	    mBlackduck.attachProject(mExternalBlackduckProjectId, mWorkingDirectory);
 	    if (isCancelRequested()) {
 		return;
 	    }
 
 	    setStatus(BlackduckAnalysisManager.STATUS_ANALYZE);
-	    Process blackduckAnalysisProcess = blackduck.beginAnalysis(workingDirectory);
-
-	    // While the analysis is running, check if a cancel has been requested
-	    while (!finished(blackduckAnalysisProcess) && !isCancelRequested()) {
-		try {
-		    Thread.sleep(5000); // 5 seconds
-		} catch (InterruptedException e) {
-		    // ignore
+	    ProcessListener listener = new ProcessListener() {
+		public void processFinished(int exitValue) {
+		    mManager.analysisProcessFinished(BlackduckAnalysis.this, exitValue);
 		}
-	    }
+	    };
+	    mAnalysisProcess = mBlackduck.beginAnalysis(mWorkingDirectory, mIncremental, mLog, listener);
+	    waitingForAnalysis = true;
 
-	    if (blackduckAnalysisProcess.exitValue() != CommandResult.RETURN_SUCCESS) {
-		throw new CommandWrapperFault("bdstool --expert-mode --rescan aggressive analyze", 
-					      "Blackduck analysis failed");
+	    // A cancel which came in while the process was being started did not see it
+	    if (isCancelRequested()) {
+		mAnalysisProcess.destroy();
 	    }
+	    inException = false;
+	} catch (IntegrationFault f) {
+	    smLogger.error("Error in blackduck analysis", f);
+	    setStatus(BlackduckAnalysisManager.STATUS_EXCEPTION);
+	} catch (CommandWrapperFault commandWrapperFault) {
+	    smLogger.error("Error in blackduck analysis", commandWrapperFault);
+	    setStatus(BlackduckAnalysisManager.STATUS_EXCEPTION);
+	} catch (IOException e) {
+	    smLogger.error("Error opening the log of blackduck analysis", e);
+	    setStatus(BlackduckAnalysisManager.STATUS_EXCEPTION);
+	} catch (CommandExecutorException e) {
+	    smLogger.error("Error in blackduck analysis", e);
+	    setStatus(BlackduckAnalysisManager.STATUS_EXCEPTION);
+	} catch (InterruptedException e) {
+	    smLogger.error("Interrupted waiting for the working copy of " + mExternalBlackduckProjectId, e);
+	    setStatus(BlackduckAnalysisManager.STATUS_EXCEPTION);
+	    Thread.currentThread().interrupt();
+	} finally {
+	    if (!waitingForAnalysis) {
+		complete(inException);
+	    }
+	}
+    }
 
+    /**
+     * Upload the analysis once the bdtool analysis process has exited. Called by the manager on one of its threads.
+     * @param exitValue The exit value of the analysis process
+     */
+    void analysisProcessFinished(int exitValue) {
+	boolean inException = true;
+	try {
+	    mAnalysisProcess = null;
+	    log("Analysis process exited with " + exitValue);
 	    if (isCancelRequested()) {
-		blackduckAnalysisProcess.destroy();
 		return;
 	    }
 
+	    if (exitValue != CommandResult.RETURN_SUCCESS) {
+		throw new CommandWrapperFault("bdstool --expert-mode --rescan aggressive analyze", 
+					      "Blackduck analysis failed");
+	    }
+
 	    setStatus(BlackduckAnalysisManager.STATUS_UPLOAD);
-	    blackduck.uploadAnalysis(workingDirectory);
+	    mBlackduck.uploadAnalysis(mWorkingDirectory);
 	    smLogger.debug("Finished analysis for " + mExternalBlackduckProjectId);
 	    inException = false;
-	} catch (IntegrationFault f) {
-	    smLogger.error("Error in blackduck analysis", f);
-	    setStatus(BlackduckAnalysisManager.STATUS_EXCEPTION);
 	} catch (CommandWrapperFault commandWrapperFault) {
 	    smLogger.error("Error in blackduck analysis", commandWrapperFault);
 	    setStatus(BlackduckAnalysisManager.STATUS_EXCEPTION);
 	} finally {
+	    complete(inException);
+	}
+    }
+
+    /**
+     * Report the outcome of the analysis and release its slot in the manager
+     * @param inException Whether the analysis failed
+     */
+    private void complete(boolean inException) {
+	try {
 	    String status = BlackduckConstants.ANALYSIS_STATUS_COMPLETED;
 	    if (isCancelRequested()) {
 		status = BlackduckConstants.ANALYSIS_STATUS_CANCELLED;
@@ -162,35 +240,31 @@ public class BlackduckAnalysis implements Runnable {
 		status = BlackduckConstants.ANALYSIS_STATUS_ERROR;
 		smLogger.warn("Error in analysis of " + mExternalBlackduckProjectId);
 	    }
+	    log("Analysis " + status);
 
 	    // Report back to sourceforge
 	    notifyAnalysisComplete(mBlackduckRepositoryId, status);
+	} finally {
+	    FileUtil.close(mLog);
 
-	    // Thread is about to finish, clean it from the manager
-	    BlackduckAnalysisManager manager = BlackduckAnalysisManager.getManager();
-	    manager.cleanupThread(mExternalBlackduckProjectId);
-	}
-    }
-
-    /**
-     * Check to see if a process is finished.
-     * @param blackduckAnalysisProcess The process to check
-     * @return Finished or not
-     */
-    private boolean finished(Process blackduckAnalysisProcess) {
-	try {
-	    blackduckAnalysisProcess.exitValue();
-	    return true;
-	} catch (IllegalThreadStateException e) {
-	    return false;
+	    // A working copy left by a failed checkout or update can not be trusted for the next analysis
+	    if (mSourceLease != null) {
+		mSourceCache.release(mSourceLease, mCheckedOut);
+	    }
+	    mManager.analysisFinished(this);
 	}
     }
 
     /**
-     * Cancel the running process
+     * Cancel the running process. A running bdtool process is destroyed right away, which completes the analysis.
      */
     public void cancel() {
 	mCancelRequested = true;
+
+	Process analysisProcess = mAnalysisProcess;
+	if (analysisProcess != null) {
+	    analysisProcess.destroy();
+	}
     }
 
     /**
@@ -202,11 +276,35 @@ public class BlackduckAnalysis implements Runnable {
     }
 
     /**
-     * Set the status of the current process
+     * Set the status of the current process and report it to the manager
      * @param status The status
      */
     private void setStatus(String status) {
 	mStatus = status;
+	log("Status " + status);
+	mManager.statusChanged(this, status);
+    }
+
+    /**
+     * Write a line to the analysis log, in between the output of the bdtool process
+     * @param message The message
+     */
+    private void log(String message) {
+	OutputStream log = mLog;
+	if (log == null) {
+	    return;
+	}
+
+	try {
+	    byte[] line = (new Date() + " " + message + "\n").getBytes();
+	    synchronized (log) {
+		log.write(line);
+		log.flush();
+	    }
+	} catch (IOException e) {
+	    smLogger.debug("Could not write to the log of analysis " + mExternalBlackduckProjectId + ": "
+			   + e.getMessage());
+	}
     }
 
     /**
@@ -217,6 +315,22 @@ public class BlackduckAnalysis implements Runnable {
 	return mStatus;
     }
 
+    /**
+     * Get the host name of the blackduck server
+     * @return The host name
+     */
+    public String getHostName() {
+	return mHostName;
+    }
+
+    /**
+     * Get the external blackduck project id the analysis reports against
+     * @return The project id
+     */
+    public String getExternalBlackduckProjectId() {
+	return mExternalBlackduckProjectId;
+    }
+
 
     /**
      * Set the analysis status to completed after the BlackDuckAnalysys thread is done with its analysis
@@ -7,16 +7,27 @@
 
 package com.vasoftware.sf.externalintegration.adapters;
 
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
 import com.vasoftware.sf.common.logger.Logger;
 import com.vasoftware.sf.externalintegration.execution.CommandExecutorException;
 
 /**
- * A singleton manager that collects threads that perform a blackduck analysis and can handle cancelling and getting the
- * status from them.
+ * A singleton manager that runs blackduck analyses on a bounded pool of threads and can handle cancelling and getting
+ * the status from them. Analyses beyond the configured number of concurrent analyses, overall or against the same
+ * blackduck server, wait in a FIFO queue; an analysis is started as soon as a thread and its server have room.
+ * 
+ * The bdtool analysis process of a running analysis is supervised by the shared process drainer rather than by a
+ * polling thread: the analysis thread is released while the process runs and the upload is run on a pool thread as
+ * soon as the process exits. Analyses push their status changes here as they happen.
  * 
  * @author Dominick Bellizzi <dbellizzi@vasoftware.com>
  * @version $Revision: 1.5 $ $Date: 2007/05/24 00:37:28 $
@@ -49,16 +60,65 @@ public class BlackduckAnalysisManager {
     /** Not running an analysis **/
     public static final String STATUS_NOT_RUNNING = "not_running";
 
+    /** Waiting for a free slot; reported as "queued:&lt;position&gt;", the position starting at 1 **/
+    public static final String STATUS_QUEUED = "queued";
+
+    /** Default number of analyses run at the same time **/
+    public static final int DEFAULT_MAX_ANALYSES = 2;
+
+    /** Default number of analyses run at the same time against one blackduck server **/
+    public static final int DEFAULT_MAX_ANALYSES_PER_HOST = 1;
+
     private static Logger smLogger = Logger.getLogger(BlackduckAnalysisManager.class);
     private static BlackduckAnalysisManager smManager;
 
-    private final Map<String, BlackduckAnalysis> mAnalysisMap;
+    private final int mMaxAnalyses;
+    private final int mMaxAnalysesPerHost;
+    private final ExecutorService mExecutor;
+
+    /** All queued and running analyses, by external project id */
+    private final Map<String, BlackduckAnalysis> mAnalysisMap = new HashMap<String, BlackduckAnalysis>();
+
+    /** The last status pushed by the running analyses, by external project id */
+    private final Map<String, String> mStatusMap = new HashMap<String, String>();
+
+    /** The analyses waiting for a slot, in the order they were requested */
+    private final LinkedList<BlackduckAnalysis> mQueue = new LinkedList<BlackduckAnalysis>();
+
+    /** The number of running analyses by blackduck server */
+    private final Map<String, Integer> mRunningByHost = new HashMap<String, Integer>();
+
+    private int mRunning;
 
     /**
      * A singleton blackduck analysis manager
      */
     public BlackduckAnalysisManager() {
-        mAnalysisMap = Collections.synchronizedMap(new HashMap<String, BlackduckAnalysis>());
+        this(getLimit(GlobalOptionKeys.SFMAIN_INTEGRATION_BLACKDUCK_MAX_ANALYSES, DEFAULT_MAX_ANALYSES),
+             getLimit(GlobalOptionKeys.SFMAIN_INTEGRATION_BLACKDUCK_MAX_ANALYSES_PER_HOST,
+                      DEFAULT_MAX_ANALYSES_PER_HOST));
+    }
+
+    /**
+     * A blackduck analysis manager with the given limits
+     * 
+     * @param maxAnalyses
+     *            The number of analyses run at the same time
+     * @param maxAnalysesPerHost
+     *            The number of analyses run at the same time against one blackduck server
+     */
+    BlackduckAnalysisManager(final int maxAnalyses, final int maxAnalysesPerHost) {
+        mMaxAnalyses = maxAnalyses;
+        mMaxAnalysesPerHost = maxAnalysesPerHost;
+        mExecutor = Executors.newFixedThreadPool(maxAnalyses, new ThreadFactory() {
+            private int mThreadNumber;
+
+            public synchronized Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "blackduck-analysis-" + ++mThreadNumber);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     /**
@@ -78,7 +138,7 @@ public class BlackduckAnalysisManager {
     }
 
     /**
-     * Begin a blackduck analysis
+     * Begin a blackduck analysis, or queue it if there is no room to run it now
      * 
      * @param daemon
      *            The Scm Daemon calling, to be used to checkout the repository
@@ -106,40 +166,49 @@ public class BlackduckAnalysisManager {
                                        final String blackduckRepositoryId, final String externalBlackduckProjectId,
                                        final String repositoryPath, final String repositoryPathFromRoot)
                                                                                                         throws CommandExecutorException {
-        BlackduckAnalysis analysis;
-
-        synchronized (mAnalysisMap) {
+        synchronized (this) {
             // Only start analysis again if one is already running
             if (mAnalysisMap.containsKey(externalBlackduckProjectId)) {
                 smLogger.debug("analysis thread already running for " + externalBlackduckProjectId);
                 return;
             }
 
-            analysis = new BlackduckAnalysis(daemon, hostName, port, username, password, blackduckRepositoryId,
-                                             externalBlackduckProjectId, repositoryPath, repositoryPathFromRoot);
+            final BlackduckAnalysis analysis = new BlackduckAnalysis(this, daemon, hostName, port, username, password,
+                                                                     blackduckRepositoryId,
+                                                                     externalBlackduckProjectId, repositoryPath,
+                                                                     repositoryPathFromRoot);
             mAnalysisMap.put(externalBlackduckProjectId, analysis);
-        }
+            mQueue.add(analysis);
+            startQueuedAnalyses();
 
-        final Thread analysisThread = new Thread(analysis);
-        analysisThread.start();
+            if (mQueue.contains(analysis)) {
+                smLogger.info("Queued blackduck analysis for " + externalBlackduckProjectId + " at position "
+                              + mQueue.size());
+            }
+        }
     }
 
     /**
-     * Cancel an existing blackduck analysis
+     * Cancel an existing blackduck analysis. A queued analysis is simply dropped; it never started, so nothing is
+     * reported back for it. A new analysis of the project may be begun right away; it waits for the cancelled one to
+     * hand back the working copy before it touches it.
      * 
      * @param externalBlackduckProjectId
      *            The analysis to cancel
      */
-    public void cancel(final String externalBlackduckProjectId) {
+    public synchronized void cancel(final String externalBlackduckProjectId) {
         smLogger.debug("Cancel called for " + externalBlackduckProjectId);
 
         final BlackduckAnalysis analysis = mAnalysisMap.get(externalBlackduckProjectId);
 
-        if (analysis != null) {
+        if (analysis == null) {
+            smLogger.debug("Cancel called on non running analysis for " + externalBlackduckProjectId);
+        } else if (mQueue.remove(analysis)) {
+            mAnalysisMap.remove(externalBlackduckProjectId);
+            mStatusMap.remove(externalBlackduckProjectId);
+        } else {
             analysis.cancel();
             cleanupThread(externalBlackduckProjectId);
-        } else {
-            smLogger.debug("Cancel called on non running analysis for " + externalBlackduckProjectId);
         }
     }
 
@@ -149,9 +218,71 @@ public class BlackduckAnalysisManager {
      * @param externalBlackduckProjectId
      *            The analysis to cleanup
      */
-    public void cleanupThread(final String externalBlackduckProjectId) {
+    public synchronized void cleanupThread(final String externalBlackduckProjectId) {
         smLogger.debug("Cleanup called for " + externalBlackduckProjectId);
-        mAnalysisMap.remove(externalBlackduckProjectId);
+        final BlackduckAnalysis analysis = mAnalysisMap.get(externalBlackduckProjectId);
+        if (analysis != null && !mQueue.contains(analysis)) {
+            mAnalysisMap.remove(externalBlackduckProjectId);
+            mStatusMap.remove(externalBlackduckProjectId);
+        }
+    }
+
+    /**
+     * Record the new status of a running analysis
+     * 
+     * @param analysis
+     *            The analysis
+     * @param status
+     *            The status it just entered
+     */
+    synchronized void statusChanged(final BlackduckAnalysis analysis, final String status) {
+        // A cancelled analysis is no longer reported on
+        if (mAnalysisMap.get(analysis.getExternalBlackduckProjectId()) == analysis) {
+            mStatusMap.put(analysis.getExternalBlackduckProjectId(), status);
+            smLogger.debug("Analysis of " + analysis.getExternalBlackduckProjectId() + " is now " + status);
+        }
+    }
+
+    /**
+     * Hand the rest of an analysis to a pool thread once its bdtool process has exited. This is called from the
+     * thread which drained the output of the process.
+     * 
+     * @param analysis
+     *            The analysis
+     * @param exitValue
+     *            The exit value of the bdtool process
+     */
+    void analysisProcessFinished(final BlackduckAnalysis analysis, final int exitValue) {
+        // The analysis still holds its slot, so a thread is always free for it
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                analysis.analysisProcessFinished(exitValue);
+            }
+        });
+    }
+
+    /**
+     * Release the slot of a finished analysis and start the queued analyses which fit now
+     * 
+     * @param analysis
+     *            The finished analysis
+     */
+    synchronized void analysisFinished(final BlackduckAnalysis analysis) {
+        // A cancelled analysis may already have been replaced by a new one for the same project
+        if (mAnalysisMap.get(analysis.getExternalBlackduckProjectId()) == analysis) {
+            mAnalysisMap.remove(analysis.getExternalBlackduckProjectId());
+            mStatusMap.remove(analysis.getExternalBlackduckProjectId());
+        }
+
+        mRunning--;
+        final int runningOnHost = mRunningByHost.get(analysis.getHostName()).intValue() - 1;
+        if (runningOnHost == 0) {
+            mRunningByHost.remove(analysis.getHostName());
+        } else {
+            mRunningByHost.put(analysis.getHostName(), Integer.valueOf(runningOnHost));
+        }
+
+        startQueuedAnalyses();
     }
 
     /**
@@ -161,15 +292,56 @@ public class BlackduckAnalysisManager {
      *            The analysis to get the status for
      * @return The status
      */
-    public String getStatus(final String externalBlackduckProjectId) {
+    public synchronized String getStatus(final String externalBlackduckProjectId) {
         smLogger.debug("Status called for " + externalBlackduckProjectId);
 
         final BlackduckAnalysis analysis = mAnalysisMap.get(externalBlackduckProjectId);
 
-        if (analysis != null) {
-            return analysis.getStatus();
-        } else {
+        if (analysis == null) {
             return STATUS_NOT_RUNNING;
         }
+
+        final int position = mQueue.indexOf(analysis);
+        if (position >= 0) {
+            return STATUS_QUEUED + ":" + (position + 1);
+        }
+
+        final String status = mStatusMap.get(externalBlackduckProjectId);
+        return status == null ? STATUS_STARTED : status;
+    }
+
+    /**
+     * Start queued analyses, oldest first, while there are free threads. An analysis whose blackduck server is busy
+     * stays queued without holding up the analyses behind it.
+     */
+    private void startQueuedAnalyses() {
+        for (final Iterator<BlackduckAnalysis> iterator = mQueue.iterator(); iterator.hasNext()
+                                                                        && mRunning < mMaxAnalyses;) {
+            final BlackduckAnalysis analysis = iterator.next();
+            final Integer runningOnHost = mRunningByHost.get(analysis.getHostName());
+            final int running = runningOnHost == null ? 0 : runningOnHost.intValue();
+            if (running >= mMaxAnalysesPerHost) {
+                continue;
+            }
+
+            iterator.remove();
+            mRunning++;
+            mRunningByHost.put(analysis.getHostName(), Integer.valueOf(running + 1));
+            // The analysis calls analysisFinished itself, which may be after its bdtool process exited
+            mExecutor.execute(analysis);
+        }
+    }
+
+    /**
+     * Read a limit from the global options
+     * 
+     * @param key
+     *            The option key
+     * @param defaultValue
+     *            The value to use if the option is not set or not valid
+     * @return The limit, at least 1
+     */
+    private static int getLimit(final String key, final int defaultValue) {
+        return Math.max(1, SfGlobalOptionsManager.getOptions().getIntOption(key, defaultValue));
     }
 }
@@ -135,7 +135,8 @@ public class BlackduckScmServerDaemon implements BlackduckScmSupport {
     }
 
     /**
-     * Cleanup the checked out repositories and blackduck files
+     * Cleanup the checked out repositories and blackduck files. With the blackduck source cache enabled the working
+     * copy is kept for the next analysis, until the cache evicts it.
      * 
      * @param externalBlackduckProjectId
      *            The blackduck project id
@@ -145,12 +146,12 @@ public class BlackduckScmServerDaemon implements BlackduckScmSupport {
     public void cleanupBlackduckRepository(final String externalBlackduckProjectId) throws IntegrationFault {
         smLogger.debug("Cleaning up directory " + externalBlackduckProjectId);
 
-        final File blackduckSourceRoot = getBlackduckSourceRoot();
-        final File workingDirectory = new File(blackduckSourceRoot, externalBlackduckProjectId);
         try {
-            mExecutor.deletePath(workingDirectory);
+            BlackduckSourceCache.getCache().cleanup(externalBlackduckProjectId);
         } catch (final CommandWrapperFault commandWrapperFault) {
             throw new IntegrationFault(commandWrapperFault);
+        } catch (final CommandExecutorException e) {
+            throw new IntegrationFault("Error getting command executor", e);
         }
     }
 
@@ -0,0 +1,456 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.adapters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.FileUtil;
+import com.vasoftware.sf.externalintegration.execution.CommandExecutor;
+import com.vasoftware.sf.externalintegration.execution.CommandExecutorException;
+import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
+import com.vasoftware.sf.externalintegration.execution.ExecutionUtil;
+
+/**
+ * Keeps the working copies of blackduck analyses under the blackduck source root between analyses, so that the next
+ * analysis of a project only has to update its working copy instead of checking the whole repository out again.
+ *
+ * The cache is bounded by a disk quota. Whenever a working copy is handed back, the least recently used working copies
+ * which are not being analyzed are deleted until the cache fits in its quota again. The size and last use of every
+ * working copy are kept in an index file in the source root, so the cache survives restarts. A quota of 0 disables
+ * the cache: working copies are then deleted when they are cleaned up, as they used to be.
+ *
+ * A working copy, and the analysis log next to it, belong to one analysis at a time: the analysis holds a lease on the
+ * project from acquire to release, and a second analysis of the same project, e.g. one started right after a cancel,
+ * waits for the lease before it touches either.
+ */
+class BlackduckSourceCache {
+    private static final Logger smLogger = Logger.getLogger(BlackduckSourceCache.class);
+
+    /** Default disk quota of the cache, in megabytes */
+    public static final int DEFAULT_QUOTA_MB = 10240;
+
+    private static final String INDEX_FILE = ".source-cache.properties";
+
+    private static BlackduckSourceCache smCache;
+
+    private final File mRoot;
+    private final long mQuota;
+    private final CommandExecutor mExecutor;
+
+    /** "lastUsed size" of every cached working copy, by external project id */
+    private final Properties mIndex = new Properties();
+
+    /** The lease on every project whose working copy is being analyzed, by external project id */
+    private final Map<String, Lease> mInUse = new HashMap<String, Lease>();
+
+    /**
+     * Constructor.
+     *
+     * @param root
+     *            the blackduck source root
+     * @param quota
+     *            the disk quota in bytes, 0 to disable the cache
+     * @param executor
+     *            the executor used to delete working copies
+     */
+    BlackduckSourceCache(final File root, final long quota, final CommandExecutor executor) {
+        mRoot = root;
+        mQuota = quota;
+        mExecutor = executor;
+
+        if (isEnabled()) {
+            loadIndex();
+        }
+    }
+
+    /**
+     * Get the cache of the blackduck source root.
+     *
+     * @return the cache
+     * @throws CommandExecutorException
+     *             thrown if the command executor could not be created
+     */
+    static synchronized BlackduckSourceCache getCache() throws CommandExecutorException {
+        if (smCache == null) {
+            final long quota = getQuotaMb() * 1024L * 1024L;
+            smCache = new BlackduckSourceCache(BlackduckScmServerDaemon.getBlackduckSourceRoot(), quota,
+                                               ExecutionUtil.getCommandExecutor());
+        }
+
+        return smCache;
+    }
+
+    /**
+     * Is the cache enabled.
+     *
+     * @return true if working copies are kept between analyses
+     */
+    boolean isEnabled() {
+        return mQuota > 0;
+    }
+
+    /**
+     * Take the working copy of a project for an analysis, waiting while another analysis holds it. It is not evicted
+     * until it is released.
+     *
+     * @param projectId
+     *            the external blackduck project id
+     * @return the lease on the working copy, to be handed back to release
+     * @throws InterruptedException
+     *             thrown if the thread was interrupted while waiting
+     */
+    synchronized Lease acquire(final String projectId) throws InterruptedException {
+        if (mInUse.containsKey(projectId)) {
+            smLogger.info("Waiting for the previous analysis of " + projectId + " to release its working copy");
+            while (mInUse.containsKey(projectId)) {
+                wait();
+            }
+        }
+
+        final boolean cached = isEnabled() && mIndex.containsKey(projectId)
+                               && new File(mRoot, projectId).isDirectory();
+        if (!cached) {
+            mIndex.remove(projectId);
+        }
+
+        final Lease lease = new Lease(projectId, cached);
+        mInUse.put(projectId, lease);
+        return lease;
+    }
+
+    /**
+     * Hand back the working copy of a project after an analysis and evict working copies beyond the quota. A lease
+     * which was already released is ignored.
+     *
+     * @param lease
+     *            the lease taken by acquire
+     * @param keep
+     *            false if the working copy may be incomplete, e.g. after a failed checkout, and must not be reused
+     */
+    void release(final Lease lease, final boolean keep) {
+        final String projectId = lease.getProjectId();
+
+        // Walk the working copy before taking the lock; nobody else uses it until it is released
+        final long size = keep && isEnabled() && isHeld(lease) ? sizeOf(new File(mRoot, projectId)) : 0;
+
+        synchronized (this) {
+            if (mInUse.get(projectId) != lease) {
+                smLogger.warn("Ignoring a second release of the working copy of " + projectId);
+                return;
+            }
+            mInUse.remove(projectId);
+            notifyAll();
+
+            if (keep && isEnabled()) {
+                mIndex.setProperty(projectId, System.currentTimeMillis() + " " + size);
+            } else if (isEnabled()) {
+                mIndex.remove(projectId);
+                delete(projectId);
+            }
+
+            trim();
+        }
+    }
+
+    /**
+     * Clean up the working copy of a project on request. With the cache enabled, the working copy is kept for the next
+     * analysis and the cache is trimmed to its quota; otherwise it is deleted.
+     *
+     * @param projectId
+     *            the external blackduck project id
+     * @throws CommandWrapperFault
+     *             thrown if the working copy could not be deleted
+     */
+    synchronized void cleanup(final String projectId) throws CommandWrapperFault {
+        if (mInUse.containsKey(projectId)) {
+            smLogger.info("Not cleaning up the working copy of " + projectId + ", it is being analyzed");
+            return;
+        }
+
+        if (!isEnabled()) {
+            mExecutor.deletePath(new File(mRoot, projectId));
+            return;
+        }
+
+        smLogger.debug("Keeping the working copy of " + projectId + " in the blackduck source cache");
+        trim();
+    }
+
+    /**
+     * Is a lease still held.
+     *
+     * @param lease
+     *            the lease
+     * @return true if the lease was not released yet
+     */
+    private synchronized boolean isHeld(final Lease lease) {
+        return mInUse.get(lease.getProjectId()) == lease;
+    }
+
+    /**
+     * Evict the least recently used working copies which are not in use until the cache fits in its quota, and save
+     * the index.
+     */
+    private void trim() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        long total = 0;
+        final List<String> candidates = new ArrayList<String>();
+        for (final Object key : mIndex.keySet()) {
+            final String projectId = (String) key;
+            total += getSize(projectId);
+            if (!mInUse.containsKey(projectId)) {
+                candidates.add(projectId);
+            }
+        }
+
+        Collections.sort(candidates, new Comparator<String>() {
+            public int compare(final String first, final String second) {
+                final long firstUsed = getLastUsed(first);
+                final long secondUsed = getLastUsed(second);
+                return firstUsed < secondUsed ? -1 : (firstUsed == secondUsed ? 0 : 1);
+            }
+        });
+
+        for (final String projectId : candidates) {
+            if (total <= mQuota) {
+                break;
+            }
+
+            total -= getSize(projectId);
+            mIndex.remove(projectId);
+            delete(projectId);
+            smLogger.info("Evicted the working copy of " + projectId + " from the blackduck source cache");
+        }
+
+        saveIndex();
+    }
+
+    /**
+     * Delete the working copy and analysis log of a project.
+     *
+     * @param projectId
+     *            the external blackduck project id
+     */
+    private void delete(final String projectId) {
+        try {
+            mExecutor.deletePath(new File(mRoot, projectId));
+        } catch (final CommandWrapperFault e) {
+            smLogger.warn("Could not delete the working copy of " + projectId + ": " + e.getMessage());
+        }
+
+        new File(mRoot, projectId + BlackduckAnalysis.LOG_SUFFIX).delete();
+    }
+
+    /**
+     * Get the recorded size of a working copy.
+     *
+     * @param projectId
+     *            the external blackduck project id
+     * @return the size in bytes
+     */
+    private long getSize(final String projectId) {
+        return getIndexField(projectId, 1);
+    }
+
+    /**
+     * Get the last use of a working copy.
+     *
+     * @param projectId
+     *            the external blackduck project id
+     * @return the time of the last use
+     */
+    private long getLastUsed(final String projectId) {
+        return getIndexField(projectId, 0);
+    }
+
+    /**
+     * Get a field of an index entry.
+     *
+     * @param projectId
+     *            the external blackduck project id
+     * @param field
+     *            the field number
+     * @return the field value, or 0 if the entry is not valid
+     */
+    private long getIndexField(final String projectId, final int field) {
+        final String[] fields = mIndex.getProperty(projectId, "").split(" ");
+        try {
+            return fields.length > field ? Long.parseLong(fields[field]) : 0;
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Compute the size of a working copy. Symbolic links are counted but not followed.
+     *
+     * @param directory
+     *            the working copy
+     * @return the size in bytes
+     */
+    private static long sizeOf(final File directory) {
+        try {
+            return sizeOf(directory, directory.getCanonicalPath());
+        } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Compute the size of a directory.
+     *
+     * @param directory
+     *            the directory
+     * @param canonicalPath
+     *            the canonical path of the directory
+     * @return the size in bytes
+     * @throws IOException
+     *             thrown if a canonical path could not be resolved
+     */
+    private static long sizeOf(final File directory, final String canonicalPath) throws IOException {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return 0;
+        }
+
+        long size = 0;
+        for (final File child : children) {
+            final String childPath = canonicalPath + File.separator + child.getName();
+            if (child.isDirectory() && childPath.equals(child.getCanonicalPath())) {
+                size += sizeOf(child, childPath);
+            } else {
+                size += child.length();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Read the index, dropping the entries whose working copy is gone.
+     */
+    private void loadIndex() {
+        final File indexFile = new File(mRoot, INDEX_FILE);
+        if (!indexFile.isFile()) {
+            return;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(indexFile);
+            mIndex.load(in);
+        } catch (final IOException e) {
+            smLogger.warn("Could not read the blackduck source cache index, starting empty: " + e.getMessage());
+            mIndex.clear();
+        } finally {
+            FileUtil.close(in);
+        }
+
+        for (final Object projectId : new ArrayList<Object>(mIndex.keySet())) {
+            if (!new File(mRoot, (String) projectId).isDirectory()) {
+                mIndex.remove(projectId);
+            }
+        }
+    }
+
+    /**
+     * Write the index, through a temporary file so a crash can not leave a truncated index behind.
+     */
+    private void saveIndex() {
+        if (!mRoot.isDirectory()) {
+            return;
+        }
+
+        final File indexFile = new File(mRoot, INDEX_FILE);
+        final File tmpFile = new File(mRoot, INDEX_FILE + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            mIndex.store(out, "blackduck source cache: lastUsed size");
+            out.close();
+            out = null;
+
+            if (!tmpFile.renameTo(indexFile)) {
+                indexFile.delete();
+                if (!tmpFile.renameTo(indexFile)) {
+                    throw new IOException("Could not rename " + tmpFile + " to " + indexFile);
+                }
+            }
+        } catch (final IOException e) {
+            smLogger.warn("Could not write the blackduck source cache index: " + e.getMessage());
+        } finally {
+            FileUtil.close(out);
+        }
+    }
+
+    /**
+     * Read the quota from the global options.
+     *
+     * @return the quota in megabytes, 0 if the cache is disabled
+     */
+    private static int getQuotaMb() {
+        final String key = GlobalOptionKeys.SFMAIN_INTEGRATION_BLACKDUCK_SOURCE_CACHE_MB;
+        return SfGlobalOptionsManager.getOptions().getIntOption(key, DEFAULT_QUOTA_MB);
+    }
+
+    /**
+     * The hold of one analysis on the working copy and log of a project.
+     */
+    static final class Lease {
+        private final String mProjectId;
+        private final boolean mCached;
+
+        /**
+         * Constructor.
+         *
+         * @param projectId
+         *            the external blackduck project id
+         * @param cached
+         *            whether the working copy of an earlier analysis is there to be updated
+         */
+        private Lease(final String projectId, final boolean cached) {
+            mProjectId = projectId;
+            mCached = cached;
+        }
+
+        /**
+         * Get the project of the working copy.
+         *
+         * @return the external blackduck project id
+         */
+        String getProjectId() {
+            return mProjectId;
+        }
+
+        /**
+         * Is the working copy of an earlier analysis there to be updated.
+         *
+         * @return true if it is, false if a full checkout is needed
+         */
+        boolean isCached() {
+            return mCached;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.vasoftware.sf.externalintegration.adapters;
 
 import java.io.File;
+import java.io.OutputStream;
 
 import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
 import com.vasoftware.sf.common.configuration.SfGlobalOptions;
@@ -9,6 +10,7 @@ import com.vasoftware.sf.common.logger.Logger;
 import com.vasoftware.sf.externalintegration.execution.CommandExecutor;
 import com.vasoftware.sf.externalintegration.execution.CommandResult;
 import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
+import com.vasoftware.sf.externalintegration.execution.ProcessListener;
 
 /**
  * Class which provides a clean looking wrapper around a bunch of dirty system exec calls to CVS.
@@ -104,16 +106,22 @@ public class BlackduckWrapper {
     }
 
     /**
-     * Run blackduck analysis
+     * Run blackduck analysis. A full analysis rescans every file; an incremental one leaves bdtool to its default of
+     * only scanning the files which are new or changed since the previous analysis of the same working copy.
      *
      * @param path the path to create the repository on.
+     * @param incremental whether the working copy was analyzed before and only updated since
+     * @param log the stream to copy the output of the analysis to
+     * @param listener the listener to call when the analysis process has exited
      * @return The running analysis process
      * @throws CommandWrapperFault An error occurred while executing the command.
      */
-    public Process beginAnalysis(File path) throws CommandWrapperFault {
-        smLogger.info("Blackduck begin analysis started in " + path);
-	String cmdString[] = {mBdtoolBinary, "--expert-mode", "--rescan", "aggressive", ANALYZE};
-	return mExecutor.runCommandAsync(cmdString, null, path);
+    public Process beginAnalysis(File path, boolean incremental, OutputStream log, ProcessListener listener)
+	throws CommandWrapperFault {
+        smLogger.info("Blackduck begin " + (incremental ? "incremental" : "full") + " analysis started in " + path);
+	String cmdString[] = incremental ? new String[] {mBdtoolBinary, "--expert-mode", ANALYZE}
+	    : new String[] {mBdtoolBinary, "--expert-mode", "--rescan", "aggressive", ANALYZE};
+	return mExecutor.runCommandSupervised(cmdString, null, path, log, listener);
     }
 
     /**
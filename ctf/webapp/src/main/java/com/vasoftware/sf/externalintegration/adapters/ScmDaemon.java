@@ -85,6 +85,17 @@ public interface ScmDaemon {
 					       File destinationDirectory)
 	    throws IntegrationFault;
 
+    /**
+     * Brings a checkout made earlier by checkoutRepository into the same destination up to date, only
+     * transferring what changed.  Falls back to a full checkout if there is nothing to update.
+     * @param repositoryPath the root path for the repository
+     * @param repositoryPathFromRoot the path to the repository from the root path
+     * @param destinationDirectory destination directory the repository was checked out to
+     * @throws IntegrationFault if something is wrong
+     */
+    void updateCheckout(String repositoryPath, String repositoryPathFromRoot, File destinationDirectory)
+	    throws IntegrationFault;
+
     /**
      * Move the repository to archive location.
      * @param repositoryPath the root path for the repository
@@ -0,0 +1,316 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.adapters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.vasoftware.sf.externalintegration.IntegrationFault;
+
+/**
+ * A long-running repository operation run by the <code>ScmJobManager</code> on behalf of an SCM daemon. The state of a
+ * job is kept in a <code>Properties</code> object so it can be written to the job journal and read back after a
+ * restart.
+ */
+public class ScmJob {
+    /** Create a repository: repositoryGroup, repositoryDir, systemId, repositoryBaseUrl */
+    public static final String TYPE_CREATE_REPOSITORY = "createRepository";
+
+    /** Set up a repository: systemId, repositoryId, repositoryDir */
+    public static final String TYPE_SETUP_REPOSITORY = "setupRepository";
+
+    /** Archive a repository: repositoryPath */
+    public static final String TYPE_ARCHIVE_REPOSITORY = "archiveRepository";
+
+    /** Check out a repository: repositoryPath, repositoryPathFromRoot, destinationDirectory */
+    public static final String TYPE_CHECKOUT_REPOSITORY = "checkoutRepository";
+
+    /** Waiting for a worker, or for an earlier job on the same repository */
+    public static final String STATE_QUEUED = "queued";
+
+    /** Being run by a worker */
+    public static final String STATE_RUNNING = "running";
+
+    /** Finished successfully */
+    public static final String STATE_SUCCEEDED = "succeeded";
+
+    /** Finished with an error */
+    public static final String STATE_FAILED = "failed";
+
+    /** Cancelled before it was started */
+    public static final String STATE_CANCELLED = "cancelled";
+
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_DAEMON_CLASS = "daemonClass";
+    private static final String KEY_ARGUMENT = "argument.";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_RESULT = "result";
+    private static final String KEY_ERROR = "error";
+    private static final String KEY_SUBMITTED = "submitted";
+    private static final String KEY_FINISHED = "finished";
+
+    private final String mId;
+    private final String mType;
+    private final String mDaemonClass;
+    private final String[] mArguments;
+    private final long mSubmitted;
+    private String mState;
+    private String mResult;
+    private String mError;
+    private long mFinished;
+
+    /**
+     * Constructor for a new job.
+     *
+     * @param id
+     *            the job id
+     * @param type
+     *            the job type, one of the TYPE_ constants
+     * @param daemonClass
+     *            the class of the daemon to run the job with
+     * @param arguments
+     *            the arguments of the operation
+     * @throws IntegrationFault
+     *             thrown if the type or the number of arguments is wrong
+     */
+    ScmJob(final String id, final String type, final String daemonClass, final String[] arguments)
+            throws IntegrationFault {
+        if (arguments == null || arguments.length != getArgumentCount(type)) {
+            throw new IntegrationFault("Job " + type + " takes " + getArgumentCount(type) + " arguments");
+        }
+
+        mId = id;
+        mType = type;
+        mDaemonClass = daemonClass;
+        mArguments = arguments.clone();
+        mSubmitted = System.currentTimeMillis();
+        mState = STATE_QUEUED;
+    }
+
+    /**
+     * Constructor for a job read from the journal.
+     *
+     * @param id
+     *            the job id
+     * @param properties
+     *            the journaled state of the job
+     * @throws IntegrationFault
+     *             thrown if the journaled state is not valid
+     */
+    ScmJob(final String id, final Properties properties) throws IntegrationFault {
+        mId = id;
+        mType = properties.getProperty(KEY_TYPE);
+        mDaemonClass = properties.getProperty(KEY_DAEMON_CLASS);
+        mState = properties.getProperty(KEY_STATE);
+        mResult = properties.getProperty(KEY_RESULT);
+        mError = properties.getProperty(KEY_ERROR);
+
+        final List<String> arguments = new ArrayList<String>();
+        for (int i = 0; properties.containsKey(KEY_ARGUMENT + i); i++) {
+            final String argument = properties.getProperty(KEY_ARGUMENT + i);
+            arguments.add(argument.length() == 0 ? null : argument);
+        }
+        mArguments = arguments.toArray(new String[arguments.size()]);
+
+        try {
+            mSubmitted = Long.parseLong(properties.getProperty(KEY_SUBMITTED));
+            mFinished = Long.parseLong(properties.getProperty(KEY_FINISHED, "0"));
+        } catch (final NumberFormatException e) {
+            throw new IntegrationFault("Invalid journal entry for job " + id, e);
+        }
+
+        if (mType == null || mDaemonClass == null || mState == null || mArguments.length != getArgumentCount(mType)) {
+            throw new IntegrationFault("Invalid journal entry for job " + id);
+        }
+    }
+
+    /**
+     * Get the number of arguments a job type takes.
+     *
+     * @param type
+     *            the job type
+     * @return the number of arguments
+     * @throws IntegrationFault
+     *             thrown if the type is unknown
+     */
+    private static int getArgumentCount(final String type) throws IntegrationFault {
+        if (TYPE_CREATE_REPOSITORY.equals(type)) {
+            return 4;
+        } else if (TYPE_SETUP_REPOSITORY.equals(type) || TYPE_CHECKOUT_REPOSITORY.equals(type)) {
+            return 3;
+        } else if (TYPE_ARCHIVE_REPOSITORY.equals(type)) {
+            return 1;
+        }
+
+        throw new IntegrationFault("Unknown job type: " + type);
+    }
+
+    /**
+     * Get the path of the repository the job works on. Jobs on the same repository are run one at a time, in the
+     * order they were submitted.
+     *
+     * @param daemon
+     *            the daemon running the job
+     * @return the repository path
+     * @throws IntegrationFault
+     *             thrown if the path can not be resolved
+     */
+    String getRepositoryPath(final ScmScmServerDaemon daemon) throws IntegrationFault {
+        final String path;
+        if (TYPE_CREATE_REPOSITORY.equals(mType)) {
+            path = mArguments[1];
+        } else if (TYPE_SETUP_REPOSITORY.equals(mType)) {
+            path = mArguments[2];
+        } else {
+            path = mArguments[0];
+        }
+
+        return daemon.getRepositoryDirFromCTFRepositoryPath(path).getPath();
+    }
+
+    /**
+     * Run the operation.
+     *
+     * @param daemon
+     *            the daemon to run the operation with
+     * @return the result of the operation, or null if it has none
+     * @throws Exception
+     *             thrown if the operation failed
+     */
+    String execute(final ScmScmServerDaemon daemon) throws Exception {
+        if (TYPE_CREATE_REPOSITORY.equals(mType)) {
+            return daemon.createRepository(mArguments[0], mArguments[1], mArguments[2], mArguments[3]);
+        } else if (TYPE_SETUP_REPOSITORY.equals(mType)) {
+            daemon.setupRepository(mArguments[0], mArguments[1], mArguments[2]);
+            return null;
+        } else if (TYPE_ARCHIVE_REPOSITORY.equals(mType)) {
+            return String.valueOf(daemon.archiveRepository(mArguments[0]));
+        } else {
+            daemon.checkoutRepository(mArguments[0], mArguments[1], new File(mArguments[2]));
+            return null;
+        }
+    }
+
+    /**
+     * Get the journaled state of the job.
+     *
+     * @return the properties to write to the journal
+     */
+    synchronized Properties toProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty(KEY_TYPE, mType);
+        properties.setProperty(KEY_DAEMON_CLASS, mDaemonClass);
+        for (int i = 0; i < mArguments.length; i++) {
+            properties.setProperty(KEY_ARGUMENT + i, mArguments[i] == null ? "" : mArguments[i]);
+        }
+        properties.setProperty(KEY_STATE, mState);
+        if (mResult != null) {
+            properties.setProperty(KEY_RESULT, mResult);
+        }
+        if (mError != null) {
+            properties.setProperty(KEY_ERROR, mError);
+        }
+        properties.setProperty(KEY_SUBMITTED, String.valueOf(mSubmitted));
+        properties.setProperty(KEY_FINISHED, String.valueOf(mFinished));
+
+        return properties;
+    }
+
+    /**
+     * Mark the job as started.
+     */
+    synchronized void started() {
+        mState = STATE_RUNNING;
+    }
+
+    /**
+     * Mark the job as finished.
+     *
+     * @param state
+     *            the final state
+     * @param result
+     *            the result of the operation, or null
+     * @param failure
+     *            the failure, or null if the job did not fail
+     */
+    synchronized void finished(final String state, final String result, final Exception failure) {
+        mState = state;
+        mResult = result;
+        if (failure != null) {
+            mError = failure.getMessage() == null ? failure.getClass().getName() : failure.getMessage();
+        }
+        mFinished = System.currentTimeMillis();
+    }
+
+    /**
+     * Is the job finished, successfully or not.
+     *
+     * @return true if the job will not run anymore
+     */
+    synchronized boolean isFinished() {
+        return !STATE_QUEUED.equals(mState) && !STATE_RUNNING.equals(mState);
+    }
+
+    /**
+     * Get the status of the job.
+     *
+     * @return the state, followed by the result or the error message if there is one
+     */
+    synchronized String[] getStatus() {
+        if (mError != null) {
+            return new String[] { mState, mError };
+        } else if (mResult != null) {
+            return new String[] { mState, mResult };
+        }
+
+        return new String[] { mState };
+    }
+
+    /**
+     * @return the job id
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return the job type
+     */
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * @return the class of the daemon running the job
+     */
+    public String getDaemonClass() {
+        return mDaemonClass;
+    }
+
+    /**
+     * @return when the job was submitted
+     */
+    public long getSubmitted() {
+        return mSubmitted;
+    }
+
+    /**
+     * @return the current state, one of the STATE_ constants
+     */
+    public synchronized String getState() {
+        return mState;
+    }
+
+    /**
+     * @return when the job finished, or 0 if it has not finished
+     */
+    public synchronized long getFinished() {
+        return mFinished;
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.adapters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptions;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.configuration.SfPaths;
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.FileUtil;
+import com.vasoftware.sf.externalintegration.AbstractIntegrationFault;
+import com.vasoftware.sf.externalintegration.IntegrationFault;
+
+/**
+ * A singleton manager running repository jobs on a bounded pool of worker threads. Jobs on the same repository are run
+ * one at a time in the order they were submitted, while jobs on different repositories run in parallel.
+ *
+ * Every submitted job is journaled to a file under the data directory whenever its state changes. After a restart,
+ * jobs which were still queued are submitted again in the order they were first submitted, while jobs which were
+ * running are marked as failed since their operations can not safely be repeated. The recovery runs when the webapp
+ * starts, through {@link ScmJobRecoveryListener}, rather than waiting for the first job request. Finished jobs are kept in the journal for a while so their status can still be
+ * polled.
+ *
+ * The synchronous SOAP methods do not submit jobs: they {@link #run} the operation on the calling thread once the
+ * earlier jobs of the repository are done. Such operations are neither journaled nor counted against the queue limit,
+ * as their caller gets the outcome directly.
+ */
+public class ScmJobManager {
+    private static final Logger smLogger = Logger.getLogger(ScmJobManager.class);
+
+    /** The default number of worker threads */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** The default number of unfinished jobs accepted before submissions are refused */
+    public static final int DEFAULT_QUEUE_LIMIT = 100;
+
+    /** The default number of hours finished jobs are kept */
+    public static final int DEFAULT_RETENTION_HOURS = 24;
+
+    /** The directory under the data directory holding the job journal */
+    private static final String JOURNAL_SUBDIRECTORY = "scm-jobs";
+
+    private static final String JOURNAL_SUFFIX = ".job";
+
+    private static ScmJobManager smManager;
+
+    private final ExecutorService mExecutor;
+    private final int mQueueLimit;
+    private final long mRetention;
+    private final File mJournalDir;
+
+    /** All known jobs, by id */
+    private final Map<String, ScmJob> mJobs = new HashMap<String, ScmJob>();
+
+    /** The unfinished jobs of each repository; the first one is the one running or about to run */
+    private final Map<String, LinkedList<QueuedJob>> mRepositoryQueues = new HashMap<String, LinkedList<QueuedJob>>();
+
+    private int mPendingJobs;
+
+    /**
+     * Constructor.
+     *
+     * @param threads
+     *            the number of worker threads
+     * @param queueLimit
+     *            the number of unfinished jobs accepted
+     * @param retentionHours
+     *            the number of hours finished jobs are kept
+     * @param journalDir
+     *            the journal directory
+     */
+    ScmJobManager(final int threads, final int queueLimit, final int retentionHours, final File journalDir) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                           new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                                               public Thread newThread(final Runnable runnable) {
+                                                   final Thread thread = new Thread(runnable, "scm-job-"
+                                                           + threadNumber.incrementAndGet());
+                                                   thread.setDaemon(true);
+                                                   return thread;
+                                               }
+                                           });
+        mQueueLimit = queueLimit;
+        mRetention = retentionHours * 60L * 60L * 1000L;
+        mJournalDir = journalDir;
+    }
+
+    /**
+     * Get the singleton job manager, recovering the journaled jobs when it is first created.
+     *
+     * @return The manager
+     */
+    public static ScmJobManager getManager() {
+        synchronized (ScmJobManager.class) {
+            if (smManager == null) {
+                final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
+                final int threads =
+                    options.getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SCM_JOB_THREADS, DEFAULT_THREADS);
+                final int queueLimit =
+                    options.getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SCM_JOB_QUEUE_LIMIT, DEFAULT_QUEUE_LIMIT);
+                final int retentionHours = options.getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SCM_JOB_RETENTION,
+                                                                DEFAULT_RETENTION_HOURS);
+                smManager = new ScmJobManager(Math.max(1, threads), Math.max(1, queueLimit), retentionHours,
+                                              new File(SfPaths.dataDir(), JOURNAL_SUBDIRECTORY));
+                smManager.recover();
+            }
+            return smManager;
+        }
+    }
+
+    /**
+     * Submit a job.
+     *
+     * @param daemon
+     *            the daemon to run the job with
+     * @param type
+     *            the job type, one of the ScmJob.TYPE_ constants
+     * @param arguments
+     *            the arguments of the operation
+     * @return the job
+     * @throws IntegrationFault
+     *             thrown if the job is not valid or too many jobs are queued
+     */
+    public ScmJob submit(final ScmScmServerDaemon daemon, final String type, final String... arguments)
+            throws IntegrationFault {
+        final ScmJob job = new ScmJob(UUID.randomUUID().toString(), type, daemon.getClass().getName(), arguments);
+        final String repositoryPath = job.getRepositoryPath(daemon);
+
+        synchronized (this) {
+            if (mPendingJobs >= mQueueLimit) {
+                throw new IntegrationFault("Too many repository jobs queued (" + mPendingJobs + "), try again later");
+            }
+
+            purgeFinishedJobs();
+            journal(job);
+            mJobs.put(job.getId(), job);
+            mPendingJobs++;
+            enqueue(new QueuedJob(daemon, job, false), repositoryPath);
+        }
+
+        smLogger.info("Submitted " + type + " job " + job.getId() + " for " + repositoryPath);
+        return job;
+    }
+
+    /**
+     * Run an operation on the calling thread, after the jobs already queued for its repository and before the ones
+     * queued later.
+     *
+     * @param daemon
+     *            the daemon to run the operation with
+     * @param type
+     *            the operation type, one of the ScmJob.TYPE_ constants
+     * @param arguments
+     *            the arguments of the operation
+     * @return the result of the operation, or null if it has none
+     * @throws AbstractIntegrationFault
+     *             the fault the operation failed with; checked exceptions which are not faults are wrapped in an
+     *             IntegrationFault
+     */
+    public String run(final ScmScmServerDaemon daemon, final String type, final String... arguments)
+            throws AbstractIntegrationFault {
+        final ScmJob job = new ScmJob(UUID.randomUUID().toString(), type, daemon.getClass().getName(), arguments);
+        final String repositoryPath = job.getRepositoryPath(daemon);
+        final QueuedJob entry = new QueuedJob(daemon, job, true);
+
+        synchronized (this) {
+            final LinkedList<QueuedJob> queue = enqueue(entry, repositoryPath);
+            while (queue.getFirst() != entry) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    if (queue.getFirst() != entry) {
+                        queue.remove(entry);
+                        Thread.currentThread().interrupt();
+                        throw new IntegrationFault("Interrupted while waiting for the jobs of " + repositoryPath);
+                    }
+                }
+            }
+        }
+
+        try {
+            return job.execute(daemon);
+        } catch (final AbstractIntegrationFault e) {
+            throw e;
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IntegrationFault(e);
+        } finally {
+            synchronized (this) {
+                startNext(repositoryPath);
+            }
+        }
+    }
+
+    /**
+     * Get a job.
+     *
+     * @param jobId
+     *            the job id
+     * @return the job
+     * @throws IntegrationFault
+     *             thrown if there is no such job
+     */
+    public synchronized ScmJob getJob(final String jobId) throws IntegrationFault {
+        final ScmJob job = mJobs.get(jobId);
+        if (job == null) {
+            throw new IntegrationFault("Unknown repository job: " + jobId);
+        }
+
+        return job;
+    }
+
+    /**
+     * Cancel a job which has not started yet. Running jobs are not interrupted, since stopping a repository command
+     * half way could leave the repository broken.
+     *
+     * @param jobId
+     *            the job id
+     * @return true if the job was cancelled, false if it is already running or finished
+     * @throws IntegrationFault
+     *             thrown if there is no such job
+     */
+    public synchronized boolean cancel(final String jobId) throws IntegrationFault {
+        final ScmJob job = getJob(jobId);
+
+        for (final LinkedList<QueuedJob> queue : mRepositoryQueues.values()) {
+            // The head of a queue has been handed to a worker already
+            final int index = indexOf(queue, job);
+            if (index > 0) {
+                queue.remove(index);
+                mPendingJobs--;
+                job.finished(ScmJob.STATE_CANCELLED, null, null);
+                journal(job);
+                smLogger.info("Cancelled repository job " + jobId);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Find a job in the queue of a repository.
+     *
+     * @param queue
+     *            the queue
+     * @param job
+     *            the job
+     * @return the index of the job, or -1 if it is not queued
+     */
+    private static int indexOf(final LinkedList<QueuedJob> queue, final ScmJob job) {
+        int index = 0;
+        for (final QueuedJob entry : queue) {
+            if (entry.mJob == job) {
+                return index;
+            }
+            index++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Queue a job behind the other jobs of its repository, and start it if there are none.
+     *
+     * @param entry
+     *            the job
+     * @param repositoryPath
+     *            the repository path of the job
+     * @return the queue of the repository
+     */
+    private LinkedList<QueuedJob> enqueue(final QueuedJob entry, final String repositoryPath) {
+        LinkedList<QueuedJob> queue = mRepositoryQueues.get(repositoryPath);
+        if (queue == null) {
+            queue = new LinkedList<QueuedJob>();
+            mRepositoryQueues.put(repositoryPath, queue);
+        }
+
+        queue.add(entry);
+        if (queue.size() == 1) {
+            dispatch(repositoryPath);
+        }
+
+        return queue;
+    }
+
+    /**
+     * Start the first job of a repository: hand it to the worker pool, or wake up the thread which runs it itself.
+     *
+     * @param repositoryPath
+     *            the repository path
+     */
+    private void dispatch(final String repositoryPath) {
+        final QueuedJob entry = mRepositoryQueues.get(repositoryPath).getFirst();
+        if (entry.mCallerRuns) {
+            notifyAll();
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                runJob(entry.mDaemon, entry.mJob, repositoryPath);
+            }
+        });
+    }
+
+    /**
+     * Drop the finished first job of a repository and start the next one.
+     *
+     * @param repositoryPath
+     *            the repository path
+     */
+    private void startNext(final String repositoryPath) {
+        final LinkedList<QueuedJob> queue = mRepositoryQueues.get(repositoryPath);
+        queue.removeFirst();
+        if (queue.isEmpty()) {
+            mRepositoryQueues.remove(repositoryPath);
+        } else {
+            dispatch(repositoryPath);
+        }
+    }
+
+    /**
+     * Run a submitted job on a worker thread, then start the next job of the repository.
+     *
+     * @param daemon
+     *            the daemon to run the job with
+     * @param job
+     *            the job
+     * @param repositoryPath
+     *            the repository path of the job
+     */
+    private void runJob(final ScmScmServerDaemon daemon, final ScmJob job, final String repositoryPath) {
+        job.started();
+        journal(job);
+
+        String state = ScmJob.STATE_SUCCEEDED;
+        String result = null;
+        Exception failure = null;
+        try {
+            result = job.execute(daemon);
+        } catch (final Exception e) {
+            smLogger.error("Repository job " + job.getId() + " (" + job.getType() + ") failed", e);
+            state = ScmJob.STATE_FAILED;
+            failure = e;
+        } catch (final Error e) {
+            smLogger.error("Repository job " + job.getId() + " (" + job.getType() + ") failed", e);
+            state = ScmJob.STATE_FAILED;
+            failure = new IntegrationFault(e.toString());
+            throw e;
+        } finally {
+            job.finished(state, result, failure);
+
+            synchronized (this) {
+                journal(job);
+                mPendingJobs--;
+                startNext(repositoryPath);
+            }
+        }
+    }
+
+    /**
+     * Read the journal, resubmitting the jobs which were queued and failing the jobs which were running.
+     */
+    private synchronized void recover() {
+        final File[] files = mJournalDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final List<ScmJob> queuedJobs = new ArrayList<ScmJob>();
+        for (final File file : files) {
+            if (!file.getName().endsWith(JOURNAL_SUFFIX)) {
+                continue;
+            }
+
+            final String jobId = file.getName().substring(0, file.getName().length() - JOURNAL_SUFFIX.length());
+            try {
+                final ScmJob job = new ScmJob(jobId, readJournal(file));
+                mJobs.put(jobId, job);
+
+                if (ScmJob.STATE_RUNNING.equals(job.getState())) {
+                    job.finished(ScmJob.STATE_FAILED, null,
+                                 new IntegrationFault("Interrupted by a restart of the integration server"));
+                    journal(job);
+                } else if (ScmJob.STATE_QUEUED.equals(job.getState())) {
+                    queuedJobs.add(job);
+                }
+            } catch (final Exception e) {
+                smLogger.error("Could not recover repository job " + jobId + ", dropping it", e);
+                mJobs.remove(jobId);
+                file.delete();
+            }
+        }
+
+        // The journal is listed in no particular order; the jobs of a repository must run in the order submitted
+        Collections.sort(queuedJobs, new Comparator<ScmJob>() {
+            public int compare(final ScmJob first, final ScmJob second) {
+                if (first.getSubmitted() != second.getSubmitted()) {
+                    return first.getSubmitted() < second.getSubmitted() ? -1 : 1;
+                }
+                return first.getId().compareTo(second.getId());
+            }
+        });
+
+        final Map<String, ScmScmServerDaemon> daemons = new HashMap<String, ScmScmServerDaemon>();
+        for (final ScmJob job : queuedJobs) {
+            try {
+                ScmScmServerDaemon daemon = daemons.get(job.getDaemonClass());
+                if (daemon == null) {
+                    daemon = (ScmScmServerDaemon) Class.forName(job.getDaemonClass()).newInstance();
+                    daemons.put(job.getDaemonClass(), daemon);
+                }
+                final String repositoryPath = job.getRepositoryPath(daemon);
+                mPendingJobs++;
+                enqueue(new QueuedJob(daemon, job, false), repositoryPath);
+                smLogger.info("Resubmitted " + job.getType() + " job " + job.getId() + " after a restart");
+            } catch (final Exception e) {
+                smLogger.error("Could not recover repository job " + job.getId() + ", dropping it", e);
+                mJobs.remove(job.getId());
+                getJournalFile(job.getId()).delete();
+            }
+        }
+
+        purgeFinishedJobs();
+    }
+
+    /**
+     * Drop the finished jobs which are older than the retention period.
+     */
+    private void purgeFinishedJobs() {
+        final long cutoff = System.currentTimeMillis() - mRetention;
+        for (final Iterator<ScmJob> iterator = mJobs.values().iterator(); iterator.hasNext();) {
+            final ScmJob job = iterator.next();
+            if (job.isFinished() && job.getFinished() < cutoff) {
+                iterator.remove();
+                getJournalFile(job.getId()).delete();
+            }
+        }
+    }
+
+    /**
+     * Write the state of a job to the journal. The entry is written to a temporary file first, so a crash can not
+     * leave a truncated entry behind.
+     *
+     * @param job
+     *            the job
+     */
+    private void journal(final ScmJob job) {
+        final File file = getJournalFile(job.getId());
+        final File tempFile = new File(mJournalDir, job.getId() + ".tmp");
+        OutputStream output = null;
+        try {
+            if (!mJournalDir.exists() && !mJournalDir.mkdirs()) {
+                throw new IOException("Could not create " + mJournalDir);
+            }
+
+            output = new FileOutputStream(tempFile);
+            job.toProperties().store(output, null);
+            output.close();
+            output = null;
+
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+        } catch (final IOException e) {
+            smLogger.warn("Could not journal repository job " + job.getId(), e);
+        } finally {
+            FileUtil.close(output);
+        }
+    }
+
+    /**
+     * Read a journal entry.
+     *
+     * @param file
+     *            the journal file
+     * @return the journaled properties
+     * @throws IOException
+     *             thrown if the file could not be read
+     */
+    private static Properties readJournal(final File file) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        } finally {
+            FileUtil.close(input);
+        }
+
+        return properties;
+    }
+
+    /**
+     * Get the journal file of a job.
+     *
+     * @param jobId
+     *            the job id
+     * @return the file
+     */
+    private File getJournalFile(final String jobId) {
+        return new File(mJournalDir, jobId + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * A queued job with the daemon to run it with.
+     */
+    private static class QueuedJob {
+        private final ScmScmServerDaemon mDaemon;
+        private final ScmJob mJob;
+        private final boolean mCallerRuns;
+
+        /**
+         * Constructor.
+         *
+         * @param daemon
+         *            the daemon to run the job with
+         * @param job
+         *            the job
+         * @param callerRuns
+         *            true if the thread which queued the job runs it, false to run it on the worker pool
+         */
+        QueuedJob(final ScmScmServerDaemon daemon, final ScmJob job, final boolean callerRuns) {
+            mDaemon = daemon;
+            mJob = job;
+            mCallerRuns = callerRuns;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.adapters;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.vasoftware.sf.common.logger.Logger;
+
+/**
+ * The <code>ScmJobRecoveryListener</code> class creates the repository job manager when the webapp starts, so that
+ * the jobs which were queued before a restart are resubmitted right away instead of on the first job request.
+ */
+public class ScmJobRecoveryListener implements ServletContextListener {
+    private static final Logger smLogger = Logger.getLogger(ScmJobRecoveryListener.class);
+
+    /**
+     * Recover the journaled repository jobs.
+     *
+     * @see ServletContextListener#contextInitialized(ServletContextEvent)
+     */
+    public void contextInitialized(final ServletContextEvent event) {
+        try {
+            ScmJobManager.getManager();
+        } catch (final RuntimeException e) {
+            // The webapp must come up anyway; the next job request tries again
+            smLogger.error("Could not recover the repository jobs at startup", e);
+        }
+    }
+
+    /**
+     * @see ServletContextListener#contextDestroyed(ServletContextEvent)
+     */
+    public void contextDestroyed(final ServletContextEvent event) {
+    }
+}
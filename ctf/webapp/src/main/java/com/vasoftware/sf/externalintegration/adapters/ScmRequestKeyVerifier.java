@@ -0,0 +1,234 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.adapters;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.axis.encoding.Base64;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptions;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.ArrayUtil;
+import com.vasoftware.sf.common.util.DecryptLicenseUtil;
+import com.vasoftware.sf.externalintegration.IntegrationFault;
+
+/**
+ * Verifies the request keys sent by the application server with every secure soap call.
+ *
+ * The keys which passed verification are remembered, by the time they were issued, in a ring of buckets spanning the
+ * time a key is accepted for (<code>sfmain.integration.security.check_timestamp</code>, or ten minutes when the
+ * timestamp is not checked); the bucket of a time is replaced when a key issued one span later comes in. The burst of
+ * calls made with the key of one operation thus only hashes it once. The same buckets record when each key was first
+ * used: when <code>sfmain.integration.security.key_reuse_seconds</code> is set, a key used again later than that is
+ * rejected as a replay, 0 making every key single use. Both need no lock: buckets are swapped with compare-and-set and
+ * hold their keys in concurrent maps of bounded size.
+ */
+class ScmRequestKeyVerifier {
+    private static final Logger smLogger = Logger.getLogger(ScmRequestKeyVerifier.class);
+
+    /** The time span of a bucket, in seconds */
+    static final int BUCKET_SECONDS = 60;
+
+    /** The time span of the buckets when the timestamp of the keys is not checked, in seconds */
+    static final int UNCHECKED_SPAN_SECONDS = 600;
+
+    /** The maximum number of keys remembered per bucket */
+    static final int MAX_KEYS_PER_BUCKET = 100000;
+
+    private final int mMaxRequestDelay;
+    private final long mKeyReuseMillis;
+    private final AtomicReferenceArray<Bucket> mBuckets;
+
+    /**
+     * Constructor.
+     *
+     * @param maxRequestDelay
+     *            the maximum age of a key in seconds, 0 to accept keys of any age
+     * @param keyReuseSeconds
+     *            how long after its first use a key may be used again in seconds, negative for no limit
+     */
+    ScmRequestKeyVerifier(final int maxRequestDelay, final int keyReuseSeconds) {
+        mMaxRequestDelay = Math.max(0, maxRequestDelay);
+        if (keyReuseSeconds >= 0 && mMaxRequestDelay == 0) {
+            smLogger.warn(GlobalOptionKeys.SFMAIN_INTEGRATION_SECURITY_KEY_REUSE_SECONDS + " needs "
+                          + GlobalOptionKeys.SFMAIN_INTEGRATION_SECURITY_CHECK_TIMESTAMP
+                          + " to be set, request keys are not checked for replays");
+            mKeyReuseMillis = -1;
+        } else {
+            mKeyReuseMillis = keyReuseSeconds < 0 ? -1 : keyReuseSeconds * 1000L;
+        }
+
+        // Keys are accepted for mMaxRequestDelay on both sides of the current time
+        final int span = mMaxRequestDelay > 0 ? 2 * mMaxRequestDelay : UNCHECKED_SPAN_SECONDS;
+        mBuckets = new AtomicReferenceArray<Bucket>((span + BUCKET_SECONDS - 1) / BUCKET_SECONDS + 2);
+    }
+
+    /**
+     * Get the verifier configured in sourceforge.properties.
+     *
+     * @return the verifier
+     */
+    static ScmRequestKeyVerifier getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Verify request key.
+     *
+     * @param key
+     *            Request key
+     * @throws IntegrationFault
+     *             Key verification failed - unathorized request
+     */
+    void verify(final String key) throws IntegrationFault {
+        if (smLogger.isDebugEnabled()) {
+            smLogger.debug("verifyKey(" + key + ")");
+        }
+        final byte[] unKey = key == null ? null : Base64.decode(key);
+        if (unKey == null || unKey.length < 8) {
+            throw new IntegrationFault("Security exception");
+        }
+        final int rnd = ArrayUtil.byte2int(unKey);
+        int requestTimestamp = ArrayUtil.byte2int(ArrayUtil.extractSubArray(unKey, 4, 4));
+        requestTimestamp ^= DecryptLicenseUtil.SCM_TIMESTAMP_SALT;
+        final long now = System.currentTimeMillis();
+        final int myTimestamp = (int) (now / 1000);
+        if (smLogger.isDebugEnabled()) {
+            smLogger.debug("rnd=" + rnd + ", myTS=" + myTimestamp + ", rTS=" + requestTimestamp + ", diff="
+                           + (myTimestamp - requestTimestamp));
+        }
+
+        // Check that key valid at all, unless it already was. Keys are remembered in their canonical encoding, which is
+        // the one they are sent in, so another encoding of the same bytes is not a different key; only a key not found
+        // as sent is encoded again.
+        final Bucket bucket = getBucket(requestTimestamp, false);
+        String canonicalKey = key;
+        Long firstUse = bucket == null ? null : bucket.mKeys.get(key);
+        if (firstUse == null) {
+            canonicalKey = Base64.encode(unKey);
+            if (bucket != null && !canonicalKey.equals(key)) {
+                firstUse = bucket.mKeys.get(canonicalKey);
+            }
+        }
+        if (firstUse == null) {
+            final byte[] myKey = DecryptLicenseUtil.makeScmRequestKey(rnd, requestTimestamp);
+            if (!Arrays.equals(unKey, myKey)) {
+                throw new IntegrationFault("Security exception");
+            }
+        }
+
+        // Now check that it's not expired
+        if (mMaxRequestDelay > 0 && Math.abs(myTimestamp - requestTimestamp) > mMaxRequestDelay) {
+            throw new IntegrationFault("Security timing exception");
+        }
+
+        // Only valid keys get to replace a bucket
+        if (firstUse == null) {
+            final Bucket newBucket = getBucket(requestTimestamp, true);
+            firstUse = newBucket == null ? null : newBucket.add(canonicalKey, now);
+        }
+
+        // And that it's not replayed
+        if (mKeyReuseMillis >= 0 && firstUse != null && now - firstUse.longValue() >= mKeyReuseMillis) {
+            throw new IntegrationFault("Security replay exception");
+        }
+    }
+
+    /**
+     * Get the bucket of the keys issued at a time.
+     *
+     * @param timestamp
+     *            the time the key was issued, in seconds
+     * @param create
+     *            true to create the bucket, replacing the bucket of an older time in its slot
+     * @return the bucket, or null if there is none or the time is too old to be remembered
+     */
+    private Bucket getBucket(final int timestamp, final boolean create) {
+        final long index = (timestamp & 0xffffffffL) / BUCKET_SECONDS;
+        final int slot = (int) (index % mBuckets.length());
+        while (true) {
+            final Bucket bucket = mBuckets.get(slot);
+            if (bucket != null && bucket.mIndex >= index) {
+                return bucket.mIndex == index ? bucket : null;
+            }
+            if (!create) {
+                return null;
+            }
+
+            final Bucket newBucket = new Bucket(index);
+            if (mBuckets.compareAndSet(slot, bucket, newBucket)) {
+                return newBucket;
+            }
+        }
+    }
+
+    /**
+     * Holds the verifier configured in sourceforge.properties, created when it is first used.
+     */
+    private static class InstanceHolder {
+        private static final ScmRequestKeyVerifier INSTANCE;
+
+        static {
+            final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
+            INSTANCE = new ScmRequestKeyVerifier(
+                    options.getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SECURITY_CHECK_TIMESTAMP, 0),
+                    options.getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SECURITY_KEY_REUSE_SECONDS, -1));
+        }
+    }
+
+    /**
+     * The keys issued in a time span, with the time they were first used.
+     */
+    private static class Bucket {
+        private final long mIndex;
+        private final ConcurrentMap<String, Long> mKeys = new ConcurrentHashMap<String, Long>();
+        private final AtomicInteger mSize = new AtomicInteger();
+        private final AtomicBoolean mFullLogged = new AtomicBoolean();
+
+        /**
+         * Constructor.
+         *
+         * @param index
+         *            the time span of the bucket, as the time divided by the span length
+         */
+        Bucket(final long index) {
+            mIndex = index;
+        }
+
+        /**
+         * Remember the first use of a key.
+         *
+         * @param key
+         *            the key
+         * @param now
+         *            the current time in milliseconds
+         * @return the time of the first use if the key was used before, null otherwise
+         */
+        Long add(final String key, final long now) {
+            if (mSize.get() >= MAX_KEYS_PER_BUCKET) {
+                if (mFullLogged.compareAndSet(false, true)) {
+                    smLogger.warn("Too many request keys issued within " + BUCKET_SECONDS
+                                  + " seconds, not all of them are checked for replays");
+                }
+                return null;
+            }
+
+            final Long firstUse = mKeys.putIfAbsent(key, Long.valueOf(now));
+            if (firstUse == null) {
+                mSize.incrementAndGet();
+            }
+            return firstUse;
+        }
+    }
+}
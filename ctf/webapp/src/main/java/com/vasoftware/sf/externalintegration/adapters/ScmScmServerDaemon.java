@@ -13,23 +13,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.Properties;
 
-import org.apache.axis.encoding.Base64;
-
 import com.vasoftware.sf.common.SfSystemException;
 import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
 import com.vasoftware.sf.common.configuration.SfGlobalOptions;
 import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
 import com.vasoftware.sf.common.configuration.SfPaths;
 import com.vasoftware.sf.common.logger.Logger;
-import com.vasoftware.sf.common.util.ArrayUtil;
-import com.vasoftware.sf.common.util.DecryptLicenseUtil;
 import com.vasoftware.sf.common.util.FileUtil;
+import com.vasoftware.sf.externalintegration.AbstractIntegrationFault;
 import com.vasoftware.sf.externalintegration.IntegrationFault;
+import com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault;
 import com.vasoftware.sf.externalintegration.ScmConstants;
+import com.vasoftware.sf.externalintegration.execution.CommandStatistics;
 import com.vasoftware.sf.externalintegration.execution.ExecutionUtil;
 
 /**
@@ -53,8 +51,6 @@ public abstract class ScmScmServerDaemon extends BlackduckScmServerDaemon implem
      */
     private static final String ARCHIVE_SUBDIRECTORY = "/var/scm-archive";
 
-    private int mMaxRequestDelay;
-
     /**
      * An abstract scm server parent class
      * @throws IntegrationFault If the command did not execute correctly
@@ -62,13 +58,6 @@ public abstract class ScmScmServerDaemon extends BlackduckScmServerDaemon implem
     public ScmScmServerDaemon() throws IntegrationFault {
         super();
 
-        final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
-        try {
-            mMaxRequestDelay = Integer.parseInt(options.getOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SECURITY_CHECK_TIMESTAMP));
-        } catch (final NumberFormatException e) {
-            mMaxRequestDelay = 0;
-        }
-
         setScmToProcess(this);
     }
 
@@ -117,28 +106,7 @@ public abstract class ScmScmServerDaemon extends BlackduckScmServerDaemon implem
      * @throws IntegrationFault Key verification failed - unathorized request
      */
     protected void verifyKey(final String key) throws IntegrationFault {
-        if (smLogger.isDebugEnabled()) {
-            smLogger.debug("verifyKey(" + key + ")");
-        }
-        final byte[] unKey = Base64.decode(key);
-        final int rnd = ArrayUtil.byte2int(unKey);
-        int requestTimestamp = ArrayUtil.byte2int(ArrayUtil.extractSubArray(unKey, 4, 4));
-        requestTimestamp ^= DecryptLicenseUtil.SCM_TIMESTAMP_SALT;
-        final int myTimestamp = (int)(new Date().getTime() / 1000);
-        if (smLogger.isDebugEnabled()) {
-            smLogger.debug("rnd=" + rnd + ", myTS=" + myTimestamp + ", rTS=" + requestTimestamp +
-                           ", diff=" + (myTimestamp - requestTimestamp));
-        }
-        // Check that key valid at all
-        final byte[] myKey = DecryptLicenseUtil.makeScmRequestKey(rnd, requestTimestamp);
-        if (!Arrays.equals(unKey, myKey)) {
-            throw new IntegrationFault("Security exception");
-        }
-
-        // Now check that it's not expired
-        if (mMaxRequestDelay > 0 && Math.abs(myTimestamp - requestTimestamp) > mMaxRequestDelay) {
-            throw new IntegrationFault("Security timing exception");
-        }
+        ScmRequestKeyVerifier.getInstance().verify(key);
     }
 
     /**
@@ -218,30 +186,199 @@ public abstract class ScmScmServerDaemon extends BlackduckScmServerDaemon implem
             return Boolean.TRUE;
         }
 
-        final String archiveRoot = getArchiveRepositoryRootPath();
-        final File archiveRootFile = new File(archiveRoot);
+        final File archiveRootFile = createArchiveRoot();
+
+        if (archiveRootFile == null) {
+            return Boolean.FALSE;
+        }
+
+        final String archiveFilename = getArchiveBaseName(repoDir) + ".tar.gz";
+
+        try {
+            FileUtil.createTarGzOfDirectory(repoDir.getAbsolutePath(),
+                                            archiveRootFile.getPath() + File.separator + archiveFilename);
+            FileUtil.deleteDir(repoDir);
+
+            return Boolean.TRUE;
+        } catch (Exception e) {
+            smLogger.warn("Error tarring SCM repository, left in place.", e);
+
+            return Boolean.FALSE;
+        }
+    }
+
+    /**
+     * Make sure the archive directory exists.
+     *
+     * @return the archive directory, or null if it does not exist and could not be created
+     */
+    protected File createArchiveRoot() {
+        final File archiveRootFile = new File(getArchiveRepositoryRootPath());
 
         if (!archiveRootFile.exists()) {
             if (!archiveRootFile.mkdirs()) {
                 smLogger.warn("archiveRepository: SCM archive directory [" + archiveRootFile +
                 "] does not exist and could not be created.");
-                return Boolean.FALSE;
+                return null;
             }
         }
 
+        return archiveRootFile;
+    }
+
+    /**
+     * Returns the name of a new archive of a repository, without extension: the repository name followed by the
+     * current time.
+     *
+     * @param repoDir the repository directory
+     * @return the archive name
+     */
+    protected String getArchiveBaseName(final File repoDir) {
         final DateFormat formatter = new SimpleDateFormat("yyyyMMdd'_'HHmmss");
-        final String archiveFilename = repoDir.getName() + "-" + formatter.format(new Date()) + ".tar.gz";
+        return repoDir.getName() + "-" + formatter.format(new Date());
+    }
+
+    /**
+     * Add all the necessary info into the specified repository
+     * @param systemId The Guid of the system
+     * @param repositoryId The guid of the repository
+     * @param repositoryDir The path to the repository
+     * @throws IntegrationFault An error while executing the commands.
+     */
+    public abstract void setupRepository(String systemId, String repositoryId, String repositoryDir)
+            throws IntegrationFault;
+
+    /**
+     * Submit a repository job to be run in the background.
+     *
+     * @param jobType The job type, one of the <code>ScmJob.TYPE_</code> constants
+     * @param arguments The arguments of the operation, in the order the synchronous method takes them
+     * @return The id of the job, to poll with {@link #getRepositoryJobStatus(String)}
+     * @throws IntegrationFault If the job is not valid or too many jobs are queued
+     */
+    public String submitRepositoryJob(final String jobType, final String[] arguments) throws IntegrationFault {
+        return ScmJobManager.getManager().submit(this, jobType, arguments).getId();
+    }
+
+    /**
+     * Get the status of a repository job.
+     *
+     * @param jobId The id of the job
+     * @return The state of the job (one of the <code>ScmJob.STATE_</code> constants), followed by its result or
+     *         error message if there is one
+     * @throws IntegrationFault If there is no such job
+     */
+    public String[] getRepositoryJobStatus(final String jobId) throws IntegrationFault {
+        return ScmJobManager.getManager().getJob(jobId).getStatus();
+    }
+
+    /**
+     * Cancel a repository job which has not started yet.
+     *
+     * @param jobId The id of the job
+     * @return true if the job was cancelled, false if it is already running or finished
+     * @throws IntegrationFault If there is no such job
+     */
+    public Boolean cancelRepositoryJob(final String jobId) throws IntegrationFault {
+        return Boolean.valueOf(ScmJobManager.getManager().cancel(jobId));
+    }
 
+    /**
+     * Get the execution statistics of the external commands run by this integration server, to find out which
+     * commands an integration call spends its time in.
+     *
+     * @return One line per binary, see {@link CommandStatistics#getStatistics()}
+     */
+    public String[] getCommandStatistics() {
+        return CommandStatistics.getStatistics();
+    }
+
+    /**
+     * Create a repository in turn with the queued jobs of the repository.
+     *
+     * @see ScmDaemon#createRepository(String, String, String, String)
+     */
+    protected String runCreateRepositoryJob(final String repositoryGroup, final String repositoryDir,
+                                            final String systemId, final String repositoryBaseUrl)
+            throws IntegrationFault, ObjectAlreadyExistsFault {
         try {
-            FileUtil.createTarGzOfDirectory(repoDir.getAbsolutePath(), archiveRoot + File.separator + archiveFilename);
-            FileUtil.deleteDir(repoDir);
+            return ScmJobManager.getManager().run(this, ScmJob.TYPE_CREATE_REPOSITORY, repositoryGroup, repositoryDir,
+                                                  systemId, repositoryBaseUrl);
+        } catch (final ObjectAlreadyExistsFault e) {
+            throw e;
+        } catch (final AbstractIntegrationFault e) {
+            throw toIntegrationFault(e);
+        }
+    }
 
-            return Boolean.TRUE;
-        } catch (Exception e) {
-            smLogger.warn("Error tarring SCM repository, left in place.", e);
+    /**
+     * Set up a repository in turn with the queued jobs of the repository.
+     *
+     * @see #setupRepository(String, String, String)
+     */
+    protected void runSetupRepositoryJob(final String systemId, final String repositoryId, final String repositoryDir)
+            throws IntegrationFault {
+        runJob(ScmJob.TYPE_SETUP_REPOSITORY, systemId, repositoryId, repositoryDir);
+    }
 
-            return Boolean.FALSE;
+    /**
+     * Archive a repository in turn with the queued jobs of the repository.
+     *
+     * @see ScmDaemon#archiveRepository(String)
+     */
+    protected Boolean runArchiveRepositoryJob(final String repositoryPath) throws IntegrationFault {
+        return Boolean.valueOf(runJob(ScmJob.TYPE_ARCHIVE_REPOSITORY, repositoryPath));
+    }
+
+    /**
+     * Checks the repository out again, for daemons whose checkout is not incremental by itself.
+     *
+     * @see ScmDaemon#updateCheckout(String, String, File)
+     */
+    public void updateCheckout(final String repositoryPath, final String repositoryPathFromRoot,
+                               final File destinationDirectory) throws IntegrationFault {
+        checkoutRepository(repositoryPath, repositoryPathFromRoot, destinationDirectory);
+    }
+
+    /**
+     * Check out a repository in turn with the queued jobs of the repository.
+     *
+     * @see ScmDaemon#checkoutRepository(String, String, File)
+     */
+    protected void runCheckoutRepositoryJob(final String repositoryPath, final String repositoryPathFromRoot,
+                                            final File destinationDirectory) throws IntegrationFault {
+        runJob(ScmJob.TYPE_CHECKOUT_REPOSITORY, repositoryPath, repositoryPathFromRoot,
+               destinationDirectory.getAbsolutePath());
+    }
+
+    /**
+     * Run an operation on the calling thread, once the queued jobs of its repository are done.
+     *
+     * @param jobType The job type
+     * @param arguments The arguments of the operation
+     * @return The result of the operation, or null if it has none
+     * @throws IntegrationFault If the operation failed
+     */
+    private String runJob(final String jobType, final String... arguments) throws IntegrationFault {
+        try {
+            return ScmJobManager.getManager().run(this, jobType, arguments);
+        } catch (final AbstractIntegrationFault e) {
+            throw toIntegrationFault(e);
+        }
+    }
+
+    /**
+     * Convert a fault to an IntegrationFault, keeping it if it is one already.
+     *
+     * @param fault The fault
+     * @return The IntegrationFault
+     */
+    private static IntegrationFault toIntegrationFault(final AbstractIntegrationFault fault) {
+        if (fault instanceof IntegrationFault) {
+            return (IntegrationFault) fault;
         }
+
+        return new IntegrationFault(fault.getFaultString());
     }
 
     /**
@@ -0,0 +1,75 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.adapters;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.profiler.SoapMetricsServlet;
+
+/**
+ * The <code>SoapMetricsServletSecure</code> class is the servlet mapped to <code>/metrics</code>. It delegates to
+ * <code>SoapMetricsServlet</code> once the scraper has sent the bearer token configured in
+ * <code>sfmain.integration.metrics.token</code> in its <code>Authorization</code> header, which is what Prometheus
+ * sends for a <code>bearer_token</code> scrape setting. The token never appears in the URL, so it stays out of access
+ * logs. Without a configured token the metrics are not served at all.
+ */
+@SuppressWarnings("serial")
+public class SoapMetricsServletSecure extends SoapMetricsServlet {
+    private static final Logger smLogger = Logger.getLogger(SoapMetricsServletSecure.class);
+
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    /**
+     * @see SoapMetricsServlet#doGet(HttpServletRequest, HttpServletResponse)
+     */
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final String token =
+            SfGlobalOptionsManager.getOptions().getOption(GlobalOptionKeys.SFMAIN_INTEGRATION_METRICS_TOKEN);
+        if (token == null || token.trim().length() == 0) {
+            smLogger.warn("Rejected metrics request from " + request.getRemoteAddr() + ": "
+                          + GlobalOptionKeys.SFMAIN_INTEGRATION_METRICS_TOKEN + " is not set");
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        final String authorization = request.getHeader(AUTHORIZATION_HEADER);
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())
+            || !isEqual(authorization.substring(BEARER_PREFIX.length()).trim(), token.trim())) {
+            smLogger.warn("Rejected metrics request from " + request.getRemoteAddr() + ": missing or wrong token");
+            response.setHeader("WWW-Authenticate", "Bearer");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        super.doGet(request, response);
+    }
+
+    /**
+     * Compare two tokens in a time which does not depend on where they differ.
+     *
+     * @param sent
+     *            the token sent by the client
+     * @param expected
+     *            the configured token
+     * @return true if they are the same
+     * @throws UnsupportedEncodingException
+     *             never thrown, UTF-8 is always supported
+     */
+    private static boolean isEqual(final String sent, final String expected) throws UnsupportedEncodingException {
+        return MessageDigest.isEqual(sent.getBytes("UTF-8"), expected.getBytes("UTF-8"));
+    }
+}
@@ -32,16 +32,6 @@ public abstract class SynchronizedScmServerDaemon extends ScmScmServerDaemon {
 	super();
     }
 
-    /**
-     * Add all the necessary info into the specified repository
-     * @param systemId The Guid of the system
-     * @param repositoryId The guid of the repository
-     * @param repositoryDir The name of the repository, the directory under the cvsroot
-     * @throws IntegrationFault AN error while executing the commands.
-     */
-    public abstract void setupRepository(String systemId, String repositoryId, String repositoryDir)
-	    throws IntegrationFault;
-
     /**
      * Add the users in usernames array to the group
      *
@@ -87,7 +87,7 @@ public class ClearcaseScmServerDaemonSecure extends ClearcaseScmServerDaemon {
                                                                                       com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault,
                                                                                       IntegrationFault {
         verifyKey(transactionKey);
-        return createRepository(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
+        return runCreateRepositoryJob(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
     }
 
     /**
@@ -99,7 +99,7 @@ public class ClearcaseScmServerDaemonSecure extends ClearcaseScmServerDaemon {
                                                                                                           throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                           IntegrationFault {
         verifyKey(transactionKey);
-        setupRepository(systemId, repositoryId, repositoryDir);
+        runSetupRepositoryJob(systemId, repositoryId, repositoryDir);
     }
 
     /**
@@ -167,7 +167,7 @@ public class ClearcaseScmServerDaemonSecure extends ClearcaseScmServerDaemon {
                                                                            throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                            IntegrationFault {
         verifyKey(transactionKey);
-        checkoutRepository(repositoryPath, repositoryPathFromRoot, destinationDirectory);
+        runCheckoutRepositoryJob(repositoryPath, repositoryPathFromRoot, destinationDirectory);
     }
 
     /**
@@ -177,7 +177,7 @@ public class ClearcaseScmServerDaemonSecure extends ClearcaseScmServerDaemon {
                                                                                                                   throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                                   IntegrationFault {
         verifyKey(transactionKey);
-        return archiveRepository(repositoryPath);
+        return runArchiveRepositoryJob(repositoryPath);
     }
 
     /**
@@ -257,4 +257,39 @@ public class ClearcaseScmServerDaemonSecure extends ClearcaseScmServerDaemon {
         isBlackduckEnabled(hostName, port, username, password);
     }
 
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.ccdaemon.ClearcaseScmServerDaemon#submitRepositoryJob(String,
+     *      String[])
+     */
+    public java.lang.String submitRepositoryJob(final String transactionKey, final java.lang.String jobType,
+                                                final java.lang.String[] arguments) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return submitRepositoryJob(jobType, arguments);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.ccdaemon.ClearcaseScmServerDaemon#getRepositoryJobStatus(String)
+     */
+    public java.lang.String[] getRepositoryJobStatus(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getRepositoryJobStatus(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.ccdaemon.ClearcaseScmServerDaemon#cancelRepositoryJob(String)
+     */
+    public java.lang.Boolean cancelRepositoryJob(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return cancelRepositoryJob(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.ccdaemon.ClearcaseScmServerDaemon#getCommandStatistics()
+     */
+    public java.lang.String[] getCommandStatistics(final String transactionKey) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getCommandStatistics();
+    }
 }
@@ -7,7 +7,9 @@ package com.vasoftware.sf.externalintegration.adapters.cvsdaemon;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.vasoftware.sf.common.logger.Logger;
 import com.vasoftware.sf.common.util.StringUtil;
@@ -156,33 +158,31 @@ public class CvsScmServerDaemon extends SynchronizedScmServerDaemon {
             existingUsers = new String[] {};
         }
 
-        final List<String> usersToAdd = new ArrayList<String>();
-        final List<String> usersToDelete = new ArrayList<String>();
+        final Set<String> existingUserSet = new HashSet<String>();
 
-        // We start out with all "existing" users in the "remove" map. Ensure
-        // they are all lowercase
-        // to deal with different operating systems (some maintain case, others
-        // lower it)
+        // Ensure existing users are all lowercase to deal with different operating systems (some maintain case,
+        // others lower it)
         for (final String existingUser : existingUsers) {
-            usersToDelete.add(existingUser.toLowerCase());
+            existingUserSet.add(existingUser.toLowerCase());
         }
 
-        // We then iterate through and divide the usernames into two categories,
-        // new ones to be added
-        // and existing ones to be deleted
+        // Only users not already in the group may need to be created on the system
+        final List<String> usersToAdd = new ArrayList<String>();
         for (final String username : usernames) {
-            if (usersToDelete.contains(username.toLowerCase())) {
-                usersToDelete.remove(username.toLowerCase());
-            } else {
+            if (!existingUserSet.contains(username.toLowerCase())) {
                 usersToAdd.add(username);
             }
         }
 
-        // Delete removed users
-        removeUsersFromAccessGroup(usersToDelete.toArray(new String[usersToDelete.size()]), groupName);
+        try {
+            final String[] newUsers = mExecutor.createUsersIfMissing(usersToAdd.toArray(new String[usersToAdd.size()]));
 
-        // Add users not in group
-        return addUsersToAccessGroup(usersToAdd.toArray(new String[usersToAdd.size()]), groupName);
+            // Apply the whole membership delta at once
+            mExecutor.setGroupMembers(groupName, usernames);
+            return newUsers;
+        } catch (final CommandWrapperFault e) {
+            throw new IntegrationFault(e);
+        }
     }
 
     /**
@@ -410,6 +410,32 @@ public class CvsScmServerDaemon extends SynchronizedScmServerDaemon {
         }
     }
 
+    /**
+     * Runs "cvs update" on the module checked out by checkoutRepository, if there is one.
+     *
+     * @see com.vasoftware.sf.externalintegration.adapters.ScmDaemon#updateCheckout(String,String,java.io.File)
+     */
+    @Override
+    public void updateCheckout(final String repositoryRoot, final String repositoryPathFromRoot,
+                               final File destinationDirectory) throws IntegrationFault {
+        final String module = repositoryPathFromRoot.startsWith("/") ? repositoryPathFromRoot.substring(1)
+                                                                     : repositoryPathFromRoot;
+        final File moduleDirectory = new File(destinationDirectory, module);
+        if (!new File(moduleDirectory, "CVS").isDirectory()) {
+            checkoutRepository(repositoryRoot, repositoryPathFromRoot, destinationDirectory);
+            return;
+        }
+
+        // Update CVS as root, like the checkout
+        final CvsWrapper cvs = new CvsWrapper(getCommandExecutor(), CvsWrapper.CvsType.SSH);
+        cvs.setCvsUser("root");
+        try {
+            cvs.doUpdate(repositoryRoot, moduleDirectory);
+        } catch (final CommandWrapperFault f) {
+            throw new IntegrationFault(f);
+        }
+    }
+
     /**
      * @see com.vasoftware.sf.externalintegration.adapters.SynchronizedScmServerDaemon#listGroupMembers(java.lang.String)
      */
@@ -92,7 +92,7 @@ public class CvsScmServerDaemonSecure extends CvsScmServerDaemon {
                                                                                       com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault,
                                                                                       IntegrationFault {
         verifyKey(transactionKey);
-        return createRepository(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
+        return runCreateRepositoryJob(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
     }
 
     /**
@@ -127,7 +127,7 @@ public class CvsScmServerDaemonSecure extends CvsScmServerDaemon {
                                                                                                              throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                              IntegrationFault {
         verifyKey(transactionKey);
-        setupRepository(systemId, repositoryGroup, repositoryDir);
+        runSetupRepositoryJob(systemId, repositoryGroup, repositoryDir);
     }
 
     /**
@@ -238,7 +238,7 @@ public class CvsScmServerDaemonSecure extends CvsScmServerDaemon {
                                                                                                                   throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                                   IntegrationFault {
         verifyKey(transactionKey);
-        return archiveRepository(repositoryPath);
+        return runArchiveRepositoryJob(repositoryPath);
     }
 
     /**
@@ -317,4 +317,40 @@ public class CvsScmServerDaemonSecure extends CvsScmServerDaemon {
         verifyKey(transactionKey);
         isBlackduckEnabled(hostName, port, username, password);
     }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvsdaemon.CvsScmServerDaemon#submitRepositoryJob(String,
+     *      String[])
+     */
+    public java.lang.String submitRepositoryJob(final String transactionKey, final java.lang.String jobType,
+                                                final java.lang.String[] arguments) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return submitRepositoryJob(jobType, arguments);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvsdaemon.CvsScmServerDaemon#getRepositoryJobStatus(String)
+     */
+    public java.lang.String[] getRepositoryJobStatus(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getRepositoryJobStatus(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvsdaemon.CvsScmServerDaemon#cancelRepositoryJob(String)
+     */
+    public java.lang.Boolean cancelRepositoryJob(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return cancelRepositoryJob(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvsdaemon.CvsScmServerDaemon#getCommandStatistics()
+     */
+    public java.lang.String[] getCommandStatistics(final String transactionKey) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getCommandStatistics();
+    }
 }
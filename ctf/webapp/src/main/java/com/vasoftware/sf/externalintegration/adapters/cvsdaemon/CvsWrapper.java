@@ -238,7 +238,8 @@ public class CvsWrapper {
     }
 
     /**
-     * Run a CVS Update command.
+     * Run a CVS Update command. Directories added to the repository since the checkout are created and directories
+     * which became empty are pruned, as a fresh checkout would.
      * 
      * @param cvsroot
      *            the CVSROOT to use for the update.
@@ -249,7 +250,7 @@ public class CvsWrapper {
      */
     public void doUpdate(final String cvsroot, final File directory) throws CommandWrapperFault {
         smLogger.info("CVS update for " + cvsroot + " => " + directory);
-        final String[] cmdString = { mCvsBinary, "-d", cvsroot, "-q", CVS_UPDATE };
+        final String[] cmdString = { mCvsBinary, "-d", cvsroot, "-q", CVS_UPDATE, "-d", "-P" };
         final CommandResult result = mExecutor.runCommandAs(mCvsUser, cmdString, directory, false);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(result.getCommand(), "Could not update in to cvsroot " + cvsroot
@@ -53,7 +53,7 @@ public class CvspScmServerDaemonSecure extends CvspScmServerDaemon {
                                                                                       com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault,
                                                                                       IntegrationFault {
         verifyKey(transactionKey);
-        return createRepository(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
+        return runCreateRepositoryJob(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
     }
 
     /**
@@ -65,7 +65,7 @@ public class CvspScmServerDaemonSecure extends CvspScmServerDaemon {
                                                                                                              throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                              IntegrationFault {
         verifyKey(transactionKey);
-        setupRepository(systemId, repositoryGroup, repositoryDir);
+        runSetupRepositoryJob(systemId, repositoryGroup, repositoryDir);
     }
 
     /**
@@ -145,7 +145,7 @@ public class CvspScmServerDaemonSecure extends CvspScmServerDaemon {
                                                                                                                   throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                                   IntegrationFault {
         verifyKey(transactionKey);
-        return archiveRepository(repositoryPath);
+        return runArchiveRepositoryJob(repositoryPath);
     }
 
     /**
@@ -225,4 +225,39 @@ public class CvspScmServerDaemonSecure extends CvspScmServerDaemon {
         isBlackduckEnabled(hostName, port, username, password);
     }
 
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvspdaemon.CvspScmServerDaemon#submitRepositoryJob(String,
+     *      String[])
+     */
+    public java.lang.String submitRepositoryJob(final String transactionKey, final java.lang.String jobType,
+                                                final java.lang.String[] arguments) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return submitRepositoryJob(jobType, arguments);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvspdaemon.CvspScmServerDaemon#getRepositoryJobStatus(String)
+     */
+    public java.lang.String[] getRepositoryJobStatus(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getRepositoryJobStatus(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvspdaemon.CvspScmServerDaemon#cancelRepositoryJob(String)
+     */
+    public java.lang.Boolean cancelRepositoryJob(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return cancelRepositoryJob(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.cvspdaemon.CvspScmServerDaemon#getCommandStatistics()
+     */
+    public java.lang.String[] getCommandStatistics(final String transactionKey) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getCommandStatistics();
+    }
 }
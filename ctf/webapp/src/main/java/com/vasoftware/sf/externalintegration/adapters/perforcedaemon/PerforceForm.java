@@ -1,12 +1,21 @@
 package com.vasoftware.sf.externalintegration.adapters.perforcedaemon;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.WeakHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,9 +23,11 @@ import com.vasoftware.sf.common.SfSystemException;
 import com.vasoftware.sf.common.logger.Logger;
 
 /**
- * Class for abstracting a Perforce text form. This parses a form as a big string, and turns it into a map: the keys are
- * the field names, and the values are single Strings (for one-line entries) or Collections of Strings (for multi-line
- * entries). The Collections are initially created as Strings.
+ * Class for abstracting a Perforce text form. This parses a form line by line from a Reader, and turns it into a map:
+ * the keys are the field names, and the values are single Strings (for one-line entries) or Collections of Strings
+ * (for multi-line entries). Multi-line values are held in a compact growable array of interned lines, since protection
+ * tables can have tens of thousands of mostly repeated lines, and forms are written straight to a Writer such as the
+ * stdin of a p4 process.
  * 
  * See testPerforceForm() in PerforceWrapperTest for an example.
  */
@@ -24,9 +35,18 @@ import com.vasoftware.sf.common.logger.Logger;
 public class PerforceForm {
     private static final Logger smLogger = Logger.getLogger(PerforceForm.class);
 
-    private final Map mContents = new LinkedHashMap(); // keys are sections, values are strings or collections of
+    /** Matches the first line of a field: its name and the value on the same line, if any */
+    private static final Pattern FIELD_PATTERN = Pattern.compile("(\\w*):(.*)");
 
-    // strings
+    /** Lines shared between forms; weakly held so that they go away with the last form using them */
+    private static final Map<String, WeakReference<String>> smInternedLines =
+        new WeakHashMap<String, WeakReference<String>>();
+
+    // keys are sections, values are strings or collections of strings
+    private final Map<String, Object> mContents = new LinkedHashMap<String, Object>();
+
+    // the form as fetched from the server, if it was, to tell whether writing it back would change anything
+    private PerforceForm mFetched;
 
     /**
      * Default constructor is private. Use "parse()", etc. to construct
@@ -44,37 +64,53 @@ public class PerforceForm {
      * @return an object representing the information in the form
      */
     public static PerforceForm parse(final String input) {
+        try {
+            return parse(new StringReader(input));
+        } catch (final IOException e) {
+            // a StringReader does not throw
+            throw new SfSystemException(e);
+        }
+    }
+
+    /**
+     * Parse a Perforce form read from a Reader, one line at a time.
+     * 
+     * @param input
+     *            the text representation of a Peforce form
+     * @return an object representing the information in the form
+     * @throws IOException
+     *             thrown if the form could not be read
+     */
+    public static PerforceForm parse(final Reader input) throws IOException {
         final PerforceForm form = new PerforceForm();
-        form.parseInput(input);
+        form.parseInput(input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input));
         return form;
     }
 
     /**
-     * Private method to parse a text string into this form object
+     * Private method to parse form text into this form object
      * 
      * @param input
      *            the form's text
+     * @throws IOException
+     *             thrown if the form could not be read
      */
-    private void parseInput(final String input) {
-        final String[] lines = input.split("\n");
-
-        final Pattern pattern = Pattern.compile("(\\w*):(.*)");
-
-        List<String> currentList = null;
-        for (int i = 0; i < lines.length; i++) {
-            final String line = lines[i];
+    private void parseInput(final BufferedReader input) throws IOException {
+        LineList currentList = null;
+        String line;
+        while ((line = input.readLine()) != null) {
             if (line.startsWith("#") || line.length() < 1 || line.trim().length() < 1) {
                 continue;
             }
 
-            final Matcher matcher = pattern.matcher(line);
+            final Matcher matcher = FIELD_PATTERN.matcher(line);
             if (matcher.matches()) {
                 final String sectionName = matcher.group(1);
                 final String remaining = matcher.group(2).trim();
 
                 if (remaining.length() < 1) {
                     // this is the beginning of a section
-                    currentList = new LinkedList<String>();
+                    currentList = new LineList();
                     mContents.put(sectionName, currentList);
                 } else {
                     // simple key-value line
@@ -106,8 +142,9 @@ public class PerforceForm {
      *            the field name to fetch
      * @return a List of Strings containing the value for the field.
      */
-    public List getListValue(final String key) {
-        return new ArrayList((Collection) mContents.get(key)); // clone it so we're immune to modifications
+    public List<String> getListValue(final String key) {
+        // clone it so we're immune to modifications
+        return new ArrayList<String>((Collection<String>) mContents.get(key));
     }
 
     /**
@@ -138,14 +175,14 @@ public class PerforceForm {
      * @param value
      *            a collection of Strings containing the new value for the form field
      */
-    public void setListValue(final String key, final Collection value) {
+    public void setListValue(final String key, final Collection<?> value) {
         final Object currentValue = mContents.get(key);
         if (currentValue == null) {
             smLogger.warn("Setting form field that wasn't there before: " + key);
         } else if (!(currentValue instanceof Collection)) {
             throw new SfSystemException("attempted to change type of value from string to list for key: " + key);
         }
-        mContents.put(key, value);
+        mContents.put(key, new LineList(value));
     }
 
     /**
@@ -160,33 +197,197 @@ public class PerforceForm {
     }
 
     /**
-     * Render the form as a string, suitable for feeding back to a Perforce "-i" command
+     * Create an independent copy of the form; list values are copied, so modifying one form does not affect the other.
      * 
-     * @return the string value.
+     * @return the copy
      */
-    @Override
-    public String toString() {
-        final StringBuffer output = new StringBuffer();
-        for (final Iterator iterator = mContents.entrySet().iterator(); iterator.hasNext();) {
-            final Map.Entry entry = (Map.Entry) iterator.next();
+    public PerforceForm copy() {
+        final PerforceForm copy = new PerforceForm();
+        for (final Map.Entry<String, Object> entry : mContents.entrySet()) {
+            if (entry.getValue() instanceof LineList) {
+                copy.mContents.put(entry.getKey(), new LineList((LineList) entry.getValue()));
+            } else {
+                copy.mContents.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Remember the current content as what the server has; called right after the form was fetched.
+     */
+    void markFetched() {
+        mFetched = copy();
+    }
+
+    /**
+     * Is the form still the same as when it was fetched, meaning writing it back would not change anything.
+     * 
+     * @return true if the form was fetched and has the same content now
+     */
+    boolean isUnchangedSinceFetch() {
+        return mFetched != null && contentEquals(mFetched);
+    }
+
+    /**
+     * Does this form have exactly the same fields and values, in the same order, as another form.
+     * 
+     * @param other
+     *            the form to compare to
+     * @return true iff rendering both forms would give the same text
+     */
+    public boolean contentEquals(final PerforceForm other) {
+        if (mContents.size() != other.mContents.size()) {
+            return false;
+        }
+
+        final Iterator<Map.Entry<String, Object>> otherIterator = other.mContents.entrySet().iterator();
+        for (final Map.Entry<String, Object> entry : mContents.entrySet()) {
+            final Map.Entry<String, Object> otherEntry = otherIterator.next();
+            if (!entry.getKey().equals(otherEntry.getKey())) {
+                return false;
+            }
+
+            final Object value = entry.getValue();
+            final Object otherValue = otherEntry.getValue();
+            // list values are all LineLists, which compare element by element
+            if (value == null ? otherValue != null : !value.equals(otherValue)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the form to a Writer, in the format expected by a Perforce "-i" command. The writer is flushed but not
+     * closed.
+     * 
+     * @param output
+     *            the writer
+     * @throws IOException
+     *             thrown if the form could not be written
+     */
+    public void write(final Writer output) throws IOException {
+        for (final Map.Entry<String, Object> entry : mContents.entrySet()) {
             if (entry.getValue() instanceof String) {
-                output.append(entry.getKey());
-                output.append(": ");
-                output.append(entry.getValue());
-                output.append("\n");
+                output.write(entry.getKey());
+                output.write(": ");
+                output.write((String) entry.getValue());
+                output.write('\n');
             } else {
-                output.append(entry.getKey());
-                output.append(":\n");
-                final Collection listValue = (Collection) entry.getValue();
-                for (final Iterator iter2 = listValue.iterator(); iter2.hasNext();) {
-                    final String value = (String) iter2.next();
-                    output.append("\t");
-                    output.append(value);
-                    output.append("\n");
+                output.write(entry.getKey());
+                output.write(":\n");
+                for (final Object line : (Collection<?>) entry.getValue()) {
+                    output.write('\t');
+                    output.write((String) line);
+                    output.write('\n');
                 }
             }
         }
+        output.flush();
+    }
+
+    /**
+     * Render the form as a string, suitable for feeding back to a Perforce "-i" command
+     * 
+     * @return the string value.
+     */
+    @Override
+    public String toString() {
+        final StringWriter output = new StringWriter();
+        try {
+            write(output);
+        } catch (final IOException e) {
+            // a StringWriter does not throw
+            throw new SfSystemException(e);
+        }
 
         return output.toString();
     }
+
+    /**
+     * Return the shared instance of a line.
+     * 
+     * @param line
+     *            the line
+     * @return an equal line, shared with other forms if possible
+     */
+    private static String intern(final String line) {
+        synchronized (smInternedLines) {
+            final WeakReference<String> reference = smInternedLines.get(line);
+            final String interned = reference == null ? null : reference.get();
+            if (interned != null) {
+                return interned;
+            }
+
+            smInternedLines.put(line, new WeakReference<String>(line));
+            return line;
+        }
+    }
+
+    /**
+     * The value of a multi-line field: a growable array of interned lines.
+     */
+    private static class LineList extends AbstractList<String> implements RandomAccess {
+        private String[] mLines;
+        private int mSize = 0;
+
+        /**
+         * Create an empty list.
+         */
+        LineList() {
+            mLines = new String[8];
+        }
+
+        /**
+         * Create a list holding the lines of a collection.
+         * 
+         * @param lines
+         *            the lines
+         */
+        LineList(final Collection<?> lines) {
+            mLines = new String[Math.max(8, lines.size())];
+            for (final Object line : lines) {
+                add((String) line);
+            }
+        }
+
+        /**
+         * Create a copy of another list, sharing its lines.
+         * 
+         * @param other
+         *            the list to copy
+         */
+        LineList(final LineList other) {
+            mLines = new String[Math.max(8, other.mSize)];
+            System.arraycopy(other.mLines, 0, mLines, 0, other.mSize);
+            mSize = other.mSize;
+        }
+
+        @Override
+        public boolean add(final String line) {
+            if (mSize == mLines.length) {
+                final String[] grown = new String[mLines.length + (mLines.length >> 1) + 1];
+                System.arraycopy(mLines, 0, grown, 0, mSize);
+                mLines = grown;
+            }
+            mLines[mSize++] = intern(line);
+            modCount++;
+            return true;
+        }
+
+        @Override
+        public String get(final int index) {
+            if (index >= mSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+            }
+            return mLines[index];
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
 }
@@ -0,0 +1,193 @@
+package com.vasoftware.sf.externalintegration.adapters.perforcedaemon;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+
+/**
+ * Process wide cache of parsed Perforce group and protect forms, shared by all PerforceWrapper instances talking to the
+ * same server. Entries are replaced by the forms we fetch or write, dropped when a write fails, and refetched once they
+ * are older than the configured time to live, which bounds how long an edit made outside of the integration goes
+ * unnoticed. The cache only serves pure reads: a form which is modified and written back is always fetched first, as
+ * writing it replaces the whole form on the server.
+ *
+ * Each key carries a version which is bumped by every write and invalidation, so a fetch which was started before a
+ * write cannot replace the written form with the older one it read. Versions are unique across keys. Once per time to
+ * live, expired forms are dropped along with the versions of the keys left without a form; those keys then share a new
+ * floor version, so a fetch which was in flight during the pruning is simply not cached.
+ */
+class PerforceFormCache {
+    /** Default number of seconds a cached form is used without refetching it */
+    static final int DEFAULT_TTL_SECONDS = 30;
+
+    private static final long smTimeToLive = getTimeToLive();
+
+    private static final Map<String, Entry> smEntries = new HashMap<String, Entry>();
+    private static final Map<String, Long> smVersions = new HashMap<String, Long>();
+
+    /** The last version handed out */
+    private static long smLastVersion = 0;
+
+    /** The version of the keys not in smVersions */
+    private static long smVersionFloor = 0;
+
+    private static long smLastPruned = System.currentTimeMillis();
+
+    /**
+     * Private constructor; this class only has static methods.
+     */
+    private PerforceFormCache() {
+    }
+
+    /**
+     * Build the cache key of a form.
+     *
+     * @param port
+     *            the Perforce server port
+     * @param formName
+     *            the form type and name, e.g. "protect" or "group/project-foo"
+     * @return the key
+     */
+    static String getKey(final String port, final String formName) {
+        return port + "|" + formName;
+    }
+
+    /**
+     * Get a copy of a cached form which is still fresh.
+     *
+     * @param key
+     *            the form key
+     * @return a copy of the form the caller may modify, or null if the form has to be fetched
+     */
+    static synchronized PerforceForm get(final String key) {
+        final Entry entry = smEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entry.mCachedAt >= smTimeToLive) {
+            smEntries.remove(key);
+            return null;
+        }
+
+        return entry.mForm.copy();
+    }
+
+    /**
+     * Get the current version of a key; pass it to <code>putFetched</code> after fetching the form.
+     *
+     * @param key
+     *            the form key
+     * @return the version
+     */
+    static synchronized long getVersion(final String key) {
+        final Long version = smVersions.get(key);
+        return version == null ? smVersionFloor : version.longValue();
+    }
+
+    /**
+     * Cache a form fetched from the server, unless the key changed since the fetch started.
+     *
+     * @param key
+     *            the form key
+     * @param version
+     *            the version of the key when the fetch started
+     * @param form
+     *            the fetched form
+     */
+    static synchronized void putFetched(final String key, final long version, final PerforceForm form) {
+        if (smTimeToLive > 0 && getVersion(key) == version) {
+            smEntries.put(key, new Entry(form.copy()));
+        }
+        pruneIfDue();
+    }
+
+    /**
+     * Cache a form we successfully wrote to the server.
+     *
+     * @param key
+     *            the form key
+     * @param form
+     *            the written form
+     */
+    static synchronized void putWritten(final String key, final PerforceForm form) {
+        bumpVersion(key);
+        if (smTimeToLive > 0) {
+            smEntries.put(key, new Entry(form.copy()));
+        }
+        pruneIfDue();
+    }
+
+    /**
+     * Drop a cached form, e.g. because writing it failed and the server state is unknown.
+     *
+     * @param key
+     *            the form key
+     */
+    static synchronized void invalidate(final String key) {
+        bumpVersion(key);
+        smEntries.remove(key);
+        pruneIfDue();
+    }
+
+    /**
+     * Advance the version of a key.
+     *
+     * @param key
+     *            the form key
+     */
+    private static void bumpVersion(final String key) {
+        smVersions.put(key, Long.valueOf(++smLastVersion));
+    }
+
+    /**
+     * Drop the expired forms and the versions of the keys without a form, at most once per time to live.
+     */
+    private static void pruneIfDue() {
+        final long now = System.currentTimeMillis();
+        if (now - smLastPruned < smTimeToLive) {
+            return;
+        }
+        smLastPruned = now;
+
+        for (final Iterator<Entry> iterator = smEntries.values().iterator(); iterator.hasNext();) {
+            if (now - iterator.next().mCachedAt >= smTimeToLive) {
+                iterator.remove();
+            }
+        }
+
+        smVersions.keySet().retainAll(smEntries.keySet());
+        smVersionFloor = ++smLastVersion;
+    }
+
+    /**
+     * Read the time to live from the global options.
+     *
+     * @return the time to live in milliseconds
+     */
+    private static long getTimeToLive() {
+        return SfGlobalOptionsManager.getOptions().getIntOption(GlobalOptionKeys.SFMAIN_PERFORCE_FORM_CACHE_TTL,
+                                                                DEFAULT_TTL_SECONDS) * 1000L;
+    }
+
+    /**
+     * A cached form and when it was cached.
+     */
+    private static class Entry {
+        private final PerforceForm mForm;
+        private final long mCachedAt = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         *
+         * @param form
+         *            the form, owned by the cache
+         */
+        Entry(final PerforceForm form) {
+            mForm = form;
+        }
+    }
+}
@@ -161,7 +161,7 @@ public class PerforceScmServerDaemon extends SynchronizedScmServerDaemon {
 
             if (modified) {
                 form.setListValue("Protections", protections);
-                mP4.executeWithInputForm("protect", form.toString(), null, null);
+                mP4.writeProtectForm(form);
             }
 
             // add the triggers
@@ -343,7 +343,7 @@ public class PerforceScmServerDaemon extends SynchronizedScmServerDaemon {
 
             form.setListValue("Users", new ArrayList(updatedMembers));
 
-            mP4.executeWithInputForm("group", form.toString(), null, null);
+            mP4.writeGroupForm(groupName, form);
 
             if (!includeCurrent) {
                 deleteUsersIfNoAccess(removedMembers);
@@ -459,7 +459,7 @@ public class PerforceScmServerDaemon extends SynchronizedScmServerDaemon {
             }
             form.setListValue("Users", updatedMembers);
 
-            mP4.executeWithInputForm("group", form.toString(), null, null);
+            mP4.writeGroupForm(groupName, form);
 
             deleteUsersIfNoAccess(removedUsers);
         } catch (final CommandWrapperFault f) {
@@ -532,7 +532,7 @@ public class PerforceScmServerDaemon extends SynchronizedScmServerDaemon {
             }
 
             protectForm.setListValue("Protections", protectionList);
-            mP4.executeWithInputForm("protect", protectForm.toString(), null, null);
+            mP4.writeProtectForm(protectForm);
         } catch (final CommandWrapperFault f) {
             throw new IntegrationFault(f);
         }
@@ -544,7 +544,7 @@ public class PerforceScmServerDaemon extends SynchronizedScmServerDaemon {
     @Override
     public String[] listGroupMembers(final String groupName) throws IntegrationFault {
         try {
-            final PerforceForm form = mP4.getGroupForm(groupName);
+            final PerforceForm form = mP4.getCachedGroupForm(groupName);
             final List currentMembers = form.getListValue("Users");
             return (String[]) currentMembers.toArray(new String[currentMembers.size()]);
         } catch (final CommandWrapperFault f) {
@@ -46,7 +46,7 @@ public class PerforceScmServerDaemonSecure extends PerforceScmServerDaemon {
                                                                                       com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault,
                                                                                       IntegrationFault {
         verifyKey(transactionKey);
-        return createRepository(repositoryGroup, repositoryName, systemId, repositoryBaseUrl);
+        return runCreateRepositoryJob(repositoryGroup, repositoryName, systemId, repositoryBaseUrl);
     }
 
     /**
@@ -68,7 +68,7 @@ public class PerforceScmServerDaemonSecure extends PerforceScmServerDaemon {
                                                                                                           throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                           IntegrationFault {
         verifyKey(transactionKey);
-        setupRepository(systemId, repositoryId, repositoryDir);
+        runSetupRepositoryJob(systemId, repositoryId, repositoryDir);
     }
 
     /**
@@ -232,7 +232,7 @@ public class PerforceScmServerDaemonSecure extends PerforceScmServerDaemon {
                                                                                                                   throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                                   IntegrationFault {
         verifyKey(transactionKey);
-        return archiveRepository(repositoryPath);
+        return runArchiveRepositoryJob(repositoryPath);
     }
 
     /**
@@ -332,4 +332,39 @@ public class PerforceScmServerDaemonSecure extends PerforceScmServerDaemon {
         isBlackduckEnabled(hostName, port, username, password);
     }
 
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.perforcedaemon.PerforceScmServerDaemon#submitRepositoryJob(String,
+     *      String[])
+     */
+    public java.lang.String submitRepositoryJob(final String transactionKey, final java.lang.String jobType,
+                                                final java.lang.String[] arguments) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return submitRepositoryJob(jobType, arguments);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.perforcedaemon.PerforceScmServerDaemon#getRepositoryJobStatus(String)
+     */
+    public java.lang.String[] getRepositoryJobStatus(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getRepositoryJobStatus(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.perforcedaemon.PerforceScmServerDaemon#cancelRepositoryJob(String)
+     */
+    public java.lang.Boolean cancelRepositoryJob(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return cancelRepositoryJob(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.perforcedaemon.PerforceScmServerDaemon#getCommandStatistics()
+     */
+    public java.lang.String[] getCommandStatistics(final String transactionKey) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getCommandStatistics();
+    }
 }
@@ -0,0 +1,177 @@
+package com.vasoftware.sf.externalintegration.adapters.perforcedaemon;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+import com.vasoftware.sf.externalintegration.execution.CommandExecutor;
+import com.vasoftware.sf.externalintegration.execution.CommandInput;
+import com.vasoftware.sf.externalintegration.execution.CommandResult;
+import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
+
+/**
+ * The connection settings of one Perforce user, resolved once and reused for every command run as that user. Forms are
+ * streamed into the p4 process' stdin, and commands which only differ in their arguments can be run as a batch over a
+ * single p4 process and server connection through p4's <code>-x -</code> argument file mode.
+ *
+ * The p4 command line client has no mode which keeps a server connection open between separate commands, so a batch
+ * is the longest a connection is shared.
+ */
+class PerforceSession {
+    private final CommandExecutor mExecutor;
+    private final String[] mConnectionArguments;
+    private final String mUser;
+    private final String mPasswordArgument;
+
+    /**
+     * Constructor.
+     *
+     * @param executor
+     *            the executor running the p4 binary
+     * @param binary
+     *            the p4 binary
+     * @param hostPortArgument
+     *            the -p argument
+     * @param userArgument
+     *            the -u argument
+     * @param passwordArgument
+     *            the -P argument
+     */
+    PerforceSession(final CommandExecutor executor, final String binary, final String hostPortArgument,
+                    final String userArgument, final String passwordArgument) {
+        mExecutor = executor;
+        mConnectionArguments = new String[] { binary, hostPortArgument, userArgument, passwordArgument };
+        mUser = userArgument;
+        mPasswordArgument = passwordArgument;
+    }
+
+    /**
+     * Whether this session still matches the given credentials.
+     *
+     * @param userArgument
+     *            the -u argument
+     * @param passwordArgument
+     *            the -P argument
+     * @return true if the session runs commands with these credentials
+     */
+    boolean matches(final String userArgument, final String passwordArgument) {
+        return mUser.equals(userArgument) && mPasswordArgument.equals(passwordArgument);
+    }
+
+    /**
+     * Run a p4 command.
+     *
+     * @param arguments
+     *            the p4 command and its arguments
+     * @return the result of the command
+     * @throws CommandWrapperFault
+     *             thrown if the command could not be run
+     */
+    CommandResult run(final String... arguments) throws CommandWrapperFault {
+        return mExecutor.runCommand(buildCommand(null, arguments), null, null);
+    }
+
+    /**
+     * Run a p4 command with a form on stdin. The "-i" flag is not added.
+     *
+     * @param form
+     *            the form to feed to the command
+     * @param arguments
+     *            the p4 command and its arguments
+     * @return the result of the command
+     * @throws CommandWrapperFault
+     *             thrown if the command could not be run
+     */
+    CommandResult runWithForm(final String form, final String... arguments) throws CommandWrapperFault {
+        return runWithInput(CommandInput.fromString(form), arguments);
+    }
+
+    /**
+     * Run a p4 command with a form on stdin, written straight into the p4 process. The "-i" flag is not added.
+     *
+     * @param form
+     *            the form to feed to the command
+     * @param arguments
+     *            the p4 command and its arguments
+     * @return the result of the command
+     * @throws CommandWrapperFault
+     *             thrown if the command could not be run
+     */
+    CommandResult runWithForm(final PerforceForm form, final String... arguments) throws CommandWrapperFault {
+        return runWithInput(new CommandInput() {
+            @Override
+            public void writeTo(final OutputStream stream) throws IOException {
+                form.write(new BufferedWriter(new OutputStreamWriter(stream)));
+            }
+        }, arguments);
+    }
+
+    /**
+     * Run a p4 command with input on stdin.
+     *
+     * @param input
+     *            the input to feed to the command
+     * @param arguments
+     *            the p4 command and its arguments
+     * @return the result of the command
+     * @throws CommandWrapperFault
+     *             thrown if the command could not be run
+     */
+    private CommandResult runWithInput(final CommandInput input, final String... arguments)
+            throws CommandWrapperFault {
+        return mExecutor.runCommandWithInput(buildCommand(null, arguments), null, null, input);
+    }
+
+    /**
+     * Run the same p4 command once for each argument, over one p4 process and server connection.
+     *
+     * @param batchArguments
+     *            the argument appended to the command for each run
+     * @param arguments
+     *            the p4 command and the arguments common to every run
+     * @return the result of the whole batch
+     * @throws CommandWrapperFault
+     *             thrown if the command could not be run
+     */
+    CommandResult runBatch(final Collection<String> batchArguments, final String... arguments)
+            throws CommandWrapperFault {
+        final CommandInput input = new CommandInput() {
+            @Override
+            public void writeTo(final OutputStream stream) throws IOException {
+                final Writer writer = new OutputStreamWriter(stream);
+                for (final String argument : batchArguments) {
+                    writer.write(argument);
+                    writer.write('\n');
+                }
+                writer.flush();
+            }
+        };
+
+        return mExecutor.runCommandWithInput(buildCommand(new String[] { "-x", "-" }, arguments), null, null, input);
+    }
+
+    /**
+     * Build the full command line.
+     *
+     * @param globalOptions
+     *            additional global p4 options, or null
+     * @param arguments
+     *            the p4 command and its arguments
+     * @return the command line
+     */
+    private String[] buildCommand(final String[] globalOptions, final String[] arguments) {
+        final int optionCount = globalOptions == null ? 0 : globalOptions.length;
+        final String[] command = new String[mConnectionArguments.length + optionCount + arguments.length];
+
+        System.arraycopy(mConnectionArguments, 0, command, 0, mConnectionArguments.length);
+        if (globalOptions != null) {
+            System.arraycopy(globalOptions, 0, command, mConnectionArguments.length, optionCount);
+        }
+        System.arraycopy(arguments, 0, command, mConnectionArguments.length + optionCount, arguments.length);
+
+        return command;
+    }
+}
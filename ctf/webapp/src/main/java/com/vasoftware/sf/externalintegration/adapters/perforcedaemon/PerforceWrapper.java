@@ -5,12 +5,15 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,6 +54,9 @@ public class PerforceWrapper {
     /** admin password */
     private String mPerforceAdminPassword = null;
 
+    /** The session running commands as the admin user */
+    private PerforceSession mAdminSession = null;
+
     /* Prefix of line returned by "p4 info" that specifies Server Version */
     private static final String VERSION_LINE_PREFIX = "Server version:";
 
@@ -205,7 +211,7 @@ public class PerforceWrapper {
         members.add(adminUsername);
         form.setListValue("Users", members);
         form.setStringValue("Timeout", "0"); // set to 0 for ticket that does not expire
-        executeWithInputForm("group", form.toString(), null, null);
+        writeGroupForm("sourceforge-admin", form);
 
         // Do a "p4 login" as the admin user, running as the unix owner of the process,
         // so that triggers do not need password
@@ -447,39 +453,62 @@ public class PerforceWrapper {
      */
     public CommandResult executeWithInputForm(final String command, final String form, final String username,
                                               final String extraParam) throws CommandWrapperFault {
-        File tempfile = null;
-        try {
-            tempfile = File.createTempFile("sfee", "p4");
-            final FileWriter fileWriter = new FileWriter(tempfile);
-            fileWriter.write(form);
-            fileWriter.close();
-
-            String echoCommand = CAT_COMMAND + " \"" + tempfile.getAbsolutePath() + "\" | " + mPerforceBinary + " "
-                    + getHostPortParam() + " " + getUserParam(username) + " '" + getUserPasswordParam(username) + "' "
-                    + command + " -i";
-            if (extraParam != null) {
-                echoCommand += " " + extraParam;
-            }
+        final CommandResult result = getSession(username).runWithForm(form, getFormArguments(command, extraParam));
+        return checkFormResult(result);
+    }
 
-            final CommandResult result = mExecutor.runCommand(new String[] { SHELL_COMMAND, "-c", echoCommand }, null,
-                                                              null);
-            if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
-                smLogger.error("Could not execute command: " + result.getCommandOutput());
-                throw new CommandWrapperFault(sanitizeString(echoCommand), "Error: "
-                        + sanitizeString(result.getCommandOutput()));
-            }
+    /**
+     * Execute the perforce command with a form as input, streaming the form into the command. The "-i" param is
+     * automatically added.
+     * 
+     * @param command
+     *            the command to execute
+     * @param form
+     *            the form to provide as input
+     * @param username
+     *            the user to execute as
+     * @param extraParam
+     *            an optional extra parameter.
+     * @return the command result for the execution
+     * @throws CommandWrapperFault
+     *             thrown if there were problems setting up the command execution
+     */
+    public CommandResult executeWithInputForm(final String command, final PerforceForm form, final String username,
+                                              final String extraParam) throws CommandWrapperFault {
+        final CommandResult result = getSession(username).runWithForm(form, getFormArguments(command, extraParam));
+        return checkFormResult(result);
+    }
 
-            return result;
+    /**
+     * Build the arguments of a command taking a form as input.
+     * 
+     * @param command
+     *            the command to execute
+     * @param extraParam
+     *            an optional extra parameter.
+     * @return the arguments
+     */
+    private String[] getFormArguments(final String command, final String extraParam) {
+        return extraParam == null ? new String[] { command, "-i" } : new String[] { command, "-i", extraParam };
+    }
 
-        } catch (final IOException e) {
-            throw new CommandWrapperFault("executeWithInputForm", "Could not create temporary file for perforce form ["
-                    + form + "]", e);
-        } finally {
-            if (tempfile != null) {
-                tempfile.delete();
-            }
+    /**
+     * Check the result of a command which took a form as input.
+     * 
+     * @param result
+     *            the result
+     * @return the result, if the command succeeded
+     * @throws CommandWrapperFault
+     *             thrown if the command failed
+     */
+    private CommandResult checkFormResult(final CommandResult result) throws CommandWrapperFault {
+        if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+            smLogger.error("Could not execute command: " + result.getCommandOutput());
+            throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Error: "
+                    + sanitizeString(result.getCommandOutput()));
         }
 
+        return result;
     }
 
     /**
@@ -507,19 +536,7 @@ public class PerforceWrapper {
      */
     public String getCommandOutput(final String[] commandComponents, final String username) throws CommandWrapperFault,
                                                                                            ScmLimitationFault {
-        final String[] initialComponents = new String[] { mPerforceBinary, getHostPortParam(), getUserParam(username),
-                                                         getUserPasswordParam(username) };
-
-        // build a single string array of initial components and new ones
-        final String[] fullCommand = new String[initialComponents.length + commandComponents.length];
-        for (int i = 0; i < initialComponents.length; i++) {
-            fullCommand[i] = initialComponents[i];
-        }
-        for (int i = 0; i < commandComponents.length; i++) {
-            fullCommand[initialComponents.length + i] = commandComponents[i];
-        }
-
-        final CommandResult result = mExecutor.runCommand(fullCommand, null, null);
+        final CommandResult result = getSession(username).run(commandComponents);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             final String stderr = result.getStderr();
             if (stderr.indexOf(LICENSE_QUOTA_EXCEEDED) > -1) {
@@ -551,9 +568,7 @@ public class PerforceWrapper {
                                     final String command) throws CommandWrapperFault {
 
         try {
-            final String[] triggersCommand = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                                           getAdminPasswordParam(), "triggers", "-o" };
-            CommandResult result = mExecutor.runCommand(triggersCommand, null, null);
+            CommandResult result = getSession(null).run("triggers", "-o");
             if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
                 throw new CommandWrapperFault(sanitizeString(result.getCommand()),
                                               "Could not query triggers on repository");
@@ -631,9 +646,7 @@ public class PerforceWrapper {
         }
 
         try {
-            final String[] triggersCommand = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                                           getAdminPasswordParam(), "triggers", "-o" };
-            CommandResult result = mExecutor.runCommand(triggersCommand, null, null);
+            CommandResult result = getSession(null).run("triggers", "-o");
             if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
                 throw new CommandWrapperFault(sanitizeString(result.getCommand()),
                                               "Could not query triggers on repository");
@@ -724,9 +737,7 @@ public class PerforceWrapper {
      *             if set of existing depots cannot be read
      */
     public boolean depotExists(final String depotName) throws CommandWrapperFault {
-        final String[] depotsCommand = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                                     getAdminPasswordParam(), "depots" };
-        final CommandResult result = mExecutor.runCommand(depotsCommand, null, null);
+        final CommandResult result = getSession(null).run("depots");
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not get a list of depots: "
                     + sanitizeString(result.getStderr() + result.getStdout()));
@@ -752,9 +763,7 @@ public class PerforceWrapper {
      *             if set of existing depots cannot be read
      */
     public boolean directoryPathExists(final String clientName, final String dirPath) throws CommandWrapperFault {
-        final String[] command = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                               getAdminPasswordParam(), "-c", clientName, "dirs", dirPath };
-        final CommandResult result = mExecutor.runCommand(command, null, null);
+        final CommandResult result = getSession(null).run("-c", clientName, "dirs", dirPath);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not verify path: " + dirPath
                     + ": " + result.getStderr());
@@ -791,7 +800,7 @@ public class PerforceWrapper {
         }
 
         form.setStringValue("Email", "none"); // TODO: can/should we get real email?
-        final CommandResult result = executeWithInputForm("user", form.toString(), null, "-f");
+        final CommandResult result = executeWithInputForm("user", form, null, "-f");
 
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not create user: " + userName
@@ -822,7 +831,7 @@ public class PerforceWrapper {
         final String userFormOutput = getCommandOutput(new String[] { "user", "-fo", userName }, null);
         final PerforceForm userForm = PerforceForm.parse(userFormOutput);
         validateForm(userForm, "user", "User");
-        final CommandResult result = executeWithInputForm("user", userForm.toString(), null, "-f");
+        final CommandResult result = executeWithInputForm("user", userForm, null, "-f");
 
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not create user: " + userName
@@ -850,38 +859,30 @@ public class PerforceWrapper {
 
                 // yes, this looks a lot like PerforceScmServerDaemon.removeUsersFromAccessGroup(),
                 // but that method would call deleteUser after the last one, starting a loop back to here...
-                String currentGroupForm = null;
-                try {
-                    currentGroupForm = getCommandOutput(new String[] { "group", "-o", group }, null);
-                } catch (final ScmLimitationFault scmLimitationFault) {
-                    throw new CommandWrapperFault("group", "Unexpected error", scmLimitationFault);
-                }
-                final PerforceForm form = PerforceForm.parse(currentGroupForm);
-                validateForm(form, "group", "Group");
+                final PerforceForm form = getGroupForm(group);
                 final List members = form.getListValue("Users");
                 members.remove(username);
                 form.setListValue("Users", members);
-                executeWithInputForm("group", form.toString(), null, null);
+                writeGroupForm(group, form);
             }
 
         }
 
         // Before deleting the user, we need to figure out if he has any files open on any clients
-        final String[] openedCommand = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                                     getAdminPasswordParam(), "opened", "-a" };
-        final CommandResult openedCommandResult = mExecutor.runCommand(openedCommand, null, null);
+        final CommandResult openedCommandResult = getSession(null).run("opened", "-a");
         if (openedCommandResult.getReturnValue() == CommandResult.RETURN_SUCCESS) {
             final String[] openedFiles = openedCommandResult.getStdout().split("\n");
+            final Set<String> clientNames = new LinkedHashSet<String>();
             for (int i = 0; i < openedFiles.length; i++) {
                 final String line = openedFiles[i];
                 final int usernameIndex = line.indexOf(username + "@");
                 // only care about open entries that belong to this user that we want to delete
                 if (usernameIndex >= 0) {
-                    final String clientName = line.substring(usernameIndex + username.length() + 1);
-                    // delete the client to delete the open files
-                    deleteClient(clientName);
+                    clientNames.add(line.substring(usernameIndex + username.length() + 1));
                 }
             }
+            // delete the clients to delete the open files
+            deleteClients(clientNames);
         } else {
             throw new CommandWrapperFault(sanitizeString(openedCommandResult.getCommand()),
                                           "Could not display all the open files in preparation "
@@ -889,9 +890,7 @@ public class PerforceWrapper {
                                                   + sanitizeString(openedCommandResult.getStderr()));
         }
 
-        final String[] deleteUserCommand = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                                         getAdminPasswordParam(), "user", "-df", username };
-        final CommandResult result = mExecutor.runCommand(deleteUserCommand, null, null);
+        final CommandResult result = getSession(null).run("user", "-df", username);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             if (result.getStderr().indexOf("User " + username + " doesn't exist") != -1) {
                 if (smLogger.isDebugEnabled()) {
@@ -964,15 +963,37 @@ public class PerforceWrapper {
      */
     public void deleteClient(final String clientName) throws CommandWrapperFault {
 
-        final String[] command = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                               getAdminPasswordParam(), "client", "-df", clientName };
-        final CommandResult result = mExecutor.runCommand(command, null, null);
+        final CommandResult result = getSession(null).run("client", "-df", clientName);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not delete client " + clientName
                     + ": " + sanitizeString(result.getStderr()));
         }
     }
 
+    /**
+     * Delete several Perforce clients from the server, over a single p4 connection.
+     * 
+     * @param clientNames
+     *            the names of the clients to delete
+     * @throws CommandWrapperFault
+     *             if deleting any of them fails
+     */
+    public void deleteClients(final Collection<String> clientNames) throws CommandWrapperFault {
+        if (clientNames.isEmpty()) {
+            return;
+        }
+        if (clientNames.size() == 1) {
+            deleteClient(clientNames.iterator().next());
+            return;
+        }
+
+        final CommandResult result = getSession(null).runBatch(clientNames, "client", "-df");
+        if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+            throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not delete clients "
+                    + clientNames + ": " + sanitizeString(result.getStderr()));
+        }
+    }
+
     /**
      * Synchronizes the path in the client workspace
      * 
@@ -989,13 +1010,11 @@ public class PerforceWrapper {
         String[] command;
 
         if (path != null) {
-            command = new String[] { mPerforceBinary, getHostPortParam(), getUserParam(user),
-                                    getUserPasswordParam(user), "-c", clientName, "sync", path };
+            command = new String[] { "-c", clientName, "sync", path };
         } else {
-            command = new String[] { mPerforceBinary, getHostPortParam(), getUserParam(user),
-                                    getUserPasswordParam(user), "-c", clientName, "sync" };
+            command = new String[] { "-c", clientName, "sync" };
         }
-        final CommandResult result = mExecutor.runCommand(command, null, null);
+        final CommandResult result = getSession(user).run(command);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not sync with client "
                     + clientName + ": " + sanitizeString(result.getStderr()));
@@ -1080,14 +1099,12 @@ public class PerforceWrapper {
 
         String[] command;
         if ("".equals(password)) {
-            command = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(), getAdminPasswordParam(),
-                                    "passwd", adminPasswdParam, "-P''", username }; // this syntax works for setting
+            command = new String[] { "passwd", adminPasswdParam, "-P''", username }; // this syntax works for setting
             // empty password
         } else {
-            command = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(), getAdminPasswordParam(),
-                                    "passwd", adminPasswdParam, "-P", escapeString(password), username };
+            command = new String[] { "passwd", adminPasswdParam, "-P", escapeString(password), username };
         }
-        final CommandResult result = mExecutor.runCommand(command, null, null);
+        final CommandResult result = getSession(null).run(command);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             if (result.getStderr().indexOf("User " + username + " doesn't exist") != -1) {
                 if (smLogger.isDebugEnabled()) {
@@ -1140,10 +1157,8 @@ public class PerforceWrapper {
      */
     public void integrateFile(final String clientName, final File srcFile, final File dstFile, final String username)
                                                                                                                      throws CommandWrapperFault {
-        final String[] command = new String[] { mPerforceBinary, getHostPortParam(), getUserParam(username),
-                                               getUserPasswordParam(username), "-c", clientName, "integrate",
-                                               srcFile.getAbsolutePath(), dstFile.getAbsolutePath() };
-        final CommandResult result = mExecutor.runCommand(command, null, null);
+        final CommandResult result = getSession(username).run("-c", clientName, "integrate",
+                                                              srcFile.getAbsolutePath(), dstFile.getAbsolutePath());
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not integrate "
                     + srcFile.getAbsolutePath() + "and " + dstFile.getAbsolutePath() + " in client " + clientName
@@ -1217,9 +1232,7 @@ public class PerforceWrapper {
     private void executeSimpleFileCommand(final String command, final String clientName, final File file,
                                           final String username) throws CommandWrapperFault {
         final String filePath = file.getAbsolutePath();
-        final String[] commandArray = new String[] { mPerforceBinary, getHostPortParam(), getUserParam(username),
-                                                    getUserPasswordParam(username), "-c", clientName, command, filePath };
-        final CommandResult result = mExecutor.runCommand(commandArray, null, null);
+        final CommandResult result = getSession(username).run("-c", clientName, command, filePath);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS || !StringUtil.isEmpty(result.getStderr())) {
             String errmsg = result.getStderr();
             if (errmsg == null || "".equals(errmsg)) {
@@ -1267,6 +1280,33 @@ public class PerforceWrapper {
         }
     }
 
+    /**
+     * Get the session running commands as the supplied user - or as the admin user if the supplied username is null.
+     * The admin session is kept for as long as the admin credentials do not change.
+     * 
+     * @param username
+     *            the user to run commands as. If this is null, the admin user is used
+     * @return the session
+     * @throws CommandWrapperFault
+     *             if the admin credentials cannot be fetched
+     */
+    private PerforceSession getSession(final String username) throws CommandWrapperFault {
+        final String userParam = getUserParam(username);
+        final String passwordParam = getUserPasswordParam(username);
+
+        if (username != null) {
+            return new PerforceSession(mExecutor, mPerforceBinary, getHostPortParam(), userParam, passwordParam);
+        }
+
+        PerforceSession session = mAdminSession;
+        if (session == null || !session.matches(userParam, passwordParam)) {
+            session = new PerforceSession(mExecutor, mPerforceBinary, getHostPortParam(), userParam, passwordParam);
+            mAdminSession = session;
+        }
+
+        return session;
+    }
+
     /**
      * commit a change to Perforce (actually a submit in P4 terminology)
      * 
@@ -1297,24 +1337,7 @@ public class PerforceWrapper {
         descriptionList.add(comment);
         form.setListValue("Description", descriptionList);
 
-        CommandResult result;
-        File tempfile = null;
-        try {
-            tempfile = File.createTempFile("sfee", "p4");
-            final FileWriter fileWriter = new FileWriter(tempfile);
-            fileWriter.write(form.toString());
-            fileWriter.close();
-
-            final String echoCommand = CAT_COMMAND + " \"" + tempfile.getAbsolutePath() + "\" | " + mPerforceBinary
-                    + " " + getHostPortParam() + " " + getUserParam(username) + " '" + getUserPasswordParam(username)
-                    + "' " + " -c" + clientName + " change -i";
-
-            result = mExecutor.runCommand(new String[] { SHELL_COMMAND, "-c", echoCommand }, null, null);
-
-        } catch (final IOException e) {
-            throw new CommandWrapperFault("executeWithInputForm", "Could not create temporary file for perforce form",
-                                          e);
-        }
+        CommandResult result = getSession(username).runWithForm(form, "-c" + clientName, "change", "-i");
 
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not commit client: " + clientName
@@ -1332,10 +1355,7 @@ public class PerforceWrapper {
         }
         final String changeNum = m.group(1);
 
-        final String[] commandArray = new String[] { mPerforceBinary, getHostPortParam(), getUserParam(username),
-                                                    getUserPasswordParam(username), "-c", clientName, "submit", "-c",
-                                                    changeNum };
-        result = mExecutor.runCommand(commandArray, null, null);
+        result = getSession(username).run("-c", clientName, "submit", "-c", changeNum);
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             /* revert the changelist */
             try {
@@ -1346,15 +1366,6 @@ public class PerforceWrapper {
             form = PerforceForm.parse(formText);
             form.setListValue("Description", descriptionList);
             form.setListValue("Files", new LinkedList());
-            try {
-                tempfile = File.createTempFile("sfee", "p4");
-                final FileWriter fileWriter = new FileWriter(tempfile);
-                fileWriter.write(form.toString());
-                fileWriter.close();
-            } catch (final IOException e) {
-                throw new CommandWrapperFault("executeWithInputForm",
-                                              "Could not create temporary file for perforce form", e);
-            }
 
             throw new CommandWrapperFault(sanitizeString(result.getCommand()), "Could not execute submit: " + ": "
                     + sanitizeString(result.getStderr()));
@@ -1362,46 +1373,166 @@ public class PerforceWrapper {
     }
 
     /**
-     * Get a perforce group form
+     * Get a perforce group form from the server. p4 group -i replaces the whole group, so this is the form to modify and
+     * write back.
      * 
      * @param groupName
      *            The group form to get
-     * @return The group form
+     * @return The group form, which the caller may modify
      * @throws CommandWrapperFault
      *             If the command had a problem
      */
     public PerforceForm getGroupForm(final String groupName) throws CommandWrapperFault {
+        return fetchGroupForm(getGroupFormKey(groupName), groupName);
+    }
+
+    /**
+     * Get a perforce group form for reading only. Group forms are cached, so the returned form may not reflect changes
+     * made outside of the integration within the last few seconds; never write it back.
+     * 
+     * @param groupName
+     *            The group form to get
+     * @return The group form
+     * @throws CommandWrapperFault
+     *             If the command had a problem
+     */
+    public PerforceForm getCachedGroupForm(final String groupName) throws CommandWrapperFault {
+        final String key = getGroupFormKey(groupName);
+        final PerforceForm cachedForm = PerforceFormCache.get(key);
+        if (cachedForm != null) {
+            return cachedForm;
+        }
+
+        return fetchGroupForm(key, groupName);
+    }
+
+    /**
+     * Fetch a perforce group form from the server and cache it.
+     * 
+     * @param key
+     *            The cache key of the form
+     * @param groupName
+     *            The group form to get
+     * @return The group form, which the caller may modify
+     * @throws CommandWrapperFault
+     *             If the command had a problem
+     */
+    private PerforceForm fetchGroupForm(final String key, final String groupName) throws CommandWrapperFault {
+        final long version = PerforceFormCache.getVersion(key);
         String currentGroupForm = null;
         try {
-            currentGroupForm = getCommandOutput(new String[] { "group", "-o", groupName }, null).trim();
+            currentGroupForm = getCommandOutput(new String[] { "group", "-o", groupName }, null);
         } catch (final ScmLimitationFault scmLimitationFault) {
             throw new CommandWrapperFault("group", "Unexpected error", scmLimitationFault);
         }
         final PerforceForm form = PerforceForm.parse(currentGroupForm);
         validateForm(form, "group", "Group");
+        PerforceFormCache.putFetched(key, version, form);
+        form.markFetched();
         return form;
     }
 
     /**
-     * Get the perforce protect form
+     * Write a perforce group form, which should have been read with getGroupForm() just before, unless it is still the
+     * same as what was read.
+     * 
+     * @param groupName
+     *            The group the form is for
+     * @param form
+     *            The group form
+     * @throws CommandWrapperFault
+     *             If the command had a problem
+     */
+    public void writeGroupForm(final String groupName, final PerforceForm form) throws CommandWrapperFault {
+        if (form.containsKey("Users")) {
+            // the server keeps members sorted; do the same so that unchanged membership compares equal
+            form.setListValue("Users", new TreeSet<String>(form.getListValue("Users")));
+        }
+
+        writeCachedForm(getGroupFormKey(groupName), "group", form);
+    }
+
+    /**
+     * Get the perforce protect form from the server. p4 protect -i replaces the whole table, so this is the form to
+     * modify and write back.
      * 
-     * @return The protect form
+     * @return The protect form, which the caller may modify
      * @throws CommandWrapperFault
      *             If the command had a problem
      */
     public PerforceForm getProtectForm() throws CommandWrapperFault {
-        // add perforce write access for the group (and add some protection)
+        final String key = PerforceFormCache.getKey(mPerforcePort, "protect");
+        final long version = PerforceFormCache.getVersion(key);
         String currentProtect = null;
         try {
-            currentProtect = getCommandOutput(new String[] { "protect", "-o" }, null).trim();
+            currentProtect = getCommandOutput(new String[] { "protect", "-o" }, null);
         } catch (final ScmLimitationFault scmLimitationFault) {
             throw new CommandWrapperFault("protect", "Unexpected error", scmLimitationFault);
         }
         final PerforceForm form = PerforceForm.parse(currentProtect);
         validateForm(form, "protect", "Protections");
+        PerforceFormCache.putFetched(key, version, form);
+        form.markFetched();
         return form;
     }
 
+    /**
+     * Write the perforce protect form, which should have been read with getProtectForm() just before, unless it is
+     * still the same as what was read.
+     * 
+     * @param form
+     *            The protect form
+     * @throws CommandWrapperFault
+     *             If the command had a problem
+     */
+    public void writeProtectForm(final PerforceForm form) throws CommandWrapperFault {
+        writeCachedForm(PerforceFormCache.getKey(mPerforcePort, "protect"), "protect", form);
+    }
+
+    /**
+     * Write a form as the admin user and update the cache. Nothing is run if the form is the same as when it was
+     * fetched from the server, which the callers do right before modifying it.
+     * 
+     * @param key
+     *            The cache key of the form
+     * @param command
+     *            The perforce command taking the form
+     * @param form
+     *            The form
+     * @throws CommandWrapperFault
+     *             If the command had a problem
+     */
+    private void writeCachedForm(final String key, final String command, final PerforceForm form)
+            throws CommandWrapperFault {
+        if (form.isUnchangedSinceFetch()) {
+            smLogger.debug("Not writing unchanged " + command + " form");
+            return;
+        }
+
+        boolean written = false;
+        try {
+            executeWithInputForm(command, form, null, null);
+            written = true;
+        } finally {
+            if (written) {
+                PerforceFormCache.putWritten(key, form);
+            } else {
+                PerforceFormCache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Get the cache key of a group form.
+     * 
+     * @param groupName
+     *            the group
+     * @return the key
+     */
+    private String getGroupFormKey(final String groupName) {
+        return PerforceFormCache.getKey(mPerforcePort, "group/" + groupName);
+    }
+
     /**
      * Returns a list containing all existing perforce username
      * 
@@ -1410,9 +1541,7 @@ public class PerforceWrapper {
      *             if the operation fails
      */
     public String[] listUsers() throws CommandWrapperFault {
-        final String[] commandArray = new String[] { mPerforceBinary, getHostPortParam(), getAdminUserParam(),
-                                                    getAdminPasswordParam(), "users" };
-        final CommandResult result = mExecutor.runCommand(commandArray, null, null);
+        final CommandResult result = getSession(null).run("users");
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             String errmsg = result.getStderr();
             if (errmsg == null || "".equals(errmsg)) {
@@ -1453,6 +1582,6 @@ public class PerforceWrapper {
         final List protectionList = protectForm.getListValue("Protections");
         protectionList.add("super user " + username + " * //...");
         protectForm.setListValue("Protections", protectionList);
-        executeWithInputForm("protect", protectForm.toString(), null, null);
+        writeProtectForm(protectForm);
     }
 }
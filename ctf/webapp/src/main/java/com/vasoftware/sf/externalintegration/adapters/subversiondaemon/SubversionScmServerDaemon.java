@@ -7,7 +7,11 @@ package com.vasoftware.sf.externalintegration.adapters.subversiondaemon;
 
 import java.io.File;
 
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptions;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
 import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.FileUtil;
 import com.vasoftware.sf.externalintegration.IntegrationFault;
 import com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault;
 import com.vasoftware.sf.externalintegration.ScmConstants;
@@ -22,6 +26,9 @@ import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
 public class SubversionScmServerDaemon extends ScmScmServerDaemon {
     private static final Logger smLogger = Logger.getLogger(SubversionScmServerDaemon.class);
 
+    /** Value of the archive mode option selecting incremental snapshots */
+    public static final String ARCHIVE_MODE_SNAPSHOT = "snapshot";
+
     private final SubversionWrapper mSubversion = new SubversionWrapper(getCommandExecutor(), false);
 
     /**
@@ -208,6 +215,69 @@ public class SubversionScmServerDaemon extends ScmScmServerDaemon {
         }
     }
 
+    /**
+     * Runs "svn update" on the working copy checked out by checkoutRepository, if there is one.
+     *
+     * @see ScmScmServerDaemon#updateCheckout(String, String, File)
+     */
+    @Override
+    public void updateCheckout(final String repositoryPath, final String repositoryPathFromRoot,
+                               final File destinationDirectory) throws IntegrationFault {
+        try {
+            final File repositoryRoot = getRepositoryDirFromCTFRepositoryPath(repositoryPath);
+
+            // "svn checkout" creates the working copy under the last segment of the checked out path
+            final File workingCopy = new File(destinationDirectory,
+                                              new File(repositoryRoot, repositoryPathFromRoot).getName());
+            if (new File(workingCopy, ".svn").isDirectory()) {
+                mSubversion.update(workingCopy);
+            } else {
+                mSubversion.checkoutRepository(repositoryRoot, repositoryPathFromRoot, destinationDirectory);
+            }
+        } catch (final CommandWrapperFault commandWrapperFault) {
+            throw new IntegrationFault(commandWrapperFault);
+        }
+    }
+
+    /**
+     * Archives FSFS repositories as incremental snapshots when the archive mode is set to "snapshot", and as tarballs
+     * otherwise.
+     *
+     * @see ScmScmServerDaemon#archiveRepository(String)
+     */
+    @Override
+    public Boolean archiveRepository(final String repositoryPath) throws IntegrationFault {
+        final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
+        final String archiveMode = options.getOption(GlobalOptionKeys.SFMAIN_INTEGRATION_SUBVERSION_ARCHIVE_MODE);
+        if (!ARCHIVE_MODE_SNAPSHOT.equals(archiveMode)) {
+            return super.archiveRepository(repositoryPath);
+        }
+
+        final File repoDir = getRepositoryDirFromCTFRepositoryPath(repositoryPath);
+        if (!repoDir.exists() || !SubversionSnapshotArchiver.isFsfsRepository(repoDir)) {
+            // Missing repositories and BDB repositories are handled as before
+            return super.archiveRepository(repositoryPath);
+        }
+
+        final File archiveRoot = createArchiveRoot();
+        if (archiveRoot == null) {
+            return Boolean.FALSE;
+        }
+
+        try {
+            new SubversionSnapshotArchiver(getCommandExecutor()).archive(repoDir, archiveRoot,
+                                                                        getArchiveBaseName(repoDir)
+                                                                        + SubversionSnapshotArchiver.SNAPSHOT_SUFFIX);
+            FileUtil.deleteDir(repoDir);
+
+            return Boolean.TRUE;
+        } catch (final Exception e) {
+            smLogger.warn("Error creating snapshot of Subversion repository, left in place.", e);
+
+            return Boolean.FALSE;
+        }
+    }
+
     /**
      * @see com.vasoftware.sf.externalintegration.adapters.ScmScmServerDaemon#getDaemonType()
      */
@@ -53,7 +53,7 @@ public class SubversionScmServerDaemonSecure extends SubversionScmServerDaemon {
                                                                                       com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault,
                                                                                       IntegrationFault {
         verifyKey(transactionKey);
-        return createRepository(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
+        return runCreateRepositoryJob(repositoryGroup, repositoryDir, systemId, repositoryBaseUrl);
     }
 
     /**
@@ -65,7 +65,7 @@ public class SubversionScmServerDaemonSecure extends SubversionScmServerDaemon {
                                                                                                              throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                              IntegrationFault {
         verifyKey(transactionKey);
-        setupRepository(systemId, repositoryGroup, repositoryDir);
+        runSetupRepositoryJob(systemId, repositoryGroup, repositoryDir);
     }
 
     /**
@@ -113,7 +113,7 @@ public class SubversionScmServerDaemonSecure extends SubversionScmServerDaemon {
                                                                            throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                            IntegrationFault {
         verifyKey(transactionKey);
-        checkoutRepository(repositoryPath, repositoryPathFromRoot, destinationDirectory);
+        runCheckoutRepositoryJob(repositoryPath, repositoryPathFromRoot, destinationDirectory);
     }
 
     /**
@@ -123,7 +123,7 @@ public class SubversionScmServerDaemonSecure extends SubversionScmServerDaemon {
                                                                                                                   throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                                   IntegrationFault {
         verifyKey(transactionKey);
-        return archiveRepository(repositoryPath);
+        return runArchiveRepositoryJob(repositoryPath);
     }
 
     /**
@@ -203,4 +203,39 @@ public class SubversionScmServerDaemonSecure extends SubversionScmServerDaemon {
         isBlackduckEnabled(hostName, port, username, password);
     }
 
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.subversiondaemon.SubversionScmServerDaemon#submitRepositoryJob(String,
+     *      String[])
+     */
+    public java.lang.String submitRepositoryJob(final String transactionKey, final java.lang.String jobType,
+                                                final java.lang.String[] arguments) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return submitRepositoryJob(jobType, arguments);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.subversiondaemon.SubversionScmServerDaemon#getRepositoryJobStatus(String)
+     */
+    public java.lang.String[] getRepositoryJobStatus(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getRepositoryJobStatus(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.subversiondaemon.SubversionScmServerDaemon#cancelRepositoryJob(String)
+     */
+    public java.lang.Boolean cancelRepositoryJob(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return cancelRepositoryJob(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.subversiondaemon.SubversionScmServerDaemon#getCommandStatistics()
+     */
+    public java.lang.String[] getCommandStatistics(final String transactionKey) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getCommandStatistics();
+    }
 }
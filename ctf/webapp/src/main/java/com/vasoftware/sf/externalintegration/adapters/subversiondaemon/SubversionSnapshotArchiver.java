@@ -0,0 +1,366 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+package com.vasoftware.sf.externalintegration.adapters.subversiondaemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.FileUtil;
+import com.vasoftware.sf.externalintegration.execution.CommandExecutor;
+import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
+
+/**
+ * Archives an FSFS repository as a snapshot directory instead of a tarball. The snapshot has the layout of the
+ * repository, but most of its files are not copied:
+ * <ul>
+ * <li>revision files and packs under <code>db/revs</code> are never modified by FSFS once written, so they are
+ * hard-linked from the repository itself;</li>
+ * <li>every other file, including the revision properties under <code>db/revprops</code>, is hard-linked from the
+ * latest earlier snapshot of the same repository (identified by its uuid) when its size and modification time did not
+ * change, and copied otherwise.</li>
+ * </ul>
+ * Files which can not be linked, e.g. because the archive is on another file system, are copied. The snapshot is built
+ * under a temporary name and renamed when complete.
+ *
+ * Since the files of a snapshot are shared with other snapshots, a snapshot is restored by copying it back into place
+ * (e.g. with <code>cp -a</code>), never by moving or hard-linking it: Subversion rewrites some repository files in
+ * place, which would change every snapshot sharing them.
+ */
+class SubversionSnapshotArchiver {
+    private static final Logger smLogger = Logger.getLogger(SubversionSnapshotArchiver.class);
+
+    /** The suffix of snapshot directories */
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final String IMMUTABLE_DIRECTORY = "db/revs";
+
+    /** The timestamp between the repository name and the suffix of a snapshot name */
+    private static final Pattern TIMESTAMP_PATTERN = Pattern.compile("\\d{8}_\\d{6}");
+
+    private final CommandExecutor mExecutor;
+
+    private long mLinkedFromRepository;
+    private long mReusedFromSnapshot;
+    private long mCopied;
+    private long mCopiedBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param executor
+     *            the executor used to create hard links
+     */
+    SubversionSnapshotArchiver(final CommandExecutor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Can a repository be archived as a snapshot.
+     *
+     * @param repositoryDir
+     *            the repository directory
+     * @return true if it is an FSFS repository with a uuid
+     */
+    static boolean isFsfsRepository(final File repositoryDir) {
+        try {
+            return "fsfs".equals(readFirstLine(new File(repositoryDir, "db/fs-type")))
+                   && readFirstLine(new File(repositoryDir, "db/uuid")) != null;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a snapshot of a repository.
+     *
+     * @param repositoryDir
+     *            the repository directory
+     * @param archiveRoot
+     *            the directory holding the archives
+     * @param snapshotName
+     *            the name of the snapshot directory to create
+     * @return the snapshot directory
+     * @throws IOException
+     *             thrown if a file could not be copied
+     * @throws CommandWrapperFault
+     *             thrown if the link command could not be run
+     */
+    File archive(final File repositoryDir, final File archiveRoot, final String snapshotName) throws IOException,
+                                                                                            CommandWrapperFault {
+        final long started = System.currentTimeMillis();
+        final String uuid = readFirstLine(new File(repositoryDir, "db/uuid"));
+        final File previousSnapshot = findPreviousSnapshot(archiveRoot, repositoryDir.getName(), uuid);
+
+        final File snapshot = new File(archiveRoot, snapshotName);
+        final File partialSnapshot = new File(archiveRoot, snapshotName + PARTIAL_SUFFIX);
+        if (partialSnapshot.exists()) {
+            FileUtil.deleteDir(partialSnapshot);
+        }
+
+        try {
+            archiveDirectory(repositoryDir, partialSnapshot, "", previousSnapshot);
+        } catch (final IOException e) {
+            // Also catches CommandWrapperFault
+            FileUtil.deleteDir(partialSnapshot);
+            throw e;
+        }
+
+        if (!partialSnapshot.renameTo(snapshot)) {
+            FileUtil.deleteDir(partialSnapshot);
+            throw new IOException("Could not rename " + partialSnapshot + " to " + snapshot);
+        }
+
+        smLogger.info("Archived " + repositoryDir + " to " + snapshot + " in "
+                      + (System.currentTimeMillis() - started) / 1000 + " s: " + mLinkedFromRepository
+                      + " revision files linked, " + mReusedFromSnapshot + " files reused from "
+                      + (previousSnapshot == null ? "no earlier snapshot" : previousSnapshot.getName()) + ", "
+                      + mCopied + " files (" + mCopiedBytes / 1024 + " KB) copied");
+        return snapshot;
+    }
+
+    /**
+     * Archive one directory of the repository and recurse into its subdirectories.
+     *
+     * @param source
+     *            the repository directory
+     * @param destination
+     *            the snapshot directory to create
+     * @param relativePath
+     *            the path of the directory relative to the repository root, "" for the root
+     * @param previous
+     *            the same directory in the previous snapshot, or null
+     * @throws IOException
+     *             thrown if a file could not be copied
+     * @throws CommandWrapperFault
+     *             thrown if the link command could not be run
+     */
+    private void archiveDirectory(final File source, final File destination, final String relativePath,
+                                  final File previous) throws IOException, CommandWrapperFault {
+        if (!destination.mkdirs()) {
+            throw new IOException("Could not create " + destination);
+        }
+
+        final File[] children = source.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + source);
+        }
+
+        final boolean immutable = relativePath.equals(IMMUTABLE_DIRECTORY)
+                                  || relativePath.startsWith(IMMUTABLE_DIRECTORY + "/");
+        final List<File> files = new ArrayList<File>();
+        for (final File child : children) {
+            if (child.isDirectory()) {
+                final File previousChild = previous == null ? null : new File(previous, child.getName());
+                archiveDirectory(child, new File(destination, child.getName()),
+                                 relativePath.length() == 0 ? child.getName() : relativePath + "/" + child.getName(),
+                                 previousChild != null && previousChild.isDirectory() ? previousChild : null);
+            } else {
+                files.add(child);
+            }
+        }
+
+        if (immutable && !files.isEmpty()) {
+            link(source, files, destination);
+            mLinkedFromRepository += removeArchived(files, destination);
+        }
+
+        if (previous != null && !files.isEmpty()) {
+            final List<File> unchanged = new ArrayList<File>();
+            for (final File file : files) {
+                final File previousFile = new File(previous, file.getName());
+                if (previousFile.isFile() && previousFile.length() == file.length()
+                    && (immutable || previousFile.lastModified() == file.lastModified())) {
+                    unchanged.add(file);
+                }
+            }
+
+            if (!unchanged.isEmpty()) {
+                link(previous, unchanged, destination);
+                mReusedFromSnapshot += removeArchived(files, destination);
+            }
+        }
+
+        for (final File file : files) {
+            copyFile(file, new File(destination, file.getName()));
+        }
+    }
+
+    /**
+     * Hard-link files into the snapshot.
+     *
+     * @param sourceDirectory
+     *            the directory to link from
+     * @param files
+     *            the files, only their names are used
+     * @param destination
+     *            the snapshot directory
+     * @throws CommandWrapperFault
+     *             thrown if the link command could not be run
+     */
+    private void link(final File sourceDirectory, final List<File> files, final File destination)
+            throws CommandWrapperFault {
+        final String[] names = new String[files.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = files.get(i).getName();
+        }
+
+        mExecutor.hardLinkFiles(sourceDirectory, names, destination);
+    }
+
+    /**
+     * Remove the files which made it into the snapshot from a list.
+     *
+     * @param files
+     *            the files, modified in place
+     * @param destination
+     *            the snapshot directory
+     * @return the number of files removed
+     */
+    private static int removeArchived(final List<File> files, final File destination) {
+        int removed = 0;
+        for (final Iterator<File> iterator = files.iterator(); iterator.hasNext();) {
+            if (new File(destination, iterator.next().getName()).exists()) {
+                iterator.remove();
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Copy a file, keeping its modification time so the next snapshot can reuse it, and whether it is executable.
+     *
+     * @param source
+     *            the file to copy
+     * @param destination
+     *            the copy to create
+     * @throws IOException
+     *             thrown if the file could not be copied
+     */
+    private void copyFile(final File source, final File destination) throws IOException {
+        final FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(destination);
+            final FileChannel inChannel = in.getChannel();
+            final FileChannel outChannel = out.getChannel();
+            final long size = inChannel.size();
+            long position = 0;
+            while (position < size) {
+                final long transferred = inChannel.transferTo(position, size - position, outChannel);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+
+            mCopied++;
+            mCopiedBytes += position;
+        } finally {
+            FileUtil.close(out);
+            FileUtil.close(in);
+        }
+
+        // Hook scripts have to stay executable
+        if (source.canExecute()) {
+            destination.setExecutable(true, false);
+        }
+        destination.setLastModified(source.lastModified());
+    }
+
+    /**
+     * Find the latest earlier snapshot of the same repository.
+     *
+     * @param archiveRoot
+     *            the directory holding the archives
+     * @param repositoryName
+     *            the name of the repository directory
+     * @param uuid
+     *            the uuid of the repository
+     * @return the snapshot directory, or null if there is none
+     */
+    private static File findPreviousSnapshot(final File archiveRoot, final String repositoryName, final String uuid) {
+        final File[] archives = archiveRoot.listFiles();
+        if (archives == null) {
+            return null;
+        }
+
+        File latest = null;
+        for (final File archive : archives) {
+            final String name = archive.getName();
+            if (!isSnapshotOf(name, repositoryName) || !archive.isDirectory()) {
+                continue;
+            }
+
+            // Snapshot names of one repository only differ in their sortable timestamp
+            if (latest != null && name.compareTo(latest.getName()) <= 0) {
+                continue;
+            }
+
+            try {
+                if (uuid.equals(readFirstLine(new File(archive, "db/uuid")))) {
+                    latest = archive;
+                }
+            } catch (final IOException e) {
+                // not a usable snapshot
+            }
+        }
+
+        return latest;
+    }
+
+    /**
+     * Is a name the name of a snapshot of a repository: the repository name, a dash, the timestamp and the snapshot
+     * suffix. A plain prefix match would also accept the snapshots of e.g. "foo-bar" as snapshots of "foo".
+     *
+     * @param name
+     *            the file name
+     * @param repositoryName
+     *            the name of the repository directory
+     * @return true if the name is the name of a snapshot of the repository
+     */
+    private static boolean isSnapshotOf(final String name, final String repositoryName) {
+        final String prefix = repositoryName + "-";
+        if (!name.startsWith(prefix) || !name.endsWith(SNAPSHOT_SUFFIX)
+            || name.length() < prefix.length() + SNAPSHOT_SUFFIX.length()) {
+            return false;
+        }
+
+        final String timestamp = name.substring(prefix.length(), name.length() - SNAPSHOT_SUFFIX.length());
+        return TIMESTAMP_PATTERN.matcher(timestamp).matches();
+    }
+
+    /**
+     * Read the first line of a file.
+     *
+     * @param file
+     *            the file
+     * @return the trimmed first line, or null if the file is empty
+     * @throws IOException
+     *             thrown if the file could not be read
+     */
+    private static String readFirstLine(final File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            final String line = reader.readLine();
+            return line == null ? null : line.trim();
+        } finally {
+            FileUtil.close(reader);
+        }
+    }
+}
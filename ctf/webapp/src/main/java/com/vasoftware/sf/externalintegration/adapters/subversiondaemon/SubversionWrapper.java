@@ -557,6 +557,26 @@ public class SubversionWrapper {
         }
     }
 
+    /**
+     * Updates a working copy of a local repository, checked out through a file:// URL by
+     * {@link #checkoutRepository(File, String, File)}.
+     * 
+     * @param path
+     *            The working copy path to update.
+     * @throws CommandWrapperFault
+     *             if something goes wrong
+     */
+    public void update(final File path) throws CommandWrapperFault {
+        final String[] cmdString = { mSubversionBinary, UPDATE, path.getAbsolutePath() };
+        final CommandResult result = mExecutor.runCommandAs(ScmConstants.HTTPD_USER, cmdString, path.getParentFile(),
+                                                            false);
+
+        if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+            throw new CommandWrapperFault(result.getCommand(), "Could not update the working copy located here: "
+                                          + path.getAbsolutePath() + ": " + result.getCommandOutput());
+        }
+    }
+
     /**
      * Updates the working copy.
      * 
@@ -0,0 +1,251 @@
+package com.vasoftware.sf.externalintegration.adapters.wandiscodaemon;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local mirror of the ACLs of a WANdisco node, by external id, and cache of the permission checks made against it.
+ *
+ * The node can not list its ACLs, so the mirror learns them from the queries, creations and deletions done through
+ * {@link WandiscoWrapper}; it also remembers the ids known not to exist. The integration server is the one managing the
+ * ACLs of its repositories, but they can also be changed on the node directly, so what the mirror learned is only used
+ * for {@link #ACL_CACHE_MS}. The result of a query is only recorded if the version did not change while it ran, so a
+ * query racing with a change can not overwrite what the change recorded.
+ *
+ * The mirror has a version which is bumped by every change made to the ACLs, users or groups of the node. Permission
+ * checks are evaluated by the node, from the ACLs and the group memberships; their results are cached with the version
+ * they were computed at and only used while the version is unchanged, and for at most {@link #PERMISSION_CACHE_MS}.
+ */
+class AclMirror {
+    /** How long the result of a permission check is used, in milliseconds */
+    static final long PERMISSION_CACHE_MS = 60000;
+
+    /** How long a mirrored ACL, or the absence of one, is used, in milliseconds */
+    static final long ACL_CACHE_MS = 600000;
+
+    /** Maximum number of cached permission checks */
+    private static final int MAX_PERMISSIONS = 10000;
+
+    /** Maximum number of mirrored ACLs */
+    private static final int MAX_ACLS = 100000;
+
+    /** Placeholder for the ids known not to exist */
+    private static final AclDO ABSENT = new AclDO(null, false, null, null, false, null, null, null);
+
+    private final ConcurrentMap<String, AclEntry> mAcls = new ConcurrentHashMap<String, AclEntry>();
+    private final ConcurrentMap<String, Permission> mPermissions = new ConcurrentHashMap<String, Permission>();
+    private final AtomicLong mVersion = new AtomicLong();
+
+    /**
+     * @return the version of the mirror, bumped by every change made to the node
+     */
+    long getVersion() {
+        return mVersion.get();
+    }
+
+    /**
+     * Record that the ACLs, users or groups of the node changed, which invalidates the cached permission checks.
+     */
+    void changed() {
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * Find out if an ACL exists.
+     *
+     * @param aclId
+     *            the external id of the ACL
+     * @return true or false, or null if the mirror does not know
+     */
+    Boolean exists(final String aclId) {
+        final AclDO acl = lookup(aclId);
+        return acl == null ? null : Boolean.valueOf(acl != ABSENT);
+    }
+
+    /**
+     * Get an ACL.
+     *
+     * @param aclId
+     *            the external id of the ACL
+     * @return the ACL, or null if it does not exist or the mirror does not know
+     */
+    AclDO get(final String aclId) {
+        final AclDO acl = lookup(aclId);
+        return acl == ABSENT ? null : acl;
+    }
+
+    /**
+     * Record an ACL read from the node, unless the node was changed since the query was started.
+     *
+     * @param acl
+     *            the ACL
+     * @param version
+     *            the version of the mirror when the query was started
+     */
+    void queried(final AclDO acl, final long version) {
+        if (version == mVersion.get()) {
+            put(acl.getAclId(), acl);
+        }
+    }
+
+    /**
+     * Record that an ACL was not found on the node, unless the node was changed since the query was started.
+     *
+     * @param aclId
+     *            the external id of the ACL
+     * @param version
+     *            the version of the mirror when the query was started
+     */
+    void notFound(final String aclId, final long version) {
+        if (version == mVersion.get()) {
+            put(aclId, ABSENT);
+        }
+    }
+
+    /**
+     * Record an ACL created on the node.
+     *
+     * @param acl
+     *            the ACL
+     */
+    void created(final AclDO acl) {
+        put(acl.getAclId(), acl);
+        changed();
+    }
+
+    /**
+     * Record an ACL deleted from the node.
+     *
+     * @param aclId
+     *            the external id of the ACL
+     */
+    void deleted(final String aclId) {
+        put(aclId, ABSENT);
+        changed();
+    }
+
+    /**
+     * Forget an ACL whose state on the node is not known anymore, for instance after a failed change.
+     *
+     * @param aclId
+     *            the external id of the ACL
+     */
+    void forget(final String aclId) {
+        mAcls.remove(aclId);
+        changed();
+    }
+
+    /**
+     * Get what the mirror knows about an ACL, dropping it if it is too old.
+     *
+     * @param aclId
+     *            the external id of the ACL
+     * @return the ACL, ABSENT if it does not exist, or null if the mirror does not know
+     */
+    private AclDO lookup(final String aclId) {
+        final AclEntry entry = mAcls.get(aclId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.mTime > ACL_CACHE_MS) {
+            mAcls.remove(aclId, entry);
+            return null;
+        }
+
+        return entry.mAcl;
+    }
+
+    /**
+     * Record what is known about an ACL.
+     *
+     * @param aclId
+     *            the external id of the ACL
+     * @param acl
+     *            the ACL, or ABSENT if it does not exist
+     */
+    private void put(final String aclId, final AclDO acl) {
+        if (mAcls.size() >= MAX_ACLS && !mAcls.containsKey(aclId)) {
+            mAcls.clear();
+        }
+        mAcls.put(aclId, new AclEntry(acl));
+    }
+
+    /**
+     * Get the cached result of a permission check.
+     *
+     * @param key
+     *            the key of the check
+     * @return the result, or null if it is not cached or no longer valid
+     */
+    Boolean getPermission(final String key) {
+        final Permission permission = mPermissions.get(key);
+        if (permission == null || permission.mVersion != mVersion.get()
+            || System.currentTimeMillis() - permission.mTime > PERMISSION_CACHE_MS) {
+            return null;
+        }
+
+        return permission.mAllowed;
+    }
+
+    /**
+     * Cache the result of a permission check.
+     *
+     * @param key
+     *            the key of the check
+     * @param allowed
+     *            the result
+     * @param version
+     *            the version of the mirror when the check was started
+     */
+    void putPermission(final String key, final boolean allowed, final long version) {
+        if (version != mVersion.get()) {
+            return;
+        }
+
+        if (mPermissions.size() >= MAX_PERMISSIONS) {
+            mPermissions.clear();
+        }
+        mPermissions.put(key, new Permission(allowed, version));
+    }
+
+    /**
+     * A mirrored ACL and when it was learned.
+     */
+    private static class AclEntry {
+        private final AclDO mAcl;
+        private final long mTime = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         *
+         * @param acl
+         *            the ACL, or ABSENT if it does not exist
+         */
+        AclEntry(final AclDO acl) {
+            mAcl = acl;
+        }
+    }
+
+    /**
+     * The result of a permission check.
+     */
+    private static class Permission {
+        private final Boolean mAllowed;
+        private final long mVersion;
+        private final long mTime = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         *
+         * @param allowed
+         *            the result
+         * @param version
+         *            the version of the mirror the check was computed at
+         */
+        Permission(final boolean allowed, final long version) {
+            mAllowed = Boolean.valueOf(allowed);
+            mVersion = version;
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class WandiscoCvsScmServerDaemonSecure extends WandiscoCvsScmServerDaemon
                                                                                                           throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                           IntegrationFault {
         verifyKey(transactionKey);
-        setupRepository(systemId, repositoryId, repositoryDir);
+        runSetupRepositoryJob(systemId, repositoryId, repositoryDir);
     }
 
     /**
@@ -79,9 +79,10 @@ public class WandiscoCvsScmServerDaemonSecure extends WandiscoCvsScmServerDaemon
                                              final java.lang.String repositoryDir, final java.lang.String systemId,
                                              final java.lang.String repositoryBaseUrl)
                                                                                       throws com.vasoftware.sf.externalintegration.IntegrationFault,
+                                                                                      com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault,
                                                                                       IntegrationFault {
         verifyKey(transactionKey);
-        return createRepository(repositoryId, repositoryDir, systemId, repositoryBaseUrl);
+        return runCreateRepositoryJob(repositoryId, repositoryDir, systemId, repositoryBaseUrl);
     }
 
     /**
@@ -186,7 +187,7 @@ public class WandiscoCvsScmServerDaemonSecure extends WandiscoCvsScmServerDaemon
                                                                            throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                            IntegrationFault {
         verifyKey(transactionKey);
-        checkoutRepository(repositoryPath, repositoryPathFromRoot, destinationDirectory);
+        runCheckoutRepositoryJob(repositoryPath, repositoryPathFromRoot, destinationDirectory);
     }
 
     /**
@@ -285,7 +286,7 @@ public class WandiscoCvsScmServerDaemonSecure extends WandiscoCvsScmServerDaemon
                                                                                                                   throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                                   IntegrationFault {
         verifyKey(transactionKey);
-        return archiveRepository(repositoryPath);
+        return runArchiveRepositoryJob(repositoryPath);
     }
 
     /**
@@ -408,4 +409,39 @@ public class WandiscoCvsScmServerDaemonSecure extends WandiscoCvsScmServerDaemon
         isBlackduckEnabled(hostName, port, username, password);
     }
 
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoCvsScmServerDaemon#submitRepositoryJob(String,
+     *      String[])
+     */
+    public java.lang.String submitRepositoryJob(final String transactionKey, final java.lang.String jobType,
+                                                final java.lang.String[] arguments) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return submitRepositoryJob(jobType, arguments);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoCvsScmServerDaemon#getRepositoryJobStatus(String)
+     */
+    public java.lang.String[] getRepositoryJobStatus(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getRepositoryJobStatus(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoCvsScmServerDaemon#cancelRepositoryJob(String)
+     */
+    public java.lang.Boolean cancelRepositoryJob(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return cancelRepositoryJob(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoCvsScmServerDaemon#getCommandStatistics()
+     */
+    public java.lang.String[] getCommandStatistics(final String transactionKey) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getCommandStatistics();
+    }
 }
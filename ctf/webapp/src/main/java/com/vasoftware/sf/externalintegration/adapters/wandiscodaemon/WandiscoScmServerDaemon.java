@@ -13,8 +13,6 @@ package com.vasoftware.sf.externalintegration.adapters.wandiscodaemon;
 
 import java.io.File;
 import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.List;
 
 import com.vasoftware.sf.common.logger.Logger;
 import com.vasoftware.sf.externalintegration.IntegrationFault;
@@ -419,7 +417,8 @@ public abstract class WandiscoScmServerDaemon extends SynchronizedScmServerDaemo
     }
 
     /**
-     * Add the users to Wandisco system.
+     * Add the users to Wandisco system. The members of the all users group are known to exist and skipped, the other
+     * users are created in bulk.
      * 
      * @param usernames
      *            Usernames to be added
@@ -430,17 +429,7 @@ public abstract class WandiscoScmServerDaemon extends SynchronizedScmServerDaemo
      *             An error occurred while executing the command.
      */
     public String[] addUsers(final String[] usernames, final String[] md5Passwords) throws IntegrationFault {
-        final List usersCreated = new ArrayList();
-
-        for (int i = 0; i < usernames.length; i++) {
-            try {
-                mWandisco.createUser(usernames[i], true);
-                usersCreated.add(usernames[i]);
-            } catch (final UserAlreadyExistsFault e) {
-                // do nothing
-            }
-        }
-        return (String[]) usersCreated.toArray(new String[] {});
+        return mWandisco.createUsers(usernames, null, ScmConstants.ALL_USERS_GROUP);
     }
 
     /**
@@ -0,0 +1,478 @@
+package com.vasoftware.sf.externalintegration.adapters.wandiscodaemon;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.rpc.ServiceException;
+
+import org.apache.axis.AxisEngine;
+import org.apache.axis.AxisFault;
+import org.apache.axis.client.Stub;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptions;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.logger.Logger;
+import com.wandisco.webservices.scmapi_1_0.ACLManagement;
+import com.wandisco.webservices.scmapi_1_0.ACLManagementServiceLocator;
+import com.wandisco.webservices.scmapi_1_0.RepositoryManagement;
+import com.wandisco.webservices.scmapi_1_0.RepositoryManagementServiceLocator;
+import com.wandisco.webservices.scmapi_1_0.SystemManagement;
+import com.wandisco.webservices.scmapi_1_0.SystemManagementServiceLocator;
+import com.wandisco.webservices.scmapi_1_0.UserGroupManagement;
+import com.wandisco.webservices.scmapi_1_0.UserGroupManagementServiceLocator;
+
+/**
+ * Process wide pool of the soap ports of the WANdisco nodes, one per host and port. The ports are shared by every
+ * {@link WandiscoWrapper} talking to the node, so the stubs are built and the admin login is done once, not once per
+ * daemon instance.
+ *
+ * The ports handed out are proxies to the stubs of the current login session. When the node rejects the login token,
+ * for instance because it expired or the node was restarted, the pool logs in again and the call is retried once with
+ * the new token.
+ *
+ * The pool also holds the {@link AclMirror} of the node; every call changing its users, groups or ACLs bumps the
+ * version of the mirror.
+ */
+class WandiscoStubPool {
+    private static final Logger smLogger = Logger.getLogger(WandiscoStubPool.class);
+
+    /** Default timeout of the soap calls, in milliseconds */
+    static final int DEFAULT_TIMEOUT_MS = 60000;
+
+    /** Default number of concurrent calls when provisioning users in bulk */
+    static final int DEFAULT_PROVISIONING_THREADS = 8;
+
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    private static final String ACL_LOCATION = "/soap/scm/aclmanagement";
+    private static final String USER_GROUP_LOCATION = "/soap/scm/usergroupmanagement";
+    private static final String REPOSITORY_LOCATION = "/soap/scm/repositorymanagement";
+    private static final String SYSTEM_LOCATION = "/soap/scm/systemmanagement";
+
+    private static final String SECURITY_HEADER_NAMESPACE = "http://http://webservices.wandisco.com/headers";
+    private static final String SECURITY_HEADER_NAME = "wandiscosecurityheader";
+
+    /**
+     * Parts of the fault strings of the node when the security header is missing or the nonce it carries, the login
+     * token returned by loginAsAdmin, is not valid. Faults of the operations themselves, e.g. about a user's login
+     * name, must not match.
+     */
+    private static final String[] AUTHENTICATION_FAULTS = { SECURITY_HEADER_NAME, "security header", "nonce" };
+
+    private static final ConcurrentMap<String, WandiscoStubPool> smPools =
+        new ConcurrentHashMap<String, WandiscoStubPool>();
+
+    private final String mHost;
+    private final String mPort;
+    private final int mTimeout;
+
+    private final ACLManagement mAclPort;
+    private final UserGroupManagement mUserGroupPort;
+    private final RepositoryManagement mRepositoryPort;
+    private volatile SystemManagement mSystemPort;
+    private volatile Session mSession;
+    private ThreadPoolExecutor mExecutor;
+    private final AclMirror mAclMirror = new AclMirror();
+
+    /**
+     * Constructor.
+     *
+     * @param host
+     *            the host of the WANdisco node
+     * @param port
+     *            the soap port of the WANdisco node
+     * @param timeout
+     *            the timeout of the soap calls, in milliseconds
+     */
+    private WandiscoStubPool(final String host, final String port, final int timeout) {
+        mHost = host;
+        mPort = port;
+        mTimeout = timeout;
+
+        mAclPort = (ACLManagement) createProxy(ACLManagement.class);
+        mUserGroupPort = (UserGroupManagement) createProxy(UserGroupManagement.class);
+        mRepositoryPort = (RepositoryManagement) createProxy(RepositoryManagement.class);
+    }
+
+    /**
+     * Get the pool of a WANdisco node.
+     *
+     * @param host
+     *            the host of the WANdisco node
+     * @param port
+     *            the soap port of the WANdisco node
+     * @return the pool, shared by all callers for the same node
+     */
+    static WandiscoStubPool getPool(final String host, final String port) {
+        final String key = host + ":" + port;
+        WandiscoStubPool pool = smPools.get(key);
+        if (pool == null) {
+            final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
+            final int timeout = options.getIntOption(GlobalOptionKeys.SFMAIN_WANDISCO_TIMEOUT_MS, DEFAULT_TIMEOUT_MS);
+            final WandiscoStubPool newPool = new WandiscoStubPool(host, port, timeout);
+            pool = smPools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * @return the ACL management port
+     */
+    ACLManagement getAclPort() {
+        return mAclPort;
+    }
+
+    /**
+     * @return the user and group management port
+     */
+    UserGroupManagement getUserGroupPort() {
+        return mUserGroupPort;
+    }
+
+    /**
+     * @return the repository management port
+     */
+    RepositoryManagement getRepositoryPort() {
+        return mRepositoryPort;
+    }
+
+    /**
+     * @return the ACL mirror of the node
+     */
+    AclMirror getAclMirror() {
+        return mAclMirror;
+    }
+
+    /**
+     * Gets the port for the SystemManagement. It is not authenticated, the login is done through it.
+     *
+     * @return the system management port
+     * @throws RemoteException
+     *             if the port cannot be created
+     */
+    SystemManagement getSystemPort() throws RemoteException {
+        SystemManagement systemPort = mSystemPort;
+        if (systemPort == null) {
+            final URL portAddress = getServiceUrl(SYSTEM_LOCATION);
+            try {
+                systemPort = new SystemManagementServiceLocator().getSystemManagement(portAddress);
+            } catch (final ServiceException e) {
+                throw new RemoteException("Failed to connect to " + portAddress, e);
+            }
+            configureStub((Stub) systemPort);
+            mSystemPort = systemPort;
+        }
+
+        return systemPort;
+    }
+
+    /**
+     * Get the executor for the bulk operations on the node. It runs at most
+     * <code>sfmain.integration.wandisco.provisioning_threads</code> calls at a time, the threads go away when idle.
+     *
+     * @return the executor
+     */
+    synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            final SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
+            final int threads = Math.max(1, options.getIntOption(GlobalOptionKeys.SFMAIN_WANDISCO_PROVISIONING_THREADS,
+                                                                 DEFAULT_PROVISIONING_THREADS));
+            final AtomicInteger threadNumber = new AtomicInteger();
+            final String threadPrefix = "wandisco-" + mHost + ":" + mPort + "-";
+            mExecutor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                                                   public Thread newThread(final Runnable runnable) {
+                                                       final Thread thread = new Thread(runnable, threadPrefix
+                                                               + threadNumber.incrementAndGet());
+                                                       thread.setDaemon(true);
+                                                       return thread;
+                                                   }
+                                               });
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        return mExecutor;
+    }
+
+    /**
+     * Get the current login session, logging in if there is none yet.
+     *
+     * @return the session
+     * @throws RemoteException
+     *             if the login fails
+     */
+    private Session getSession() throws RemoteException {
+        final Session session = mSession;
+        return session != null ? session : refreshSession(null);
+    }
+
+    /**
+     * Log in again, unless another thread already replaced the stale session.
+     *
+     * @param staleSession
+     *            the session whose token was rejected, or null if there is no session yet
+     * @return the current session
+     * @throws RemoteException
+     *             if the login fails
+     */
+    private synchronized Session refreshSession(final Session staleSession) throws RemoteException {
+        if (mSession == staleSession) {
+            mSession = new Session(getSystemPort().loginAsAdmin("root", "wandisco"));
+        }
+
+        return mSession;
+    }
+
+    /**
+     * Create a proxy for a port, which invokes the stub of the current session and retries once with a new session if
+     * the login token is rejected.
+     *
+     * @param portClass
+     *            the port interface
+     * @return the proxy
+     */
+    private Object createProxy(final Class<?> portClass) {
+        return Proxy.newProxyInstance(portClass.getClassLoader(), new Class<?>[] { portClass },
+                                      new InvocationHandler() {
+                                          public Object invoke(final Object proxy, final Method method,
+                                                               final Object[] args) throws Throwable {
+                                              return invokePort(portClass, method, args);
+                                          }
+                                      });
+    }
+
+    /**
+     * Invoke a method of a port.
+     *
+     * @param portClass
+     *            the port interface
+     * @param method
+     *            the method
+     * @param args
+     *            the arguments
+     * @return the result of the method
+     * @throws Throwable
+     *             the exception thrown by the method
+     */
+    private Object invokePort(final Class<?> portClass, final Method method, final Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+
+        try {
+            return invokeStub(portClass, method, args);
+        } finally {
+            // Even a failed call may have changed something
+            if (isMutation(portClass, method)) {
+                mAclMirror.changed();
+            }
+        }
+    }
+
+    /**
+     * Invoke a method on the stub of the current session, logging in again and retrying once if the login token is
+     * rejected.
+     *
+     * @param portClass
+     *            the port interface
+     * @param method
+     *            the method
+     * @param args
+     *            the arguments
+     * @return the result of the method
+     * @throws Throwable
+     *             the exception thrown by the method
+     */
+    private Object invokeStub(final Class<?> portClass, final Method method, final Object[] args) throws Throwable {
+        final Session session = getSession();
+        try {
+            return method.invoke(session.getStub(portClass), args);
+        } catch (final InvocationTargetException e) {
+            if (!isAuthenticationFault(e.getCause())) {
+                throw e.getCause();
+            }
+            smLogger.info("Login token rejected by WANdisco at " + mHost + ":" + mPort + ", logging in again");
+        }
+
+        try {
+            return method.invoke(refreshSession(session).getStub(portClass), args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Create an authenticated stub.
+     *
+     * @param portClass
+     *            the port interface
+     * @param loginToken
+     *            the login token
+     * @return the stub
+     * @throws RemoteException
+     *             if the stub cannot be created
+     */
+    private Stub createStub(final Class<?> portClass, final String loginToken) throws RemoteException {
+        final Stub stub;
+        URL portAddress = null;
+        try {
+            if (portClass == ACLManagement.class) {
+                portAddress = getServiceUrl(ACL_LOCATION);
+                stub = (Stub) new ACLManagementServiceLocator().getACLManagement(portAddress);
+            } else if (portClass == UserGroupManagement.class) {
+                portAddress = getServiceUrl(USER_GROUP_LOCATION);
+                stub = (Stub) new UserGroupManagementServiceLocator().getUserGroupManagement(portAddress);
+            } else if (portClass == RepositoryManagement.class) {
+                portAddress = getServiceUrl(REPOSITORY_LOCATION);
+                stub = (Stub) new RepositoryManagementServiceLocator().getrepositoryManagement(portAddress);
+            } else {
+                throw new IllegalArgumentException("Unknown port: " + portClass.getName());
+            }
+        } catch (final ServiceException e) {
+            throw new RemoteException("Failed to connect to " + portAddress, e);
+        }
+
+        configureStub(stub);
+        // Need the security header to go past the WANdisco authorization check
+        stub.setHeader(SECURITY_HEADER_NAMESPACE, SECURITY_HEADER_NAME, loginToken);
+        return stub;
+    }
+
+    /**
+     * Configure the stub.
+     *
+     * @param stub
+     *            the stub to be configured
+     */
+    private void configureStub(final Stub stub) {
+        // Multirefs support in Axis 1.4 is incomplete, SOAP request does not validate with schema with multirefs,
+        // so disable
+        stub._setProperty(AxisEngine.PROP_DOMULTIREFS, Boolean.FALSE);
+
+        // The Axis http sender uses the timeout both to connect and to read the response
+        stub.setTimeout(mTimeout);
+    }
+
+    /**
+     * Creates the URL based on the host and port and location
+     *
+     * @param location
+     *            the location of the service
+     * @return url
+     * @throws RemoteException
+     *             if the url is mal formed
+     */
+    private URL getServiceUrl(final String location) throws RemoteException {
+        try {
+            return new URL("http://" + mHost + ":" + mPort + location);
+        } catch (final MalformedURLException e) {
+            throw new RemoteException("Malformed URL exception", e);
+        }
+    }
+
+    /**
+     * Find out if a method changes the users, groups or ACLs of the node.
+     *
+     * @param portClass
+     *            the port interface
+     * @param method
+     *            the method
+     * @return true if the method may change the permissions of the users
+     */
+    private static boolean isMutation(final Class<?> portClass, final Method method) {
+        if (portClass != UserGroupManagement.class && portClass != ACLManagement.class) {
+            return false;
+        }
+
+        final String name = method.getName();
+        return !name.startsWith("query") && !name.startsWith("is") && !name.endsWith("Exists");
+    }
+
+    /**
+     * Find out if a soap call failed because the login token was rejected.
+     *
+     * @param t
+     *            the exception thrown by the call
+     * @return true if the node did not accept the login token
+     */
+    private static boolean isAuthenticationFault(final Throwable t) {
+        if (!(t instanceof AxisFault)) {
+            return false;
+        }
+
+        final String faultString = ((AxisFault) t).getFaultString();
+        if (faultString == null) {
+            return false;
+        }
+
+        final String lowerCaseFault = faultString.toLowerCase();
+        if (lowerCaseFault.startsWith("(401)") || lowerCaseFault.startsWith("(403)")) {
+            return true;
+        }
+        for (final String authenticationFault : AUTHENTICATION_FAULTS) {
+            if (lowerCaseFault.indexOf(authenticationFault) != -1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A login session: the token and the stubs which send it, created on first use.
+     */
+    private class Session {
+        private final String mLoginToken;
+        private final ConcurrentMap<Class<?>, Stub> mStubs = new ConcurrentHashMap<Class<?>, Stub>();
+
+        /**
+         * Constructor.
+         *
+         * @param loginToken
+         *            the login token
+         */
+        Session(final String loginToken) {
+            mLoginToken = loginToken;
+        }
+
+        /**
+         * Get the stub of a port.
+         *
+         * @param portClass
+         *            the port interface
+         * @return the stub
+         * @throws RemoteException
+         *             if the stub cannot be created
+         */
+        Stub getStub(final Class<?> portClass) throws RemoteException {
+            Stub stub = mStubs.get(portClass);
+            if (stub == null) {
+                final Stub newStub = createStub(portClass, mLoginToken);
+                stub = mStubs.putIfAbsent(portClass, newStub);
+                if (stub == null) {
+                    stub = newStub;
+                }
+            }
+
+            return stub;
+        }
+    }
+}
@@ -8,15 +8,13 @@ package com.vasoftware.sf.externalintegration.adapters.wandiscodaemon;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
 
 import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
 import com.vasoftware.sf.externalintegration.IntegrationFault;
 import com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault;
+import com.vasoftware.sf.externalintegration.ScmConstants;
 import com.vasoftware.sf.externalintegration.adapters.subversiondaemon.SubversionWrapper;
 import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
-import com.vasoftware.sf.externalintegration.execution.UserAlreadyExistsFault;
 import com.wandisco.webservices.scmapi_1_0.ScmType;
 
 /**
@@ -116,21 +114,7 @@ public class WandiscoSubversionScmServerDaemon extends WandiscoScmServerDaemon {
      */
     @Override
     public String[] addUsers(final String[] usernames, final String[] md5Passwords) throws IntegrationFault {
-        final List usersCreated = new ArrayList();
-
-        for (int i = 0; i < usernames.length; i++) {
-            try {
-                mWandisco.createUser(usernames[i], true);
-                usersCreated.add(usernames[i]);
-
-                if (md5Passwords != null & md5Passwords[i] != null) {
-                    mWandisco.setPassword(usernames[i], md5Passwords[i], false, null);
-                }
-            } catch (final UserAlreadyExistsFault e) {
-                // do nothing
-            }
-        }
-        return (String[]) usersCreated.toArray(new String[] {});
+        return mWandisco.createUsers(usernames, md5Passwords, ScmConstants.ALL_USERS_GROUP);
     }
 
     /**
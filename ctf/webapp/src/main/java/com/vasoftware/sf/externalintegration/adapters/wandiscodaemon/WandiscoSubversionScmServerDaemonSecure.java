@@ -41,7 +41,7 @@ public class WandiscoSubversionScmServerDaemonSecure extends WandiscoSubversionS
                                                                                                           throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                           IntegrationFault {
         verifyKey(transactionKey);
-        setupRepository(systemId, repositoryId, repositoryDir);
+        runSetupRepositoryJob(systemId, repositoryId, repositoryDir);
     }
 
     /**
@@ -101,9 +101,10 @@ public class WandiscoSubversionScmServerDaemonSecure extends WandiscoSubversionS
                                              final java.lang.String repositoryDir, final java.lang.String systemId,
                                              final java.lang.String repositoryBaseUrl)
                                                                                       throws com.vasoftware.sf.externalintegration.IntegrationFault,
+                                                                                      com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault,
                                                                                       IntegrationFault {
         verifyKey(transactionKey);
-        return createRepository(repositoryId, repositoryDir, systemId, repositoryBaseUrl);
+        return runCreateRepositoryJob(repositoryId, repositoryDir, systemId, repositoryBaseUrl);
     }
 
     /**
@@ -221,7 +222,7 @@ public class WandiscoSubversionScmServerDaemonSecure extends WandiscoSubversionS
                                                                            throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                            IntegrationFault {
         verifyKey(transactionKey);
-        checkoutRepository(repositoryPath, repositoryPathFromRoot, destinationDirectory);
+        runCheckoutRepositoryJob(repositoryPath, repositoryPathFromRoot, destinationDirectory);
     }
 
     /**
@@ -298,7 +299,7 @@ public class WandiscoSubversionScmServerDaemonSecure extends WandiscoSubversionS
                                                                                                                   throws com.vasoftware.sf.externalintegration.IntegrationFault,
                                                                                                                   IntegrationFault {
         verifyKey(transactionKey);
-        return archiveRepository(repositoryPath);
+        return runArchiveRepositoryJob(repositoryPath);
     }
 
     /**
@@ -421,4 +422,39 @@ public class WandiscoSubversionScmServerDaemonSecure extends WandiscoSubversionS
         isBlackduckEnabled(hostName, port, username, password);
     }
 
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoSubversionScmServerDaemon#submitRepositoryJob(String,
+     *      String[])
+     */
+    public java.lang.String submitRepositoryJob(final String transactionKey, final java.lang.String jobType,
+                                                final java.lang.String[] arguments) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return submitRepositoryJob(jobType, arguments);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoSubversionScmServerDaemon#getRepositoryJobStatus(String)
+     */
+    public java.lang.String[] getRepositoryJobStatus(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getRepositoryJobStatus(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoSubversionScmServerDaemon#cancelRepositoryJob(String)
+     */
+    public java.lang.Boolean cancelRepositoryJob(final String transactionKey, final java.lang.String jobId)
+            throws IntegrationFault {
+        verifyKey(transactionKey);
+        return cancelRepositoryJob(jobId);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.adapters.wandiscodaemon.WandiscoSubversionScmServerDaemon#getCommandStatistics()
+     */
+    public java.lang.String[] getCommandStatistics(final String transactionKey) throws IntegrationFault {
+        verifyKey(transactionKey);
+        return getCommandStatistics();
+    }
 }
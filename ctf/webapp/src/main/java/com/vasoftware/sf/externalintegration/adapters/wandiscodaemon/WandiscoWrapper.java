@@ -1,36 +1,34 @@
 package com.vasoftware.sf.externalintegration.adapters.wandiscodaemon;
 
 import java.io.File;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import javax.xml.rpc.ServiceException;
 import javax.xml.rpc.holders.BooleanHolder;
 import javax.xml.rpc.holders.StringHolder;
 
 import org.apache.axis.AxisFault;
-import org.apache.axis.client.Stub;
 
 import com.vasoftware.sf.common.configuration.SfGlobalOptions;
 import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.logger.Logger;
 import com.vasoftware.sf.externalintegration.IntegrationFault;
 import com.vasoftware.sf.externalintegration.ObjectAlreadyExistsFault;
 import com.vasoftware.sf.externalintegration.execution.ObjectNotFoundFault;
 import com.vasoftware.sf.externalintegration.execution.UserAlreadyExistsFault;
 import com.wandisco.webservices.scmapi_1_0.ACLManagement;
-import com.wandisco.webservices.scmapi_1_0.ACLManagementService;
-import com.wandisco.webservices.scmapi_1_0.ACLManagementServiceLocator;
 import com.wandisco.webservices.scmapi_1_0.RepositoryManagement;
-import com.wandisco.webservices.scmapi_1_0.RepositoryManagementService;
-import com.wandisco.webservices.scmapi_1_0.RepositoryManagementServiceLocator;
 import com.wandisco.webservices.scmapi_1_0.ScmType;
 import com.wandisco.webservices.scmapi_1_0.SystemManagement;
-import com.wandisco.webservices.scmapi_1_0.SystemManagementService;
-import com.wandisco.webservices.scmapi_1_0.SystemManagementServiceLocator;
 import com.wandisco.webservices.scmapi_1_0.UserGroupManagement;
-import com.wandisco.webservices.scmapi_1_0.UserGroupManagementService;
-import com.wandisco.webservices.scmapi_1_0.UserGroupManagementServiceLocator;
 
 
 /**
@@ -41,17 +39,16 @@ import com.wandisco.webservices.scmapi_1_0.UserGroupManagementServiceLocator;
  * @version $Revision: 1.28 $ $Date: 2007/01/17 00:07:58 $
  */
 public class WandiscoWrapper {
+    private static final Logger smLogger = Logger.getLogger(WandiscoWrapper.class);
+
+    /** Number of users created before waiting for the results, in bulk provisioning */
+    private static final int PROVISIONING_BATCH_SIZE = 500;
+
     private static final char XML_LIST_DELIMITER = ' ';
     private static final String SPACE_PATTERN = "[\\s]+";
 
-    private String mWandiscoHost;
-    private String mWandiscoPort;
-
-    private ACLManagement mWdAcl;
-    private UserGroupManagement mWdUserGroup;
-    private RepositoryManagement mWdRepository;
-    private SystemManagement mWdSystem;
-    private String mLoginToken;
+    private final WandiscoStubPool mPool;
+    private final AclMirror mAclMirror;
 
 
     /**
@@ -61,8 +58,9 @@ public class WandiscoWrapper {
      */
     public WandiscoWrapper(String propertyPrefix) {
 	SfGlobalOptions options = SfGlobalOptionsManager.getOptions();
-	mWandiscoHost = options.getOption(propertyPrefix + ".host");
-	mWandiscoPort = options.getOption(propertyPrefix + ".port");
+	mPool = WandiscoStubPool.getPool(options.getOption(propertyPrefix + ".host"),
+					 options.getOption(propertyPrefix + ".port"));
+	mAclMirror = mPool.getAclMirror();
     }
 
     /**
@@ -263,6 +261,10 @@ public class WandiscoWrapper {
     public void createACLIfNotExist(boolean allow, String privilege, String userGroupPattern, String filePattern,
 				    boolean isGroup, String aclName)
 	    throws IntegrationFault {
+	AclDO acl = new AclDO(aclName, allow, privilege, userGroupPattern, isGroup, ".*", filePattern, ".*");
+	if (isSameAcl(mAclMirror.get(aclName), acl)) {
+	    return;
+	}
 	try {
 	    createACL(allow, privilege, userGroupPattern, filePattern, isGroup, aclName);
 	} catch (ObjectAlreadyExistsFault e) {
@@ -292,6 +294,8 @@ public class WandiscoWrapper {
 	    if (completionMessage != 0) {
 		throw new IntegrationFault("createACL(" + aclName + ") failed");
 	    }
+	    mAclMirror.created(new AclDO(aclName, allow, privilege, userGroupPattern, isGroup, ".*", filePattern,
+					 ".*"));
 	} catch (Throwable t) {
 	    if (t instanceof AxisFault) {
 		String faultString = ((AxisFault) t).getFaultString();
@@ -300,6 +304,7 @@ public class WandiscoWrapper {
 		    throw new ObjectAlreadyExistsFault(aclName);
 		}
 	    }
+	    mAclMirror.forget(aclName);
 	    throw new IntegrationFault("createACL(" + aclName + ") failed", t);
 	}
     }
@@ -354,24 +359,119 @@ public class WandiscoWrapper {
     }
 
     /**
-     * Create  users on the WD system,
+     * Create  users on the WD system, the users which already exist are skipped.
      *
      * @param userIds     the list of users
      * @throws IntegrationFault if something goes wrong
      */
 
     public void createUsers(String[] userIds) throws IntegrationFault {
+	createUsers(userIds, null, null);
+    }
+
+    /**
+     * Create users on the WD system in bulk. The members of knownUsersGroup are read once and skipped, the other users
+     * are created and get their password set by up to sfmain.integration.wandisco.provisioning_threads concurrent
+     * calls, a batch at a time. Users which turn out to exist already are skipped too.
+     *
+     * @param userIds	 the list of users
+     * @param passwords       the encrypted password of each user, null to leave the passwords alone
+     * @param knownUsersGroup the group holding the existing users, null to try to create every user
+     * @return the users that got created, in the order they were requested
+     * @throws IntegrationFault if something goes wrong; the users of the failed batch and later are not reported
+     */
+    public String[] createUsers(String[] userIds, final String[] passwords, String knownUsersGroup)
+	    throws IntegrationFault {
+	Set<String> existingUsers = new HashSet<String>();
+	if (knownUsersGroup != null) {
+	    try {
+		String[] members = listGroupMembers(knownUsersGroup);
+		if (members != null) {
+		    existingUsers.addAll(Arrays.asList(members));
+		}
+	    } catch (ObjectNotFoundFault e) {
+		// nobody is known yet
+	    }
+	}
+
+	List<String> usersCreated = new ArrayList<String>();
+	ExecutorService executor = mPool.getExecutor();
+	List<Future<Boolean>> batch = new ArrayList<Future<Boolean>>(PROVISIONING_BATCH_SIZE);
+	List<String> batchUsers = new ArrayList<String>(PROVISIONING_BATCH_SIZE);
+	for (int i = 0; i < userIds.length; i++) {
+	    if (existingUsers.contains(userIds[i])) {
+		continue;
+	    }
+
+	    final String userId = userIds[i];
+	    final String password = passwords == null ? null : passwords[i];
+	    batchUsers.add(userId);
+	    batch.add(executor.submit(new Callable<Boolean>() {
+		public Boolean call() throws IntegrationFault {
+		    try {
+			createUser(userId, true);
+		    } catch (UserAlreadyExistsFault e) {
+			return Boolean.FALSE;
+		    }
+		    if (password != null) {
+			setPassword(userId, password, false, null);
+		    }
+		    return Boolean.TRUE;
+		}
+	    }));
+
+	    if (batch.size() == PROVISIONING_BATCH_SIZE) {
+		collectCreatedUsers(batchUsers, batch, usersCreated);
+	    }
+	}
+	collectCreatedUsers(batchUsers, batch, usersCreated);
+
+	smLogger.info("Created " + usersCreated.size() + " of " + userIds.length + " users, " + existingUsers.size()
+		      + " users already existed");
+	return usersCreated.toArray(new String[usersCreated.size()]);
+    }
+
+    /**
+     * Wait for a batch of user creations and clear it.
+     *
+     * @param batchUsers   the users of the batch
+     * @param batch	the results of the batch, true for the users that got created
+     * @param usersCreated the list to add the users that got created to
+     * @throws IntegrationFault if a creation failed, the other creations of the batch are cancelled
+     */
+    private static void collectCreatedUsers(List<String> batchUsers, List<Future<Boolean>> batch,
+					    List<String> usersCreated) throws IntegrationFault {
 	try {
-	    for (int i = 0; i < userIds.length; i++) {
-		int completionMessage = getUserGroupPort().createUser(userIds[i], null, null, null);
-		if (completionMessage != 0) {
-		    throw new IntegrationFault("createUsers(" + userIds + ") failed");
+	    for (int i = 0; i < batch.size(); i++) {
+		if (batch.get(i).get().booleanValue()) {
+		    usersCreated.add(batchUsers.get(i));
 		}
 	    }
-	} catch (RemoteException e) {
-	    throw new IntegrationFault("createUsers(" + userIds + ") failed", e);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    cancel(batch);
+	    throw new IntegrationFault("createUsers() interrupted", e);
+	} catch (ExecutionException e) {
+	    cancel(batch);
+	    if (e.getCause() instanceof IntegrationFault) {
+		throw (IntegrationFault) e.getCause();
+	    }
+	    throw new IntegrationFault("createUsers() failed", e.getCause());
+	} finally {
+	    batch.clear();
+	    batchUsers.clear();
 	}
+    }
 
+    /**
+     * Cancel the creations of a batch which did not start yet.
+     *
+     * @param batch the results of the batch
+     */
+    private static void cancel(List<Future<Boolean>> batch) {
+	for (Future<Boolean> future : batch) {
+	    future.cancel(false);
+	}
     }
 
 
@@ -500,18 +600,25 @@ public class WandiscoWrapper {
      * @throws IntegrationFault    if any errors
      */
     public void deleteACL(String aclId) throws IntegrationFault, ObjectNotFoundFault {
+	if (Boolean.FALSE.equals(mAclMirror.exists(aclId))) {
+	    throw new ObjectNotFoundFault(aclId);
+	}
 	try {
 	    int completionStatus = getAclPort().deleteACL(aclId);
 	    if (completionStatus != 0) {
 		throw new IntegrationFault("deleteAcl(" + aclId + ") failed");
 	    }
+	    mAclMirror.deleted(aclId);
 	} catch (Throwable t) {
 	    if (t instanceof AxisFault) {
 		String faultString = ((AxisFault) t).getFaultString();
 		if (faultString != null && faultString.indexOf("does not exist") != -1) {
+		    // Gone either way
+		    mAclMirror.deleted(aclId);
 		    throw new ObjectNotFoundFault(aclId);
 		}
 	    }
+	    mAclMirror.forget(aclId);
 	    throw new IntegrationFault("deleteAcl(" + aclId + ") failed", t);
 	}
     }
@@ -525,6 +632,14 @@ public class WandiscoWrapper {
      * @throws IntegrationFault    if any errors
      */
     public AclDO queryACL(String aclId) throws IntegrationFault, ObjectNotFoundFault {
+	if (Boolean.FALSE.equals(mAclMirror.exists(aclId))) {
+	    throw new ObjectNotFoundFault(aclId);
+	}
+	AclDO cached = mAclMirror.get(aclId);
+	if (cached != null) {
+	    return cached;
+	}
+
 	BooleanHolder allow = new BooleanHolder();
 	StringHolder privilege = new StringHolder();
 	StringHolder userGroupPattern = new StringHolder();
@@ -532,16 +647,20 @@ public class WandiscoWrapper {
 	StringHolder filePattern = new StringHolder();
 	StringHolder IPAddressPattern = new StringHolder();
 	StringHolder branch = new StringHolder();
+	long version = mAclMirror.getVersion();
 	try {
 	    getAclPort().queryACL(new StringHolder(aclId), allow, privilege, userGroupPattern, isGroup,
 		    IPAddressPattern, filePattern, branch);
-	    return new AclDO(aclId, allow.value, privilege.value, userGroupPattern.value, isGroup.value,
+	    AclDO acl = new AclDO(aclId, allow.value, privilege.value, userGroupPattern.value, isGroup.value,
 		    IPAddressPattern.value, filePattern.value, branch.value);
+	    mAclMirror.queried(acl, version);
+	    return acl;
 
 	} catch (Throwable t) {
 	    if (t instanceof AxisFault) {
 		String faultString = ((AxisFault) t).getFaultString();
 		if (faultString != null && faultString.indexOf("does not exist") != -1) {
+		    mAclMirror.notFound(aclId, version);
 		    throw new ObjectNotFoundFault(aclId);
 		}
 	    }
@@ -562,8 +681,19 @@ public class WandiscoWrapper {
 
     public boolean hasPermissions(String userId, String privilege, String[] files, String[] tag)
 	    throws IntegrationFault {
+	String fileList = formatXMLList(files);
+	String tagList = formatXMLList(tag);
+	String key = userId + '\n' + privilege + '\n' + fileList + '\n' + tagList;
+	Boolean allowed = mAclMirror.getPermission(key);
+	if (allowed != null) {
+	    return allowed.booleanValue();
+	}
+
+	long version = mAclMirror.getVersion();
 	try {
-	    return getAclPort().isAccessAllowed(userId, ".*", privilege, formatXMLList(files), formatXMLList(tag));
+	    boolean isAllowed = getAclPort().isAccessAllowed(userId, ".*", privilege, fileList, tagList);
+	    mAclMirror.putPermission(key, isAllowed, version);
+	    return isAllowed;
 	} catch (Throwable t) {
 	    throw new IntegrationFault("hasPermissions for user(" + userId + ") failed", t);
 	}
@@ -576,20 +706,7 @@ public class WandiscoWrapper {
      * @throws RemoteException if the port cannot be created
      */
     private ACLManagement getAclPort() throws RemoteException {
-	if (mWdAcl == null) {
-	    try {
-		URL portAddress = getServiceUrl("/soap/scm/aclmanagement");
-		ACLManagementService wdAclService = new ACLManagementServiceLocator();
-		try {
-		    mWdAcl = (ACLManagement) configureStub((Stub) wdAclService.getACLManagement(portAddress), doLogin());
-		} catch (ServiceException e) {
-		    throw new RemoteException("Failed to connect to " + portAddress, e);
-		}
-	    } catch (MalformedURLException e) {
-		throw new RemoteException("Malformed URL exception", e);
-	    }
-	}
-	return mWdAcl;
+	return mPool.getAclPort();
     }
 
     /**
@@ -599,21 +716,7 @@ public class WandiscoWrapper {
      * @throws RemoteException if the port cannot be created
      */
     private UserGroupManagement getUserGroupPort() throws RemoteException {
-	if (mWdUserGroup == null) {
-	    try {
-		URL portAddress = getServiceUrl("/soap/scm/usergroupmanagement");
-		UserGroupManagementService wdAclService = new UserGroupManagementServiceLocator();
-		try {
-		    mWdUserGroup = (UserGroupManagement)
-			    configureStub((Stub) wdAclService.getUserGroupManagement(portAddress), doLogin());
-		} catch (ServiceException e) {
-		    throw new RemoteException("Failed to connect to " + portAddress, e);
-		}
-	    } catch (MalformedURLException e) {
-		throw new RemoteException("Malformed URL exception", e);
-	    }
-	}
-	return mWdUserGroup;
+	return mPool.getUserGroupPort();
     }
 
     /**
@@ -640,22 +743,7 @@ public class WandiscoWrapper {
      * @throws RemoteException if the port cannot be created
      */
     private RepositoryManagement getRepositoryPort() throws RemoteException {
-	if (mWdRepository == null) {
-	    try {
-		URL portAddress = getServiceUrl("/soap/scm/repositorymanagement");
-		RepositoryManagementService wdRepositoryService = new RepositoryManagementServiceLocator();
-		try {
-		    mWdRepository = (RepositoryManagement) configureStub((Stub) wdRepositoryService.
-			    getrepositoryManagement(portAddress), doLogin());
-		} catch (ServiceException e) {
-		    throw new RemoteException("Failed to connect to " + portAddress, e);
-		}
-	    } catch (MalformedURLException e) {
-		throw new RemoteException("Malformed URL exception", e);
-	    }
-	}
-
-	return mWdRepository;
+	return mPool.getRepositoryPort();
     }
 
     /**
@@ -665,68 +753,34 @@ public class WandiscoWrapper {
      * @throws RemoteException if the port cannot be created
      */
     private SystemManagement getSystemPort() throws RemoteException {
-	if (mWdSystem == null) {
-	    try {
-		URL portAddress = getServiceUrl("/soap/scm/systemmanagement");
-		SystemManagementService wdSystemService = new SystemManagementServiceLocator();
-		try {
-		    mWdSystem = wdSystemService.getSystemManagement(portAddress);
-		} catch (ServiceException e) {
-		    throw new RemoteException("Failed to connect to " + portAddress, e);
-		}
-		((Stub) mWdSystem)._setProperty(org.apache.axis.AxisEngine.PROP_DOMULTIREFS, Boolean.FALSE);
-	    } catch (MalformedURLException e) {
-		throw new RemoteException("Malformed URL exception", e);
-	    }
-	}
-	return mWdSystem;
-
+	return mPool.getSystemPort();
     }
 
     /**
-     * Configure the stub.
+     * Compare two ACLs.
      *
-     * @param stub       the stub to be configured
-     * @param loginToken the loginToken
-     * @return the configured stub
+     * @param acl1 the first ACL, may be null
+     * @param acl2 the second ACL
+     * @return true if both ACLs are the same rule with the same id
      */
-    private Stub configureStub(Stub stub, String loginToken) {
-	// TODO figure out if this is necessary
-	// Multirefs support in Axis 1.4 is incomplete, SOAP request does not validate with schema with multirefs,
-	// so disable
-	stub._setProperty(org.apache.axis.AxisEngine.PROP_DOMULTIREFS, Boolean.FALSE);
-
-	// Need the security header to go past the WANdisco authorization check, normally would obtain a
-	// loginNonce by invoking loginAsAdmin
-	stub.setHeader("http://http://webservices.wandisco.com/headers", "wandiscosecurityheader", loginToken);
-	return stub;
+    private static boolean isSameAcl(AclDO acl1, AclDO acl2) {
+	return acl1 != null && acl1.isAllow() == acl2.isAllow() && acl1.isIsGroup() == acl2.isIsGroup()
+	       && isEqual(acl1.getAclId(), acl2.getAclId()) && isEqual(acl1.getPrivilege(), acl2.getPrivilege())
+	       && isEqual(acl1.getUserGroupPattern(), acl2.getUserGroupPattern())
+	       && isEqual(acl1.getFilePattern(), acl2.getFilePattern())
+	       && isEqual(acl1.getIPAddressPattern(), acl2.getIPAddressPattern())
+	       && isEqual(acl1.getBranch(), acl2.getBranch());
     }
 
     /**
-     * Creates the URL based on the host and port and location
+     * Compare two strings which may be null.
      *
-     * @param location the location of the service
-     * @return url
-     * @throws MalformedURLException if the url is mal formed
+     * @param s1 the first string
+     * @param s2 the second string
+     * @return true if both are null or equal
      */
-    private URL getServiceUrl(String location) throws MalformedURLException {
-
-	return new URL(new StringBuffer().append("http://").append(mWandiscoHost).append(":").append(mWandiscoPort).
-		append(location).toString());
-    }
-
-    /**
-     * This operation is used to login as an administrator in a WANdisco node
-     *
-     * @return the loginToken
-     * @throws RemoteException if the url is mal formed
-     */
-    private String doLogin() throws RemoteException {
-	if (mLoginToken == null) {
-	    mLoginToken = getSystemPort().loginAsAdmin("root", "wandisco");
-	}
-	return mLoginToken;
-
+    private static boolean isEqual(String s1, String s2) {
+	return s1 == null ? s2 == null : s1.equals(s2);
     }
 
     /**
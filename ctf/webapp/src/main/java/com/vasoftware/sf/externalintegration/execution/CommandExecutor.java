@@ -12,6 +12,7 @@
 package com.vasoftware.sf.externalintegration.execution;
 
 import java.io.File;
+import java.io.OutputStream;
 
 /**
  * @author Richard Lee <rlee@vasoftware.com>
@@ -141,6 +142,14 @@ public interface CommandExecutor {
      */
     void removeUsersFromGroup(String groupname, String[] usernames) throws CommandWrapperFault;
 
+    /**
+     * Makes the group contain exactly the given users, applying the membership delta in one operation.
+     * @param groupname the group whose membership to set
+     * @param usernames the users who are to be the members of the group.
+     * @throws CommandWrapperFault An error occurred while executing the command
+     */
+    void setGroupMembers(String groupname, String[] usernames) throws CommandWrapperFault;
+
     /**
      * Set the appropriate permissions on the repositoy path.
      *
@@ -306,6 +315,20 @@ public interface CommandExecutor {
      */
     CommandResult runCommand(String[] cmd, String[] envp, File dir) throws CommandWrapperFault;
 
+    /**
+     * Run a command in a particular directory with environment, feeding it input on stdin, and return a
+     * CommandResult structure. The input is written while the output is drained, without temporary files.
+     *
+     * @param cmd   the command and its parameters
+     * @param envp  the command environment as a set of var=val strings
+     * @param dir   the directory to execute the command in
+     * @param input the content for the command's stdin
+     * @return CommandResult - the result of the command.
+     * @throws CommandWrapperFault An error occurred while executing the command.
+     */
+    CommandResult runCommandWithInput(String[] cmd, String[] envp, File dir, CommandInput input)
+	    throws CommandWrapperFault;
+
     /**
      * Create a file on the filesystem
      *
@@ -346,9 +369,23 @@ public interface CommandExecutor {
      */
     String getFileGroup(File repositoryDir) throws CommandWrapperFault;
 
+    /**
+     * Create hard links to files of one directory in another directory, using as few commands as possible.
+     *
+     * @param sourceDirectory the directory holding the files to link to
+     * @param fileNames the names of the files in the source directory
+     * @param destinationDirectory the existing directory to create the links in, under the same names
+     * @return true if all links were created, false if some could not be created, e.g. because the directories are on
+     *         different file systems or the platform has no hard links
+     * @throws CommandWrapperFault An error occurred while executing the command.
+     */
+    boolean hardLinkFiles(File sourceDirectory, String[] fileNames, File destinationDirectory)
+            throws CommandWrapperFault;
+
     /**
      * Run a command in a particular directory with environment and return a Process handle.  This does not wait
-     * until the process has finished to return.
+     * until the process has finished to return.  The output of the process is consumed by the executor and is not
+     * available to the caller.
      *
      * @param cmd  the command and its parameters
      * @param envp the environment.
@@ -358,6 +395,23 @@ public interface CommandExecutor {
      */    
     Process runCommandAsync(String[] cmd, String[] envp, File dir) throws CommandWrapperFault;
 
+    /**
+     * Run a command in a particular directory with environment and return a Process handle, without waiting for the
+     * process to finish.  Its stdout and stderr are copied to the given stream as they are produced, and the listener
+     * is called as soon as the process has exited, so nobody has to poll the process.  Destroying the process makes
+     * the listener fire as well.
+     *
+     * @param cmd  the command and its parameters
+     * @param envp the environment.
+     * @param dir  the directory to execute the command in
+     * @param output the stream to copy the output of the process to; it is not closed
+     * @param listener the listener to call when the process has exited
+     * @return The process handle to the running process
+     * @throws CommandWrapperFault An error occurred while executing the command.
+     */
+    Process runCommandSupervised(String[] cmd, String[] envp, File dir, OutputStream output, ProcessListener listener)
+            throws CommandWrapperFault;
+
     /**
      * enables a user for testing (should only be called from test classes)
      * @param username the user to be enabled for testing
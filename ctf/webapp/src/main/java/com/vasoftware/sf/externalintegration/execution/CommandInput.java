@@ -0,0 +1,48 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.execution;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Content fed to the standard input of a command run through
+ * {@link CommandExecutor#runCommandWithInput(String[], String[], java.io.File, CommandInput)}. The content is written
+ * while the command's output is being drained, so it can be produced incrementally instead of being staged in a
+ * temporary file.
+ */
+public abstract class CommandInput {
+    /**
+     * Write the content to the command's standard input. The stream is closed by the caller afterwards.
+     *
+     * @param stream
+     *            the standard input of the command
+     * @throws IOException
+     *             thrown if the content could not be written
+     */
+    public abstract void writeTo(OutputStream stream) throws IOException;
+
+    /**
+     * Create an input from a string, encoded with the platform's default encoding as the temporary files used to be.
+     *
+     * @param content
+     *            the content
+     * @return the input
+     */
+    public static CommandInput fromString(final String content) {
+        return new CommandInput() {
+            @Override
+            public void writeTo(final OutputStream stream) throws IOException {
+                final Writer writer = new OutputStreamWriter(stream);
+                writer.write(content);
+                writer.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.execution;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.profiler.LatencyHistogram;
+import com.vasoftware.sf.common.profiler.SoapRecord;
+
+/**
+ * Execution statistics of the external commands run by the command executors, aggregated by binary (svnadmin, p4,
+ * usermod...). For every binary the time taken to fork the process and the wall time until it exited are kept in
+ * latency histograms, along with the number of runs, non-zero exit codes, failed forks and output bytes.
+ *
+ * Commands which take longer than <code>sfmain.integration.process.slow_command_ms</code> are reported to the
+ * <code>com.vasoftware.sf.externalintegration.execution.slowcommands</code> log category, together with the soap
+ * request which ran them, so they can be routed to a log file of their own.
+ */
+public class CommandStatistics {
+    private static final Logger smSlowCommandLogger =
+        Logger.getLogger("com.vasoftware.sf.externalintegration.execution.slowcommands");
+
+    /** Default threshold of the slow command log, in milliseconds */
+    public static final int DEFAULT_SLOW_COMMAND_MS = 10000;
+
+    private static final long smSlowCommandNanos =
+        SfGlobalOptionsManager.getOptions().getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_PROCESS_SLOW_COMMAND_MS,
+                                                         DEFAULT_SLOW_COMMAND_MS) * 1000000L;
+
+    /** Statistics by binary name */
+    private static final ConcurrentMap<String, BinaryStats> smBinaries = new ConcurrentHashMap<String, BinaryStats>();
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private CommandStatistics() {
+    }
+
+    /**
+     * Record that a process was forked.
+     *
+     * @param executable
+     *            the executable, as passed to the executor
+     * @param forkNanos
+     *            the time it took to start the process, in nanoseconds
+     */
+    public static void recordFork(final String executable, final long forkNanos) {
+        final BinaryStats stats = getBinaryStats(executable);
+        stats.mStarted.incrementAndGet();
+        stats.mForkLatency.record(forkNanos / 1000);
+    }
+
+    /**
+     * Record that a process could not be forked.
+     *
+     * @param executable
+     *            the executable, as passed to the executor
+     */
+    public static void recordForkFailure(final String executable) {
+        getBinaryStats(executable).mForkFailures.incrementAndGet();
+    }
+
+    /**
+     * Record that a process has exited, and report it to the slow command log if it took too long.
+     *
+     * @param executable
+     *            the executable, as passed to the executor
+     * @param command
+     *            the command string, for logging purposes
+     * @param wallNanos
+     *            the time from the fork until the process exited and its output was read, in nanoseconds
+     * @param exitValue
+     *            the exit value of the process
+     * @param outputBytes
+     *            the number of bytes the process wrote to stdout and stderr, or -1 if they were not counted
+     */
+    public static void recordCompletion(final String executable, final String command, final long wallNanos,
+                                        final int exitValue, final long outputBytes) {
+        final BinaryStats stats = getBinaryStats(executable);
+        stats.mWallTime.record(wallNanos / 1000);
+        if (exitValue != CommandResult.RETURN_SUCCESS) {
+            stats.mNonZeroExits.incrementAndGet();
+        }
+        if (outputBytes > 0) {
+            stats.mOutputBytes.addAndGet(outputBytes);
+        }
+
+        if (smSlowCommandNanos > 0 && wallNanos >= smSlowCommandNanos) {
+            final SoapRecord soapRecord = SoapRecord.getSoapRecord();
+            smSlowCommandLogger.warn("SLOW COMMAND: duration[" + wallNanos / 1000000 + "] exit[" + exitValue + "] "
+                                     + "outputBytes[" + outputBytes + "] "
+                                     + (soapRecord == null ? "" : "soapId[" + soapRecord.getId() + "] operation["
+                                                                  + soapRecord.getOperationName() + "] ")
+                                     + "command[" + command + "]");
+        }
+    }
+
+    /**
+     * Get the statistics of every binary run so far, one line per binary ordered by name. Each line holds the binary
+     * name followed by space separated <code>key=value</code> fields; times are in milliseconds.
+     *
+     * @return the statistics
+     */
+    public static String[] getStatistics() {
+        final Map<String, BinaryStats> binaries = new TreeMap<String, BinaryStats>(smBinaries);
+        final List<String> lines = new ArrayList<String>(binaries.size());
+        for (final Map.Entry<String, BinaryStats> entry : binaries.entrySet()) {
+            final BinaryStats stats = entry.getValue();
+            final LatencyHistogram.Snapshot fork = stats.mForkLatency.snapshot();
+            final LatencyHistogram.Snapshot wall = stats.mWallTime.snapshot();
+
+            lines.add(entry.getKey() + " started=" + stats.mStarted.get() + " completed=" + wall.getCount()
+                      + " nonZeroExits=" + stats.mNonZeroExits.get() + " forkFailures=" + stats.mForkFailures.get()
+                      + " outputBytes=" + stats.mOutputBytes.get()
+                      + " forkP50=" + LatencyHistogram.toMillis(fork.getPercentileMicros(50))
+                      + " forkP99=" + LatencyHistogram.toMillis(fork.getPercentileMicros(99))
+                      + " wallP50=" + LatencyHistogram.toMillis(wall.getPercentileMicros(50))
+                      + " wallP90=" + LatencyHistogram.toMillis(wall.getPercentileMicros(90))
+                      + " wallP99=" + LatencyHistogram.toMillis(wall.getPercentileMicros(99))
+                      + " wallMax=" + LatencyHistogram.toMillis(wall.getMaxMicros())
+                      + " wallTotal=" + LatencyHistogram.toMillis(wall.getTotalMicros()));
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Get the statistics of a binary, creating them on first use.
+     *
+     * @param executable
+     *            the executable, as passed to the executor
+     * @return the statistics of its binary
+     */
+    private static BinaryStats getBinaryStats(final String executable) {
+        final String binary = new File(executable).getName();
+        BinaryStats stats = smBinaries.get(binary);
+        if (stats == null) {
+            final BinaryStats newStats = new BinaryStats();
+            stats = smBinaries.putIfAbsent(binary, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+
+        return stats;
+    }
+
+    /**
+     * The statistics of one binary.
+     */
+    private static class BinaryStats {
+        private final AtomicLong mStarted = new AtomicLong();
+        private final AtomicLong mNonZeroExits = new AtomicLong();
+        private final AtomicLong mForkFailures = new AtomicLong();
+        private final AtomicLong mOutputBytes = new AtomicLong();
+        private final LatencyHistogram mForkLatency = new LatencyHistogram();
+        private final LatencyHistogram mWallTime = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.execution;
+
+/**
+ * Callback for a command started through
+ * {@link CommandExecutor#runCommandSupervised(String[], String[], java.io.File, java.io.OutputStream, ProcessListener)}
+ * . It is called once, from a pooled thread, as soon as the process has exited and all of its output has been copied.
+ */
+public abstract class ProcessListener {
+    /**
+     * Called when the process has exited. This runs on a thread shared with the output of other processes, so long
+     * running work should be handed off to another thread.
+     *
+     * @param exitValue
+     *            the exit value of the process
+     */
+    public abstract void processFinished(int exitValue);
+}
@@ -17,7 +17,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 
 import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
@@ -25,14 +25,19 @@ import com.vasoftware.sf.common.configuration.SfGlobalOptions;
 import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
 import com.vasoftware.sf.common.configuration.SfPaths;
 import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.profiler.Span;
+import com.vasoftware.sf.common.profiler.TraceContext;
 import com.vasoftware.sf.common.util.FileUtil;
 import com.vasoftware.sf.common.util.GuidGenerator;
 import com.vasoftware.sf.common.util.StringUtil;
 import com.vasoftware.sf.externalintegration.UserConstants;
 import com.vasoftware.sf.externalintegration.execution.CommandExecutor;
+import com.vasoftware.sf.externalintegration.execution.CommandInput;
 import com.vasoftware.sf.externalintegration.execution.CommandResult;
+import com.vasoftware.sf.externalintegration.execution.CommandStatistics;
 import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
 import com.vasoftware.sf.externalintegration.execution.ExecutionUtil;
+import com.vasoftware.sf.externalintegration.execution.ProcessListener;
 import com.vasoftware.sf.externalintegration.execution.UserAlreadyExistsFault;
 
 /**
@@ -116,63 +121,89 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
     }
 
     /**
-     * Reads from a stream if its available() returns more than 0.
+     * Takes a process and fills in return value, the stdout and stderr in the result object.
      * 
-     * @param stream
-     *            the stream to read from
-     * @return String - the agregation of the reads from the stream. if stream has no bytes available, returns null.
-     * @throws java.io.IOException
-     *             thrown if there was an I/O exception thrown from either the available() or the read().
+     * @param command
+     *            The command that was executed
+     * @param proc
+     *            The Process object
+     * @return The CommandResult object.
+     * @throws com.vasoftware.sf.externalintegration.execution.CommandWrapperFault
+     *             An error occurred while executing the command.
      */
-    private static String readIfAvailable(final InputStream stream) throws IOException {
-        int c;
-        final StringBuffer resultBuffer = new StringBuffer();
-        while ((c = stream.read()) != -1) {
-            resultBuffer.append((char) c);
-        }
-        return resultBuffer.toString();
+    protected CommandResult buildCommandResult(final String command, final Process proc) throws CommandWrapperFault {
+        return buildCommandResult(command, proc, null);
     }
 
     /**
-     * Takes a process and fills in return value, the stdout and stderr in the result object.
+     * Feeds the input to the process, then waits for it to finish and builds a CommandResult from its output and
+     * exit code.
      * 
      * @param command
      *            The command that was executed
      * @param proc
      *            The Process object
+     * @param input
+     *            The content for the process' stdin, or null
      * @return The CommandResult object.
      * @throws com.vasoftware.sf.externalintegration.execution.CommandWrapperFault
      *             An error occurred while executing the command.
      */
-    protected CommandResult buildCommandResult(final String command, final Process proc) throws CommandWrapperFault {
+    protected CommandResult buildCommandResult(final String command, final Process proc, final CommandInput input)
+            throws CommandWrapperFault {
+        return buildCommandResult(command, proc, input, null, 0);
+    }
+
+    /**
+     * Feeds the input to the process, then waits for it to finish and builds a CommandResult from its output and
+     * exit code, recording the run in the command statistics.
+     * 
+     * @param command
+     *            The command that was executed
+     * @param proc
+     *            The Process object
+     * @param input
+     *            The content for the process' stdin, or null
+     * @param executable
+     *            The executable the statistics are kept under, or null to not record the run
+     * @param startTime
+     *            The value of System.nanoTime() before the process was forked
+     * @return The CommandResult object.
+     * @throws com.vasoftware.sf.externalintegration.execution.CommandWrapperFault
+     *             An error occurred while executing the command.
+     */
+    private CommandResult buildCommandResult(final String command, final Process proc, final CommandInput input,
+                                             final String executable, final long startTime)
+            throws CommandWrapperFault {
 
         // There are issues with using Process...see:
         // http://www.javaworld.com/javaworld/jw-12-2000/jw-1229-traps.html
+        // Both pipes must be drained concurrently, which ProcessOutputDrainer takes care of.
 
-        String strStdout = "", strStderr = "";
-
-        final StreamGobbler inputGobbler = new StreamGobbler(proc.getInputStream());
-        final StreamGobbler errorGobbler = new StreamGobbler(proc.getErrorStream());
-
-        inputGobbler.start();
-        errorGobbler.start();
-
+        final ProcessOutputDrainer.CapturedOutput output;
         int exitValue = -1;
         try {
-            inputGobbler.join();
-            errorGobbler.join();
+            output = ProcessOutputDrainer.drain(proc, input, command);
             exitValue = proc.waitFor();
-            strStdout = inputGobbler.getResult();
-            strStderr = errorGobbler.getResult();
+        } catch (final IOException e) {
+            smLogger.error("Error reading from command stream.", e);
+            throw new CommandWrapperFault(command, "IO error reading from command stream.");
         } catch (final InterruptedException e) {
             throw new CommandWrapperFault(command, "Unable to get command exit value", e);
         }
 
-        if (strStdout == null || strStderr == null) {
-            throw new CommandWrapperFault(command, "IO error reading from command stream.");
+        if (output.isTruncated()) {
+            smLogger.warn("Output of \"" + command + "\" exceeded " + ProcessOutputDrainer.getOutputLimit()
+                          + " bytes and was truncated: " + output.getStdoutBytes() + " bytes of stdout, "
+                          + output.getStderrBytes() + " bytes of stderr.");
+        }
+
+        if (executable != null) {
+            CommandStatistics.recordCompletion(executable, command, System.nanoTime() - startTime, exitValue,
+                                               output.getStdoutBytes() + output.getStderrBytes());
         }
 
-        return new CommandResult(command, strStdout, strStderr, exitValue);
+        return new CommandResult(command, output.getStdout(), output.getStderr(), exitValue);
     }
 
     /**
@@ -271,43 +302,6 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
         return input;
     }
 
-    /**
-     * Utility class a Thread that gobbles up an input stream and returns the result.
-     */
-    class StreamGobbler extends Thread {
-        InputStream mStream;
-        String mResult = null;
-
-        /**
-         * constructor that specifies the stream to consume.
-         * 
-         * @param is
-         *            the input stream
-         */
-        StreamGobbler(final InputStream is) {
-            mStream = is;
-        }
-
-        /** when executed, gobble up data from the input stream */
-        @Override
-        public void run() {
-            try {
-                mResult = readIfAvailable(mStream);
-            } catch (final IOException e) {
-                smLogger.error("StreamGobbler error.  Will return null. ", e);
-            }
-        }
-
-        /**
-         * Get the result of gobbling up the stream.
-         * 
-         * @return output from the stream, or null if an IO exception was encountere - look in the logs!
-         */
-        public String getResult() {
-            return mResult;
-        }
-    }
-
     /**
      * Run a command in a particular directory with environment and return a CommandResult structure. This will log all
      * information about the command including parameters and should not be used with sensitive data.
@@ -343,13 +337,79 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
      */
     public CommandResult runLoggedCommand(final String[] cmd, final String[] envp, final File dir,
                                           final boolean logArguments) throws CommandWrapperFault {
+        return runLoggedCommand(cmd, null, envp, dir, logArguments, null);
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.execution.CommandExecutor#runCommandWithInput(String[], String[],
+     *      File, CommandInput)
+     */
+    public CommandResult runCommandWithInput(final String[] cmd, final String[] envp, final File dir,
+                                             final CommandInput input) throws CommandWrapperFault {
+        return runLoggedCommand(cmd, null, envp, dir, true, input);
+    }
+
+    /**
+     * Run a command which runs another one, such as "su -c", and return a CommandResult structure. The command is
+     * traced and counted in the command statistics under the executable it runs rather than under the wrapper.
+     * 
+     * @param cmd
+     *            the wrapper command and its parameters
+     * @param executable
+     *            the executable run by the wrapper
+     * @param dir
+     *            the directory to execute the command in
+     * @return CommandResult - the result of the command.
+     * @throws CommandWrapperFault
+     *             An error occurred while executing the command.
+     */
+    protected CommandResult runWrappedCommand(final String[] cmd, final String executable, final File dir)
+            throws CommandWrapperFault {
+        return runLoggedCommand(cmd, executable, null, dir, true, null);
+    }
+
+    /**
+     * Run a command in a particular directory with environment, feeding it input, and return a CommandResult
+     * structure.
+     * 
+     * @param cmd
+     *            the command and its parameters
+     * @param executable
+     *            the executable the command is traced and counted under, or null for the first element of cmd
+     * @param envp
+     *            the command environment as a set of var=val strings
+     * @param dir
+     *            the directory to execute the command in
+     * @param logArguments
+     *            true if arguments should be logged.
+     * @param input
+     *            the content for the command's stdin, or null
+     * @return CommandResult - the result of the command.
+     * @throws com.vasoftware.sf.externalintegration.execution.CommandWrapperFault
+     *             An error occurred while executing the command.
+     */
+    private CommandResult runLoggedCommand(final String[] cmd, final String executable, final String[] envp,
+                                           final File dir, final boolean logArguments, final CommandInput input)
+            throws CommandWrapperFault {
+        final Span span = startCommandSpan(cmd, executable);
+        boolean failed = true;
         Process process = null;
         try {
-            process = exec(cmd, envp, dir, logArguments);
+            final long startTime = System.nanoTime();
+            process = exec(cmd, executable, getTracedEnvironment(envp, span), dir, logArguments);
 
             final String commandString = getCommandString(cmd, logArguments);
-            return buildCommandResult(commandString, process);
+            final CommandResult result = buildCommandResult(commandString, process, input,
+                                                            executable == null ? cmd[0] : executable, startTime);
+            failed = result.getReturnValue() != CommandResult.RETURN_SUCCESS;
+            if (span != null) {
+                span.setAttribute("process.exit.code", Integer.valueOf(result.getReturnValue()));
+            }
+            return result;
         } finally {
+            if (span != null) {
+                span.end(failed);
+            }
             if (process != null) {
                 process.destroy();
             }
@@ -358,7 +418,8 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
 
     /**
      * Run a command in a particular directory with environment and return a Process handle. This does not wait until
-     * the process has finished to return.
+     * the process has finished to return. The output of the process is drained and discarded in the background so that
+     * it can not block on a full pipe.
      * 
      * @param cmd
      *            the command and its parameters
@@ -371,7 +432,61 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
      *             An error occurred while executing the command.
      */
     public Process runCommandAsync(final String[] cmd, final String[] envp, final File dir) throws CommandWrapperFault {
-        return exec(cmd, envp, dir, true);
+        // The process is not waited for, so its span only covers the fork
+        final Span span = startCommandSpan(cmd, null);
+        final Process process;
+        try {
+            process = exec(cmd, null, getTracedEnvironment(envp, span), dir, true);
+        } catch (final CommandWrapperFault e) {
+            endCommandSpan(span, true);
+            throw e;
+        }
+        endCommandSpan(span, false);
+        final String commandString = getCommandString(cmd, true);
+        try {
+            ProcessOutputDrainer.discardInBackground(process, commandString);
+        } catch (final IOException e) {
+            smLogger.error(e.getMessage());
+            throw new CommandWrapperFault(commandString, e.getMessage(), e);
+        }
+        return process;
+    }
+
+    /**
+     * @see CommandExecutor#runCommandSupervised(String[], String[], File, OutputStream, ProcessListener)
+     */
+    public Process runCommandSupervised(final String[] cmd, final String[] envp, final File dir,
+                                        final OutputStream output, final ProcessListener listener)
+            throws CommandWrapperFault {
+        final Span span = startCommandSpan(cmd, null);
+        final long startTime = System.nanoTime();
+        final Process process;
+        try {
+            process = exec(cmd, null, getTracedEnvironment(envp, span), dir, true);
+        } catch (final CommandWrapperFault e) {
+            endCommandSpan(span, true);
+            throw e;
+        }
+        final String commandString = getCommandString(cmd, true);
+        try {
+            ProcessOutputDrainer.supervise(process, commandString, output, new ProcessListener() {
+                @Override
+                public void processFinished(final int exitValue) {
+                    CommandStatistics.recordCompletion(cmd[0], commandString, System.nanoTime() - startTime, exitValue,
+                                                       -1);
+                    if (span != null) {
+                        span.setAttribute("process.exit.code", Integer.valueOf(exitValue));
+                    }
+                    endCommandSpan(span, exitValue != CommandResult.RETURN_SUCCESS);
+                    listener.processFinished(exitValue);
+                }
+            });
+        } catch (final IOException e) {
+            endCommandSpan(span, true);
+            smLogger.error(e.getMessage());
+            throw new CommandWrapperFault(commandString, e.getMessage(), e);
+        }
+        return process;
     }
 
     /**
@@ -458,6 +573,54 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
         }
     }
 
+    /**
+     * Start the span of a command if the current thread is serving a traced request.
+     * 
+     * @param cmd
+     *            The command/argument array that will be executed.
+     * @param executable
+     *            The executable the span is named after, or null for the first element of cmd.
+     * @return The span, or null if the work is not traced.
+     */
+    private static Span startCommandSpan(final String[] cmd, final String executable) {
+        final TraceContext current = TraceContext.getCurrent();
+        if (current == null || cmd == null || cmd.length == 0) {
+            return null;
+        }
+
+        final String path = executable == null ? cmd[0] : executable;
+        return Span.start(new File(path).getName(), Span.KIND_INTERNAL, current)
+                   .setAttribute("process.executable.path", path);
+    }
+
+    /**
+     * End the span of a command.
+     * 
+     * @param span
+     *            The span, or null if the work is not traced.
+     * @param failed
+     *            true if the command failed.
+     */
+    private static void endCommandSpan(final Span span, final boolean failed) {
+        if (span != null) {
+            span.end(failed);
+        }
+    }
+
+    /**
+     * Pass the trace context of a command on to it through its environment, so that the command and the scripts it
+     * starts can add to the trace. Subversion hook scripts are run with an empty environment and do not see it.
+     * 
+     * @param envp
+     *            The command environment as a set of var=val strings, or null to inherit ours.
+     * @param span
+     *            The span of the command, or null if the work is not traced.
+     * @return The environment to run the command with.
+     */
+    private static String[] getTracedEnvironment(final String[] envp, final Span span) {
+        return span == null ? envp : span.getContext().addToEnvironment(envp);
+    }
+
     /**
      * Get the command string that will be used for logging purposes.
      * 
@@ -489,6 +652,8 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
      * 
      * @param cmd
      *            the command and its parameters
+     * @param executable
+     *            the executable the command is counted under, or null for the first element of cmd
      * @param envp
      *            the environment.
      * @param dir
@@ -499,9 +664,10 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
      * @throws CommandWrapperFault
      *             An error occurred while executing the command.
      */
-    private Process exec(final String[] cmd, final String[] envp, final File dir, final boolean logArguments)
-                                                                                                             throws CommandWrapperFault {
+    private Process exec(final String[] cmd, final String executable, final String[] envp, final File dir,
+                         final boolean logArguments) throws CommandWrapperFault {
         validateCommand(cmd);
+        final String countedExecutable = executable == null ? cmd[0] : executable;
         final String commandString = getCommandString(cmd, logArguments); // for logging
 
         final String cmdGuid = GuidGenerator.newGuid();
@@ -511,8 +677,12 @@ public abstract class AbstractCommandExecutor implements CommandExecutor {
 
         try {
             final Runtime runtime = Runtime.getRuntime();
-            return runtime.exec(cmd, envp, dir);
+            final long forkStart = System.nanoTime();
+            final Process process = runtime.exec(cmd, envp, dir);
+            CommandStatistics.recordFork(countedExecutable, System.nanoTime() - forkStart);
+            return process;
         } catch (final IOException e) {
+            CommandStatistics.recordForkFailure(countedExecutable);
             smLogger.warn("Error during execution of\n\"" + commandString + "\":\n" + e.getMessage());
             throw new CommandWrapperFault(commandString, "Error during exec", e);
         } finally {
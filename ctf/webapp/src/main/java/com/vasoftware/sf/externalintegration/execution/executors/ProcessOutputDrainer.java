@@ -0,0 +1,638 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.execution.executors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
+import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.externalintegration.execution.CommandInput;
+import com.vasoftware.sf.externalintegration.execution.ProcessListener;
+
+/**
+ * The <code>ProcessOutputDrainer</code> class is the shared engine used to consume the stdout and stderr pipes of
+ * processes started by the command executors.
+ *
+ * The calling thread drains stdout itself while stderr is drained by a thread from a bounded, shared pool, so running
+ * a command costs at most one pooled thread instead of two new ones. The input of a command is written by a thread of
+ * a second pool of the same size: a command waiting for an input thread already holds its stderr thread, so taking
+ * both from one pool could leave every thread held by a command waiting for another one. Streams are read in bulk
+ * through a per-thread reusable buffer, and the number of bytes captured from each stream is capped; anything beyond
+ * the cap is still read (so the process never blocks on a full pipe) but discarded, which the executors log. When the
+ * pool is saturated, new drains wait for a pool thread to become free; if none does within
+ * {@link #POOL_WAIT_SECONDS}, the process is destroyed and the command fails rather than the number of threads growing
+ * without bound. Processes supervised in the background run for as long as they like and are drained by threads of
+ * their own, which never count against the pools of the short commands.
+ */
+public class ProcessOutputDrainer {
+    private static final Logger smLogger = Logger.getLogger(ProcessOutputDrainer.class);
+
+    /** Default number of bytes captured from each stream of a process. */
+    public static final int DEFAULT_OUTPUT_LIMIT = 8 * 1024 * 1024;
+
+    /** Default number of pooled threads used to drain process streams. */
+    public static final int DEFAULT_IO_THREADS = 16;
+
+    /* Size of the bulk read buffer */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /** Seconds a drain waits for a thread of a saturated pool before its process is given up on. */
+    public static final int POOL_WAIT_SECONDS = 300;
+
+    /* Seconds an idle pool thread is kept around */
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    /* Output is decoded one byte per char, as it always has been */
+    private static final String OUTPUT_ENCODING = "ISO-8859-1";
+
+    private static final int smOutputLimit =
+        SfGlobalOptionsManager.getOptions().getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_PROCESS_OUTPUT_LIMIT,
+                                                         DEFAULT_OUTPUT_LIMIT);
+
+    private static final int smIoThreads =
+        SfGlobalOptionsManager.getOptions().getIntOption(GlobalOptionKeys.SFMAIN_INTEGRATION_PROCESS_IO_THREADS,
+                                                         DEFAULT_IO_THREADS);
+
+    /* Drains the output streams */
+    private static final ThreadPoolExecutor smPool = createPool("ProcessOutputDrainer", smIoThreads);
+
+    /* Writes the input of processes; a writer always makes progress, as the output of its process is being drained */
+    private static final ThreadPoolExecutor smInputPool = createPool("ProcessInputWriter", smIoThreads);
+
+    /*
+     * Copies the output of supervised processes, which can run for hours. Their number is bounded by the callers, e.g.
+     * the blackduck analysis limits, so this pool is not, and they never take threads from the drain pool.
+     */
+    private static final ThreadPoolExecutor smSupervisorPool = createSupervisorPool();
+
+    private static final ThreadLocal<byte[]> smReadBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * Private constructor; this class only has static methods.
+     */
+    private ProcessOutputDrainer() {
+    }
+
+    /**
+     * Drain stdout and stderr of a process until both reach end of stream. This does not wait for the process to
+     * exit.
+     *
+     * @param process
+     *            the process whose output should be drained
+     * @return the captured output
+     * @throws IOException
+     *             thrown if either stream could not be read
+     * @throws InterruptedException
+     *             thrown if the calling thread was interrupted while waiting for stderr
+     */
+    public static CapturedOutput drain(final Process process) throws IOException, InterruptedException {
+        return drain(process, null, null);
+    }
+
+    /**
+     * Feed content to the stdin of a process while draining its stdout and stderr until both reach end of stream. The
+     * input is written by a thread of the input pool so that a process producing output before it has read all of its
+     * input cannot deadlock against us. This does not wait for the process to exit.
+     *
+     * @param process
+     *            the process whose output should be drained
+     * @param input
+     *            the content for stdin, or null to just close stdin
+     * @param command
+     *            the command string, for logging purposes
+     * @return the captured output
+     * @throws IOException
+     *             thrown if either output stream could not be read, or no pool thread became free for the process
+     * @throws InterruptedException
+     *             thrown if the calling thread was interrupted while waiting for stderr
+     */
+    public static CapturedOutput drain(final Process process, final CommandInput input, final String command)
+            throws IOException, InterruptedException {
+        final FutureTask<OutputBuffer> stderrTask;
+        try {
+            stderrTask = submit(process.getErrorStream(), smOutputLimit);
+            if (input != null) {
+                submitInput(process.getOutputStream(), input, command);
+            }
+        } catch (final RejectedExecutionException e) {
+            throw giveUp(process, command, e);
+        }
+
+        final OutputBuffer stdout = new OutputBuffer(smOutputLimit);
+
+        stdout.readFully(process.getInputStream());
+
+        try {
+            return new CapturedOutput(stdout, stderrTask.get());
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            final IOException ioe = new IOException("Failed draining stderr: " + cause);
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Drain and discard the output of a process in the background, so that a process nobody reads from cannot block
+     * on a full pipe.
+     *
+     * @param process
+     *            the process whose output should be consumed
+     * @param command
+     *            the command string, for logging purposes
+     * @throws IOException
+     *             thrown if no pool thread became free for the process, which was destroyed
+     */
+    public static void discardInBackground(final Process process, final String command) throws IOException {
+        try {
+            submitDiscard(process.getInputStream(), command, "stdout");
+            submitDiscard(process.getErrorStream(), command, "stderr");
+        } catch (final RejectedExecutionException e) {
+            throw giveUp(process, command, e);
+        }
+    }
+
+    /**
+     * Copy the output of a process to a stream in the background and call a listener once the process has exited.
+     * stdout and stderr are each copied by a thread of the supervisor pool as they are produced; the thread copying
+     * stdout waits for the process once both streams are closed and then calls the listener. No thread is tied up
+     * beyond the ones draining the output, which is needed anyway, nobody has to poll the process, and long running
+     * processes do not hold threads of the pool used for the short drains of every other command.
+     *
+     * @param process
+     *            the process to supervise
+     * @param command
+     *            the command string, for logging purposes
+     * @param output
+     *            the stream to copy stdout and stderr to; writes are synchronized on it and it is not closed
+     * @param listener
+     *            the listener to call when the process has exited
+     * @throws IOException
+     *             thrown if no thread could be started for the process, which was destroyed and whose listener is not
+     *             called
+     */
+    public static void supervise(final Process process, final String command, final OutputStream output,
+                                 final ProcessListener listener) throws IOException {
+        final FutureTask<Object> stderrTask = new FutureTask<Object>(new Runnable() {
+            public void run() {
+                copy(process.getErrorStream(), output, command, "stderr");
+            }
+        }, null);
+        try {
+            smSupervisorPool.execute(stderrTask);
+        } catch (final RejectedExecutionException e) {
+            throw giveUp(process, command, e);
+        }
+
+        final Runnable stdoutTask = new Runnable() {
+            public void run() {
+                copy(process.getInputStream(), output, command, "stdout");
+
+                try {
+                    stderrTask.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (final ExecutionException e) {
+                    // copy() does not throw
+                }
+                final int exitValue = waitForQuietly(process);
+
+                try {
+                    listener.processFinished(exitValue);
+                } catch (final RuntimeException e) {
+                    smLogger.error("Process listener for " + command + " failed", e);
+                }
+            }
+        };
+        try {
+            smSupervisorPool.execute(stdoutTask);
+        } catch (final RejectedExecutionException e) {
+            // The stderr copy ends once the process is gone
+            throw giveUp(process, command, e);
+        }
+    }
+
+    /**
+     * Returns the maximum number of bytes captured from each stream.
+     *
+     * @return the per stream capture limit
+     */
+    public static int getOutputLimit() {
+        return smOutputLimit;
+    }
+
+    /**
+     * Give up on a process for which no pool thread became free.
+     *
+     * @param process
+     *            the process, which is destroyed
+     * @param command
+     *            the command string, for logging purposes
+     * @param cause
+     *            the rejection
+     * @return the exception to throw
+     */
+    private static IOException giveUp(final Process process, final String command,
+                                      final RejectedExecutionException cause) {
+        process.destroy();
+        final IOException ioe = new IOException("No thread free to drain the output of " + command);
+        ioe.initCause(cause);
+        return ioe;
+    }
+
+    /**
+     * Schedule the drain of a stream on the shared pool.
+     *
+     * @param stream
+     *            the stream to drain
+     * @param limit
+     *            the number of bytes to capture
+     * @return the task which will yield the captured output
+     */
+    private static FutureTask<OutputBuffer> submit(final InputStream stream, final int limit) {
+        final FutureTask<OutputBuffer> task = new FutureTask<OutputBuffer>(new Callable<OutputBuffer>() {
+            public OutputBuffer call() throws IOException {
+                final OutputBuffer buffer = new OutputBuffer(limit);
+                buffer.readFully(stream);
+                return buffer;
+            }
+        });
+
+        smPool.execute(task);
+        return task;
+    }
+
+    /**
+     * Schedule writing the input of a process on the input pool. A process which exits without reading all of its
+     * input is not an error here; its exit code tells the caller what happened.
+     *
+     * @param stream
+     *            the stdin of the process
+     * @param input
+     *            the content to write
+     * @param command
+     *            the command string, for logging purposes
+     */
+    private static void submitInput(final OutputStream stream, final CommandInput input, final String command) {
+        smInputPool.execute(new Runnable() {
+            public void run() {
+                try {
+                    input.writeTo(stream);
+                } catch (final IOException e) {
+                    smLogger.debug("Stopped writing input of " + command + ": " + e.getMessage());
+                } finally {
+                    try {
+                        stream.close();
+                    } catch (final IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedule the drain of a stream whose content nobody is interested in.
+     *
+     * @param stream
+     *            the stream to drain
+     * @param command
+     *            the command string, for logging purposes
+     * @param streamName
+     *            the name of the stream, for logging purposes
+     */
+    private static void submitDiscard(final InputStream stream, final String command, final String streamName) {
+        smPool.execute(new Runnable() {
+            public void run() {
+                final OutputBuffer buffer = new OutputBuffer(0);
+                try {
+                    buffer.readFully(stream);
+                } catch (final IOException e) {
+                    smLogger.debug("Stopped draining " + streamName + " of " + command + ": " + e.getMessage());
+                }
+
+                if (smLogger.isDebugEnabled()) {
+                    smLogger.debug("Discarded " + buffer.getTotalBytes() + " bytes of " + streamName + " from "
+                                   + command);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy a stream of a process until end of stream. A failing output stream does not stop the copy, so the process
+     * can not block on a full pipe.
+     *
+     * @param stream
+     *            the stream to copy
+     * @param output
+     *            the stream to copy to, synchronized on for every write
+     * @param command
+     *            the command string, for logging purposes
+     * @param streamName
+     *            the name of the stream, for logging purposes
+     */
+    private static void copy(final InputStream stream, final OutputStream output, final String command,
+                             final String streamName) {
+        final byte[] readBuffer = smReadBuffer.get();
+        boolean writeFailed = false;
+        try {
+            int count;
+            while ((count = stream.read(readBuffer, 0, readBuffer.length)) != -1) {
+                if (writeFailed) {
+                    continue;
+                }
+
+                try {
+                    synchronized (output) {
+                        output.write(readBuffer, 0, count);
+                        output.flush();
+                    }
+                } catch (final IOException e) {
+                    smLogger.warn("Could not copy " + streamName + " of " + command + ": " + e.getMessage());
+                    writeFailed = true;
+                }
+            }
+        } catch (final IOException e) {
+            smLogger.debug("Stopped copying " + streamName + " of " + command + ": " + e.getMessage());
+        } finally {
+            try {
+                stream.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Wait for a process, not giving up when interrupted.
+     *
+     * @param process
+     *            the process
+     * @return the exit value of the process
+     */
+    private static int waitForQuietly(final Process process) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return process.waitFor();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Create a bounded pool. Work handed to a saturated pool waits up to {@link #POOL_WAIT_SECONDS} for a thread to
+     * become free and is rejected after that.
+     *
+     * @param poolName
+     *            the name of the pool, which its threads are named after
+     * @param maxThreads
+     *            the number of threads kept in the pool
+     * @return the pool
+     */
+    private static ThreadPoolExecutor createPool(final String poolName, final int maxThreads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, poolName + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        final RejectedExecutionHandler overflowHandler = new RejectedExecutionHandler() {
+            public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+                smLogger.debug(poolName + " pool saturated; waiting for a thread.");
+                boolean handedOver = false;
+                try {
+                    // An idle or finishing pool thread polls the queue
+                    handedOver = executor.getQueue().offer(runnable, POOL_WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (!handedOver) {
+                    smLogger.error(poolName + " pool saturated for " + POOL_WAIT_SECONDS + " seconds, "
+                                   + executor.getActiveCount() + " threads busy");
+                    throw new RejectedExecutionException(poolName + " pool saturated");
+                }
+            }
+        };
+
+        return new ThreadPoolExecutor(0, Math.max(1, maxThreads), IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                                      new SynchronousQueue<Runnable>(), threadFactory, overflowHandler);
+    }
+
+    /**
+     * Create the pool of the supervisor threads: a thread per task, reused while idle.
+     *
+     * @return the pool
+     */
+    private static ThreadPoolExecutor createSupervisorPool() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "ProcessSupervisor-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                                      new SynchronousQueue<Runnable>(), threadFactory);
+    }
+
+    /**
+     * Growable byte buffer which stops growing at a fixed limit but keeps counting what it is fed.
+     */
+    static class OutputBuffer {
+        private final int mLimit;
+        private byte[] mBytes = new byte[0];
+        private int mLength = 0;
+        private long mTotalBytes = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param limit
+         *            the number of bytes to retain
+         */
+        OutputBuffer(final int limit) {
+            mLimit = limit;
+        }
+
+        /**
+         * Read the stream until end of stream, retaining at most the limit.
+         *
+         * @param stream
+         *            the stream to read
+         * @throws IOException
+         *             thrown if the stream could not be read
+         */
+        void readFully(final InputStream stream) throws IOException {
+            final byte[] readBuffer = smReadBuffer.get();
+            try {
+                int count;
+                while ((count = stream.read(readBuffer, 0, readBuffer.length)) != -1) {
+                    append(readBuffer, count);
+                }
+            } finally {
+                try {
+                    stream.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        /**
+         * Append bytes, dropping whatever does not fit under the limit.
+         *
+         * @param bytes
+         *            the source bytes
+         * @param count
+         *            the number of bytes to append
+         */
+        private void append(final byte[] bytes, final int count) {
+            mTotalBytes += count;
+
+            final int retained = Math.min(count, mLimit - mLength);
+            if (retained <= 0) {
+                return;
+            }
+
+            if (mLength + retained > mBytes.length) {
+                final int newSize = Math.min(mLimit, Math.max(mLength + retained, mBytes.length * 2));
+                final byte[] grown = new byte[newSize];
+                System.arraycopy(mBytes, 0, grown, 0, mLength);
+                mBytes = grown;
+            }
+
+            System.arraycopy(bytes, 0, mBytes, mLength, retained);
+            mLength += retained;
+        }
+
+        /**
+         * @return the total number of bytes read, including discarded ones
+         */
+        long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        /**
+         * @return true if some of the output was discarded
+         */
+        boolean isTruncated() {
+            return mTotalBytes > mLength;
+        }
+
+        /**
+         * @return the retained output as a string
+         */
+        String getString() {
+            try {
+                return new String(mBytes, 0, mLength, OUTPUT_ENCODING);
+            } catch (final UnsupportedEncodingException e) {
+                // ISO-8859-1 is always supported
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * The output captured from a process.
+     */
+    public static class CapturedOutput {
+        private final String mStdout;
+        private final String mStderr;
+        private final long mStdoutBytes;
+        private final long mStderrBytes;
+        private final boolean mTruncated;
+
+        /**
+         * Constructor.
+         *
+         * @param stdout
+         *            the buffer holding stdout
+         * @param stderr
+         *            the buffer holding stderr
+         */
+        CapturedOutput(final OutputBuffer stdout, final OutputBuffer stderr) {
+            mStdout = stdout.getString();
+            mStderr = stderr.getString();
+            mStdoutBytes = stdout.getTotalBytes();
+            mStderrBytes = stderr.getTotalBytes();
+            mTruncated = stdout.isTruncated() || stderr.isTruncated();
+        }
+
+        /**
+         * @return the captured stdout
+         */
+        public String getStdout() {
+            return mStdout;
+        }
+
+        /**
+         * @return the captured stderr
+         */
+        public String getStderr() {
+            return mStderr;
+        }
+
+        /**
+         * @return the number of bytes the process wrote to stdout
+         */
+        public long getStdoutBytes() {
+            return mStdoutBytes;
+        }
+
+        /**
+         * @return the number of bytes the process wrote to stderr
+         */
+        public long getStderrBytes() {
+            return mStderrBytes;
+        }
+
+        /**
+         * @return true if either stream produced more than the capture limit
+         */
+        public boolean isTruncated() {
+            return mTruncated;
+        }
+    }
+}
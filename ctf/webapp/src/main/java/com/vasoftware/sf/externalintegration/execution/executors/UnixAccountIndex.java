@@ -0,0 +1,345 @@
+/*
+ * CollabNet TeamForge
+ * Copyright 2010 CollabNet, Inc.  All rights reserved.
+ * http://www.collab.net
+ */
+
+package com.vasoftware.sf.externalintegration.execution.executors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vasoftware.sf.common.logger.Logger;
+import com.vasoftware.sf.common.util.FileUtil;
+import com.vasoftware.sf.externalintegration.execution.CommandWrapperFault;
+
+/**
+ * The <code>UnixAccountIndex</code> keeps a parsed, immutable snapshot of the password and group files so that user
+ * and group lookups do not have to read and split the files on every call.
+ *
+ * A snapshot is rebuilt lazily when either file's modification time or size changes, or when the executor invalidates
+ * the index after running a command which edits the files. Readers never block each other: they either get the current
+ * snapshot or, if it is stale, the one the first reloading thread produced.
+ *
+ * Every invalidation starts a new generation, and a snapshot is only served in the generation it was read in, so a
+ * reload which raced with one of our own edits can not bring the old content back. Edits by other programs are only
+ * seen through the modification time and size of the files, which can miss a change of the same size within the
+ * timestamp granularity; code about to write back a whole member list reads the group entry fresh instead.
+ */
+class UnixAccountIndex {
+    private static final Logger smLogger = Logger.getLogger(UnixAccountIndex.class);
+
+    private static final String DELIMITER = ":";
+
+    private final File mPasswordFile;
+    private final File mGroupFile;
+
+    private volatile Snapshot mSnapshot = null;
+
+    /* Incremented by every invalidation */
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param passwordFile
+     *            path of the password file
+     * @param groupFile
+     *            path of the group file
+     */
+    UnixAccountIndex(final String passwordFile, final String groupFile) {
+        mPasswordFile = new File(passwordFile);
+        mGroupFile = new File(groupFile);
+    }
+
+    /**
+     * Get a snapshot that reflects the current content of the files.
+     *
+     * @return the snapshot
+     * @throws CommandWrapperFault
+     *             If one of the files could not be read.
+     */
+    Snapshot getSnapshot() throws CommandWrapperFault {
+        final Snapshot snapshot = mSnapshot;
+        if (isCurrent(snapshot)) {
+            return snapshot;
+        }
+
+        return reload(snapshot);
+    }
+
+    /**
+     * Drop the current snapshot; called after the files were modified by us.
+     */
+    void invalidate() {
+        mGeneration.incrementAndGet();
+        mSnapshot = null;
+    }
+
+    /**
+     * Read the entry of a group straight from the group file, bypassing the snapshot.
+     *
+     * @param groupname
+     *            the group to look up
+     * @return the split group file line of the group, or null if there is none
+     * @throws CommandWrapperFault
+     *             If the file could not be read.
+     */
+    String[] readGroup(final String groupname) throws CommandWrapperFault {
+        final String prefix = groupname + DELIMITER;
+
+        FileReader fileReader = null;
+        BufferedReader reader = null;
+        try {
+            fileReader = new FileReader(mGroupFile);
+            reader = new BufferedReader(fileReader);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(prefix)) {
+                    return line.split(DELIMITER);
+                }
+            }
+        } catch (final FileNotFoundException e) {
+            throw new CommandWrapperFault("File open", "Could not open " + mGroupFile.getPath() + " file", e);
+        } catch (final IOException e) {
+            throw new CommandWrapperFault("File read", "Could not read " + mGroupFile.getPath() + " file", e);
+        } finally {
+            FileUtil.close(reader);
+            FileUtil.close(fileReader);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the supplementary members listed in a split group file line.
+     *
+     * @param elements
+     *            the split line
+     * @return the members, possibly including an empty name
+     */
+    static String[] getMembers(final String[] elements) {
+        return elements.length == 4 ? elements[3].split(",") : new String[0];
+    }
+
+    /**
+     * Check whether a snapshot may still be served.
+     *
+     * @param snapshot
+     *            the snapshot, may be null
+     * @return true if it was read in the current generation and the files did not change since
+     */
+    private boolean isCurrent(final Snapshot snapshot) {
+        return snapshot != null && snapshot.mGeneration == mGeneration.get()
+               && snapshot.isCurrent(mPasswordFile, mGroupFile);
+    }
+
+    /**
+     * Rebuild the snapshot unless another thread already did so.
+     *
+     * @param staleSnapshot
+     *            the snapshot found to be stale
+     * @return the fresh snapshot
+     * @throws CommandWrapperFault
+     *             If one of the files could not be read.
+     */
+    private synchronized Snapshot reload(final Snapshot staleSnapshot) throws CommandWrapperFault {
+        final Snapshot current = mSnapshot;
+        if (current != staleSnapshot && isCurrent(current)) {
+            return current;
+        }
+
+        // Taken before reading, so that an invalidation while reading keeps the snapshot from being published
+        final long generation = mGeneration.get();
+
+        // Stat before reading, so that a concurrent change makes the snapshot look stale rather than current
+        final long passwordModified = mPasswordFile.lastModified();
+        final long passwordLength = mPasswordFile.length();
+        final long groupModified = mGroupFile.lastModified();
+        final long groupLength = mGroupFile.length();
+
+        final Map<String, String[]> users = readEntries(mPasswordFile);
+        final Map<String, String[]> groups = readEntries(mGroupFile);
+
+        final Snapshot snapshot = new Snapshot(users, groups, generation, passwordModified, passwordLength,
+                                               groupModified, groupLength);
+        if (mGeneration.get() == generation) {
+            mSnapshot = snapshot;
+        }
+
+        if (smLogger.isDebugEnabled()) {
+            smLogger.debug("Indexed " + users.size() + " users and " + groups.size() + " groups.");
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Read a colon delimited file, keyed on the first column. The first line for a key wins, as it does for the system
+     * lookups.
+     *
+     * @param file
+     *            the file to read
+     * @return the split lines by key
+     * @throws CommandWrapperFault
+     *             If the file could not be read.
+     */
+    private static Map<String, String[]> readEntries(final File file) throws CommandWrapperFault {
+        final Map<String, String[]> entries = new HashMap<String, String[]>();
+
+        FileReader fileReader = null;
+        BufferedReader reader = null;
+        try {
+            fileReader = new FileReader(file);
+            reader = new BufferedReader(fileReader);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] elements = line.split(DELIMITER);
+                if (!entries.containsKey(elements[0])) {
+                    entries.put(elements[0], elements);
+                }
+            }
+        } catch (final FileNotFoundException e) {
+            throw new CommandWrapperFault("File open", "Could not open " + file.getPath() + " file", e);
+        } catch (final IOException e) {
+            throw new CommandWrapperFault("File read", "Could not read " + file.getPath() + " file", e);
+        } finally {
+            FileUtil.close(reader);
+            FileUtil.close(fileReader);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Immutable view of the password and group files at one point in time. The arrays returned are shared and must not
+     * be modified.
+     */
+    static class Snapshot {
+        private final Map<String, String[]> mUsers;
+        private final Map<String, String[]> mGroups;
+        private final Map<String, String[]> mGroupMembers;
+        private final Map<String, Set<String>> mUsersByDefaultGroupId;
+        private final long mGeneration;
+        private final long mPasswordModified;
+        private final long mPasswordLength;
+        private final long mGroupModified;
+        private final long mGroupLength;
+
+        /**
+         * Constructor. Builds the derived indexes.
+         *
+         * @param users
+         *            password file entries by username
+         * @param groups
+         *            group file entries by group name
+         * @param generation
+         *            the generation of the index the files were read in
+         * @param passwordModified
+         *            modification time of the password file
+         * @param passwordLength
+         *            size of the password file
+         * @param groupModified
+         *            modification time of the group file
+         * @param groupLength
+         *            size of the group file
+         */
+        Snapshot(final Map<String, String[]> users, final Map<String, String[]> groups, final long generation,
+                 final long passwordModified, final long passwordLength, final long groupModified,
+                 final long groupLength) {
+            mUsers = users;
+            mGroups = groups;
+            mGeneration = generation;
+            mPasswordModified = passwordModified;
+            mPasswordLength = passwordLength;
+            mGroupModified = groupModified;
+            mGroupLength = groupLength;
+
+            mGroupMembers = new HashMap<String, String[]>();
+            for (final Map.Entry<String, String[]> group : groups.entrySet()) {
+                mGroupMembers.put(group.getKey(), getMembers(group.getValue()));
+            }
+
+            final Map<String, Set<String>> usersByGroupId = new HashMap<String, Set<String>>();
+            for (final String[] elements : users.values()) {
+                if (elements.length >= 4) {
+                    Set<String> members = usersByGroupId.get(elements[3]);
+                    if (members == null) {
+                        members = new HashSet<String>();
+                        usersByGroupId.put(elements[3], members);
+                    }
+                    members.add(elements[0]);
+                }
+            }
+            for (final Map.Entry<String, Set<String>> entry : usersByGroupId.entrySet()) {
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            }
+            mUsersByDefaultGroupId = usersByGroupId;
+        }
+
+        /**
+         * Check whether the files still look the way they did when this snapshot was taken.
+         *
+         * @param passwordFile
+         *            the password file
+         * @param groupFile
+         *            the group file
+         * @return true if neither file changed
+         */
+        boolean isCurrent(final File passwordFile, final File groupFile) {
+            return passwordFile.lastModified() == mPasswordModified && passwordFile.length() == mPasswordLength
+                    && groupFile.lastModified() == mGroupModified && groupFile.length() == mGroupLength;
+        }
+
+        /**
+         * @param username
+         *            the user to look up
+         * @return the split password file line of the user, or null if there is none
+         */
+        String[] getUser(final String username) {
+            return mUsers.get(username);
+        }
+
+        /**
+         * @param groupname
+         *            the group to look up
+         * @return the split group file line of the group, or null if there is none
+         */
+        String[] getGroup(final String groupname) {
+            return mGroups.get(groupname);
+        }
+
+        /**
+         * @param groupname
+         *            the group to look up
+         * @return the supplementary members of the group, or null if there is no such group
+         */
+        String[] getGroupMembers(final String groupname) {
+            return mGroupMembers.get(groupname);
+        }
+
+        /**
+         * @param groupId
+         *            the numeric group id
+         * @return the unmodifiable set of users having the group as their default group
+         */
+        Set<String> getUsersWithDefaultGroup(final String groupId) {
+            final Set<String> users = mUsersByDefaultGroupId.get(groupId);
+            if (users == null) {
+                return Collections.emptySet();
+            }
+            return users;
+        }
+    }
+}
@@ -8,14 +8,11 @@
  */
 package com.vasoftware.sf.externalintegration.execution.executors;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -23,7 +20,6 @@ import com.vasoftware.sf.common.configuration.GlobalOptionKeys;
 import com.vasoftware.sf.common.configuration.SfGlobalOptions;
 import com.vasoftware.sf.common.configuration.SfGlobalOptionsManager;
 import com.vasoftware.sf.common.logger.Logger;
-import com.vasoftware.sf.common.util.FileUtil;
 import com.vasoftware.sf.common.util.StringUtil;
 import com.vasoftware.sf.externalintegration.ScmConstants;
 import com.vasoftware.sf.externalintegration.execution.CommandExecutor;
@@ -57,6 +53,7 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
     protected static final String PASSWORD_FILE = "/etc/passwd";
 
     protected static final String GROUPS_COMMAND = "/usr/bin/groups";
+    protected static final String GPASSWD_COMMAND = "/usr/bin/gpasswd";
     protected static final String USERMOD_COMMAND = "/usr/sbin/usermod";
     protected static final String CHOWN_COMMAND = "/bin/chown";
     protected static final String CHGRP_COMMAND = "/bin/chgrp";
@@ -70,6 +67,9 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
 
     private static final String SU_COMMAND = "su";
 
+    /** The number of files linked by one ln command, keeping the command line well below ARG_MAX */
+    private static final int MAX_LINKS_PER_COMMAND = 500;
+
     protected static final int USERADD_EXIT_DUPLICATEUSER = 9;
 
     /**
@@ -99,6 +99,15 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
      */
     public static final String UNRESTRICTED_USERS_GROUP = "sfunrest";
 
+    /** Shared index of the password and group files */
+    private static final UnixAccountIndex smAccountIndex = new UnixAccountIndex(PASSWORD_FILE, GROUP_FILE);
+
+    /*
+     * Held by everything which rewrites supplementary group member lists from what it read before, so that two such
+     * read-modify-writes can not undo each other
+     */
+    private static final Object smGroupLock = new Object();
+
     protected String mUserGroup;
     protected String mUserHomeDir;
     protected String mUserActiveShell;
@@ -163,7 +172,7 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
      *             if group exists
      */
     public void createGroup(final String groupname) throws CommandWrapperFault, GroupAlreadyExistsFault {
-        final CommandResult result = runCommand(new String[] { ADDGROUP_COMMAND, groupname }, null, null);
+        final CommandResult result = runAccountCommand(new String[] { ADDGROUP_COMMAND, groupname });
 
         final int exitcode = result.getReturnValue();
         if (exitcode == ADDGROUP_EXIT_DUPLICATEGROUP) {
@@ -190,7 +199,7 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
      *             thrown if the group could not be deleted
      */
     public void deleteGroup(final String groupname) throws CommandWrapperFault {
-        final CommandResult result = runCommand(new String[] { DELGROUP_COMMAND, groupname }, null, null);
+        final CommandResult result = runAccountCommand(new String[] { DELGROUP_COMMAND, groupname });
 
         final int exitcode = result.getReturnValue();
         if (exitcode != CommandResult.RETURN_SUCCESS) {
@@ -215,8 +224,8 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
 
         // if group is sfall, set sfall as users default group
         if (ALL_USERS_GROUP.equals(groupname)) {
-            final CommandResult result = runCommand(new String[] { USERMOD_COMMAND, "-g", ALL_USERS_GROUP,
-                                                                  usernameToLower }, null, null);
+            final CommandResult result = runAccountCommand(new String[] { USERMOD_COMMAND, "-g", ALL_USERS_GROUP,
+                                                                         usernameToLower });
             if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
                 throw new CommandWrapperFault(result.getCommand(), "Could not set default group for " + username
                         + " to " + ALL_USERS_GROUP + " : " + result.getCommandOutput());
@@ -224,45 +233,45 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
             return;
         }
 
-        final CommandResult result = runCommand(new String[] { GROUPS_COMMAND, usernameToLower }, null, null);
+        synchronized (smGroupLock) {
+            final CommandResult result = runCommand(new String[] { GROUPS_COMMAND, usernameToLower }, null, null);
 
-        if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
-            throw new CommandWrapperFault(result.getCommand(), "Could not get groups for user " + username + " "
-                    + result.getCommandOutput());
-        }
+            if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+                throw new CommandWrapperFault(result.getCommand(), "Could not get groups for user " + username + " "
+                        + result.getCommandOutput());
+            }
 
-        final String groupsout = result.getStdout();
-        final String grouplist = groupsout.substring(groupsout.indexOf(':') + 1).trim();
+            final String groupsout = result.getStdout();
+            final String grouplist = groupsout.substring(groupsout.indexOf(':') + 1).trim();
 
-        String newGroupList = "";
-        final String[] groups = grouplist.split("[ ]+");
+            String newGroupList = "";
+            final String[] groups = grouplist.split("[ ]+");
 
-        // Iterate through the array of existing groups. return if user is already in group
-        for (final String group : groups) {
-            if (group.equals(mUserGroup) || group.equals(ALL_USERS_GROUP)) {
-                continue;
-            }
-            // If the user is already a member of this group, simply return.
-            if (group.equals(groupname)) {
-                return;
+            // Iterate through the array of existing groups. return if user is already in group
+            for (final String group : groups) {
+                if (group.equals(mUserGroup) || group.equals(ALL_USERS_GROUP)) {
+                    continue;
+                }
+                // If the user is already a member of this group, simply return.
+                if (group.equals(groupname)) {
+                    return;
+                }
+                newGroupList += " " + group;
             }
-            newGroupList += " " + group;
-        }
 
-        // add the new group to the newGroupList, then turn the string into a comma delimited list
-        newGroupList += " " + groupname;
-        newGroupList = newGroupList.trim().replace(' ', ',');
+            // add the new group to the newGroupList, then turn the string into a comma delimited list
+            newGroupList += " " + groupname;
+            newGroupList = newGroupList.trim().replace(' ', ',');
 
-        // execute usermod
-        final CommandResult addresult = runCommand(
-                                                   new String[] { USERMOD_COMMAND, "-G", newGroupList, usernameToLower },
-                                                   null, null);
+            // execute usermod
+            final CommandResult addresult = runAccountCommand(new String[] { USERMOD_COMMAND, "-G", newGroupList,
+                                                                            usernameToLower });
 
-        if (addresult.getReturnValue() != CommandResult.RETURN_SUCCESS || addresult.getStderr().length() > 0) {
-            throw new CommandWrapperFault(addresult.getCommand(), "Could not add user " + username + " to group "
-                    + groupname + " " + addresult.getCommandOutput());
+            if (addresult.getReturnValue() != CommandResult.RETURN_SUCCESS || addresult.getStderr().length() > 0) {
+                throw new CommandWrapperFault(addresult.getCommand(), "Could not add user " + username + " to group "
+                        + groupname + " " + addresult.getCommandOutput());
+            }
         }
-
     }
 
     /**
@@ -280,65 +289,262 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
 
         // if group is sfall, reset users default group
         if (ALL_USERS_GROUP.equals(groupname)) {
-            final CommandResult result = runCommand(new String[] { USERMOD_COMMAND, "-g", getUserGroup(),
-                                                                  usernameLowerCase }, null, null);
+            final CommandResult result = runAccountCommand(new String[] { USERMOD_COMMAND, "-g", getUserGroup(),
+                                                                         usernameLowerCase });
             if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
                 throw new CommandWrapperFault(result.getCommand(), "Could not set default group for " + username
                         + " to " + getUserGroup() + " : " + result.getCommandOutput());
             }
         }
 
-        final CommandResult result = runCommand(new String[] { GROUPS_COMMAND, usernameLowerCase }, null, null);
+        synchronized (smGroupLock) {
+            final CommandResult result = runCommand(new String[] { GROUPS_COMMAND, usernameLowerCase }, null, null);
 
-        if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
-            throw new CommandWrapperFault(result.getCommand(), "Could not get groups for user " + username + " "
-                    + result.getCommandOutput());
-        }
+            if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+                throw new CommandWrapperFault(result.getCommand(), "Could not get groups for user " + username + " "
+                        + result.getCommandOutput());
+            }
 
-        final String groupsout = result.getStdout();
-        final String grouplist = groupsout.substring(groupsout.indexOf(':') + 1).trim();
+            final String groupsout = result.getStdout();
+            final String grouplist = groupsout.substring(groupsout.indexOf(':') + 1).trim();
 
-        String newGroupList = "";
-        final String[] groups = grouplist.split("[ ]+");
+            String newGroupList = "";
+            final String[] groups = grouplist.split("[ ]+");
 
-        // Iterate through the array of existing groups. don't add if its the group or the default group.
-        for (final String group : groups) {
-            if (group.equals(mUserGroup) || group.equals(ALL_USERS_GROUP) || group.equals(groupname)) {
-                continue;
+            // Iterate through the array of existing groups. don't add if its the group or the default group.
+            for (final String group : groups) {
+                if (group.equals(mUserGroup) || group.equals(ALL_USERS_GROUP) || group.equals(groupname)) {
+                    continue;
+                }
+                newGroupList += " " + group;
             }
-            newGroupList += " " + group;
-        }
 
-        // turn the string into a comma delimited list
-        newGroupList = newGroupList.trim().replace(' ', ',');
+            // turn the string into a comma delimited list
+            newGroupList = newGroupList.trim().replace(' ', ',');
 
-        // execute usermod, explicitly setting the user's default group to our "expected" value
-        final CommandResult removeresult = runCommand(new String[] { USERMOD_COMMAND, "-G", newGroupList,
-                                                                    usernameLowerCase }, null, null);
+            // execute usermod, explicitly setting the user's default group to our "expected" value
+            final CommandResult removeresult = runAccountCommand(new String[] { USERMOD_COMMAND, "-G", newGroupList,
+                                                                               usernameLowerCase });
 
-        if (removeresult.getReturnValue() != CommandResult.RETURN_SUCCESS) {
-            throw new CommandWrapperFault(removeresult.getCommand(), "Could not remove user " + username
-                    + " from group " + groupname + " " + removeresult.getCommandOutput());
+            if (removeresult.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+                throw new CommandWrapperFault(removeresult.getCommand(), "Could not remove user " + username
+                        + " from group " + groupname + " " + removeresult.getCommandOutput());
+            }
         }
-
     }
 
     /**
+     * Adds all users to the group with a single update of the group membership.
+     * 
      * @see CommandExecutor#addUsersToGroup(String, String[])
      */
     public void addUsersToGroup(final String groupname, final String[] usernames) throws CommandWrapperFault {
-        for (final String username : usernames) {
-            addUserToGroup(groupname, username);
+        if (usernames.length == 0) {
+            return;
+        }
+
+        final Set<String> usersToAdd = toLowerCaseSet(usernames);
+
+        if (ALL_USERS_GROUP.equals(groupname)) {
+            // sfall membership is carried by the users' default group
+            setDefaultGroup(usersToAdd, getGroupId(groupname), ALL_USERS_GROUP);
+            return;
+        }
+
+        synchronized (smGroupLock) {
+            final Set<String> members = getSupplementaryGroupMembers(groupname);
+            if (members.addAll(usersToAdd)) {
+                setSupplementaryGroupMembers(groupname, members);
+            }
         }
     }
 
     /**
+     * Removes all users from the group with a single update of the group membership.
+     * 
      * @see CommandExecutor#removeUsersFromGroup(String, String[])
      */
     public void removeUsersFromGroup(final String groupname, final String[] usernames) throws CommandWrapperFault {
+        if (usernames.length == 0) {
+            return;
+        }
+
+        final Set<String> usersToRemove = toLowerCaseSet(usernames);
+
+        synchronized (smGroupLock) {
+            if (ALL_USERS_GROUP.equals(groupname)) {
+                resetDefaultGroup(usersToRemove, getGroupId(groupname));
+            }
+
+            final Set<String> members = getSupplementaryGroupMembers(groupname);
+            if (members.removeAll(usersToRemove)) {
+                setSupplementaryGroupMembers(groupname, members);
+            }
+        }
+    }
+
+    /**
+     * Computes the membership delta in memory and applies it with a single update of the group membership. Only the
+     * users of sfall whose default group actually changes cost an additional usermod.
+     * 
+     * @see CommandExecutor#setGroupMembers(String, String[])
+     */
+    public void setGroupMembers(final String groupname, final String[] usernames) throws CommandWrapperFault {
+        final Set<String> wantedMembers = toLowerCaseSet(usernames);
+
+        synchronized (smGroupLock) {
+            if (ALL_USERS_GROUP.equals(groupname)) {
+                final String groupId = getGroupId(groupname);
+                final Set<String> usersToReset = getUsersWithDefaultGroup(groupId);
+                usersToReset.removeAll(wantedMembers);
+
+                resetDefaultGroup(usersToReset, groupId);
+                setDefaultGroup(wantedMembers, groupId, ALL_USERS_GROUP);
+
+                // Only keep supplementary members which are still wanted
+                final Set<String> members = getSupplementaryGroupMembers(groupname);
+                if (members.retainAll(wantedMembers)) {
+                    setSupplementaryGroupMembers(groupname, members);
+                }
+                return;
+            }
+
+            final Set<String> members = getSupplementaryGroupMembers(groupname);
+            if (!members.equals(wantedMembers)) {
+                setSupplementaryGroupMembers(groupname, wantedMembers);
+            }
+        }
+    }
+
+    /**
+     * Get the supplementary members of a group as listed in the group file right now. The group entry is read fresh
+     * rather than from the account index, as the members are written back as a whole.
+     * 
+     * @param groupname
+     *            the group to look up
+     * @return the mutable, ordered set of members
+     * @throws CommandWrapperFault
+     *             If the group was not found or the group file could not be read.
+     */
+    private Set<String> getSupplementaryGroupMembers(final String groupname) throws CommandWrapperFault {
+        final String[] elements = smAccountIndex.readGroup(groupname);
+        if (elements == null) {
+            throw new CommandWrapperFault("Read file", "No match found for: " + groupname + " in file: " + GROUP_FILE);
+        }
+
+        final Set<String> members = new LinkedHashSet<String>();
+        for (final String member : UnixAccountIndex.getMembers(elements)) {
+            if (member.length() > 0) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Get the numeric id of a group as listed in the group file.
+     * 
+     * @param groupname
+     *            the group to look up
+     * @return the group id
+     * @throws CommandWrapperFault
+     *             If the group was not found or the group file could not be read.
+     */
+    private String getGroupId(final String groupname) throws CommandWrapperFault {
+        final String[] elements = getGroupEntry(groupname);
+        if (elements.length < 3) {
+            throw new CommandWrapperFault("getGroupId", "Unable to find " + groupname + " in " + GROUP_FILE);
+        }
+        return elements[2];
+    }
+
+    /**
+     * Replace the supplementary member list of a group in one operation. gpasswd locks and rewrites the group and
+     * gshadow files the same way vigr does, so the update is atomic with respect to the other shadow utilities. The
+     * caller holds the group lock and read the members it is based on from the group file under it.
+     * 
+     * @param groupname
+     *            the group to update
+     * @param members
+     *            the complete list of supplementary members
+     * @throws CommandWrapperFault
+     *             An error occurred while executing the command
+     */
+    private void setSupplementaryGroupMembers(final String groupname, final Set<String> members)
+            throws CommandWrapperFault {
+        final String memberList = StringUtil.join(members.toArray(new String[members.size()]), ",");
+        final CommandResult result = runAccountCommand(new String[] { GPASSWD_COMMAND, "-M", memberList, groupname });
+
+        if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+            throw new CommandWrapperFault(result.getCommand(), "Could not set members of group " + groupname + " "
+                    + result.getCommandOutput());
+        }
+    }
+
+    /**
+     * Set the default group of the users which do not already have it.
+     * 
+     * @param usernames
+     *            the lower case usernames
+     * @param groupId
+     *            the id of the group
+     * @param groupname
+     *            the name of the group
+     * @throws CommandWrapperFault
+     *             An error occurred while executing the command
+     */
+    private void setDefaultGroup(final Set<String> usernames, final String groupId, final String groupname)
+            throws CommandWrapperFault {
+        final Set<String> usersToChange = new LinkedHashSet<String>(usernames);
+        usersToChange.removeAll(getUsersWithDefaultGroup(groupId));
+
+        for (final String username : usersToChange) {
+            final CommandResult result = runAccountCommand(new String[] { USERMOD_COMMAND, "-g", groupname,
+                                                                         username });
+            if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+                throw new CommandWrapperFault(result.getCommand(), "Could not set default group for " + username
+                        + " to " + groupname + " : " + result.getCommandOutput());
+            }
+        }
+    }
+
+    /**
+     * Reset the default group of the users which currently have the specified group as default group.
+     * 
+     * @param usernames
+     *            the lower case usernames
+     * @param groupId
+     *            the id of the group the users are leaving
+     * @throws CommandWrapperFault
+     *             An error occurred while executing the command
+     */
+    private void resetDefaultGroup(final Set<String> usernames, final String groupId) throws CommandWrapperFault {
+        final Set<String> usersToChange = new LinkedHashSet<String>(usernames);
+        usersToChange.retainAll(getUsersWithDefaultGroup(groupId));
+
+        for (final String username : usersToChange) {
+            final CommandResult result = runAccountCommand(new String[] { USERMOD_COMMAND, "-g", getUserGroup(),
+                                                                         username });
+            if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+                throw new CommandWrapperFault(result.getCommand(), "Could not set default group for " + username
+                        + " to " + getUserGroup() + " : " + result.getCommandOutput());
+            }
+        }
+    }
+
+    /**
+     * Lower case all usernames, dropping duplicates.
+     * 
+     * @param usernames
+     *            the usernames
+     * @return the ordered set of lower case usernames
+     */
+    private static Set<String> toLowerCaseSet(final String[] usernames) {
+        final Set<String> result = new LinkedHashSet<String>();
         for (final String username : usernames) {
-            removeUserFromGroup(groupname, username);
+            result.add(username.toLowerCase());
         }
+        return result;
     }
 
     /**
@@ -498,58 +704,38 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
     }
 
     /**
-     * Get the line that matches the specified column in a delimited file. This is used for getting a list of users from
-     * a group in the groups file or a user's home directory from the password file.
+     * Get the group file line for a group.
      * 
-     * @param fileName
-     *            The name of the file.
-     * @param delimiter
-     *            The delimiter to split on.
-     * @param matchString
-     *            The string being matched.
-     * @return The split string for the matching line.
+     * @param groupname
+     *            The group being matched.
+     * @return The split line for the group.
      * @throws CommandWrapperFault
      *             If a match was not found or the file could not be read.
      */
-    private String[] getMatchingLineFromFile(final String fileName, final String delimiter, final String matchString)
-                                                                                                                     throws CommandWrapperFault {
-        FileReader fileReader = null;
-        BufferedReader reader = null;
-        try {
-            fileReader = new FileReader(fileName);
-            reader = new BufferedReader(fileReader);
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                final String[] elements = line.split(delimiter);
-                if (elements[0].equals(matchString)) {
-                    return elements;
-                }
-            }
-        } catch (final FileNotFoundException e) {
-            throw new CommandWrapperFault("File open", "Could not open " + fileName + " file", e);
-        } catch (final IOException e) {
-            throw new CommandWrapperFault("File read", "Could not read " + fileName + " file", e);
-        } finally {
-            // Close the readers
-            if (fileReader != null) {
-                try {
-                    fileReader.close();
-                } catch (final IOException e) {
-                    // don't do anything
-                }
-            }
-
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    // don't do anything
-                }
-            }
+    private String[] getGroupEntry(final String groupname) throws CommandWrapperFault {
+        final String[] elements = smAccountIndex.getSnapshot().getGroup(groupname);
+        if (elements == null) {
+            throw new CommandWrapperFault("Read file", "No match found for: " + groupname + " in file: " + GROUP_FILE);
         }
+        return elements;
+    }
 
-        throw new CommandWrapperFault("Read file", "No match found for: " + matchString + " in file: " + fileName);
+    /**
+     * Get the password file line for a user.
+     * 
+     * @param username
+     *            The user being matched.
+     * @return The split line for the user.
+     * @throws CommandWrapperFault
+     *             If a match was not found or the file could not be read.
+     */
+    private String[] getUserEntry(final String username) throws CommandWrapperFault {
+        final String[] elements = smAccountIndex.getSnapshot().getUser(username);
+        if (elements == null) {
+            throw new CommandWrapperFault("Read file", "No match found for: " + username + " in file: "
+                    + PASSWORD_FILE);
+        }
+        return elements;
     }
 
     /**
@@ -559,32 +745,26 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
      *            group id
      * @return Set of users with sfall as default group
      * @throws CommandWrapperFault
-     *             If a match was not found or the file could not be read.
+     *             If the file could not be read.
      */
     private Set<String> getUsersWithDefaultGroup(final String groupId) throws CommandWrapperFault {
-        final Set<String> users = new HashSet<String>();
+        return new HashSet<String>(smAccountIndex.getSnapshot().getUsersWithDefaultGroup(groupId));
+    }
 
-        FileReader fileReader = null;
-        BufferedReader reader = null;
+    /**
+     * Run a command which modifies the password or group file, and make sure the account index picks up the change.
+     * 
+     * @param cmd
+     *            the command and its parameters
+     * @return CommandResult - the result of the command.
+     * @throws CommandWrapperFault
+     *             An error occurred while executing the command.
+     */
+    private CommandResult runAccountCommand(final String[] cmd) throws CommandWrapperFault {
         try {
-            fileReader = new FileReader(PASSWORD_FILE);
-            reader = new BufferedReader(fileReader);
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                final String[] elements = line.split(":");
-                if ((elements.length >= 4) && (groupId.equals(elements[3]))) {
-                    users.add(elements[0]);
-                }
-            }
-            return users;
-        } catch (final FileNotFoundException e) {
-            throw new CommandWrapperFault("File open", "Could not open " + PASSWORD_FILE + " file", e);
-        } catch (final IOException e) {
-            throw new CommandWrapperFault("File read", "Could not read " + PASSWORD_FILE + " file", e);
+            return runCommand(cmd, null, null);
         } finally {
-            FileUtil.close(reader);
-            FileUtil.close(fileReader);
+            smAccountIndex.invalidate();
         }
     }
 
@@ -598,13 +778,12 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
      *             Thrown if errors occur during execution.
      */
     public String[] listUsersInGroup(final String groupName) throws CommandWrapperFault {
-        final String[] elements = getMatchingLineFromFile(GROUP_FILE, ":", groupName);
-        String[] users;
-        if (elements.length == 4) {
-            users = elements[3].split(",");
-        } else {
-            users = new String[0];
+        final UnixAccountIndex.Snapshot snapshot = smAccountIndex.getSnapshot();
+        final String[] elements = snapshot.getGroup(groupName);
+        if (elements == null) {
+            throw new CommandWrapperFault("Read file", "No match found for: " + groupName + " in file: " + GROUP_FILE);
         }
+        final String[] users = snapshot.getGroupMembers(groupName);
 
         if (ALL_USERS_GROUP.equals(groupName)) {
             if (elements.length < 3) {
@@ -612,11 +791,11 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
                         + GROUP_FILE);
             }
             // if sfall, include all users with sfall as default group
-            final Set<String> userSet = getUsersWithDefaultGroup(elements[2]);
+            final Set<String> userSet = new HashSet<String>(snapshot.getUsersWithDefaultGroup(elements[2]));
             Collections.addAll(userSet, users);
             return userSet.toArray(new String[userSet.size()]);
         } else {
-            return users;
+            return users.clone();
         }
     }
 
@@ -633,8 +812,8 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
     protected void setShell(final String username, final String shell) throws CommandWrapperFault {
         try {
             // Run usermod with the -s option to change shell.
-            final CommandResult shellresult = runCommand(new String[] { USERMOD_COMMAND, "-s", shell, username }, null,
-                                                         null);
+            final CommandResult shellresult = runAccountCommand(new String[] { USERMOD_COMMAND, "-s", shell,
+                                                                              username });
 
             if (shellresult.getReturnValue() != CommandResult.RETURN_SUCCESS) {
                 smLogger.error("Could not set shell for user '" + username + "': " + shellresult.getCommandOutput());
@@ -681,7 +860,11 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
             throw new CommandWrapperFault("deleteUser()", "Username is restricted: " + username);
         }
 
-        final CommandResult result = runCommand(new String[] { USERDEL_COMMAND, "-r", username }, null, null);
+        // userdel drops the user from the member lists of its groups
+        final CommandResult result;
+        synchronized (smGroupLock) {
+            result = runAccountCommand(new String[] { USERDEL_COMMAND, "-r", username });
+        }
         if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
             throw new CommandWrapperFault(result.getCommand(), "Could not delete user " + username + " : "
                     + result.getCommandOutput());
@@ -692,7 +875,7 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
      * @see CommandExecutor#getUserHomeDirectoryFromOS
      */
     public String getUserHomeDirectoryFromOS(final String username) throws CommandWrapperFault {
-        final String[] elements = getMatchingLineFromFile(PASSWORD_FILE, ":", username);
+        final String[] elements = getUserEntry(username);
         if (elements.length > 5) {
             return elements[5];
         }
@@ -766,6 +949,33 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
         return line;
     }
 
+    /**
+     * @see CommandExecutor#hardLinkFiles(File, String[], File)
+     */
+    public boolean hardLinkFiles(final File sourceDirectory, final String[] fileNames, final File destinationDirectory)
+            throws CommandWrapperFault {
+        boolean linkedAll = true;
+        for (int start = 0; start < fileNames.length; start += MAX_LINKS_PER_COMMAND) {
+            final int count = Math.min(MAX_LINKS_PER_COMMAND, fileNames.length - start);
+            final String[] command = new String[count + 3];
+            command[0] = "ln";
+            command[1] = "--";
+            System.arraycopy(fileNames, start, command, 2, count);
+            command[count + 2] = destinationDirectory.getAbsolutePath();
+
+            // Run in the source directory so the file names can be passed as they are
+            final CommandResult result = runLoggedCommand(command, null, sourceDirectory, false);
+            if (result.getReturnValue() != CommandResult.RETURN_SUCCESS) {
+                if (smLogger.isDebugEnabled()) {
+                    smLogger.debug("Could not link files from " + sourceDirectory + ": " + result.getCommandOutput());
+                }
+                linkedAll = false;
+            }
+        }
+
+        return linkedAll;
+    }
+
     /**
      * Generates a user home directory from the username. Typically this string is going to be of the form
      * &lt;homebasedir&gt;/r/rl/rlee for the username rlee. if the username has less than 3 characters, it puts the
@@ -821,14 +1031,14 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
 
         if (passwordCrypted == null) {
             // Try to run the adduser command
-            addUserResult = runCommand(new String[] { USERADD_COMMAND, "-g", getUserGroup(), "-s",
-                                                     getUserActiveShell(), "-d", homeDirectory, "-m", username }, null,
-                                       null);
+            addUserResult = runAccountCommand(new String[] { USERADD_COMMAND, "-g", getUserGroup(), "-s",
+                                                            getUserActiveShell(), "-d", homeDirectory, "-m",
+                                                            username });
         } else {
             // Try to run the adduser command
-            addUserResult = runCommand(new String[] { USERADD_COMMAND, "-g", getUserGroup(), "-s",
-                                                     getUserActiveShell(), "-d", homeDirectory, "-m", "-p",
-                                                     passwordCrypted, username }, null, null);
+            addUserResult = runAccountCommand(new String[] { USERADD_COMMAND, "-g", getUserGroup(), "-s",
+                                                            getUserActiveShell(), "-d", homeDirectory, "-m", "-p",
+                                                            passwordCrypted, username });
         }
         final int exitvalue = addUserResult.getReturnValue();
 
@@ -930,7 +1140,7 @@ public class UnixCommandExecutor extends AbstractCommandExecutor implements Comm
                 suCmd = new String[]{SU_COMMAND, "-s", RUN_COMMAND_AS_SHELL, "-c", cmdString, username};
             }
 
-            return runCommand(suCmd, null, dir);
+            return runWrappedCommand(suCmd, cmd[0], dir);
         }
     }
 
@@ -139,6 +139,26 @@ public class WindowsCommandExecutor extends AbstractCommandExecutor implements C
         ; // Nothing to do
     }
 
+    /**
+     * @see com.vasoftware.sf.externalintegration.execution.CommandExecutor#setGroupMembers(java.lang.String,
+     *                                                                                      java.lang.String[])
+     */
+    @Override
+    public void setGroupMembers(String groupname, String[] usernames) throws CommandWrapperFault {
+        ; // Nothing to do
+    }
+
+    /**
+     * @see com.vasoftware.sf.externalintegration.execution.CommandExecutor#hardLinkFiles(java.io.File,
+     *                                                                                    java.lang.String[],
+     *                                                                                    java.io.File)
+     */
+    @Override
+    public boolean hardLinkFiles(File sourceDirectory, String[] fileNames, File destinationDirectory)
+            throws CommandWrapperFault {
+        return false; // Hard links are not supported, callers copy the files instead
+    }
+
     /**
      * @see com.vasoftware.sf.externalintegration.execution.CommandExecutor#setGroupOnPath(java.lang.String,
      *                                                                                     java.io.File)
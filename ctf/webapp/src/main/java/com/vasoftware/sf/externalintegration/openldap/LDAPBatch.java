@@ -0,0 +1,141 @@
+package com.vasoftware.sf.externalintegration.openldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.novell.ldap.LDAPModification;
+
+/**
+ * An ordered list of add, modify and delete operations to run through <code>LDAPUtil.performBulkOperation</code>.
+ * Attribute maps follow the same convention as the rest of LDAPUtil: a String[] value gives a multi-valued attribute
+ * and null values are skipped.
+ *
+ * Operations on different entries may be processed by the server in any order; operations on the same entry are
+ * applied in the order they were added to the batch.
+ */
+public class LDAPBatch {
+    /** Operation type adding an entry */
+    public static final int ADD = 0;
+    /** Operation type modifying the attributes of an entry */
+    public static final int MODIFY = 1;
+    /** Operation type deleting an entry */
+    public static final int DELETE = 2;
+
+    private final List<Operation> mOperations = new ArrayList<Operation>();
+
+    /**
+     * Add an entry.
+     *
+     * @param dn
+     *            the dn to create
+     * @param attributes
+     *            the attributes to put on the entry
+     * @return this batch
+     */
+    public LDAPBatch add(final String dn, final Map<String, ?> attributes) {
+        mOperations.add(new Operation(ADD, dn, 0, attributes));
+        return this;
+    }
+
+    /**
+     * Modify the attributes of an entry.
+     *
+     * @param dn
+     *            the dn to modify
+     * @param modificationOperation
+     *            operation to perform, see LDAPModification for constants
+     * @param attributes
+     *            the attributes to operate on
+     * @return this batch
+     */
+    public LDAPBatch modify(final String dn, final int modificationOperation, final Map<String, ?> attributes) {
+        mOperations.add(new Operation(MODIFY, dn, modificationOperation, attributes));
+        return this;
+    }
+
+    /**
+     * Replace attributes of an entry.
+     *
+     * @param dn
+     *            the dn to modify
+     * @param attributes
+     *            the attributes to replace
+     * @return this batch
+     */
+    public LDAPBatch replace(final String dn, final Map<String, ?> attributes) {
+        return modify(dn, LDAPModification.REPLACE, attributes);
+    }
+
+    /**
+     * Delete an entry.
+     *
+     * @param dn
+     *            the dn to remove
+     * @return this batch
+     */
+    public LDAPBatch delete(final String dn) {
+        mOperations.add(new Operation(DELETE, dn, 0, null));
+        return this;
+    }
+
+    /**
+     * @return the number of operations in the batch
+     */
+    public int size() {
+        return mOperations.size();
+    }
+
+    /**
+     * @return the operations, in order
+     */
+    List<Operation> getOperations() {
+        return Collections.unmodifiableList(mOperations);
+    }
+
+    /**
+     * One operation of a batch.
+     */
+    static class Operation {
+        private final int mType;
+        private final String mDN;
+        private final int mModificationOperation;
+        private final Map<String, ?> mAttributes;
+
+        /**
+         * Constructor.
+         *
+         * @param type
+         *            ADD, MODIFY or DELETE
+         * @param dn
+         *            the target dn
+         * @param modificationOperation
+         *            the LDAPModification operation for MODIFY
+         * @param attributes
+         *            the attributes, null for DELETE
+         */
+        Operation(final int type, final String dn, final int modificationOperation, final Map<String, ?> attributes) {
+            mType = type;
+            mDN = dn;
+            mModificationOperation = modificationOperation;
+            mAttributes = attributes;
+        }
+
+        int getType() {
+            return mType;
+        }
+
+        String getDN() {
+            return mDN;
+        }
+
+        int getModificationOperation() {
+            return mModificationOperation;
+        }
+
+        Map<String, ?> getAttributes() {
+            return mAttributes;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.vasoftware.sf.externalintegration.openldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.novell.ldap.LDAPException;
+
+/**
+ * The per-entry outcome of an LDAPBatch. Results are reported in the order of the batch's operations.
+ */
+public class LDAPBatchResult {
+    private final EntryResult[] mResults;
+
+    /**
+     * Constructor.
+     *
+     * @param results
+     *            the result of each operation, in batch order
+     */
+    LDAPBatchResult(final EntryResult[] results) {
+        mResults = results;
+    }
+
+    /**
+     * @return the results of all operations, in batch order
+     */
+    public List<EntryResult> getResults() {
+        return Collections.unmodifiableList(Arrays.asList(mResults));
+    }
+
+    /**
+     * @return the results of the operations which failed, in batch order
+     */
+    public List<EntryResult> getFailures() {
+        final List<EntryResult> failures = new ArrayList<EntryResult>();
+        for (final EntryResult result : mResults) {
+            if (!result.isSuccessful()) {
+                failures.add(result);
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * @return the number of operations which succeeded
+     */
+    public int getSuccessCount() {
+        return mResults.length - getFailures().size();
+    }
+
+    /**
+     * @return true if every operation succeeded
+     */
+    public boolean isSuccessful() {
+        return getFailures().isEmpty();
+    }
+
+    /**
+     * The outcome of one operation.
+     */
+    public static class EntryResult {
+        private final int mType;
+        private final String mDN;
+        private final int mResultCode;
+        private final String mErrorMessage;
+
+        /**
+         * Constructor.
+         *
+         * @param type
+         *            the LDAPBatch operation type
+         * @param dn
+         *            the dn of the entry
+         * @param resultCode
+         *            the ldap result code, LDAPException.SUCCESS on success
+         * @param errorMessage
+         *            the error message, or null
+         */
+        EntryResult(final int type, final String dn, final int resultCode, final String errorMessage) {
+            mType = type;
+            mDN = dn;
+            mResultCode = resultCode;
+            mErrorMessage = errorMessage;
+        }
+
+        /**
+         * @return the LDAPBatch operation type
+         */
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return the dn of the entry
+         */
+        public String getDN() {
+            return mDN;
+        }
+
+        /**
+         * @return true if the operation succeeded
+         */
+        public boolean isSuccessful() {
+            return mResultCode == LDAPException.SUCCESS;
+        }
+
+        /**
+         * @return the ldap result code, see LDAPException for constants
+         */
+        public int getResultCode() {
+            return mResultCode;
+        }
+
+        /**
+         * @return the error message reported for a failed operation, or null
+         */
+        public String getErrorMessage() {
+            return mErrorMessage;
+        }
+
+        @Override
+        public String toString() {
+            if (isSuccessful()) {
+                return mDN + ": success";
+            }
+
+            return mDN + ": " + LDAPException.resultCodeToString(mResultCode)
+                   + (mErrorMessage == null ? "" : " (" + mErrorMessage + ")");
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.vasoftware.sf.externalintegration.openldap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.vasoftware.sf.common.logger.Logger;
+
+/**
+ * Bounded pool of connected and bound LDAP connections, kept per LDAPContext. Contexts that point at the same host and
+ * port with the same credentials share a pool.
+ *
+ * Idle connections are validated when they are borrowed and closed once they have been idle longer than the
+ * context's idle timeout; there is no background reaper, stale connections are evicted whenever the pool is used.
+ */
+public class LDAPConnectionPool {
+    private static final Logger smLogger = Logger.getLogger(LDAPConnectionPool.class);
+
+    /** The default maximum number of connections per context */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    /** The default time a connection may stay idle in the pool, in milliseconds */
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000L;
+    /** How long to wait for a connection when the pool is exhausted, in milliseconds */
+    private static final long BORROW_TIMEOUT = 60 * 1000L;
+
+    /** The pools, by connection key */
+    private static final ConcurrentMap<Key, Pool> smPools = new ConcurrentHashMap<Key, Pool>();
+
+    /**
+     * Private constructor; this class only has static methods.
+     */
+    private LDAPConnectionPool() {
+    }
+
+    /**
+     * Borrow a bound connection for a context, waiting if the context already has its maximum number of connections
+     * in use. The connection must be handed back through <code>giveBack</code>.
+     *
+     * @param context
+     *            the ldap context containing the host/bind information
+     * @return a bound and connected ldap connection
+     * @throws LDAPException
+     *             thrown if the connection or the binding fail, or no connection became available in time
+     */
+    public static LDAPConnection borrow(final LDAPContext context) throws LDAPException {
+        return getPool(context).borrow(context);
+    }
+
+    /**
+     * Hand a connection back to the pool of a context. Connections which failed with a connection level error are
+     * closed instead of being kept.
+     *
+     * @param context
+     *            the ldap context the connection was borrowed for
+     * @param connection
+     *            the connection to hand back
+     * @param failure
+     *            the exception the last operation on the connection failed with, or null
+     */
+    public static void giveBack(final LDAPContext context, final LDAPConnection connection,
+                                final LDAPException failure) {
+        getPool(context).giveBack(context, connection, isReusable(connection, failure));
+    }
+
+    /**
+     * Close all idle connections of all pools. Connections in use are closed when they are handed back.
+     */
+    public static void closeIdleConnections() {
+        for (final Pool pool : smPools.values()) {
+            pool.evict(0);
+        }
+    }
+
+    /**
+     * Whether a connection may go back into the pool after an operation.
+     *
+     * @param connection
+     *            the connection
+     * @param failure
+     *            the exception the operation failed with, or null
+     * @return true if the connection can be reused
+     */
+    private static boolean isReusable(final LDAPConnection connection, final LDAPException failure) {
+        if (!connection.isConnected()) {
+            return false;
+        }
+
+        if (failure == null) {
+            return true;
+        }
+
+        switch (failure.getResultCode()) {
+            case LDAPException.CONNECT_ERROR:
+            case LDAPException.SERVER_DOWN:
+            case LDAPException.LDAP_TIMEOUT:
+            case LDAPException.INVALID_CREDENTIALS:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Get or create the pool for a context.
+     *
+     * @param context
+     *            the ldap context
+     * @return the pool
+     */
+    private static Pool getPool(final LDAPContext context) {
+        final Key key = new Key(context);
+        Pool pool = smPools.get(key);
+
+        if (pool == null) {
+            final Pool newPool = new Pool(context.getMaxConnections());
+            pool = smPools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * Disconnect a connection, ignoring errors.
+     *
+     * @param connection
+     *            the connection to close
+     */
+    private static void close(final LDAPConnection connection) {
+        try {
+            connection.disconnect();
+        } catch (final LDAPException e) {
+            smLogger.debug("Error disconnecting from ldap: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The connections of one context.
+     */
+    private static class Pool {
+        private final Semaphore mPermits;
+        private final LinkedList<IdleConnection> mIdle = new LinkedList<IdleConnection>();
+
+        /**
+         * Constructor.
+         *
+         * @param maxConnections
+         *            the maximum number of connections open at a time
+         */
+        Pool(final int maxConnections) {
+            mPermits = new Semaphore(Math.max(1, maxConnections), true);
+        }
+
+        /**
+         * Borrow a connection, reusing the most recently used idle one if it is still alive.
+         *
+         * @param context
+         *            the ldap context
+         * @return a bound connection
+         * @throws LDAPException
+         *             thrown on connection failure or timeout
+         */
+        LDAPConnection borrow(final LDAPContext context) throws LDAPException {
+            try {
+                if (!mPermits.tryAcquire(BORROW_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    throw new LDAPException("Timed out waiting for an ldap connection to " + context.getBindHost(),
+                                            LDAPException.CONNECT_ERROR, null);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LDAPException("Interrupted waiting for an ldap connection", LDAPException.CONNECT_ERROR,
+                                        null);
+            }
+
+            boolean borrowed = false;
+            try {
+                evict(context.getConnectionIdleTimeout());
+
+                IdleConnection idle;
+                while ((idle = pollIdle()) != null) {
+                    if (idle.mConnection.isConnectionAlive()) {
+                        borrowed = true;
+                        return idle.mConnection;
+                    }
+                    close(idle.mConnection);
+                }
+
+                final LDAPConnection connection = new LDAPConnection();
+                connection.connect(context.getBindHost(), context.getBindPort());
+                try {
+                    connection.bind(LDAPUtil.LDAP_VERSION, context.getBindDN(), context.getBindPassword().getBytes());
+                } catch (final LDAPException e) {
+                    close(connection);
+                    throw e;
+                }
+
+                borrowed = true;
+                return connection;
+            } finally {
+                if (!borrowed) {
+                    mPermits.release();
+                }
+            }
+        }
+
+        /**
+         * Hand back a connection.
+         *
+         * @param context
+         *            the ldap context
+         * @param connection
+         *            the connection
+         * @param reusable
+         *            whether the connection may be kept
+         */
+        void giveBack(final LDAPContext context, final LDAPConnection connection, final boolean reusable) {
+            try {
+                if (reusable) {
+                    synchronized (mIdle) {
+                        mIdle.addFirst(new IdleConnection(connection));
+                    }
+                } else {
+                    close(connection);
+                }
+                evict(context.getConnectionIdleTimeout());
+            } finally {
+                mPermits.release();
+            }
+        }
+
+        /**
+         * Close connections which have been idle longer than a timeout.
+         *
+         * @param idleTimeout
+         *            the idle timeout in milliseconds
+         */
+        void evict(final long idleTimeout) {
+            final long threshold = System.currentTimeMillis() - idleTimeout;
+            final LinkedList<LDAPConnection> expired = new LinkedList<LDAPConnection>();
+
+            synchronized (mIdle) {
+                for (final Iterator<IdleConnection> iterator = mIdle.iterator(); iterator.hasNext();) {
+                    final IdleConnection idle = iterator.next();
+                    if (idle.mLastUsed <= threshold) {
+                        iterator.remove();
+                        expired.add(idle.mConnection);
+                    }
+                }
+            }
+
+            for (final LDAPConnection connection : expired) {
+                close(connection);
+            }
+        }
+
+        /**
+         * @return the most recently used idle connection, or null
+         */
+        private IdleConnection pollIdle() {
+            synchronized (mIdle) {
+                return mIdle.isEmpty() ? null : mIdle.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * An idle connection and the time it was handed back.
+     */
+    private static class IdleConnection {
+        private final LDAPConnection mConnection;
+        private final long mLastUsed = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         *
+         * @param connection
+         *            the idle connection
+         */
+        IdleConnection(final LDAPConnection connection) {
+            mConnection = connection;
+        }
+    }
+
+    /**
+     * Identifies the server and credentials of a context.
+     */
+    private static class Key {
+        private final String mHost;
+        private final int mPort;
+        private final String mBindDN;
+        private final String mBindPassword;
+
+        /**
+         * Constructor.
+         *
+         * @param context
+         *            the ldap context
+         */
+        Key(final LDAPContext context) {
+            mHost = context.getBindHost();
+            mPort = context.getBindPort();
+            mBindDN = context.getBindDN();
+            mBindPassword = context.getBindPassword();
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) other;
+            return mPort == key.mPort && equal(mHost, key.mHost) && equal(mBindDN, key.mBindDN)
+                    && equal(mBindPassword, key.mBindPassword);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mPort;
+            hash = 31 * hash + (mHost == null ? 0 : mHost.hashCode());
+            hash = 31 * hash + (mBindDN == null ? 0 : mBindDN.hashCode());
+            return hash;
+        }
+
+        /**
+         * Null safe equality.
+         */
+        private static boolean equal(final String first, final String second) {
+            return first == null ? second == null : first.equals(second);
+        }
+    }
+}
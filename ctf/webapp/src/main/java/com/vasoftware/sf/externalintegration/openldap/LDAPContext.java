@@ -5,6 +5,9 @@ package com.vasoftware.sf.externalintegration.openldap;
  * @author Richard Lee <rlee@vasoftware.com>
  */
 public class LDAPContext {
+    /** The default number of entries requested per page when searching */
+    public static final int DEFAULT_SEARCH_PAGE_SIZE = 500;
+
     /** The DN of the container for users in ldap */
     private String mUserContainerDN;
     
@@ -23,6 +26,15 @@ public class LDAPContext {
     /** the login DN's password */
     private String mBindPassword;
 
+    /** the maximum number of pooled connections for this context */
+    private int mMaxConnections = LDAPConnectionPool.DEFAULT_MAX_CONNECTIONS;
+
+    /** how long a pooled connection may stay idle before it is closed, in milliseconds */
+    private long mConnectionIdleTimeout = LDAPConnectionPool.DEFAULT_IDLE_TIMEOUT;
+
+    /** the number of entries requested per page when searching, 0 to not page */
+    private int mSearchPageSize = DEFAULT_SEARCH_PAGE_SIZE;
+
     /**
      * Get the DN to login and bind as
      * @return the bind dn as a string
@@ -119,4 +131,52 @@ public class LDAPContext {
 	mUserContainerDN = userContainerDN;
     }
 
+    /**
+     * Get the maximum number of connections pooled for this context
+     * @return the maximum number of connections
+     */
+    public int getMaxConnections() {
+	return mMaxConnections;
+    }
+
+    /**
+     * Set the maximum number of connections pooled for this context
+     * @param maxConnections the maximum number of connections
+     */
+    public void setMaxConnections(int maxConnections) {
+	mMaxConnections = maxConnections;
+    }
+
+    /**
+     * Get how long a pooled connection may stay idle before it is closed
+     * @return the idle timeout in milliseconds
+     */
+    public long getConnectionIdleTimeout() {
+	return mConnectionIdleTimeout;
+    }
+
+    /**
+     * Set how long a pooled connection may stay idle before it is closed
+     * @param connectionIdleTimeout the idle timeout in milliseconds
+     */
+    public void setConnectionIdleTimeout(long connectionIdleTimeout) {
+	mConnectionIdleTimeout = connectionIdleTimeout;
+    }
+
+    /**
+     * Get the number of entries requested per page when searching
+     * @return the page size, 0 if searches are not paged
+     */
+    public int getSearchPageSize() {
+	return mSearchPageSize;
+    }
+
+    /**
+     * Set the number of entries requested per page when searching
+     * @param searchPageSize the page size, 0 to not page searches
+     */
+    public void setSearchPageSize(int searchPageSize) {
+	mSearchPageSize = searchPageSize;
+    }
+
 }
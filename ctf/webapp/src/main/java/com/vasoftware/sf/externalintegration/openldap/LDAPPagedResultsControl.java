@@ -0,0 +1,83 @@
+package com.vasoftware.sf.externalintegration.openldap;
+
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1Object;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+
+/**
+ * The simple paged results control of RFC 2696, which JLDAP does not provide. The control is sent non-critical, so a
+ * server without paging support simply returns all entries in one go.
+ */
+public class LDAPPagedResultsControl extends LDAPControl {
+    private static final long serialVersionUID = 1L;
+
+    /** The OID of the paged results control */
+    public static final String OID = "1.2.840.113556.1.4.319";
+
+    /**
+     * Constructor.
+     *
+     * @param pageSize
+     *            the number of entries the server should return per page
+     * @param cookie
+     *            the cookie of the previous page, or null for the first page
+     */
+    public LDAPPagedResultsControl(final int pageSize, final byte[] cookie) {
+        super(OID, false, encode(pageSize, cookie));
+    }
+
+    /**
+     * Get the cookie for the next page from the controls of a search result.
+     *
+     * @param responseControls
+     *            the response controls of a completed search, may be null
+     * @return the cookie to request the next page with, or null if there are no more pages
+     */
+    public static byte[] getCookie(final LDAPControl[] responseControls) {
+        if (responseControls == null) {
+            return null;
+        }
+
+        for (final LDAPControl control : responseControls) {
+            if (!OID.equals(control.getID()) || control.getValue() == null) {
+                continue;
+            }
+
+            final ASN1Object decoded = new LBERDecoder().decode(control.getValue());
+            if (!(decoded instanceof ASN1Sequence) || ((ASN1Sequence) decoded).size() < 2) {
+                return null;
+            }
+
+            final ASN1Object cookie = ((ASN1Sequence) decoded).get(1);
+            if (!(cookie instanceof ASN1OctetString)) {
+                return null;
+            }
+
+            final byte[] value = ((ASN1OctetString) cookie).byteValue();
+            return value == null || value.length == 0 ? null : value;
+        }
+
+        return null;
+    }
+
+    /**
+     * Encode the control value: SEQUENCE { size INTEGER, cookie OCTET STRING }.
+     *
+     * @param pageSize
+     *            the page size
+     * @param cookie
+     *            the cookie, or null
+     * @return the BER encoded value
+     */
+    private static byte[] encode(final int pageSize, final byte[] cookie) {
+        final ASN1Sequence sequence = new ASN1Sequence(2);
+        sequence.add(new ASN1Integer(pageSize));
+        sequence.add(new ASN1OctetString(cookie == null ? new byte[0] : cookie));
+
+        return sequence.getEncoding(new LBEREncoder());
+    }
+}
@@ -0,0 +1,21 @@
+package com.vasoftware.sf.externalintegration.openldap;
+
+import com.novell.ldap.LDAPException;
+
+/**
+ * Callback receiving the entries of a streaming search from <code>LDAPUtil.search</code> as they arrive.
+ */
+public interface LDAPSearchHandler {
+    /**
+     * Handle one matching entry.
+     *
+     * @param dn
+     *            the dn of the entry
+     * @param attributeValues
+     *            the values of each requested attribute, in the order they were requested; null for an attribute the
+     *            entry does not have
+     * @throws LDAPException
+     *             to abort the search
+     */
+    void handleEntry(String dn, String[][] attributeValues) throws LDAPException;
+}
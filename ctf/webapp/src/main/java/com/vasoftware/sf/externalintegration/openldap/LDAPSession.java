@@ -0,0 +1,115 @@
+package com.vasoftware.sf.externalintegration.openldap;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * A scoped hold on one pooled LDAP connection. While a session is open, every LDAPUtil call made by the same thread
+ * for the same LDAPContext runs over the session's connection instead of borrowing one per call. Sessions are opened
+ * through <code>LDAPUtil.openSession</code> and must be closed in a finally block:
+ *
+ * <pre>
+ * final LDAPSession session = LDAPUtil.openSession(context);
+ * try {
+ *     LDAPUtil.addUser(context, ...);
+ *     LDAPUtil.addUsersToGroup(context, ...);
+ * } finally {
+ *     session.close();
+ * }
+ * </pre>
+ */
+public class LDAPSession {
+    /** The innermost open session of the current thread */
+    private static final ThreadLocal<LDAPSession> smCurrent = new ThreadLocal<LDAPSession>();
+
+    private final LDAPContext mContext;
+    private final LDAPSession mOuter;
+    private LDAPConnection mConnection;
+    private LDAPException mFailure = null;
+
+    /**
+     * Constructor.
+     *
+     * @param context
+     *            the ldap context
+     * @param connection
+     *            the borrowed connection
+     * @param outer
+     *            the session which was current when this one was opened
+     */
+    private LDAPSession(final LDAPContext context, final LDAPConnection connection, final LDAPSession outer) {
+        mContext = context;
+        mConnection = connection;
+        mOuter = outer;
+    }
+
+    /**
+     * Open a session on the current thread.
+     *
+     * @param context
+     *            the ldap context
+     * @return the open session
+     * @throws LDAPException
+     *             thrown if no connection could be obtained
+     */
+    static LDAPSession open(final LDAPContext context) throws LDAPException {
+        final LDAPSession session = new LDAPSession(context, LDAPConnectionPool.borrow(context), smCurrent.get());
+        smCurrent.set(session);
+        return session;
+    }
+
+    /**
+     * Find the open session of the current thread for a context.
+     *
+     * @param context
+     *            the ldap context
+     * @return the innermost open session for the context, or null
+     */
+    static LDAPSession find(final LDAPContext context) {
+        for (LDAPSession session = smCurrent.get(); session != null; session = session.mOuter) {
+            if (session.mContext == context && session.mConnection != null) {
+                return session;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the connection of this session
+     */
+    LDAPConnection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Record a failure of an operation run in this session, so the connection is not pooled again if it is broken.
+     *
+     * @param failure
+     *            the exception the operation failed with
+     */
+    void recordFailure(final LDAPException failure) {
+        mFailure = failure;
+    }
+
+    /**
+     * Close the session and return its connection to the pool. Closing a session more than once has no effect.
+     */
+    public void close() {
+        if (mConnection == null) {
+            return;
+        }
+
+        if (smCurrent.get() == this) {
+            if (mOuter == null) {
+                smCurrent.remove();
+            } else {
+                smCurrent.set(mOuter);
+            }
+        }
+
+        final LDAPConnection connection = mConnection;
+        mConnection = null;
+        LDAPConnectionPool.giveBack(mContext, connection, mFailure);
+    }
+}
@@ -3,7 +3,9 @@ package com.vasoftware.sf.externalintegration.openldap;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -12,7 +14,11 @@ import com.novell.ldap.LDAPAttributeSet;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPIntermediateResponse;
+import com.novell.ldap.LDAPMessage;
 import com.novell.ldap.LDAPModification;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPResponseQueue;
 import com.novell.ldap.LDAPSearchConstraints;
 import com.novell.ldap.LDAPSearchResults;
 
@@ -29,6 +35,8 @@ public class LDAPUtil {
                                                                "homeDirectory", "loginShell" };
     /** The attributes to get when looking up a group */
     private static final String[] GROUP_ATTRIBS = new String[] { "gid", "gidNumber" };
+    /** The maximum number of outstanding requests of a batch */
+    private static final int BATCH_WINDOW = 64;
 
     /**
      * Characters used for base64 encoding
@@ -84,7 +92,23 @@ public class LDAPUtil {
     }
 
     /**
-     * Get a connection to the LDAP server given an LDAPContext object
+     * Open a session which makes all calls of the current thread for the given context share one pooled connection,
+     * until the session is closed.
+     * 
+     * @param context
+     *            the ldap context containing the host/bind information
+     * @return the open session, to be closed in a finally block
+     * @throws LDAPException
+     *             thrown if either the connection or the binding fail
+     */
+    public static LDAPSession openSession(final LDAPContext context) throws LDAPException {
+        return LDAPSession.open(context);
+    }
+
+    /**
+     * Get a connection to the LDAP server given an LDAPContext object. The connection of the thread's open session is
+     * used if there is one, otherwise one is borrowed from the pool. Either way it must be released through
+     * <code>releaseConnection</code>.
      * 
      * @param context
      *            the ldap context containing the host/bind information
@@ -92,12 +116,36 @@ public class LDAPUtil {
      * @throws LDAPException
      *             thrown if either the connection or the binding fail
      */
-    private static LDAPConnection getConnection(final LDAPContext context) throws LDAPException {
-        final LDAPConnection result = new LDAPConnection();
-        result.connect(context.getBindHost(), context.getBindPort());
-        result.bind(LDAP_VERSION, context.getBindDN(), context.getBindPassword().getBytes());
+    private static LDAPConnection acquireConnection(final LDAPContext context) throws LDAPException {
+        final LDAPSession session = LDAPSession.find(context);
+        if (session != null) {
+            return session.getConnection();
+        }
 
-        return result;
+        return LDAPConnectionPool.borrow(context);
+    }
+
+    /**
+     * Release a connection obtained through <code>acquireConnection</code>.
+     * 
+     * @param context
+     *            the ldap context the connection was acquired for
+     * @param connection
+     *            the connection
+     * @param failure
+     *            the exception the operation failed with, or null on success
+     */
+    private static void releaseConnection(final LDAPContext context, final LDAPConnection connection,
+                                          final LDAPException failure) {
+        final LDAPSession session = LDAPSession.find(context);
+        if (session != null && session.getConnection() == connection) {
+            if (failure != null) {
+                session.recordFailure(failure);
+            }
+            return;
+        }
+
+        LDAPConnectionPool.giveBack(context, connection, failure);
     }
 
     /**
@@ -116,49 +164,232 @@ public class LDAPUtil {
      */
     @SuppressWarnings("unchecked")
     private static void addEntry(final LDAPContext context, final String dn, final Map attributes) throws LDAPException {
-        final LDAPAttributeSet attributeSet = new LDAPAttributeSet();
+        final LDAPEntry entry = new LDAPEntry(dn, toAttributeSet(attributes));
+        final LDAPConnection connection = acquireConnection(context);
+        LDAPException failure = null;
 
-        for (final Iterator iterator = attributes.keySet().iterator(); iterator.hasNext();) {
-            final Object key = iterator.next();
-            final Object value = attributes.get(key);
+        try {
+            connection.add(entry);
+        } catch (final LDAPException e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseConnection(context, connection, failure);
+        }
+    }
 
-            if (value == null) {
-                continue; // don't add null attributes
+    /**
+     * Run a batch of add, modify and delete operations over one connection. Requests are pipelined: up to
+     * BATCH_WINDOW of them are outstanding at a time and their responses are matched back by message id. An
+     * operation on an entry which still has an outstanding request waits for that response first, so operations on
+     * the same entry keep their order. A failing operation does not stop the batch; every operation gets its own entry
+     * in the result.
+     * 
+     * @param context
+     *            the context with connect information
+     * @param batch
+     *            the operations to perform
+     * @return the outcome of each operation
+     * @throws LDAPException
+     *             thrown if no connection could be obtained
+     */
+    public static LDAPBatchResult performBulkOperation(final LDAPContext context, final LDAPBatch batch)
+                                                                                                       throws LDAPException {
+        final List<LDAPBatch.Operation> operations = batch.getOperations();
+        final LDAPBatchResult.EntryResult[] results = new LDAPBatchResult.EntryResult[operations.size()];
+        final Map<Integer, Integer> pendingByMessageId = new HashMap<Integer, Integer>();
+        final Map<String, Integer> pendingByDN = new HashMap<String, Integer>();
+
+        final LDAPConnection connection = acquireConnection(context);
+        LDAPException failure = null;
+
+        try {
+            LDAPResponseQueue queue = null;
+
+            for (int i = 0; i < operations.size() && failure == null; i++) {
+                final LDAPBatch.Operation operation = operations.get(i);
+                final String dnKey = operation.getDN().toLowerCase();
+
+                try {
+                    while (pendingByMessageId.size() >= BATCH_WINDOW || pendingByDN.containsKey(dnKey)) {
+                        receiveBatchResponse(queue, operations, results, pendingByMessageId, pendingByDN);
+                    }
+
+                    queue = sendBatchOperation(connection, operation, queue);
+                } catch (final LDAPException e) {
+                    // The connection is unusable; whatever was not answered fails with it
+                    failure = e;
+                    break;
+                }
+
+                final int[] messageIds = queue.getMessageIDs();
+                pendingByMessageId.put(messageIds[messageIds.length - 1], i);
+                pendingByDN.put(dnKey, i);
             }
 
-            LDAPAttribute attribute;
+            while (failure == null && !pendingByMessageId.isEmpty()) {
+                try {
+                    receiveBatchResponse(queue, operations, results, pendingByMessageId, pendingByDN);
+                } catch (final LDAPException e) {
+                    failure = e;
+                }
+            }
+        } finally {
+            releaseConnection(context, connection, failure);
+        }
 
-            if (value instanceof String[]) {
-                attribute = new LDAPAttribute(key.toString(), (String[]) value);
-            } else {
-                attribute = new LDAPAttribute(key.toString(), value.toString());
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                final LDAPBatch.Operation operation = operations.get(i);
+                results[i] = new LDAPBatchResult.EntryResult(operation.getType(), operation.getDN(),
+                                                             failure.getResultCode(), failure.getMessage());
             }
+        }
+
+        return new LDAPBatchResult(results);
+    }
 
-            attributeSet.add(attribute);
+    /**
+     * Send one batch operation asynchronously.
+     * 
+     * @param connection
+     *            the connection to send on
+     * @param operation
+     *            the operation
+     * @param queue
+     *            the queue collecting the batch's responses, or null for the first operation
+     * @return the queue collecting the batch's responses
+     * @throws LDAPException
+     *             thrown if the request could not be sent
+     */
+    private static LDAPResponseQueue sendBatchOperation(final LDAPConnection connection,
+                                                        final LDAPBatch.Operation operation,
+                                                        final LDAPResponseQueue queue) throws LDAPException {
+        switch (operation.getType()) {
+            case LDAPBatch.ADD:
+                return connection.add(new LDAPEntry(operation.getDN(), toAttributeSet(operation.getAttributes())),
+                                      queue);
+            case LDAPBatch.MODIFY:
+                return connection.modify(operation.getDN(), toModifications(operation.getModificationOperation(),
+                                                                            operation.getAttributes()), queue);
+            default:
+                return connection.delete(operation.getDN(), queue);
         }
+    }
 
-        final LDAPEntry entry = new LDAPEntry(dn, attributeSet);
-        final LDAPConnection connection = getConnection(context);
+    /**
+     * Wait for the next response of a batch and record it.
+     * 
+     * @param queue
+     *            the queue collecting the batch's responses
+     * @param operations
+     *            the operations of the batch
+     * @param results
+     *            the results recorded so far
+     * @param pendingByMessageId
+     *            the index of each outstanding operation by message id
+     * @param pendingByDN
+     *            the index of the outstanding operation of each entry
+     * @throws LDAPException
+     *             thrown if the connection failed while waiting, or ended without answering all operations
+     */
+    private static void receiveBatchResponse(final LDAPResponseQueue queue, final List<LDAPBatch.Operation> operations,
+                                             final LDAPBatchResult.EntryResult[] results,
+                                             final Map<Integer, Integer> pendingByMessageId,
+                                             final Map<String, Integer> pendingByDN) throws LDAPException {
+        final LDAPMessage message = queue.getResponse();
+        if (message == null) {
+            // The queue has nothing outstanding anymore, yet some operations were never answered
+            throw new LDAPException("Connection closed with " + pendingByMessageId.size()
+                                    + " batch operations unanswered", LDAPException.SERVER_DOWN, null);
+        }
+        if (!(message instanceof LDAPResponse) || message instanceof LDAPIntermediateResponse) {
+            return; // the final response of the operation is still to come
+        }
 
-        connection.add(entry);
-        connection.disconnect();
+        final Integer index = pendingByMessageId.remove(message.getMessageID());
+        if (index == null) {
+            return; // not one of ours, e.g. an unsolicited notification
+        }
+
+        final LDAPBatch.Operation operation = operations.get(index);
+        final LDAPResponse response = (LDAPResponse) message;
+        final String errorMessage = response.getErrorMessage();
+
+        results[index] = new LDAPBatchResult.EntryResult(operation.getType(), operation.getDN(),
+                                                         response.getResultCode(),
+                                                         errorMessage == null || errorMessage.length() == 0 ? null
+                                                                 : errorMessage);
+
+        final String dnKey = operation.getDN().toLowerCase();
+        if (index.equals(pendingByDN.get(dnKey))) {
+            pendingByDN.remove(dnKey);
+        }
     }
 
-    // private static void performBulkOperation(LDAPContext context, LDAPMessage[] requests)
-    // throws LDAPException {
-    // ArrayList operationList = new ArrayList();
-    // for (int i = 0; i < requests.length; i++) {
-    // LDAPLburpRequest request = new LDAPLburpRequest(requests[i]);
-    // operationList.add(request);
-    // }
-    //	
-    // LDAPLburpRequest[] operationArray = (LDAPLburpRequest[]) operationList.toArray(new LDAPLburpRequest[]{});
-    // LburpOperationRequest bulkRequest = new LburpOperationRequest(operationArray, 0);
-    //	
-    // LDAPConnection connection = getConnection(context);
-    // connection.extendedOperation(bulkRequest);
-    // connection.disconnect();
-    // }
+    /**
+     * Convert an attribute map into an attribute set. String[] values become multi-valued attributes and null values
+     * are skipped.
+     * 
+     * @param attributes
+     *            the attributes
+     * @return the attribute set
+     */
+    private static LDAPAttributeSet toAttributeSet(final Map<?, ?> attributes) {
+        final LDAPAttributeSet attributeSet = new LDAPAttributeSet();
+
+        for (final Map.Entry<?, ?> attribute : attributes.entrySet()) {
+            if (attribute.getValue() == null) {
+                continue; // don't add null attributes
+            }
+
+            attributeSet.add(toAttribute(attribute.getKey(), attribute.getValue()));
+        }
+
+        return attributeSet;
+    }
+
+    /**
+     * Convert an attribute map into modifications performing the same operation on each attribute. String[] values
+     * become multi-valued attributes and null values are skipped.
+     * 
+     * @param operation
+     *            operation to perform, see LDAPModification for constants
+     * @param attributes
+     *            the attributes
+     * @return the modifications
+     */
+    private static LDAPModification[] toModifications(final int operation, final Map<?, ?> attributes) {
+        final ArrayList<LDAPModification> modificationList = new ArrayList<LDAPModification>();
+
+        for (final Map.Entry<?, ?> attribute : attributes.entrySet()) {
+            if (attribute.getValue() == null) {
+                continue; // don't add null attributes
+            }
+
+            modificationList.add(new LDAPModification(operation, toAttribute(attribute.getKey(),
+                                                                             attribute.getValue())));
+        }
+
+        return modificationList.toArray(new LDAPModification[] {});
+    }
+
+    /**
+     * Build an attribute from a map entry.
+     * 
+     * @param key
+     *            the attribute name
+     * @param value
+     *            a String[] for a multi-valued attribute, otherwise the single value
+     * @return the attribute
+     */
+    private static LDAPAttribute toAttribute(final Object key, final Object value) {
+        if (value instanceof String[]) {
+            return new LDAPAttribute(key.toString(), (String[]) value);
+        }
+
+        return new LDAPAttribute(key.toString(), value.toString());
+    }
 
     /**
      * Modify an entry by performing a specified operation on the entry's attributes.
@@ -177,32 +408,19 @@ public class LDAPUtil {
     @SuppressWarnings("unchecked")
     private static void modifyAttributes(final LDAPContext context, final int operation, final String dn,
                                          final Map attributes) throws LDAPException {
-        final ArrayList<LDAPModification> modificationList = new ArrayList<LDAPModification>();
-
-        for (final Iterator iterator = attributes.keySet().iterator(); iterator.hasNext();) {
-            final Object key = iterator.next();
-            final Object value = attributes.get(key);
+        final LDAPModification[] modificationArray = toModifications(operation, attributes);
 
-            if (value == null) {
-                continue; // don't add null attributes
-            }
+        final LDAPConnection connection = acquireConnection(context);
+        LDAPException failure = null;
 
-            LDAPAttribute attribute;
-
-            if (value instanceof String[]) {
-                attribute = new LDAPAttribute(key.toString(), (String[]) value);
-            } else {
-                attribute = new LDAPAttribute(key.toString(), value.toString());
-            }
-
-            modificationList.add(new LDAPModification(operation, attribute));
+        try {
+            connection.modify(dn, modificationArray);
+        } catch (final LDAPException e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseConnection(context, connection, failure);
         }
-
-        final LDAPModification[] modificationArray = modificationList.toArray(new LDAPModification[] {});
-
-        final LDAPConnection connection = getConnection(context);
-        connection.modify(dn, modificationArray);
-        connection.disconnect();
     }
 
     // private static void addAttributes(LDAPContext context, String dn, Map attributes) throws LDAPException {
@@ -273,10 +491,18 @@ public class LDAPUtil {
     @SuppressWarnings("unchecked")
     private static Map<String, String[]> getEntry(final LDAPContext context, final String dn, final String[] attribs)
                                                                                                                      throws LDAPException {
-        final LDAPConnection connection = getConnection(context);
-        final LDAPEntry entry = connection.read(dn, attribs);
+        final LDAPConnection connection = acquireConnection(context);
+        LDAPException failure = null;
+        LDAPEntry entry;
 
-        connection.disconnect();
+        try {
+            entry = connection.read(dn, attribs);
+        } catch (final LDAPException e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseConnection(context, connection, failure);
+        }
 
         final Map<String, String[]> result = new TreeMap<String, String[]>();
 
@@ -290,9 +516,10 @@ public class LDAPUtil {
     }
 
     /**
-     * Search for objects in ldap given a context, searchdn, and filters. Return a two dimensional array of entries
-     * where each element in the first dimension is an array containing the attributes specified by the attributes
-     * variable.
+     * Search for objects in ldap given a context, searchdn, and filters, handing each matching entry to a handler as
+     * it arrives instead of collecting the results. The search is run in pages of the context's search page size using
+     * the paged results control, so server side size limits do not truncate it; all pages are read over one
+     * connection.
      * 
      * @param context
      *            the ldap connection context
@@ -302,35 +529,79 @@ public class LDAPUtil {
      *            the filter
      * @param attributes
      *            which attributes to retrieve
-     * @return an array of array of attributes
+     * @param handler
+     *            the handler receiving the values of the attributes of each entry
+     * @return the number of entries handled
      * @throws LDAPException
-     *             thrown if searching ldap fails.
+     *             thrown if searching ldap fails, or by the handler to abort the search.
      */
-    private static String[][][] search(final LDAPContext context, final String searchDn, final String filter,
-                                       final String[] attributes) throws LDAPException {
-        final LDAPConnection connection = getConnection(context);
+    public static int search(final LDAPContext context, final String searchDn, final String filter,
+                             final String[] attributes, final LDAPSearchHandler handler) throws LDAPException {
         final LDAPSearchConstraints constraints = new LDAPSearchConstraints();
+        final int pageSize = context.getSearchPageSize();
+        int count = 0;
 
         constraints.setMaxResults(0); // don't limit the number of values
 
-        final LDAPSearchResults searchResult = connection.search(searchDn, LDAPConnection.SCOPE_SUB, filter,
-                                                                 attributes, false, constraints);
-        final ArrayList<String[][]> tupleList = new ArrayList<String[][]>();
-
-        while (searchResult.hasMore()) {
-            final LDAPEntry entry = searchResult.next();
-            final String[][] attributeValues = new String[attributes.length][];
+        final LDAPConnection connection = acquireConnection(context);
+        LDAPException failure = null;
 
-            for (int i = 0; i < attributes.length; i++) {
-                final LDAPAttribute attribute = entry.getAttribute(attributes[i]);
+        try {
+            byte[] cookie = null;
+
+            do {
+                if (pageSize > 0) {
+                    constraints.setControls(new LDAPPagedResultsControl(pageSize, cookie));
+                }
+
+                final LDAPSearchResults searchResult = connection.search(searchDn, LDAPConnection.SCOPE_SUB, filter,
+                                                                         attributes, false, constraints);
+
+                try {
+                    while (searchResult.hasMore()) {
+                        final LDAPEntry entry = searchResult.next();
+                        final String[][] attributeValues = new String[attributes.length][];
+
+                        for (int i = 0; i < attributes.length; i++) {
+                            final LDAPAttribute attribute = entry.getAttribute(attributes[i]);
+
+                            attributeValues[i] = attribute == null ? null : attribute.getStringValueArray();
+                        }
+
+                        handler.handleEntry(entry.getDN(), attributeValues);
+                        count++;
+                    }
+                } catch (final LDAPException e) {
+                    abandon(connection, searchResult);
+                    throw e;
+                }
+
+                cookie = pageSize > 0 ? LDAPPagedResultsControl.getCookie(searchResult.getResponseControls()) : null;
+            } while (cookie != null);
+        } catch (final LDAPException e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseConnection(context, connection, failure);
+        }
 
-                attributeValues[i] = attribute.getStringValueArray();
-            }
+        return count;
+    }
 
-            tupleList.add(attributeValues);
+    /**
+     * Abandon a search which is not read to the end, so the server stops sending its entries.
+     * 
+     * @param connection
+     *            the connection the search runs on
+     * @param searchResult
+     *            the search
+     */
+    private static void abandon(final LDAPConnection connection, final LDAPSearchResults searchResult) {
+        try {
+            connection.abandon(searchResult);
+        } catch (final LDAPException e) {
+            // the search failure is what matters
         }
-
-        return tupleList.toArray(new String[][][] {});
     }
 
     /**
@@ -343,15 +614,18 @@ public class LDAPUtil {
      *             thrown on error.
      */
     public static String[] listAllUsers(final LDAPContext context) throws LDAPException {
-        final String[][][] userUidValues = search(context, context.getUserContainerDN(), "(objectClass=posixAccount)",
-                                                  new String[] { "uid" });
-
-        final String[] result = new String[userUidValues.length];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = userUidValues[i][0][0]; // There should be exactly one username value per tuple
-        }
-
-        return result;
+        final ArrayList<String> result = new ArrayList<String>();
+
+        search(context, context.getUserContainerDN(), "(objectClass=posixAccount)", new String[] { "uid" },
+               new LDAPSearchHandler() {
+                   public void handleEntry(final String dn, final String[][] attributeValues) {
+                       if (attributeValues[0] != null) {
+                           result.add(attributeValues[0][0]); // There should be exactly one username value per entry
+                       }
+                   }
+               });
+
+        return result.toArray(new String[result.size()]);
     }
 
     /**
@@ -368,20 +642,39 @@ public class LDAPUtil {
      */
     public static String[] listLoginShellByUser(final LDAPContext context, final String[] usernames)
                                                                                                     throws LDAPException {
-        final String[][][] userUidValues = search(context, context.getUserContainerDN(), "(objectClass=posixAccount)",
-                                                  new String[] { "uid", "loginShell" });
-        final TreeMap<String, String> userNameToShell = new TreeMap<String, String>();
-
-        for (int i = 0; i < userUidValues.length; i++) {
-            userNameToShell.put(userUidValues[i][0][0], userUidValues[i][1][0]);
-        }
-
         final String[] result = new String[usernames.length];
-        for (int i = 0; i < result.length; i++) {
+        final Map<String, List<Integer>> indexesByUsername = new HashMap<String, List<Integer>>();
+
+        for (int i = 0; i < usernames.length; i++) {
             // We have to tolower this because all usernames coming back will be lowercase
-            result[i] = userNameToShell.get(usernames[i].toLowerCase());
+            final String username = usernames[i].toLowerCase();
+            List<Integer> indexes = indexesByUsername.get(username);
+
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>(1);
+                indexesByUsername.put(username, indexes);
+            }
+            indexes.add(i);
         }
 
+        search(context, context.getUserContainerDN(), "(objectClass=posixAccount)",
+               new String[] { "uid", "loginShell" }, new LDAPSearchHandler() {
+                   public void handleEntry(final String dn, final String[][] attributeValues) {
+                       if (attributeValues[0] == null) {
+                           return;
+                       }
+
+                       final List<Integer> indexes = indexesByUsername.get(attributeValues[0][0]);
+                       if (indexes == null) {
+                           return; // not one of the requested users
+                       }
+
+                       for (final Integer index : indexes) {
+                           result[index] = attributeValues[1] == null ? null : attributeValues[1][0];
+                       }
+                   }
+               });
+
         return result;
     }
 
@@ -396,9 +689,17 @@ public class LDAPUtil {
      *             thrown if connection fails, object doesn't exist, or bad permission
      */
     public static void deleteEntry(final LDAPContext context, final String dn) throws LDAPException {
-        final LDAPConnection connection = getConnection(context);
-        connection.delete(dn);
-        connection.disconnect();
+        final LDAPConnection connection = acquireConnection(context);
+        LDAPException failure = null;
+
+        try {
+            connection.delete(dn);
+        } catch (final LDAPException e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseConnection(context, connection, failure);
+        }
     }
 
     /**
@@ -732,20 +1033,26 @@ public class LDAPUtil {
     public static void addUsersToGroup(final LDAPContext context, final String groupId, final String[] userIds)
                                                                                                                throws LDAPException {
         final String groupDN = getGroupDN(context, groupId);
-        final String[] members = listUsersInGroup(context, groupId);
-        final ArrayList<String> memberList = new ArrayList<String>(Arrays.asList(members));
-        final Map<String, String[]> groupModMap = new TreeMap<String, String[]>();
+        final LDAPSession session = openSession(context);
 
-        for (int i = 0; i < userIds.length; i++) {
-            final String uidLowerCase = userIds[i].toLowerCase();
+        try {
+            final String[] members = listUsersInGroup(context, groupId);
+            final ArrayList<String> memberList = new ArrayList<String>(Arrays.asList(members));
+            final Map<String, String[]> groupModMap = new TreeMap<String, String[]>();
+
+            for (int i = 0; i < userIds.length; i++) {
+                final String uidLowerCase = userIds[i].toLowerCase();
 
-            if (!memberList.contains(uidLowerCase)) {
-                memberList.add(uidLowerCase);
+                if (!memberList.contains(uidLowerCase)) {
+                    memberList.add(uidLowerCase);
+                }
             }
-        }
 
-        groupModMap.put("memberUid", memberList.toArray(new String[] {}));
-        replaceAttributes(context, groupDN, groupModMap);
+            groupModMap.put("memberUid", memberList.toArray(new String[] {}));
+            replaceAttributes(context, groupDN, groupModMap);
+        } finally {
+            session.close();
+        }
     }
 
     /**
@@ -763,20 +1070,26 @@ public class LDAPUtil {
     public static void removeUsersFromGroup(final LDAPContext context, final String gid, final String[] uids)
                                                                                                              throws LDAPException {
         final String dn = getGroupDN(context, gid);
-        final String[] members = listUsersInGroup(context, gid);
-        final ArrayList<String> memberList = new ArrayList<String>(Arrays.asList(members));
-        final Map<String, String[]> groupModMap = new TreeMap<String, String[]>();
+        final LDAPSession session = openSession(context);
 
-        for (int i = 0; i < uids.length; i++) {
-            final String uidLowerCase = uids[i].toLowerCase();
+        try {
+            final String[] members = listUsersInGroup(context, gid);
+            final ArrayList<String> memberList = new ArrayList<String>(Arrays.asList(members));
+            final Map<String, String[]> groupModMap = new TreeMap<String, String[]>();
+
+            for (int i = 0; i < uids.length; i++) {
+                final String uidLowerCase = uids[i].toLowerCase();
 
-            if (memberList.contains(uidLowerCase)) {
-                memberList.remove(uidLowerCase);
+                if (memberList.contains(uidLowerCase)) {
+                    memberList.remove(uidLowerCase);
+                }
             }
-        }
 
-        groupModMap.put("memberUid", memberList.toArray(new String[] {}));
-        replaceAttributes(context, dn, groupModMap);
+            groupModMap.put("memberUid", memberList.toArray(new String[] {}));
+            replaceAttributes(context, dn, groupModMap);
+        } finally {
+            session.close();
+        }
     }
 
 }